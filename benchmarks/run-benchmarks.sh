@@ -0,0 +1,27 @@
+#!/bin/sh
+#
+# Runs the benchmarks with the GC profiler, writing the results as JSON, then
+# compares them with the baseline results - failing on a regression of more
+# than THRESHOLD percent (default 10) in time or allocation per operation.
+#
+# With no baseline yet, the results are saved as the baseline. Any arguments
+# are passed to JMH, eg. a benchmark name pattern.
+#
+#   mvn install && mvn -f stub/pom.xml install && mvn -f benchmarks/pom.xml package
+#   benchmarks/run-benchmarks.sh ResponseParse
+#
+cd "$(dirname "$0")" || exit 1
+
+JAR=target/benchmarks.jar
+RESULT=target/jmh-result.json
+BASELINE=${BASELINE:-baseline.json}
+THRESHOLD=${THRESHOLD:-10}
+
+java -jar "$JAR" -prof gc -rf json -rff "$RESULT" "$@" || exit 1
+
+if [ -f "$BASELINE" ]; then
+	java -cp "$JAR" org.dpdirect.benchmarks.BaselineCompare "$BASELINE" "$RESULT" "$THRESHOLD"
+else
+	cp "$RESULT" "$BASELINE"
+	echo "Saved $RESULT as the baseline, $BASELINE."
+fi
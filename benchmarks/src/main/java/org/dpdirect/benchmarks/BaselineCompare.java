@@ -0,0 +1,314 @@
+package org.dpdirect.benchmarks;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares JMH JSON results ('-rf json') against a baseline run, listing the
+ * change in the score of each benchmark, and in its allocation per operation
+ * when run with '-prof gc'.
+ *
+ * A benchmark slower than the baseline by more than the threshold percent
+ * (10 by default), or allocating that much more, is a regression, and the
+ * comparison exits with 1.
+ *
+ * <pre>
+ * java -cp benchmarks.jar org.dpdirect.benchmarks.BaselineCompare baseline.json jmh-result.json [threshold]
+ * </pre>
+ */
+public class BaselineCompare {
+
+	/** The secondary metric of allocation per operation, from '-prof gc'. */
+	public static final String ALLOCATION_METRIC = "gc.alloc.rate.norm";
+
+	private static final double DEFAULT_THRESHOLD = 10.0;
+
+	/**
+	 * The scores of one benchmark run.
+	 */
+	private static class Result {
+
+		private final String mode;
+
+		private final double score;
+
+		private final String unit;
+
+		private final double allocated;
+
+		Result(String mode, double score, String unit, double allocated) {
+			this.mode = mode;
+			this.score = score;
+			this.unit = unit;
+			this.allocated = allocated;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: BaselineCompare <baseline.json> <result.json> [thresholdPercent]");
+			System.exit(2);
+		}
+		double threshold = (args.length > 2) ? Double.parseDouble(args[2])
+				: DEFAULT_THRESHOLD;
+		Map<String, Result> baseline = load(new File(args[0]));
+		Map<String, Result> current = load(new File(args[1]));
+
+		int regressions = 0;
+		System.out.println(String.format(Locale.ROOT, "%-70s %14s %14s %9s %9s",
+				"Benchmark", "Baseline", "Current", "Change", "Alloc"));
+		for (Map.Entry<String, Result> entry : current.entrySet()) {
+			Result now = entry.getValue();
+			Result then = baseline.get(entry.getKey());
+			if (null == then) {
+				System.out.println(String.format(Locale.ROOT, "%-70s %14s %14s %9s",
+						entry.getKey(), "-", format(now.score, now.unit), "new"));
+				continue;
+			}
+			double change = percent(then.score, now.score);
+			// a lower throughput, or a longer time, is worse.
+			double worse = "thrpt".equals(now.mode) ? -change : change;
+			double allocChange = percent(then.allocated, now.allocated);
+			boolean regressed = worse > threshold
+					|| (!Double.isNaN(allocChange) && allocChange > threshold);
+			if (regressed) {
+				regressions++;
+			}
+			System.out.println(String.format(Locale.ROOT,
+					"%-70s %14s %14s %+8.1f%% %+8.1f%%%s", entry.getKey(),
+					format(then.score, then.unit), format(now.score, now.unit),
+					change, Double.isNaN(allocChange) ? 0.0 : allocChange,
+					regressed ? "  REGRESSION" : ""));
+		}
+		for (String name : baseline.keySet()) {
+			if (!current.containsKey(name)) {
+				System.out.println(String.format(Locale.ROOT, "%-70s %14s",
+						name, "not run"));
+			}
+		}
+		if (0 < regressions) {
+			System.out.println(regressions + " regression(s) over " + threshold
+					+ "%.");
+			System.exit(1);
+		}
+		System.out.println("No regressions over " + threshold + "%.");
+	}
+
+	private static String format(double score, String unit) {
+		return String.format(Locale.ROOT, "%.3f %s", score, unit);
+	}
+
+	private static double percent(double from, double to) {
+		if (Double.isNaN(from) || Double.isNaN(to) || 0 == from) {
+			return Double.NaN;
+		}
+		return (to - from) * 100.0 / from;
+	}
+
+	/**
+	 * @return the results of a JMH JSON file, by benchmark name and
+	 *         parameters.
+	 */
+	@SuppressWarnings("unchecked")
+	static Map<String, Result> load(File file) throws IOException {
+		String json = new String(Files.readAllBytes(file.toPath()),
+				StandardCharsets.UTF_8);
+		Map<String, Result> results = new LinkedHashMap<String, Result>();
+		for (Object item : (List<Object>) new JsonReader(json).read()) {
+			Map<String, Object> run = (Map<String, Object>) item;
+			StringBuilder name = new StringBuilder((String) run.get("benchmark"));
+			Map<String, Object> params = (Map<String, Object>) run.get("params");
+			if (null != params) {
+				for (Map.Entry<String, Object> param : new TreeMap<String, Object>(
+						params).entrySet()) {
+					name.append(' ').append(param.getKey()).append('=')
+							.append(param.getValue());
+				}
+			}
+			Map<String, Object> primary = (Map<String, Object>) run
+					.get("primaryMetric");
+			double allocated = Double.NaN;
+			Map<String, Object> secondary = (Map<String, Object>) run
+					.get("secondaryMetrics");
+			if (null != secondary) {
+				for (Map.Entry<String, Object> metric : secondary.entrySet()) {
+					if (metric.getKey().endsWith(ALLOCATION_METRIC)) {
+						allocated = number(((Map<String, Object>) metric
+								.getValue()).get("score"));
+					}
+				}
+			}
+			results.put(name.toString(), new Result((String) run.get("mode"),
+					number(primary.get("score")), (String) primary.get("scoreUnit"),
+					allocated));
+		}
+		return results;
+	}
+
+	private static double number(Object value) {
+		if (value instanceof Double) {
+			return (Double) value;
+		}
+		try {
+			return Double.parseDouble(String.valueOf(value));
+		} catch (NumberFormatException ex) {
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * Reads the objects, arrays, strings and numbers of a JSON document, as
+	 * Maps, Lists, Strings and Doubles.
+	 */
+	static class JsonReader {
+
+		private final String text;
+
+		private int pos = 0;
+
+		JsonReader(String text) {
+			this.text = text;
+		}
+
+		Object read() throws IOException {
+			skipSpace();
+			if (pos >= text.length()) {
+				throw error("Unexpected end of JSON");
+			}
+			char c = text.charAt(pos);
+			if ('{' == c) {
+				pos++;
+				Map<String, Object> object = new LinkedHashMap<String, Object>();
+				if (!consume('}')) {
+					do {
+						skipSpace();
+						String name = readString();
+						expect(':');
+						object.put(name, read());
+					} while (consume(','));
+					expect('}');
+				}
+				return object;
+			} else if ('[' == c) {
+				pos++;
+				List<Object> array = new ArrayList<Object>();
+				if (!consume(']')) {
+					do {
+						array.add(read());
+					} while (consume(','));
+					expect(']');
+				}
+				return array;
+			} else if ('"' == c) {
+				return readString();
+			} else if (text.startsWith("true", pos)) {
+				pos += 4;
+				return Boolean.TRUE;
+			} else if (text.startsWith("false", pos)) {
+				pos += 5;
+				return Boolean.FALSE;
+			} else if (text.startsWith("null", pos)) {
+				pos += 4;
+				return null;
+			}
+			int start = pos;
+			while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+				pos++;
+			}
+			if (start == pos) {
+				throw error("Unexpected '" + c + "'");
+			}
+			return Double.valueOf(text.substring(start, pos));
+		}
+
+		private String readString() throws IOException {
+			expect('"');
+			StringBuilder value = new StringBuilder();
+			while (pos < text.length()) {
+				char c = text.charAt(pos++);
+				if ('"' == c) {
+					return value.toString();
+				} else if ('\\' == c && pos < text.length()) {
+					char escaped = text.charAt(pos++);
+					switch (escaped) {
+					case 'n':
+						value.append('\n');
+						break;
+					case 't':
+						value.append('\t');
+						break;
+					case 'r':
+						value.append('\r');
+						break;
+					case 'b':
+						value.append('\b');
+						break;
+					case 'f':
+						value.append('\f');
+						break;
+					case 'u':
+						value.append((char) Integer.parseInt(
+								text.substring(pos, pos + 4), 16));
+						pos += 4;
+						break;
+					default:
+						value.append(escaped);
+					}
+				} else {
+					value.append(c);
+				}
+			}
+			throw error("Unterminated string");
+		}
+
+		private boolean consume(char c) {
+			skipSpace();
+			if (pos < text.length() && text.charAt(pos) == c) {
+				pos++;
+				return true;
+			}
+			return false;
+		}
+
+		private void expect(char c) throws IOException {
+			if (!consume(c)) {
+				throw error("Expected '" + c + "'");
+			}
+		}
+
+		private void skipSpace() {
+			while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+				pos++;
+			}
+		}
+
+		private IOException error(String message) {
+			return new IOException(message + " at offset " + pos + ".");
+		}
+	}
+
+}
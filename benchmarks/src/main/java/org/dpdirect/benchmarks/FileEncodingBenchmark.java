@@ -0,0 +1,148 @@
+package org.dpdirect.benchmarks;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.dpdirect.utils.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encodes and decodes the files of set-file, get-file, do-import and
+ * do-export - base64 of a single file, and the zip of a directory of 4 KB
+ * files - at 1 and 16 MB.
+ *
+ * Files are written to a temporary directory, so the times include the local
+ * file IO, as they would in a deployment.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgs = { "-Xmx2g" })
+public class FileEncodingBenchmark {
+
+	private static final int FILE_SIZE = 4 * 1024;
+
+	/** The device directory of the zipped files, in zip form. */
+	private static final String ZIP_DIR = "local/xsl";
+
+	@Param({ "1", "16" })
+	public int megabytes;
+
+	private File work;
+
+	private File file;
+
+	private String encoded;
+
+	private File directory;
+
+	private File zip;
+
+	/** A copy of the zip, consumed by each extract. */
+	private File extractZip;
+
+	private File extractDir;
+
+	@Setup(Level.Trial)
+	public void generate() throws Exception {
+		work = Files.createTempDirectory("dpdirect-bench").toFile();
+		Random random = new Random(1);
+		byte[] content = new byte[megabytes * 1024 * 1024];
+		random.nextBytes(content);
+		file = new File(work, "file.bin");
+		write(file, content);
+		encoded = FileUtils.getBase64FileBytes(file.getPath());
+
+		directory = new File(work, "xsl");
+		directory.mkdirs();
+		byte[] small = new byte[FILE_SIZE];
+		for (int i = 0; i < content.length / FILE_SIZE; i++) {
+			random.nextBytes(small);
+			write(new File(directory, "transform-" + i + ".xsl"), small);
+		}
+		zip = new File(work, "import.zip");
+		FileUtils.zipDirectoryForImport(ZIP_DIR, directory, zip.getPath(), "default");
+		extractZip = new File(work, "export.zip");
+		extractDir = new File(work, "extract");
+	}
+
+	@Setup(Level.Invocation)
+	public void copyZip() throws IOException {
+		Files.copy(zip.toPath(), extractZip.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+		extractDir.mkdirs();
+	}
+
+	@TearDown(Level.Trial)
+	public void delete() {
+		FileUtils.deleteDirectory(work);
+	}
+
+	@Benchmark
+	public String getBase64FileBytes() throws Exception {
+		return FileUtils.getBase64FileBytes(file.getPath());
+	}
+
+	@Benchmark
+	public void decodeBase64ToFile() throws Exception {
+		FileUtils.decodeBase64ToFile(new File(work, "decoded.bin").getPath(),
+				encoded);
+	}
+
+	@Benchmark
+	public void zipDirectoryForImport() throws Exception {
+		FileUtils.zipDirectoryForImport(ZIP_DIR, directory, new File(work,
+				"zipped.zip").getPath(), "default");
+	}
+
+	@Benchmark
+	public void extractZipDirectory() throws Exception {
+		FileUtils.extractZipDirectory(extractZip.getPath(), "local:/xsl",
+				extractDir.getPath(), false);
+	}
+
+	private static void write(File target, byte[] content) throws IOException {
+		FileOutputStream out = new FileOutputStream(target);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+	}
+
+}
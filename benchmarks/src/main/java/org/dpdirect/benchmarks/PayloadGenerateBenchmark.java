@@ -0,0 +1,90 @@
+package org.dpdirect.benchmarks;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.dpdirect.dpmgmt.Constants;
+import org.dpdirect.schema.SchemaLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Generates the request payload of an operation from a loaded schema, as
+ * DPDirectBase.generateXMLInstance does for each operation of a chain - a
+ * 'get-status', a 'get-filestore', a 'set-file' of a 1 MB file and an AMP
+ * 'GetDeviceInfoRequest'.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PayloadGenerateBenchmark {
+
+	@Param({ "get-status", "get-filestore", "set-file", "GetDeviceInfoRequest" })
+	public String operation;
+
+	private SchemaLoader loader;
+
+	private String[] options;
+
+	@Setup(Level.Trial)
+	public void load() throws Exception {
+		boolean amp = Character.isUpperCase(operation.charAt(0));
+		loader = new SchemaLoader(PayloadGenerateBenchmark.class.getResource(
+				amp ? Constants.AMP_MGMT_DEFAULT_SCHEMA_PATH
+						: Constants.SOMA_MGMT_DEFAULT_SCHEMA_PATH).toExternalForm());
+		if ("get-status".equals(operation)) {
+			options = new String[] { "class", "ObjectStatus" };
+		} else if ("get-filestore".equals(operation)) {
+			options = new String[] { "location", "local:" };
+		} else if ("set-file".equals(operation)) {
+			byte[] content = new byte[1024 * 1024];
+			new Random(1).nextBytes(content);
+			options = new String[] { "name", "local:///xsl/transform.xsl",
+					"set-file", Base64.getEncoder().encodeToString(content) };
+		} else {
+			options = new String[0];
+		}
+	}
+
+	@Benchmark
+	public String generate() throws Exception {
+		loader.newDocument();
+		loader.setTargetNode(operation);
+		loader.setSoapEnv();
+		for (int i = 0; i < options.length; i += 2) {
+			loader.setValue(options[i], options[i + 1]);
+		}
+		return loader.generateDocumentString();
+	}
+
+}
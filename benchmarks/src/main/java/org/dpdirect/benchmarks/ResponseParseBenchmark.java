@@ -0,0 +1,67 @@
+package org.dpdirect.benchmarks;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import org.dpdirect.dpmgmt.ResponseParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parses, classifies and renders a synthetic 'get-status' response in each
+ * output type, from a short status report to a full dump of a busy domain.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xmx2g" })
+public class ResponseParseBenchmark {
+
+	@Param({ "PARSED", "LINES", "XML", "JSON", "NDJSON" })
+	public String outputType;
+
+	@Param({ "16", "1024", "8192" })
+	public int kilobytes;
+
+	private String response;
+
+	@Setup(Level.Trial)
+	public void generate() {
+		response = SyntheticResponses.objectStatus(kilobytes);
+	}
+
+	@Benchmark
+	public Object parseResponseMsg() throws Exception {
+		ResponseParser parser = new ResponseParser();
+		parser.setOutputType(outputType);
+		return parser.parseResponseMsg(response).get(1);
+	}
+
+}
@@ -0,0 +1,110 @@
+package org.dpdirect.benchmarks;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import org.dpdirect.dpmgmt.ResponseParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parses and renders a synthetic 'get-config' response of a domain's
+ * gateways, at 5, 10 and 20 MB.
+ *
+ * The renderers append to a single buffer and count siblings once per parent,
+ * so the time should scale linearly with the size of the response - 20 MB
+ * taking about four times as long as 5 MB.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = { "-Xmx2g" })
+public class ResponseRenderBenchmark {
+
+	@Param({ "5", "10", "20" })
+	public int megabytes;
+
+	private String response;
+
+	@Setup(Level.Trial)
+	public void generate() {
+		int size = megabytes * 1024 * 1024;
+		StringBuilder xml = new StringBuilder(size + 1024);
+		xml.append("<env:Envelope xmlns:env=\"http://schemas.xmlsoap.org/soap/envelope/\"><env:Body>")
+				.append("<dp:response xmlns:dp=\"http://www.datapower.com/schemas/management\">")
+				.append("<dp:timestamp>2024-01-01T00:00:00Z</dp:timestamp><dp:config>\n");
+		for (int i = 0; xml.length() < size; i++) {
+			xml.append("<MultiProtocolGateway name=\"gateway-").append(i)
+					.append("\" xmlns:env=\"http://www.w3.org/2003/05/soap-envelope\">")
+					.append("<mAdminState>enabled</mAdminState>")
+					.append("<UserSummary>gateway ").append(i).append("</UserSummary>")
+					.append("<FrontProtocol class=\"HTTPSourceProtocolHandler\">fph-").append(i).append("</FrontProtocol>")
+					.append("<FrontProtocol class=\"HTTPSSourceProtocolHandler\">fphs-").append(i).append("</FrontProtocol>")
+					.append("<Policy class=\"MultiProtocolGatewayPolicy\">policy-").append(i % 50).append("</Policy>")
+					.append("<FrontTimeout>120</FrontTimeout><BackTimeout>120</BackTimeout>")
+					.append("<DebugMode>off</DebugMode><DebugHistory>25</DebugHistory>")
+					.append("</MultiProtocolGateway>\n");
+		}
+		response = xml.append("</dp:config></dp:response></env:Body></env:Envelope>").toString();
+	}
+
+	/**
+	 * The default 'name: value' output.
+	 */
+	@Benchmark
+	public Object renderParsed() throws Exception {
+		return render("PARSED", null);
+	}
+
+	/**
+	 * The default output filtered to some of the gateways, rendering the
+	 * text of each.
+	 */
+	@Benchmark
+	public Object renderParsedFiltered() throws Exception {
+		return render("PARSED", "policy-7\\b");
+	}
+
+	/**
+	 * One line per gateway.
+	 */
+	@Benchmark
+	public Object renderLines() throws Exception {
+		return render("LINES", null);
+	}
+
+	private Object render(String outputType, String filter) throws Exception {
+		ResponseParser parser = new ResponseParser();
+		parser.setOutputType(outputType);
+		parser.setFilter(filter);
+		return parser.parseResponseMsg(response).get(1);
+	}
+
+}
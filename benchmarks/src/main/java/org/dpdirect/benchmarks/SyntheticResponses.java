@@ -0,0 +1,51 @@
+package org.dpdirect.benchmarks;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Synthetic device responses for the benchmarks, shaped like those of a
+ * busy appliance.
+ */
+final class SyntheticResponses {
+
+	private SyntheticResponses() {
+	}
+
+	/**
+	 * @param kilobytes
+	 *            the approximate size of the response.
+	 * @return a 'get-status' response of 'ObjectStatus' entries, one in fifty
+	 *         of them down.
+	 */
+	static String objectStatus(int kilobytes) {
+		int size = kilobytes * 1024;
+		StringBuilder xml = new StringBuilder(size + 1024);
+		xml.append("<env:Envelope xmlns:env=\"http://schemas.xmlsoap.org/soap/envelope/\"><env:Body>")
+				.append("<dp:response xmlns:dp=\"http://www.datapower.com/schemas/management\">")
+				.append("<dp:timestamp>2024-01-01T00:00:00Z</dp:timestamp><dp:status>\n");
+		for (int i = 0; xml.length() < size; i++) {
+			xml.append("<ObjectStatus xmlns:env=\"http://www.w3.org/2003/05/soap-envelope\">")
+					.append("<Class>MultiProtocolGateway</Class><OpState>")
+					.append(i % 50 == 7 ? "down" : "up")
+					.append("</OpState><AdminState>enabled</AdminState><Name>gateway-")
+					.append(i).append("</Name><EventCode>0x00000000</EventCode>")
+					.append("<ErrorCode/><ConfigState>saved</ConfigState></ObjectStatus>\n");
+		}
+		return xml.append("</dp:status></dp:response></env:Body></env:Envelope>").toString();
+	}
+
+}
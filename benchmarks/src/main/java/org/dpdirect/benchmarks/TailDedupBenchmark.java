@@ -0,0 +1,166 @@
+package org.dpdirect.benchmarks;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.dpdirect.dpmgmt.DPCustomOp;
+import org.dpdirect.dpmgmt.LogTail;
+import org.dpdirect.utils.LineHashWindow;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Feeds a million synthetic log lines through the tail dedup and highlighting,
+ * as a busy appliance would over a few hours of tail-log.
+ *
+ * The window and the tail keep a fixed number of hashes, so the time per line
+ * should not grow with the number of lines fed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TailDedupBenchmark {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final String[] LEVELS = { "notice", "info", "warn",
+			"error", "debug" };
+
+	@Param({ "1000000" })
+	public int lines;
+
+	/** Lines repeated from a recent poll, as after a log rotation. */
+	@Param({ "10" })
+	public int repeatPercent;
+
+	private String[] text;
+
+	private byte[] content;
+
+	private final Pattern filter = Pattern.compile("(?i)(mpgw)");
+
+	@Setup(Level.Trial)
+	public void generate() {
+		text = new String[lines];
+		StringBuilder file = new StringBuilder(lines * 96);
+		for (int i = 0; i < lines; i++) {
+			if (i >= 1000 && i % 100 < repeatPercent) {
+				text[i] = text[i - 1000];
+			} else {
+				text[i] = String.format(
+						"20240101T%06d.%03dZ [mpgw][%s] mpgw(gateway-%d): tid(%d): request %s",
+						(i / 1000) % 240000, i % 1000, LEVELS[i % LEVELS.length],
+						i % 16, i, (i % 7 == 0) ? "failed" : "completed successfully");
+			}
+			file.append(text[i]).append('\n');
+		}
+		content = file.toString().getBytes(UTF8);
+	}
+
+	/**
+	 * Dedup alone - a hash and a probe per line.
+	 */
+	@Benchmark
+	public int windowDedup() {
+		LineHashWindow window = new LineHashWindow(DPCustomOp.DEDUP_WINDOW_LINES);
+		int shown = 0;
+		for (String line : text) {
+			if (window.add(line)) {
+				shown++;
+			}
+		}
+		return shown;
+	}
+
+	/**
+	 * Dedup and console highlighting, as in tail-count.
+	 */
+	@Benchmark
+	public void dedupAndHighlight(Blackhole blackhole) {
+		LineHashWindow window = new LineHashWindow(DPCustomOp.DEDUP_WINDOW_LINES);
+		for (String line : text) {
+			if (window.add(line)) {
+				blackhole.consume(DPCustomOp.highlight(line, filter));
+			}
+		}
+	}
+
+	/**
+	 * The incremental tail reading the whole log, in 64K chunks as decoded
+	 * from a response.
+	 */
+	@Benchmark
+	public int logTailFirstPoll() throws IOException {
+		LogTail tail = new LogTail(0, null, null);
+		OutputStream out = tail.open();
+		for (int i = 0; i < content.length; i += 65536) {
+			out.write(content, i, Math.min(65536, content.length - i));
+		}
+		tail.finish();
+		return tail.getLines().size();
+	}
+
+	/**
+	 * A later poll of the same log, where every line has been seen - the
+	 * bytes are skipped rather than parsed.
+	 */
+	@Benchmark
+	public long logTailUnchangedPoll(TailState state) throws IOException {
+		OutputStream out = state.tail.open();
+		for (int i = 0; i < content.length; i += 65536) {
+			out.write(content, i, Math.min(65536, content.length - i));
+		}
+		state.tail.finish();
+		return state.tail.getOffset();
+	}
+
+	/**
+	 * A tail that has already read the whole log once.
+	 */
+	@State(Scope.Benchmark)
+	public static class TailState {
+
+		LogTail tail;
+
+		@Setup(Level.Trial)
+		public void read(TailDedupBenchmark benchmark) throws IOException {
+			tail = new LogTail(0, null, null);
+			tail.open().write(benchmark.content);
+			tail.finish();
+		}
+	}
+
+}
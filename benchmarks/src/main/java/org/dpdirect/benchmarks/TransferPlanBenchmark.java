@@ -0,0 +1,176 @@
+package org.dpdirect.benchmarks;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.dpdirect.dpmgmt.Constants;
+import org.dpdirect.dpmgmt.DPDirect;
+import org.dpdirect.dpmgmt.Operation;
+import org.dpdirect.dpmgmt.TransferPlanner;
+import org.dpdirect.stub.DataPowerStub;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Uploads a directory with set-dir to the stub appliance, by one set-file per
+ * file and by do-import, over a link of the given latency and bandwidth, to
+ * check the {@link TransferPlanner} cost model that 'transferMode=auto' picks
+ * between them by.
+ *
+ * The estimate of the model for the same upload, calibrated to the stub by
+ * the 'bandwidth' and 'importOverhead' options, is printed with each trial -
+ * it should be near the measured time, and cheaper for the faster strategy.
+ * The stub throttles each connection on its own, so the model, which shares
+ * the bandwidth, is only checked at a parallelism of 1.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class TransferPlanBenchmark {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final String[] WORDS = { "xsl:template", "match", "select",
+			"xsl:value-of", "dp:set-variable", "var://context/", "request",
+			"response", "header", "<xsl:if test=", "</xsl:if>", "name" };
+
+	@Param({ Constants.TRANSFER_MODE_SET_FILE, Constants.TRANSFER_MODE_IMPORT })
+	public String transferMode;
+
+	@Param({ "20", "200" })
+	public int files;
+
+	@Param({ "16384" })
+	public int fileBytes;
+
+	/** Round trip of the stub, in milliseconds. */
+	@Param({ "50" })
+	public long latencyMillis;
+
+	/** Bandwidth of the stub, in KB per second. */
+	@Param({ "1000" })
+	public long bandwidth;
+
+	private DataPowerStub stub;
+
+	private File srcDir;
+
+	private DPDirect session;
+
+	@Setup(Level.Trial)
+	public void start() throws Exception {
+		stub = new DataPowerStub();
+		stub.setLatencyMillis(latencyMillis);
+		stub.setBandwidthBytesPerSecond(bandwidth * 1000);
+		stub.start();
+
+		srcDir = File.createTempFile("transfer-plan", "");
+		srcDir.delete();
+		srcDir.mkdirs();
+		Random random = new Random(1);
+		for (int i = 0; i < files; i++) {
+			writeFile(new File(srcDir, "file" + i + ".xsl"), random);
+		}
+
+		session = new DPDirect();
+		// as on the command line, so that one failed child does not exit.
+		session.setFailOnError(false);
+		session.setGlobalOption(Constants.HOST_NAME_OPT_NAME, "localhost");
+		session.setGlobalOption(Constants.PORT_OPT_NAME,
+				String.valueOf(stub.getPort()));
+		session.setGlobalOption(Constants.USER_NAME_OPT_NAME, "admin");
+		session.setGlobalOption(Constants.USER_PASSWORD_OPT_NAME, "admin");
+		session.setSchema();
+	}
+
+	/**
+	 * Stylesheet-like text, compressing about as the model assumes.
+	 */
+	private void writeFile(File file, Random random) throws IOException {
+		StringBuilder text = new StringBuilder(fileBytes);
+		while (text.length() < fileBytes) {
+			text.append(WORDS[random.nextInt(WORDS.length)]).append(' ')
+					.append(Long.toHexString(random.nextLong()))
+					.append(random.nextInt(8) == 0 ? "\n" : " ");
+		}
+		text.setLength(fileBytes);
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(text.toString().getBytes(UTF8));
+		} finally {
+			out.close();
+		}
+	}
+
+	@Benchmark
+	public void upload() {
+		session.resetOperationChain();
+		Operation operation = session.createOperation();
+		operation.setName(Constants.SET_DIR_CUSTOM_OP_NAME);
+		operation.addOption(Constants.SRC_DIR_OPT_NAME, srcDir.getPath());
+		operation.addOption(Constants.DEST_DIR_OPT_NAME, "local:///transfer-plan");
+		operation.addOption(Constants.TRANSFER_MODE_OPT_NAME, transferMode);
+		operation.addOption(Constants.BANDWIDTH_OPT_NAME, String.valueOf(bandwidth));
+		operation.addOption(Constants.IMPORT_OVERHEAD_OPT_NAME, "0");
+		session.processOperationChain();
+	}
+
+	@TearDown(Level.Trial)
+	public void stop() {
+		TransferPlanner planner = new TransferPlanner();
+		planner.setBandwidth(bandwidth);
+		// the stub commits an import as fast as a set-file.
+		planner.setImportOverheadMillis(0);
+		long bytes = (long) files * fileBytes;
+		long estimate = Constants.TRANSFER_MODE_IMPORT.equals(transferMode)
+				? planner.planImport(files, bytes, latencyMillis, 1).getEstimateMillis()
+				: planner.setFileMillis(files, bytes, latencyMillis, 1);
+		System.out.println("TransferPlanner estimate for " + transferMode
+				+ " of " + files + " files : " + estimate + " ms");
+
+		stub.stop();
+		File[] written = srcDir.listFiles();
+		if (null != written) {
+			for (File file : written) {
+				file.delete();
+			}
+		}
+		srcDir.delete();
+	}
+
+}
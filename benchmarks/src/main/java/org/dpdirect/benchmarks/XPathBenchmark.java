@@ -0,0 +1,87 @@
+package org.dpdirect.benchmarks;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.xpath.XPathExpression;
+
+import org.dpdirect.utils.XPathUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+/**
+ * Evaluates a 'waitForXPath' expression against a 'get-status' response, as
+ * each poll of a waiting operation does.
+ *
+ * 'evaluateXPath' parses, validates and compiles on every call. A poll
+ * compiles once and parses each response, and the last case evaluates only.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XPathBenchmark {
+
+	private static final String XPATH = "//*[local-name()='ObjectStatus'][Name='gateway-7'][OpState='down']";
+
+	@Param({ "16", "1024" })
+	public int kilobytes;
+
+	private String response;
+
+	private XPathExpression expression;
+
+	private Document document;
+
+	@Setup(Level.Trial)
+	public void generate() throws Exception {
+		response = SyntheticResponses.objectStatus(kilobytes);
+		expression = XPathUtils.compile(XPATH);
+		document = XPathUtils.parseDocument(response);
+	}
+
+	@Benchmark
+	public boolean evaluateXPath() throws Exception {
+		return XPathUtils.evaluateXPath(response, XPATH);
+	}
+
+	@Benchmark
+	public boolean evaluateCompiled() throws Exception {
+		return XPathUtils.evaluateXPath(XPathUtils.parseDocument(response),
+				expression);
+	}
+
+	@Benchmark
+	public boolean evaluateParsed() {
+		return XPathUtils.evaluateXPath(document, expression);
+	}
+
+}
@@ -0,0 +1,543 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Appender;
+import org.apache.log4j.ConsoleAppender;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.dpdirect.schema.SchemaLoader;
+import org.dpdirect.utils.Credentials;
+
+/**
+ * Long running daemon, running DPDirect commands sent by a
+ * {@link DaemonClient} over a loopback port, so that a script running many
+ * commands pays the JVM start, schema parsing and TLS handshake once rather
+ * than per command.
+ *
+ * Each command runs in a new session, as it would from the command line, with
+ * the output of the command sent back to the client, and relative local paths
+ * resolved against the working directory of the client. The sessions share the
+ * schemas loaded by earlier commands, the netrc credentials looked up, and
+ * the kept-alive connections to each appliance.
+ *
+ * Commands are run one at a time, as the output and log level of a command
+ * are those of the process. The client presents a token, written with the
+ * port to the owner readable daemon file, so that only the user who started
+ * the daemon may run commands through it. Console mode and the polling
+ * operations, which run until stopped at the console, are refused.
+ */
+public class CommandDaemon {
+
+	private static final Logger log = Logger.getLogger(CommandDaemon.class);
+
+	/** The most arguments accepted in one command. */
+	private static final int MAX_ARGS = 4096;
+
+	/** Schemas loaded by the sessions, by URI. */
+	private static final ConcurrentHashMap<String, SchemaLoader> schemaCache = new ConcurrentHashMap<String, SchemaLoader>();
+
+	/** Netrc credentials found by the sessions, by host name. */
+	private static final Map<String, Credentials> netrcCache = new ConcurrentHashMap<String, Credentials>();
+
+	/**
+	 * Thrown by a daemon session in place of exiting the JVM.
+	 */
+	static class SessionExit extends Error {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int status;
+
+		SessionExit(int status) {
+			super("exit " + status, null, false, false);
+			this.status = status;
+		}
+	}
+
+	/**
+	 * A session running one daemon command.
+	 */
+	static class DaemonSession extends DPDirect {
+
+		@Override
+		protected void exit(int status) {
+			throw new SessionExit(status);
+		}
+
+		@Override
+		protected SchemaLoader newSchemaLoader(String schemaURI) throws Exception {
+			SchemaLoader loader = schemaCache.get(schemaURI);
+			if (null == loader) {
+				loader = super.newSchemaLoader(schemaURI);
+				SchemaLoader loaded = schemaCache.putIfAbsent(schemaURI, loader);
+				if (null != loaded) {
+					loader = loaded;
+				}
+			}
+			return loader;
+		}
+
+		@Override
+		public Credentials getCredentialsFromNetrcConfig(String hostName) {
+			if (null == hostName) {
+				return null;
+			}
+			String key = hostName.toLowerCase();
+			Credentials credentials = netrcCache.get(key);
+			if (null == credentials) {
+				credentials = super.getCredentialsFromNetrcConfig(hostName);
+				if (null != credentials) {
+					netrcCache.put(key, credentials);
+				}
+			}
+			return credentials;
+		}
+	}
+
+	/**
+	 * Writes each buffer to the client as one frame of the given type.
+	 */
+	private static class FrameOutputStream extends OutputStream {
+
+		private final DataOutputStream response;
+
+		private final int type;
+
+		FrameOutputStream(DataOutputStream response, int type) {
+			this.response = response;
+			this.type = type;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (0 < len) {
+				synchronized (response) {
+					response.writeByte(type);
+					response.writeInt(len);
+					response.write(b, off, len);
+					response.flush();
+				}
+			}
+		}
+	}
+
+	private final ServerSocket server;
+
+	private final File daemonFile;
+
+	private final byte[] token;
+
+	private final Object commandLock = new Object();
+
+	private int requestTimeoutMillis = Defaults.DEFAULT_DAEMON_REQUEST_TIMEOUT_MILLIS;
+
+	/**
+	 * Listen on the given loopback port, and write the daemon file.
+	 *
+	 * @param port
+	 *            the loopback port, or 0 for any free port.
+	 * @param daemonFile
+	 *            the file to write the port and token to.
+	 * @throws IOException
+	 *             if the port cannot be bound or the file written.
+	 */
+	public CommandDaemon(int port, File daemonFile) throws IOException {
+		this.server = new ServerSocket();
+		this.server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+		this.daemonFile = daemonFile;
+		byte[] random = new byte[24];
+		new SecureRandom().nextBytes(random);
+		StringBuilder hex = new StringBuilder();
+		for (byte b : random) {
+			hex.append(String.format("%02x", b & 0xff));
+		}
+		this.token = hex.toString().getBytes(StandardCharsets.UTF_8);
+		try {
+			writeDaemonFile(hex.toString());
+		} catch (IOException ex) {
+			server.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * @return the port the daemon listens on.
+	 */
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	/**
+	 * @param requestTimeoutMillis
+	 *            the time to wait for a client to send its command, before
+	 *            the connection is closed.
+	 */
+	public void setRequestTimeout(int requestTimeoutMillis) {
+		this.requestTimeoutMillis = requestTimeoutMillis;
+	}
+
+	private void writeDaemonFile(String tokenText) throws IOException {
+		File dir = daemonFile.getAbsoluteFile().getParentFile();
+		if (null != dir && !dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Failed to create " + dir);
+		}
+		// create the file empty and owner only, before the token is written.
+		daemonFile.delete();
+		if (!daemonFile.createNewFile()) {
+			throw new IOException("Failed to create " + daemonFile);
+		}
+		daemonFile.setReadable(false, false);
+		daemonFile.setWritable(false, false);
+		daemonFile.setReadable(true, true);
+		daemonFile.setWritable(true, true);
+		Properties daemon = new Properties();
+		daemon.setProperty(DaemonClient.PORT_KEY, String.valueOf(getPort()));
+		daemon.setProperty(DaemonClient.TOKEN_KEY, tokenText);
+		OutputStream out = new FileOutputStream(daemonFile);
+		try {
+			daemon.store(out, "DPDirect daemon");
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Run the daemon from the command line, with an optional properties file
+	 * and the daemon option 'daemonPort'. Other options are global options of
+	 * a session that loads the schemas before the first command.
+	 *
+	 * @param session
+	 *            a new session.
+	 * @param args
+	 *            the arguments following 'daemon'.
+	 */
+	public static void run(DPDirectBase session, String... args) {
+		int port = Defaults.DEFAULT_DAEMON_PORT;
+		List<String> warmArgs = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			String option = args[i];
+			if (option.startsWith("-")) {
+				option = option.substring(1);
+			}
+			int equals = option.indexOf('=');
+			String name = (equals < 0) ? option : option.substring(0, equals);
+			String value = (equals < 0) ? null : option.substring(equals + 1);
+			if (Constants.DAEMON_PORT_OPT_NAME.equalsIgnoreCase(name)) {
+				try {
+					port = Integer.parseInt(value.trim());
+				} catch (NumberFormatException ex) {
+					log.warn("Ignoring invalid " + name + " value '" + value + "'");
+				}
+			} else {
+				warmArgs.add(args[i]);
+			}
+		}
+
+		final CommandDaemon daemon;
+		try {
+			daemon = new CommandDaemon(port, DaemonClient.daemonFile());
+		} catch (IOException ex) {
+			log.error("Failed to start the daemon on port " + port + " : "
+					+ ex.getMessage());
+			session.exit(1);
+			return;
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				daemon.stop();
+			}
+		}, "dpdirect-daemon-stop"));
+		followConsole();
+		daemon.warm(warmArgs);
+		log.info("DPDirect daemon listening on " + InetAddress.getLoopbackAddress().getHostAddress()
+				+ ":" + daemon.getPort() + " (" + DaemonClient.daemonFile() + ")");
+		daemon.serve();
+	}
+
+	/**
+	 * Point the console appenders at the current System.out and System.err,
+	 * which are redirected to the client for the run of each command.
+	 * 
+	 * The appenders are replaced rather than reconfigured, as reconfiguring a
+	 * console appender closes the stream it wrote to.
+	 */
+	private static void followConsole() {
+		Logger root = Logger.getRootLogger();
+		List<ConsoleAppender> consoles = new ArrayList<ConsoleAppender>();
+		Enumeration<?> appenders = root.getAllAppenders();
+		while (appenders.hasMoreElements()) {
+			Appender appender = (Appender) appenders.nextElement();
+			if (appender instanceof ConsoleAppender) {
+				consoles.add((ConsoleAppender) appender);
+			}
+		}
+		for (ConsoleAppender console : consoles) {
+			ConsoleAppender follower = new ConsoleAppender();
+			follower.setName(console.getName());
+			follower.setLayout(console.getLayout());
+			follower.setTarget(console.getTarget());
+			follower.setThreshold(console.getThreshold());
+			follower.setEncoding(console.getEncoding());
+			follower.setFollow(true);
+			follower.activateOptions();
+			root.removeAppender(console);
+			root.addAppender(follower);
+		}
+	}
+
+	/**
+	 * Load the schemas of a session with the given options.
+	 */
+	private void warm(List<String> args) {
+		DaemonSession session = new DaemonSession();
+		session.setFailOnError(false);
+		try {
+			for (int i = 0; i < args.size(); i++) {
+				String option = args.get(i);
+				if (option.startsWith("-")) {
+					option = option.substring(1);
+				}
+				int equals = option.indexOf('=');
+				if (i == 0 && equals < 0) {
+					session.processPropertiesFile(option);
+				} else if (equals > 0) {
+					session.setGlobalOption(option.substring(0, equals),
+							option.substring(equals + 1));
+				}
+			}
+			session.setSchema();
+		} catch (SessionExit ex) {
+			log.warn("Failed to load the schemas before the first command.");
+		}
+	}
+
+	/**
+	 * Accept commands until the daemon is stopped.
+	 */
+	public void serve() {
+		while (!server.isClosed()) {
+			final Socket socket;
+			try {
+				socket = server.accept();
+			} catch (IOException ex) {
+				if (!server.isClosed()) {
+					log.error("Daemon accept failed : " + ex.getMessage());
+				}
+				continue;
+			}
+			Thread connection = new Thread(new Runnable() {
+				public void run() {
+					handle(socket);
+				}
+			}, "dpdirect-daemon-" + socket.getPort());
+			connection.setDaemon(true);
+			connection.start();
+		}
+	}
+
+	/**
+	 * Stop accepting commands, and remove the daemon file.
+	 */
+	public void stop() {
+		try {
+			server.close();
+		} catch (IOException ex) {
+			// Ignore.
+		}
+		daemonFile.delete();
+	}
+
+	private void handle(Socket socket) {
+		try {
+			socket.setTcpNoDelay(true);
+			// a client that connects and sends nothing does not hold the thread.
+			socket.setSoTimeout(requestTimeoutMillis);
+			DataInputStream request = new DataInputStream(
+					new BufferedInputStream(socket.getInputStream()));
+			byte[] presented = request.readUTF().getBytes(StandardCharsets.UTF_8);
+			if (!MessageDigest.isEqual(token, presented)) {
+				log.warn("Rejected a daemon command with an invalid token.");
+				return;
+			}
+			File clientDir = new File(request.readUTF());
+			int count = request.readInt();
+			if (count < 0 || count > MAX_ARGS) {
+				log.warn("Rejected a daemon command of " + count + " arguments.");
+				return;
+			}
+			String[] args = new String[count];
+			for (int i = 0; i < count; i++) {
+				args[i] = request.readUTF();
+			}
+			// the command may run for as long as it needs.
+			socket.setSoTimeout(0);
+
+			DataOutputStream response = new DataOutputStream(
+					new BufferedOutputStream(socket.getOutputStream()));
+			int status = runCommand(args, clientDir, response);
+			synchronized (response) {
+				response.writeByte(DaemonClient.FRAME_EXIT);
+				response.writeInt(status);
+				response.flush();
+			}
+			if (isStop(args)) {
+				log.info("DPDirect daemon stopped by client.");
+				stop();
+			}
+		} catch (IOException ex) {
+			log.debug("Daemon connection failed : " + ex.getMessage());
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException ex) {
+				// Ignore.
+			}
+		}
+	}
+
+	/**
+	 * Run one command, with its output sent to the client, and relative local
+	 * paths resolved against the working directory of the client.
+	 *
+	 * @return the exit status of the command.
+	 */
+	private int runCommand(String[] args, File clientDir,
+			DataOutputStream response) {
+		PrintStream out = new PrintStream(new BufferedOutputStream(
+				new FrameOutputStream(response, DaemonClient.FRAME_OUT)), true);
+		PrintStream err = new PrintStream(new BufferedOutputStream(
+				new FrameOutputStream(response, DaemonClient.FRAME_ERR)), true);
+		if (isStop(args)) {
+			return 0;
+		}
+		String refusal = refuse(args);
+		if (null != refusal) {
+			err.println(refusal);
+			err.flush();
+			return 1;
+		}
+		synchronized (commandLock) {
+			PrintStream stdout = System.out;
+			PrintStream stderr = System.err;
+			Logger sessionLog = Logger.getLogger(DPDirectBase.class);
+			Level level = sessionLog.getLevel();
+			long start = System.nanoTime();
+			int status = 0;
+			System.setOut(out);
+			System.setErr(err);
+			try {
+				DaemonSession session = new DaemonSession();
+				session.setFailOnError(false);
+				session.setBaseDir(clientDir);
+				DPDirect.processCommand(session, args);
+			} catch (SessionExit ex) {
+				status = ex.status;
+			} catch (RuntimeException ex) {
+				log.error(ex.getMessage(), ex);
+				status = 1;
+			} finally {
+				out.flush();
+				err.flush();
+				System.setOut(stdout);
+				System.setErr(stderr);
+				sessionLog.setLevel(level);
+			}
+			log.debug("Daemon command completed with status " + status + " in "
+					+ ((System.nanoTime() - start) / 1000000) + "ms");
+			return status;
+		}
+	}
+
+	/**
+	 * @return true for the 'daemon stop' command, which stops the daemon.
+	 */
+	private static boolean isStop(String[] args) {
+		return 2 == args.length
+				&& Constants.DAEMON_MODE_NAME.equalsIgnoreCase(args[0])
+				&& "stop".equalsIgnoreCase(args[1]);
+	}
+
+	/**
+	 * @return why the command cannot be run by the daemon, or null if it can.
+	 */
+	private static String refuse(String[] args) {
+		if (0 == args.length) {
+			return "Console mode is not available through the daemon.";
+		}
+		String arg1 = args[0].startsWith("-") ? args[0].substring(1) : args[0];
+		if (Constants.DAEMON_MODE_NAME.equalsIgnoreCase(arg1)
+				|| Constants.EXPORTER_MODE_NAME.equalsIgnoreCase(arg1)) {
+			return "The " + arg1 + " mode is not available through the daemon.";
+		}
+		if (arg1.equalsIgnoreCase("help") || arg1.equalsIgnoreCase("h")
+				|| arg1.equalsIgnoreCase("find") || arg1.equalsIgnoreCase("f")
+				|| arg1.equalsIgnoreCase("show") || arg1.contains("find=")
+				|| arg1.contains("show=")) {
+			return null;
+		}
+		boolean runnable = false;
+		for (String arg : args) {
+			String option = arg.startsWith("-") ? arg.substring(1) : arg;
+			if (option.toLowerCase().startsWith("operation=")) {
+				String operationName = option.substring("operation=".length()).trim();
+				// as in a script, nothing would stop a polling operation.
+				if (Constants.TAIL_LOG_CUSTOM_OP_NAME.equalsIgnoreCase(operationName)
+						|| Constants.TAIL_COUNT_CUSTOM_OP_NAME.equalsIgnoreCase(operationName)) {
+					return operationName + " polls until stopped at the console, and cannot run through the daemon.";
+				}
+				runnable = true;
+			} else if (option.toLowerCase().startsWith(Constants.SCRIPT_OPT_NAME.toLowerCase() + "=")) {
+				runnable = true;
+			}
+		}
+		if (runnable) {
+			return null;
+		}
+		// without an operation, a command line continues in console mode.
+		return "Console mode is not available through the daemon. Give an operation.";
+	}
+
+}
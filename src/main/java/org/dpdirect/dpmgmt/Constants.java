@@ -251,6 +251,114 @@ public class Constants {
     */
    public static final String PARSED_OUTPUT_OPT_NAME = "PARSED";
    
+   /**
+    * The "pipeline" option name.
+    */
+   public static final String PIPELINE_OPT_NAME = "pipeline";
+
+   /**
+    * The "pipelineDepth" option name.
+    */
+   public static final String PIPELINE_DEPTH_OPT_NAME = "pipelineDepth";
+
+   /**
+    * The "timings" option name.
+    */
+   public static final String TIMINGS_OPT_NAME = "timings";
+
+   /**
+    * The "traceFile" option name.
+    */
+   public static final String TRACE_FILE_OPT_NAME = "traceFile";
+
+   /**
+    * The service name of trace files.
+    */
+   public static final String TRACE_SERVICE_NAME = "dpdirect";
+
+   /**
+    * The "parallelism" option name.
+    */
+   public static final String PARALLELISM_OPT_NAME = "parallelism";
+
+   /**
+    * The "pollBackoff" option name - 'fixed', 'exponential' or 'jittered'.
+    */
+   public static final String POLL_BACKOFF_OPT_NAME = "pollBackoff";
+
+   /**
+    * The "retries" option name.
+    */
+   public static final String RETRIES_OPT_NAME = "retries";
+
+   /**
+    * The "skipUnchanged" option name.
+    */
+   public static final String SKIP_UNCHANGED_OPT_NAME = "skipUnchanged";
+
+   /**
+    * Stands in a generated payload for content streamed into the request.
+    * Base64 characters only, so it is a valid value for a base64 field.
+    */
+   public static final String STREAMED_CONTENT_TOKEN = "DPDirectStreamedContent";
+
+   /**
+    * The "transferMode" option name.
+    */
+   public static final String TRANSFER_MODE_OPT_NAME = "transferMode";
+
+   /**
+    * The "set-file" transferMode value - one set-file per file.
+    */
+   public static final String TRANSFER_MODE_SET_FILE = "set-file";
+
+   /**
+    * The "import" transferMode value - do-import zips.
+    */
+   public static final String TRANSFER_MODE_IMPORT = "import";
+
+   /**
+    * The "auto" transferMode value - the cheaper of set-file and import.
+    */
+   public static final String TRANSFER_MODE_AUTO = "auto";
+
+   /**
+    * The "bandwidth" option name - the upload bandwidth to the device assumed
+    * by 'transferMode=auto', in KB per second.
+    */
+   public static final String BANDWIDTH_OPT_NAME = "bandwidth";
+
+   /**
+    * The "importOverhead" option name - the device cost of a do-import
+    * assumed by 'transferMode=auto', in milliseconds.
+    */
+   public static final String IMPORT_OVERHEAD_OPT_NAME = "importOverhead";
+
+   /**
+    * The "sync" option name.
+    */
+   public static final String SYNC_OPT_NAME = "sync";
+
+   /**
+    * The "delete" option name.
+    */
+   public static final String DELETE_OPT_NAME = "delete";
+
+   /**
+    * The "dryRun" option name.
+    */
+   public static final String DRY_RUN_OPT_NAME = "dryRun";
+
+   /**
+    * The "manifest" option name.
+    */
+   public static final String MANIFEST_OPT_NAME = "manifest";
+
+   /**
+    * The "filestoreCacheTTL" option name.
+    */
+   public static final String FILESTORE_CACHE_TTL_OPT_NAME = "filestoreCacheTTL";
+
    /**
     * The "debug" option name.
     */
@@ -291,6 +399,61 @@ public class Constants {
     */
    public static final String LINES_OPT_NAME = "lines";
 
+   /**
+    * The "hosts" option name - the appliances tailed together by tail-log.
+    */
+   public static final String HOSTS_OPT_NAME = "hosts";
+
+   /**
+    * The "windows" option name - the tail-count moving average windows in seconds.
+    */
+   public static final String WINDOWS_OPT_NAME = "windows";
+
+   /**
+    * The "csvFile" option name - the file tail-count history is written to.
+    */
+   public static final String CSV_FILE_OPT_NAME = "csvFile";
+
+   /**
+    * The "exporter" command line mode - serve get-status polls as metrics.
+    */
+   public static final String EXPORTER_MODE_NAME = "exporter";
+
+   /**
+    * The "classes" option name - the get-status classes the exporter polls.
+    */
+   public static final String CLASSES_OPT_NAME = "classes";
+
+   /**
+    * The "interval" option name - seconds between exporter polls.
+    */
+   public static final String INTERVAL_OPT_NAME = "interval";
+
+   /**
+    * The "metricsPort" option name - the port the exporter serves /metrics on.
+    */
+   public static final String METRICS_PORT_OPT_NAME = "metricsPort";
+
+   /**
+    * The "metricsAddress" option name - the address the exporter listens on.
+    */
+   public static final String METRICS_ADDRESS_OPT_NAME = "metricsAddress";
+
+   /**
+    * The "daemon" command line mode - serve commands from a local socket.
+    */
+   public static final String DAEMON_MODE_NAME = "daemon";
+
+   /**
+    * The "daemonPort" option name - the loopback port the daemon listens on.
+    */
+   public static final String DAEMON_PORT_OPT_NAME = "daemonPort";
+
+   /**
+    * The "script" option name - a file of console commands to run in one session.
+    */
+   public static final String SCRIPT_OPT_NAME = "script";
+
    /**
     * The "overwrite" option name.
     */
@@ -441,6 +604,16 @@ public class Constants {
     */
    public static final String REMOVE_DIR_OP_NAME = "RemoveDir";
 
+   /**
+    * The "DeleteFile" operation name.
+    */
+   public static final String DELETE_FILE_OP_NAME = "DeleteFile";
+
+   /**
+    * The "File" operation name.
+    */
+   public static final String FILE_OP_NAME = "File";
+
    /**
     * The "RemoveCheckpoint" operation name.
     */
@@ -0,0 +1,303 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.dpdirect.utils.CounterSeries;
+
+/**
+ * The history of the counters polled by tail-count, one
+ * {@link CounterSeries} per status object and numeric field.
+ *
+ * The history is shown as a table of the latest value, the rate per second,
+ * a moving average over each configured window, and the min, max and 95th
+ * percentile over the longest window. It may be written out as CSV.
+ *
+ * A field named for a device interval, eg. 'tenSeconds', counts over that
+ * interval, so its rate is the latest count over the interval length. Any
+ * other field is taken as a cumulative counter, with the rate of increase
+ * over the shortest window.
+ */
+public class CountHistory {
+
+	/** Samples kept per counter - an hour of one second polls. */
+	public static final int DEFAULT_CAPACITY = 3600;
+
+	/** Moving average windows when none are configured, in seconds. */
+	public static final long[] DEFAULT_WINDOWS = { 10, 60 };
+
+	/** Device status intervals, by field name, in seconds. */
+	private static final Map<String, Long> INTERVALS = new LinkedHashMap<String, Long>();
+	static {
+		INTERVALS.put("tenSeconds", 10L);
+		INTERVALS.put("oneMinute", 60L);
+		INTERVALS.put("tenMinutes", 600L);
+		INTERVALS.put("oneHour", 3600L);
+		INTERVALS.put("oneDay", 86400L);
+	}
+
+	private final int capacity;
+
+	private final long[] windows;
+
+	/** Series by object, then by field, in first seen order. */
+	private final Map<String, Map<String, CounterSeries>> series = new LinkedHashMap<String, Map<String, CounterSeries>>();
+
+	/**
+	 * Constructs a new <code>CountHistory</code>.
+	 *
+	 * @param capacity
+	 *            samples kept per counter.
+	 * @param windowSeconds
+	 *            the moving average windows, in seconds.
+	 */
+	public CountHistory(int capacity, long[] windowSeconds) {
+		this.capacity = capacity;
+		this.windows = (null == windowSeconds || 0 == windowSeconds.length) ? DEFAULT_WINDOWS
+				: windowSeconds.clone();
+	}
+
+	/**
+	 * Parse a list of window lengths, eg. '10,60,300'.
+	 *
+	 * @return the windows in seconds, or null if none are valid.
+	 */
+	public static long[] parseWindows(String windowList) {
+		List<Long> parsed = new ArrayList<Long>();
+		if (null != windowList) {
+			for (String window : windowList.split("[,\\s]+")) {
+				try {
+					long seconds = Long.parseLong(window.trim());
+					if (seconds > 0) {
+						parsed.add(seconds);
+					}
+				} catch (NumberFormatException ex) {
+					// Ignore.
+				}
+			}
+		}
+		if (parsed.isEmpty()) {
+			return null;
+		}
+		long[] seconds = new long[parsed.size()];
+		for (int i = 0; i < seconds.length; i++) {
+			seconds[i] = parsed.get(i);
+		}
+		return seconds;
+	}
+
+	/**
+	 * Record a poll.
+	 *
+	 * @param timeMillis
+	 *            the time of the poll.
+	 * @param entries
+	 *            the status entries polled.
+	 */
+	public void record(long timeMillis, List<StatusHandler.Entry> entries) {
+		for (StatusHandler.Entry entry : entries) {
+			String object = entry.getKey();
+			if (0 == object.length()) {
+				object = entry.getStatusClass();
+			}
+			Map<String, CounterSeries> fields = series.get(object);
+			if (null == fields) {
+				fields = new LinkedHashMap<String, CounterSeries>();
+				series.put(object, fields);
+			}
+			for (Map.Entry<String, Double> value : entry.getValues().entrySet()) {
+				CounterSeries counter = fields.get(value.getKey());
+				if (null == counter) {
+					counter = new CounterSeries(capacity);
+					fields.put(value.getKey(), counter);
+				}
+				counter.add(timeMillis, value.getValue());
+			}
+		}
+	}
+
+	/**
+	 * @return true if nothing has been recorded.
+	 */
+	public boolean isEmpty() {
+		return series.isEmpty();
+	}
+
+	/**
+	 * @return the rate per second of the field.
+	 */
+	protected double ratePerSecond(String field, CounterSeries counter) {
+		String name = field.substring(field.lastIndexOf('.') + 1);
+		Long interval = INTERVALS.get(name);
+		if (null != interval) {
+			return counter.last() / interval;
+		}
+		return counter.ratePerSecond(windows[0] * 1000);
+	}
+
+	/**
+	 * @return the history as a table, one row per object and field.
+	 */
+	public String render() {
+		long longest = 0;
+		for (long window : windows) {
+			longest = Math.max(longest, window * 1000);
+		}
+		List<String[]> rows = new ArrayList<String[]>();
+		String[] header = new String[7 + windows.length];
+		int c = 0;
+		header[c++] = "object";
+		header[c++] = "field";
+		header[c++] = "last";
+		header[c++] = "/sec";
+		for (long window : windows) {
+			header[c++] = "avg" + window + "s";
+		}
+		header[c++] = "min";
+		header[c++] = "max";
+		header[c++] = "p95";
+		rows.add(header);
+		for (Map.Entry<String, Map<String, CounterSeries>> object : series.entrySet()) {
+			boolean first = true;
+			for (Map.Entry<String, CounterSeries> field : object.getValue().entrySet()) {
+				CounterSeries counter = field.getValue();
+				String[] row = new String[header.length];
+				c = 0;
+				row[c++] = first ? object.getKey() : "";
+				row[c++] = field.getKey();
+				row[c++] = format(counter.last());
+				row[c++] = format(ratePerSecond(field.getKey(), counter));
+				for (long window : windows) {
+					row[c++] = format(counter.mean(window * 1000));
+				}
+				row[c++] = format(counter.min(longest));
+				row[c++] = format(counter.max(longest));
+				row[c++] = format(counter.percentile(longest, 95));
+				rows.add(row);
+				first = false;
+			}
+		}
+		int[] widths = new int[header.length];
+		for (String[] row : rows) {
+			for (int i = 0; i < row.length; i++) {
+				widths[i] = Math.max(widths[i], row[i].length());
+			}
+		}
+		StringBuilder table = new StringBuilder();
+		for (String[] row : rows) {
+			if (0 < table.length()) {
+				table.append('\n');
+			}
+			for (int i = 0; i < row.length; i++) {
+				// labels left aligned, numbers right aligned.
+				if (i < 2) {
+					table.append(row[i]);
+					pad(table, widths[i] - row[i].length() + 2);
+				} else {
+					pad(table, widths[i] - row[i].length());
+					table.append(row[i]).append("  ");
+				}
+			}
+			table.setLength(table.length() - 2);
+		}
+		return table.toString();
+	}
+
+	/**
+	 * Write every sample held as CSV, with columns time, object, field and
+	 * value.
+	 *
+	 * @param file
+	 *            the file to write.
+	 * @return the number of samples written.
+	 * @throws IOException
+	 */
+	public int writeCsv(File file) throws IOException {
+		SimpleDateFormat timeFormat = new SimpleDateFormat(
+				"yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		timeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		int samples = 0;
+		Writer out = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(file), "UTF-8"));
+		try {
+			out.write("time,object,field,value\n");
+			for (Map.Entry<String, Map<String, CounterSeries>> object : series.entrySet()) {
+				String objectName = csv(object.getKey());
+				for (Map.Entry<String, CounterSeries> field : object.getValue().entrySet()) {
+					String fieldName = csv(field.getKey());
+					CounterSeries counter = field.getValue();
+					for (int i = 0; i < counter.size(); i++) {
+						out.write(timeFormat.format(new Date(counter.timeAt(i))));
+						out.write(',');
+						out.write(objectName);
+						out.write(',');
+						out.write(fieldName);
+						out.write(',');
+						out.write(format(counter.valueAt(i)));
+						out.write('\n');
+						samples++;
+					}
+				}
+			}
+		} finally {
+			out.close();
+		}
+		return samples;
+	}
+
+	private static String csv(String text) {
+		if (text.indexOf(',') < 0 && text.indexOf('"') < 0
+				&& text.indexOf('\n') < 0) {
+			return text;
+		}
+		return "\"" + text.replace("\"", "\"\"") + "\"";
+	}
+
+	private static void pad(StringBuilder text, int spaces) {
+		for (int i = 0; i < spaces; i++) {
+			text.append(' ');
+		}
+	}
+
+	/**
+	 * @return the value, without decimals when whole, '-' if NaN.
+	 */
+	protected static String format(double value) {
+		if (Double.isNaN(value)) {
+			return "-";
+		}
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			return Long.toString((long) value);
+		}
+		return String.format(Locale.ROOT, "%.2f", value);
+	}
+
+}
@@ -16,16 +16,20 @@ package org.dpdirect.dpmgmt;
  * limitations under the License.
  */
  
-import java.io.DataInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.dpdirect.utils.FileUtils;
+import org.dpdirect.utils.LineHashWindow;
+import org.dpdirect.utils.TransferProgress;
 
 import static org.dpdirect.dpmgmt.Defaults.DEFAULT_POLL_INT_MILLIS;
 import static org.dpdirect.dpmgmt.Defaults.DEFAULT_WAIT_TIME_SECONDS;
@@ -71,8 +75,59 @@ public class DPCustomOp {
 	/** Number of log initial lines to display. */
 	protected int tailLines = 0;
 
-	/** list of displayed log lines when tailing. */
-	protected List<String> lineList = new ArrayList<String>();
+	/** Hashes of the recently displayed lines when tailing. */
+	protected LineHashWindow lineWindow = new LineHashWindow(DEDUP_WINDOW_LINES);
+
+	/** The filter last compiled for highlighting. */
+	private String highlightFilter = null;
+
+	private Pattern highlightPattern = null;
+
+	/** Incremental tail-log state, created on the first poll. */
+	protected LogTail logTail = null;
+
+	/** Appliances tailed together by tail-log, empty for the session host. */
+	protected List<String> tailHosts = new ArrayList<String>();
+
+	/** Merged tail-log of the tailHosts, started on the first poll. */
+	protected MergedLogTail mergedTail = null;
+
+	/** Counters polled by tail-count, created on the first poll. */
+	protected CountHistory countHistory = null;
+
+	/** tail-count filters, compiled on the first poll. */
+	private Pattern countFilter = null;
+
+	private Pattern countFilterOut = null;
+
+	/** tail-count moving average windows in seconds, null for the defaults. */
+	protected long[] countWindows = null;
+
+	/** File the tail-count history is written to when the tail ends. */
+	protected String countCsvFile = null;
+
+	/** Lines of the count table last printed, redrawn in place. */
+	private int countTableLines = 0;
+
+	/** Device files listed for get-dir, by path. */
+	protected Map<String, FilestoreEntry> remoteEntries = new HashMap<String, FilestoreEntry>();
+
+	/** Number of recently displayed lines remembered to drop repeats. */
+	public static final int DEDUP_WINDOW_LINES = 4096;
+
+	/**
+	 * Console highlight terms, matched ignoring case. Earlier terms win at the
+	 * same position, as in a regex alternation.
+	 */
+	private static final String[][] HIGHLIGHT_TERMS = {
+			{ "failure", "failed", "fail", "error" },
+			{ "warning", "warn" },
+			{ "successfully", "success" }
+	};
+
+	private static final String[] HIGHLIGHT_COLOURS = {
+			Constants.ANSI_RED, Constants.ANSI_ORANGE, Constants.ANSI_GREEN
+	};
 
 	/** Default number of tail log lines. */
 	public static int DEFAULT_TAIL_LINES_COUNT = 50;
@@ -226,6 +281,102 @@ public class DPCustomOp {
 		return configured;
 	}
 
+	/**
+	 * @return does this custom op intercept the regular post to the device.
+	 */
+	public boolean interceptsPost() {
+		return Constants.TAIL_LOG_CUSTOM_OP_NAME.equals(customOpName)
+				|| defersPayload() || isStreamedExport();
+	}
+
+	/**
+	 * @return does this custom op generate its payloads at post time.
+	 */
+	public boolean defersPayload() {
+		return isParallelTransfer() || isSync();
+	}
+
+	/**
+	 * @return is this a set-dir uploading only the changes since the last
+	 *         sync.
+	 */
+	public boolean isSync() {
+		return (Constants.SET_DIR_CUSTOM_OP_NAME.equals(customOpName)
+				|| Constants.SET_FILES_CUSTOM_OP_NAME.equals(customOpName))
+				&& op.getSync();
+	}
+
+	/**
+	 * @return is this a get-files whose do-export zip is extracted as the
+	 *         response arrives.
+	 */
+	public boolean isStreamedExport() {
+		return Constants.GET_FILES_CUSTOM_OP_NAME.equals(customOpName)
+				&& null != op.getSrcDir() && null != op.getDestDir();
+	}
+
+	/**
+	 * @return is this a set-dir or get-dir transferring several files at a
+	 *         time.
+	 */
+	public boolean isParallelTransfer() {
+		return isParallelUpload() || isParallelDownload();
+	}
+
+	/**
+	 * @return is this a get-dir downloading several files at a time.
+	 */
+	public boolean isParallelDownload() {
+		return Constants.GET_DIR_CUSTOM_OP_NAME.equals(customOpName)
+				&& op.getParallelism() > 1;
+	}
+
+	/**
+	 * @return is this a set-dir whose files are posted together by this
+	 *         custom op - several at a time, or as do-import zips.
+	 */
+	public boolean isParallelUpload() {
+		return (Constants.SET_DIR_CUSTOM_OP_NAME.equals(customOpName)
+				|| Constants.SET_FILES_CUSTOM_OP_NAME.equals(customOpName))
+				&& (op.getParallelism() > 1
+						|| !Constants.TRANSFER_MODE_SET_FILE.equals(op.getTransferMode()));
+	}
+
+	/**
+	 * @param child
+	 *            an operation created by this custom op.
+	 * @return is the child posted by this custom op rather than in turn.
+	 */
+	public boolean postsChild(Operation child) {
+		if (child == op) {
+			return false;
+		} else if (isSync()) {
+			// the sync plan replaces the full set of remove/create/set ops.
+			return true;
+		} else if (Constants.SET_FILE_OP_NAME.equals(child.getName())) {
+			return isParallelUpload();
+		} else if (Constants.GET_FILE_OP_NAME.equals(child.getName())
+				&& Constants.GET_DIR_CUSTOM_OP_NAME.equals(customOpName)) {
+			return isParallelDownload() || isUnchanged(child);
+		}
+		return false;
+	}
+
+	/**
+	 * @param getFileOp
+	 *            a get-file operation created by get-dir.
+	 * @return true if skipUnchanged is set and the local copy matches the
+	 *         size and modified time listed by the device.
+	 */
+	protected boolean isUnchanged(Operation getFileOp) {
+		if (!op.getSkipUnchanged() || null == getFileOp.getDestFile()) {
+			return false;
+		}
+		FilestoreEntry entry = remoteEntries.get(getFileOp.getOptionValue(
+				Constants.GET_FILE_OP_NAME + "@" + Constants.NAME_OPT_NAME));
+		return null != entry && entry.matches(new File(getFileOp.getDestFile()));
+	}
+
 	/**
 	 * A custom op may intercept a regular post to the device
 	 * if a custom approach is required.
@@ -234,6 +385,11 @@ public class DPCustomOp {
 	 */
 	public boolean customPostIntercept() {
 		boolean interceptPost = false;
+		if (Constants.SET_DIR_CUSTOM_OP_NAME.equals(customOpName)
+				|| Constants.SET_FILES_CUSTOM_OP_NAME.equals(customOpName)) {
+			// the upload changes the device filestore.
+			invalidateFilestore(Constants.LOCAL_DIR_NAME + ":");
+		}
 		if (Constants.TAIL_LOG_CUSTOM_OP_NAME.equals(customOpName)) {
 			System.out
 					.println("Type 'enter' to return to cmd prompt.\n");
@@ -242,30 +398,31 @@ public class DPCustomOp {
 						Constants.LOGTEMP_DIR_NAME + ":/"
 								+ Constants.DEFAULT_LOG_FILE_NAME);
 			}
-			DataInputStream dis = new DataInputStream(System.in);
+			PollScheduler poller = new PollScheduler(pollIntMillis,
+					op.getPollBackoff());
+			poller.watchKeyboard(System.in);
 			try {
-				while (0 == dis.available()) {
-					String responseXML = DPDBase.generateAndPost(op);
-					op.response = responseXML;
-					processTail(op);
-					for (long stop = System.nanoTime()
-							+ TimeUnit.MILLISECONDS
-									.toNanos(pollIntMillis); stop > System
-							.nanoTime();) {
-						if (0 != dis.available()) {
-							break;
-						}
-					}
-				}
-			} catch (IOException ex) {
-				if (!DPDBase.getFailOnError() && !DPDBase.getLogger().isDebugEnabled()) {
-					DPDBase.getLogger().error(ex.getMessage());
-				} else {
-					DPDBase.getLogger().error(ex.getMessage(), ex);
+				while (!poller.isCancelled()) {
+					pollTail(op);
+					poller.pause();
 				}
 			} finally {
+				poller.close();
+				stopTail();
 				interceptPost = true;
 			}
+		} else if (isSync()) {
+			syncSetDir();
+			interceptPost = true;
+		} else if (isParallelUpload()) {
+			parallelSetFile();
+			interceptPost = true;
+		} else if (isParallelDownload()) {
+			parallelGetFile();
+			interceptPost = true;
+		} else if (isStreamedExport()) {
+			streamExport();
+			interceptPost = true;
 		}
 		return interceptPost;
 	}
@@ -295,6 +452,22 @@ public class DPCustomOp {
 			}
 			setTailLogLines(tailLogLines);
 		}
+		else if (Constants.WINDOWS_OPT_NAME.equalsIgnoreCase(optionName)) {
+			countWindows = CountHistory.parseWindows(optionValue);
+		}
+		else if (Constants.CSV_FILE_OPT_NAME.equalsIgnoreCase(optionName)) {
+			countCsvFile = optionValue;
+		}
+		else if (Constants.HOSTS_OPT_NAME.equalsIgnoreCase(optionName)) {
+			tailHosts.clear();
+			if (null != optionValue) {
+				for (String host : optionValue.split("[,\\s]+")) {
+					if (0 < host.length()) {
+						tailHosts.add(host);
+					}
+				}
+			}
+		}
 
 		// alter option values where appropriate
 		if (Constants.TAIL_COUNT_CUSTOM_OP_NAME.equals(customOpName)) {
@@ -326,20 +499,10 @@ public class DPCustomOp {
 	}
 
 	/**
-	 * @return the logList
-	 */
-	public List<String> getLogList() {
-		return lineList;
-	}
-
-	/**
-	 * Clears the log list.
-	 *
-	 * @param lineList
-	 *            the logList to set
+	 * Clears the window of displayed lines.
 	 */
 	public void resetLogList() {
-		this.lineList = new ArrayList<String>();
+		lineWindow.clear();
 	}
 
 	/**
@@ -437,7 +600,6 @@ public class DPCustomOp {
 	public StringBuffer appendLines(Operation operation, String parsedText) {
 		boolean uniqueEntries = (Constants.TAIL_LOG_CUSTOM_OP_NAME
 				.equalsIgnoreCase(customOpName));
-		List<String> lineList = getLogList();
 		int displayLines = getTailLogLines();
 
 		StringBuffer outputLines = new StringBuffer();
@@ -446,7 +608,7 @@ public class DPCustomOp {
 
 		String filter = operation.getResponseParser().getFilter();
 
-		boolean inital = lineList.isEmpty();
+		boolean inital = (0 == lineWindow.size());
 
 		outer: for (String line : lines) {
 			// filter out specific message codes related to auth
@@ -457,20 +619,8 @@ public class DPCustomOp {
 				}
 			}
 
-			if (!lineList.contains(line.trim()) && line.length() > 1) {
-				lineList.add(line.trim());
-
-				// ansi colour code key terms in the console
-				line = line.replaceAll("(?i)(failure|failed|fail|error)",
-						Constants.ANSI_RED + "$1" + Constants.ANSI_RESET);
-				line = line.replaceAll("(?i)(warning|warn)",
-						Constants.ANSI_ORANGE + "$1" + Constants.ANSI_RESET);
-				line = line.replaceAll("(?i)(successfully|success)",
-						Constants.ANSI_GREEN + "$1" + Constants.ANSI_RESET);
-				if (filter != null) {
-					line = line.replaceAll("(?i)(" + filter + ")",
-							Constants.ANSI_BLUE + "$1" + Constants.ANSI_RESET);
-				}
+			if (line.length() > 1 && lineWindow.add(line.trim())) {
+				line = highlight(line, highlightPattern(filter));
 
 				if (inital && displayLines > 0) {
 					if (outputLines.length() < displayLines) {
@@ -485,6 +635,232 @@ public class DPCustomOp {
 		return outputLines;
 	}
 
+	/**
+	 * ANSI colour code key terms of a line for the console.
+	 *
+	 * @param line
+	 *            the output line.
+	 * @param filterPattern
+	 *            highlighted where it matches, or null.
+	 * @return the highlighted line.
+	 */
+	public static String highlight(String line, Pattern filterPattern) {
+		// one pass for the fixed terms, rather than a regex per colour.
+		StringBuilder highlighted = null;
+		int copied = 0;
+		int i = 0;
+		while (i < line.length()) {
+			int colour = -1;
+			int length = 0;
+			char c = (char) (line.charAt(i) | 0x20);
+			char next = (i + 1 < line.length()) ? (char) (line.charAt(i + 1) | 0x20) : 0;
+			if (('f' == c && 'a' == next) || ('e' == c && 'r' == next)
+					|| ('w' == c && 'a' == next) || ('s' == c && 'u' == next)) {
+				search: for (int g = 0; g < HIGHLIGHT_TERMS.length; g++) {
+					for (String term : HIGHLIGHT_TERMS[g]) {
+						if (line.regionMatches(true, i, term, 0, term.length())) {
+							colour = g;
+							length = term.length();
+							break search;
+						}
+					}
+				}
+			}
+			if (colour < 0) {
+				i++;
+				continue;
+			}
+			if (null == highlighted) {
+				highlighted = new StringBuilder(line.length() + 32);
+			}
+			highlighted.append(line, copied, i).append(HIGHLIGHT_COLOURS[colour])
+					.append(line, i, i + length).append(Constants.ANSI_RESET);
+			i += length;
+			copied = i;
+		}
+		if (null != highlighted) {
+			line = highlighted.append(line, copied, line.length()).toString();
+		}
+		if (null != filterPattern) {
+			line = colour(filterPattern, line, Constants.ANSI_BLUE);
+		}
+		return line;
+	}
+
+	private static String colour(Pattern pattern, String line, String ansi) {
+		Matcher matcher = pattern.matcher(line);
+		if (!matcher.find()) {
+			return line;
+		}
+		return matcher.replaceAll(ansi + "$1" + Constants.ANSI_RESET);
+	}
+
+	/**
+	 * @return the filter highlight pattern, compiled once per filter.
+	 */
+	protected Pattern highlightPattern(String filter) {
+		if (null == filter) {
+			return null;
+		}
+		if (!filter.equals(highlightFilter)) {
+			highlightFilter = filter;
+			highlightPattern = Pattern.compile("(?i)(" + filter + ")");
+		}
+		return highlightPattern;
+	}
+
+	/**
+	 * Post one poll of a tail-log or tail-count and print the new lines.
+	 * tail-log reads only the part of the log added since the last poll.
+	 *
+	 * @param operation
+	 *            Operation : the current operation object.
+	 * @return false if the poll failed.
+	 */
+	public boolean pollTail(Operation operation) {
+		if (Constants.TAIL_COUNT_CUSTOM_OP_NAME.equals(customOpName)) {
+			return pollCounts(operation);
+		}
+		if (!Constants.TAIL_LOG_CUSTOM_OP_NAME.equals(customOpName)) {
+			operation.setResponse(DPDBase.generateAndPost(operation));
+			return processTail(operation);
+		}
+		ResponseParser parser = operation.getResponseParser();
+		if (!tailHosts.isEmpty()) {
+			return pollMergedTail(operation, parser);
+		}
+		if (null == logTail) {
+			logTail = new LogTail(getTailLogLines(), parser.getFilter(),
+					parser.getFilterOut());
+		}
+		String logName = operation.getOptionValue(Constants.NAME_OPT_NAME);
+		// a rotated log is read again from the start.
+		boolean read = false;
+		for (int attempt = 0; attempt < 2 && !read; attempt++) {
+			try {
+				DPDBase.generateAndPost(operation, new LogTail.Handler(logTail,
+						logName));
+			} catch (Exception ex) {
+				DPDBase.getLogger().error(ex.getMessage());
+				DPDBase.getLogger().debug(ex.getMessage(), ex);
+				return false;
+			}
+			read = logTail.finish();
+		}
+		StringBuilder outputLines = new StringBuilder();
+		for (String line : logTail.getLines()) {
+			outputLines.append("\n").append(
+					highlight(line, highlightPattern(parser.getFilter())));
+		}
+		if (0 < outputLines.length()) {
+			System.out.println(outputLines);
+		}
+		return true;
+	}
+
+	/**
+	 * Print the lines due from the merged tail of several appliances,
+	 * starting it on the first call.
+	 *
+	 * @param operation
+	 *            Operation : the current operation object.
+	 * @param parser
+	 *            ResponseParser : holds the filters.
+	 * @return false if the tail could not be started.
+	 */
+	protected boolean pollMergedTail(Operation operation, ResponseParser parser) {
+		if (null == mergedTail) {
+			mergedTail = new MergedLogTail(DPDBase, operation, tailHosts,
+					getTailLogLines(), parser.getFilter(), parser.getFilterOut(),
+					pollIntMillis);
+			if (!mergedTail.start()) {
+				mergedTail = null;
+				return false;
+			}
+		}
+		StringBuilder outputLines = new StringBuilder();
+		for (MergedLogTail.Entry entry : mergedTail.drain()) {
+			outputLines.append("\n").append(entry.getPrefix()).append(
+					highlight(entry.getText(), highlightPattern(parser.getFilter())));
+		}
+		if (0 < outputLines.length()) {
+			System.out.println(outputLines);
+		}
+		return true;
+	}
+
+	/**
+	 * Poll the message counts, record them and redraw the count table.
+	 *
+	 * @param operation
+	 *            Operation : the current operation object.
+	 * @return false if the poll failed.
+	 */
+	protected boolean pollCounts(Operation operation) {
+		if (!DPDBase.generatePayload(operation)) {
+			return false;
+		}
+		if (null == countHistory) {
+			DPDBase.logPostedOperation(operation);
+			countHistory = new CountHistory(CountHistory.DEFAULT_CAPACITY,
+					countWindows);
+			ResponseParser parser = operation.getResponseParser();
+			countFilter = LogTail.compile(parser.getFilter());
+			countFilterOut = LogTail.compile(parser.getFilterOut());
+		}
+		StatusHandler status = new StatusHandler();
+		try {
+			DPDBase.sendXMLInstance(operation, DPDBase.getCredentials(), status);
+		} catch (Exception ex) {
+			DPDBase.getLogger().error(ex.getMessage());
+			DPDBase.getLogger().debug(ex.getMessage(), ex);
+			return false;
+		}
+		List<StatusHandler.Entry> matched = new ArrayList<StatusHandler.Entry>();
+		for (StatusHandler.Entry entry : status.getEntries()) {
+			String text = entry.getText();
+			if ((null == countFilter || countFilter.matcher(text).find())
+					&& (null == countFilterOut || !countFilterOut.matcher(text).find())) {
+				matched.add(entry);
+			}
+		}
+		countHistory.record(System.currentTimeMillis(), matched);
+		if (countHistory.isEmpty()) {
+			return true;
+		}
+		String table = countHistory.render();
+		if (0 < countTableLines) {
+			// move up over the last table and clear it.
+			System.out.print("\033[" + countTableLines + "A\r\033[J");
+		}
+		System.out.println(table);
+		countTableLines = table.split("\n", -1).length;
+		return true;
+	}
+
+	/**
+	 * Stop the workers of a merged tail, and write out the tail-count history
+	 * when a csvFile is set, once the tail loop ends.
+	 */
+	public void stopTail() {
+		if (null != mergedTail) {
+			mergedTail.close();
+			mergedTail = null;
+		}
+		if (null != countHistory && null != countCsvFile) {
+			try {
+				int samples = countHistory.writeCsv(new File(countCsvFile));
+				DPDBase.getLogger().info("Wrote " + samples + " samples to "
+						+ countCsvFile);
+			} catch (IOException ex) {
+				DPDBase.getLogger().error("Failed to write " + countCsvFile
+						+ " : " + ex.getMessage());
+			}
+		}
+		countHistory = null;
+		countTableLines = 0;
+	}
+
 	/**
 	 * Decode and parse the file contents and return only new lines.
 	 *
@@ -590,6 +966,10 @@ public class DPCustomOp {
 					}
 				}
 			}
+			if (null == op.getSrcFile()) {
+				// no file for this operation to carry.
+				op.setSkipped(true);
+			}
 		} catch (IOException ex) {
 			if (!DPDBase.getFailOnError() && !DPDBase.getLogger().isDebugEnabled()) {
 				DPDBase.getLogger().error(ex.getMessage());
@@ -600,17 +980,278 @@ public class DPCustomOp {
 	}
 	
 	/**
-	 * Zip source directory and create do-import operation to
-	 * upload.
-	 * This method is an historical artifact. The procedure is unbelievably slow.
+	 * Post the set-file operations created by multipleSetFile() over
+	 * 'parallelism' concurrent connections. The create-dir operations have
+	 * already been posted in path order ahead of this operation, so every
+	 * parent directory exists before its files are uploaded.
+	 */
+	protected void parallelSetFile() {
+		List<Operation> uploads = new ArrayList<Operation>();
+		if (null != op.getSrcFile()) {
+			uploads.add(op);
+		}
+		for (Operation chained : op.getOperationChain()) {
+			if (this == chained.getParentOperation() && postsChild(chained)) {
+				uploads.add(chained);
+			}
+		}
+		if (uploads.isEmpty()) {
+			return;
+		}
+		DPDBase.logPostedOperation(op);
+		ParallelTransfer transfer = newUploadTransfer(uploads);
+		List<Operation> failed = transfer.execute(uploads);
+		DPDBase.logInfo(op, "Uploaded " + transfer.getProgress().summary());
+		for (Operation failedOp : failed) {
+			reportFailedTransfer(failedOp, transfer.getError(failedOp),
+					org.apache.log4j.Level.FATAL);
+		}
+	}
+
+	/**
+	 * Choose how to post a set of set-file operations, per 'transferMode':
+	 * 'set-file' posts each file over 'parallelism' connections; 'import'
+	 * zips them into do-import shards; 'auto' takes the cheaper of the two by
+	 * the {@link TransferPlanner} cost model, given the file count, total size
+	 * and the request latency measured so far this session, calibrated by the
+	 * 'bandwidth' and 'importOverhead' options.
+	 *
+	 * @return the transfer to execute the uploads.
+	 */
+	protected ParallelTransfer newUploadTransfer(List<Operation> uploads) {
+		String mode = op.getTransferMode();
+		if (Constants.TRANSFER_MODE_SET_FILE.equals(mode) || uploads.isEmpty()) {
+			return new ParallelTransfer(DPDBase, op.getParallelism(), op.getRetries());
+		}
+		long bytes = 0;
+		for (Operation upload : uploads) {
+			bytes += ParallelTransfer.sourceSize(upload);
+		}
+		long latencyMillis = DPDBase.getLatencyMillis();
+		if (latencyMillis < 0) {
+			latencyMillis = Defaults.DEFAULT_LATENCY_MILLIS;
+		}
+		TransferPlanner planner = new TransferPlanner();
+		planner.setBandwidth(op.getBandwidth());
+		planner.setImportOverheadMillis(op.getImportOverhead());
+		TransferPlanner.Plan plan;
+		if (Constants.TRANSFER_MODE_IMPORT.equals(mode)) {
+			plan = planner.planImport(uploads.size(), bytes, latencyMillis, op.getParallelism());
+		} else {
+			plan = planner.plan(uploads.size(), bytes, latencyMillis, op.getParallelism());
+		}
+		DPDBase.getLogger().info("Transfer plan: " + plan);
+		if (TransferPlanner.Strategy.IMPORT == plan.getStrategy()) {
+			return new ImportTransfer(this, op.getParallelism(), op.getRetries(),
+					plan.getShards());
+		}
+		return new ParallelTransfer(DPDBase, op.getParallelism(), op.getRetries());
+	}
+
+	/**
+	 * Bring the device directory in line with the source directory, posting
+	 * only the changes since the last sync as recorded in the sync manifest.
+	 * Directories holding no change are left out of the plan; device files
+	 * removed locally are deleted only if 'delete' is set. With 'dryRun' the
+	 * plan is printed and nothing is posted.
+	 */
+	protected void syncSetDir() {
+		File manifestFile = (null != op.getManifest()) ? new File(op.getManifest())
+				: SyncManifest.defaultFile(DPDBase.getHostName(),
+						op.getEffectiveDomain(), op.getDestDir());
+		String destDir = op.getDestDir();
+		boolean deletes = op.getDelete();
+		SyncManifest manifest = null;
+		SyncPlan plan = null;
+		DPDBase.logPostedOperation(op);
+		try {
+			manifest = SyncManifest.load(manifestFile);
+			plan = SyncPlan.build(new File(op.getSrcDir()), manifest);
+		} catch (IOException ex) {
+			DPDBase.errorHandler(op, "Failed to plan sync : " + ex.getMessage(),
+					org.apache.log4j.Level.FATAL);
+			return;
+		}
+		if (DPDBase.getLogger().isDebugEnabled()) {
+			DPDBase.getLogger().debug("Sync manifest : " + manifestFile);
+		}
+		if (op.getDryRun()) {
+			DPDBase.logInfo(op, plan.describe(destDir, deletes));
+			return;
+		}
+
+		// directories first, parents before children.
+		for (String dir : plan.getCreateDirs()) {
+			Operation createDirOp = newChildOperation(Constants.CREATE_DIR_OP_NAME);
+			createDirOp.addOption(Constants.CREATE_DIR_OP_NAME + "."
+					+ Constants.DIR_OP_NAME, SyncPlan.devicePath(destDir, dir));
+			if (postChildOperation(createDirOp)) {
+				manifest.getDirs().add(dir);
+			} else {
+				// may already exist on the device - an upload into a missing
+				// directory will fail in its own right.
+				reportFailedTransfer(createDirOp, org.apache.log4j.Level.WARN);
+			}
+		}
+
+		List<String> uploadPaths = plan.getUploads();
+		List<Operation> uploads = new ArrayList<Operation>();
+		for (String path : uploadPaths) {
+			try {
+				uploads.add(newSetFileOperation(SyncPlan.devicePath(destDir, path),
+						plan.localFile(path)));
+			} catch (IOException ex) {
+				DPDBase.errorHandler(op, ex.getMessage(), org.apache.log4j.Level.FATAL);
+			}
+		}
+		ParallelTransfer transfer = newUploadTransfer(uploads);
+		List<Operation> failed = transfer.execute(uploads);
+		for (int i = 0; i < uploads.size(); i++) {
+			if (!failed.contains(uploads.get(i))) {
+				manifest.getFiles().put(uploadPaths.get(i),
+						plan.getLocalEntry(uploadPaths.get(i)));
+			}
+		}
+		// refresh the recorded size and time of unchanged files.
+		for (Map.Entry<String, SyncManifest.Entry> entry : manifest.getFiles().entrySet()) {
+			SyncManifest.Entry local = plan.getLocalEntry(entry.getKey());
+			if (null != local && local.getHash().equals(entry.getValue().getHash())) {
+				entry.setValue(local);
+			}
+		}
+
+		List<Operation> failedDeletes = new ArrayList<Operation>();
+		if (deletes) {
+			for (String path : plan.getDeletedFiles()) {
+				Operation deleteOp = newChildOperation(Constants.DELETE_FILE_OP_NAME);
+				deleteOp.addOption(Constants.DELETE_FILE_OP_NAME + "."
+						+ Constants.FILE_OP_NAME, SyncPlan.devicePath(destDir, path));
+				if (postChildOperation(deleteOp)) {
+					manifest.getFiles().remove(path);
+				} else {
+					failedDeletes.add(deleteOp);
+				}
+			}
+			for (String dir : plan.getRemoveDirs()) {
+				Operation removeDirOp = newChildOperation(Constants.REMOVE_DIR_OP_NAME);
+				removeDirOp.addOption(Constants.REMOVE_DIR_OP_NAME + "."
+						+ Constants.DIR_OP_NAME, SyncPlan.devicePath(destDir, dir));
+				if (postChildOperation(removeDirOp)) {
+					manifest.getDirs().remove(dir);
+				} else {
+					failedDeletes.add(removeDirOp);
+				}
+			}
+		}
+
+		try {
+			manifest.save();
+		} catch (IOException ex) {
+			DPDBase.getLogger().warn("Failed to save sync manifest " + manifestFile
+					+ " : " + ex.getMessage());
+		}
+		DPDBase.logInfo(op, "Synchronised " + transfer.getProgress().summary()
+				+ " - " + plan.summary(deletes));
+		for (Operation failedOp : failedDeletes) {
+			reportFailedTransfer(failedOp, org.apache.log4j.Level.WARN);
+		}
+		for (Operation failedOp : failed) {
+			reportFailedTransfer(failedOp, transfer.getError(failedOp),
+					org.apache.log4j.Level.FATAL);
+		}
+	}
+
+	/**
+	 * @return a new operation, outside the operation chain, posted on behalf
+	 *         of this custom op.
+	 */
+	protected Operation newChildOperation(String operationName) {
+		Operation childOp = DPDBase.newOperation(operationName);
+		childOp.setParentOperation(this);
+		childOp.setSuppressResponse(true);
+		if (null != op.getDomain()) {
+			childOp.setDomain(op.getDomain());
+		}
+		return childOp;
+	}
+
+	/**
+	 * @return a new set-file operation, outside the operation chain, posted
+	 *         on behalf of this custom op.
+	 */
+	protected Operation newSetFileOperation(String devicePath, File file)
+			throws IOException {
+		Operation setFileOp = newChildOperation(Constants.SET_FILE_OP_NAME);
+		if (null != op.getEndPoint()) {
+			setFileOp.setEndPoint(op.getEndPoint());
+		}
+		setFileOp.addOption(Constants.SET_FILE_OP_NAME + "@"
+				+ Constants.NAME_OPT_NAME, devicePath);
+		setFileOp.addOption(Constants.SET_FILE_OP_NAME, file);
+		return setFileOp;
+	}
+
+	/**
+	 * Generate and post an operation on behalf of this custom op.
+	 *
+	 * @return true if the device reported success.
+	 */
+	protected boolean postChildOperation(Operation childOp) {
+		if (null == DPDBase.generateXMLInstance(childOp)) {
+			return false;
+		}
+		childOp.setResponse(DPDBase.sendXMLInstance(childOp, DPDBase.getCredentials()));
+		childOp.resetPayload();
+		return null != childOp.getResponse() && DPDBase.isSuccessResponse(childOp);
+	}
+
+	/**
+	 * Log the device response of a failed sub-operation, applying
+	 * failOnError and rollback where the level is FATAL.
+	 */
+	protected void reportFailedTransfer(Operation failedOp, org.apache.log4j.Level level) {
+		reportFailedTransfer(failedOp, null, level);
+	}
+
+	/**
+	 * Log the device response of a failed sub-operation, or the error of a
+	 * sub-operation with no response, applying failOnError and rollback where
+	 * the level is FATAL.
+	 */
+	protected void reportFailedTransfer(Operation failedOp, String error,
+			org.apache.log4j.Level level) {
+		String path = null;
+		for (Operation.Option option : failedOp.getOptions()) {
+			if (null == option.getSrcFile() && !Constants.DOMAIN_OPT_NAME.equals(option.getName())) {
+				path = option.getValue();
+			}
+		}
+		String errorText = "Failed " + failedOp.getName() + " " + path;
+		if (null != error) {
+			errorText += " : " + error;
+		} else if (null != failedOp.getResponse()) {
+			failedOp.setSuppressResponse(false);
+			failedOp.setResponseParser();
+			try {
+				OperationResult result = failedOp.getResult();
+				errorText += " : " + failedOp.getResponseParser().renderResult(result);
+			} catch (Exception ex) {
+				DPDBase.getLogger().debug(ex.getMessage(), ex);
+			}
+		}
+		DPDBase.errorHandler(failedOp, errorText, level);
+	}
+
+	/**
+	 * Create a do-import operation to upload the source directory. The zip
+	 * is written and base64 encoded straight into the request when posted.
 	 */
 	protected void setFilesViaDoImport() {
 		File sourceDirectory = new File(op.getSrcDir());
 		String zipDirPath = op.getDestDir().replace("://", "");
 		try {
-			String zipFilePath = sourceDirectory.getCanonicalPath() + ".zip";
-			FileUtils.zipDirectoryForImport(zipDirPath, sourceDirectory, zipFilePath, op.getEffectiveDomain());
-			op.setSrcFile(zipFilePath);
+			op.addOption(Constants.INPUT_FILE_OPT_NAME, FileUtils.importZipForDirectory(
+					zipDirPath, sourceDirectory, op.getEffectiveDomain()));
 			op.addOption("overwrite-files", "true");
 			op.addOption("source-type", "ZIP");
 		} catch (Exception ex) {
@@ -626,7 +1267,8 @@ public class DPCustomOp {
 	 * Delete set-files temporary zip file
 	 */
 	protected void deleteTempZipFile() {
-		if (op.getSrcFile().substring(op.getSrcFile().length()-3).equalsIgnoreCase("zip")) {
+		if (null != op.getSrcFile()
+				&& op.getSrcFile().substring(op.getSrcFile().length()-3).equalsIgnoreCase("zip")) {
 			File tempZipFile = new File(op.getSrcFile());
 			tempZipFile.delete();
 		}
@@ -638,12 +1280,74 @@ public class DPCustomOp {
 	 */
 	protected void multipleGetFile() {
 		op.setSuppressResponse(true);
-		List<String> filePaths = new ArrayList<String>();
+		String srcPath = op.srcDir.replace("///", "/");
+		if (DPDBase.getLogger().isDebugEnabled()) {
+			DPDBase.getLogger().debug("Source path: " + srcPath);
+		}
+		FilestoreCache filestore = listFilestore(Constants.LOCAL_DIR_NAME + ":");
+
+		for (FilestoreEntry entry : filestore.subtree(srcPath).values()) {
+			String dpPath = entry.getPath();
+			remoteEntries.put(dpPath, entry);
+			if (DPDBase.getLogger().isDebugEnabled()) {
+				DPDBase.getLogger().debug("File path: " + dpPath);
+			}
+			String relativePath = dpPath.substring(srcPath.length());
+			String destPath = op.destDir + relativePath;
+			if (null != op.destFile) {
+				op.addOption(Constants.GET_FILE_OP_NAME + "@"
+						+ Constants.NAME_OPT_NAME, dpPath);
+				op.destFile = destPath;
+			} else {
+				Operation getFile = DPDBase.createOperation(Constants.GET_FILE_OP_NAME);
+				getFile.setParentOperation(this);
+				getFile.setMemSafe(op.getMemSafe());
+				getFile.setOverwrite(op.getOverwrite());
+				getFile.addOption(Constants.GET_FILE_OP_NAME + "@"
+						+ Constants.NAME_OPT_NAME, dpPath);
+				getFile.destFile = destPath;
+			}
+		}
+		if (null == op.destFile) {
+			// each file has a get-file of its own.
+			op.setSkipped(true);
+		}
+	}
+
+	/**
+	 * List a device filestore location via 'get-filestore', or reuse the saved
+	 * listing while it is younger than the session's filestoreCacheTTL.
+	 *
+	 * @param location
+	 *            the filestore location, eg. 'local:'.
+	 * @return the indexed listing, empty if the device could not be listed.
+	 */
+	protected FilestoreCache listFilestore(String location) {
+		long ttlMillis = DPDBase.getFilestoreCacheTTL() * 1000L;
+		FilestoreCache filestore = new FilestoreCache(null);
+		if (ttlMillis > 0) {
+			File cacheFile = FilestoreCache.defaultFile(DPDBase.getHostName(),
+					op.getEffectiveDomain(), location);
+			try {
+				filestore = FilestoreCache.load(cacheFile);
+			} catch (IOException ex) {
+				DPDBase.getLogger().warn("Ignoring unreadable filestore cache "
+						+ cacheFile + " : " + ex.getMessage());
+				filestore = new FilestoreCache(cacheFile);
+			}
+			if (filestore.isFresh(ttlMillis)) {
+				if (DPDBase.getLogger().isDebugEnabled()) {
+					DPDBase.getLogger().debug("Using filestore listing cached at "
+							+ new Date(filestore.getRefreshed()));
+				}
+				return filestore;
+			}
+		}
+
 		Operation getFilestoreOp = DPDBase.newOperation(
 				Constants.GET_FILESTORE_OP_NAME);
 		getFilestoreOp.addOption(Constants.GET_FILESTORE_OP_NAME + "@"
-				+ Constants.LOCATION_OPT_NAME, Constants.LOCAL_DIR_NAME
-				+ ":");
+				+ Constants.LOCATION_OPT_NAME, location);
 		getFilestoreOp
 				.addOption(Constants.GET_FILESTORE_OP_NAME + "@"
 						+ Constants.LAYOUT_ONLY_OPT_NAME,
@@ -655,47 +1359,77 @@ public class DPCustomOp {
 		DPDBase.setSchema();
 		
 		DPDBase.generateXMLInstance(getFilestoreOp);
-		getFilestoreOp.setResponse(DPDBase.postXMLInstance(getFilestoreOp, DPDBase.getCredentials()));
-//		DPDBase.parseResponseMsg(getFilestoreOp, false);
+		DPDBase.logPostedOperation(getFilestoreOp);
+		// stream the listing - it can run to many MB on a large filestore.
+		FilestoreListingHandler listing = new FilestoreListingHandler();
 		try {
-			filePaths = getFilestoreOp.getResponseParser().parseGetFileset(getFilestoreOp.getResponse());
-			if (DPDBase.getLogger().isDebugEnabled()) {
-				DPDBase.getLogger().debug("File paths: " + filePaths);
-			}
+			DPDBase.sendXMLInstance(getFilestoreOp, DPDBase.getCredentials(), listing);
 		} catch (Exception e) {
-			DPDBase.getLogger().debug("Error: could not parse file paths.");
-			// do nothing
+			DPDBase.getLogger().debug("Error: could not parse file paths. " + e.getMessage());
+			return filestore;
 		}
-		
-		String srcPath = op.srcDir.replace("///", "/");
+		filestore.update(listing.getEntries());
 		if (DPDBase.getLogger().isDebugEnabled()) {
-			DPDBase.getLogger().debug("Source path: " + srcPath);
+			DPDBase.getLogger().debug("Listed " + listing.getEntries().size() + " files");
 		}
-			
-		for (String dpPath : filePaths) {
-			if (dpPath.contains(srcPath + "/")) {
-				if (DPDBase.getLogger().isDebugEnabled()) {
-					DPDBase.getLogger().debug("File path: " + dpPath);
-				}
-				String relativePath = dpPath.replaceAll(srcPath, "");
-				String destPath = op.destDir + relativePath;
-				if (null != op.destFile) {
-					op.addOption(Constants.GET_FILE_OP_NAME + "@"
-							+ Constants.NAME_OPT_NAME, dpPath);
-					op.destFile = destPath;
+		if (ttlMillis > 0) {
+			try {
+				filestore.save();
+			} catch (IOException ex) {
+				DPDBase.getLogger().warn("Could not save filestore cache : " + ex.getMessage());
+			}
+		}
+		return filestore;
+	}
+
+	/**
+	 * Mark the saved listing of a filestore location stale after the session
+	 * has changed it, so a later get-dir lists the device again.
+	 */
+	protected void invalidateFilestore(String location) {
+		try {
+			FilestoreCache.invalidate(FilestoreCache.defaultFile(
+					DPDBase.getHostName(), op.getEffectiveDomain(), location));
+		} catch (IOException ex) {
+			DPDBase.getLogger().warn("Could not invalidate filestore cache : " + ex.getMessage());
+		}
+	}
+
+
+	/**
+	 * Post the get-file operations created by multipleGetFile() over
+	 * 'parallelism' concurrent connections, decoding each response straight
+	 * to disk.
+	 */
+	protected void parallelGetFile() {
+		List<Operation> downloads = new ArrayList<Operation>();
+		int skipped = 0;
+		for (Operation chained : op.getOperationChain()) {
+			if (this == chained.getParentOperation() && chained != op
+					&& Constants.GET_FILE_OP_NAME.equals(chained.getName())) {
+				if (isUnchanged(chained)) {
+					skipped++;
 				} else {
-					Operation getFile = DPDBase.createOperation(Constants.GET_FILE_OP_NAME);
-					getFile.setMemSafe(op.getMemSafe());
-					getFile.setOverwrite(op.getOverwrite());
-					getFile.addOption(Constants.GET_FILE_OP_NAME + "@"
-							+ Constants.NAME_OPT_NAME, dpPath);
-					getFile.destFile = destPath;
+					downloads.add(chained);
 				}
 			}
 		}
+		DPDBase.logPostedOperation(op);
+		ParallelDownload transfer = new ParallelDownload(DPDBase,
+				op.getParallelism(), op.getRetries(), remoteEntries);
+		List<Operation> failed = transfer.execute(downloads);
+		String summary = "Downloaded " + transfer.getProgress().summary();
+		if (skipped > 0) {
+			summary += ", " + skipped + " unchanged";
+		}
+		DPDBase.logInfo(op, summary);
+		for (Operation failedOp : failed) {
+			String error = transfer.getError(failedOp);
+			DPDBase.errorHandler(failedOp, (null == error) ? "Failed to get "
+					+ failedOp.getDestFile() : error, org.apache.log4j.Level.FATAL);
+		}
 	}
 
-
 	/**
 	 * Retrieve directory from device via 'do-export' operation, Result is
 	 * unzipped and saved to nominated directory.
@@ -711,6 +1445,32 @@ public class DPCustomOp {
 		}
 	}
 
+	/**
+	 * Post the get-files do-export, unzipping the response into the
+	 * destination directory as it is read.
+	 */
+	protected void streamExport() {
+		if (null == op.getPayload()) {
+			DPDBase.generateXMLInstance(op);
+		}
+		DPDBase.logPostedOperation(op);
+		ExportResponseHandler handler = new ExportResponseHandler(new File(
+				op.getDestDir()), op.getSrcDir(), op.isOverwrite());
+		try {
+			DPDBase.sendXMLInstance(op, DPDBase.getCredentials(), handler);
+		} catch (Exception ex) {
+			DPDBase.getLogger().debug(ex.getMessage(), ex);
+			DPDBase.errorHandler(op, "Failed to get " + op.getSrcDir()
+					+ " : " + ex.getMessage(), org.apache.log4j.Level.FATAL);
+			return;
+		} finally {
+			op.resetPayload();
+		}
+		DPDBase.getLogger().info("Extracted " + handler.getFiles() + " files, "
+				+ TransferProgress.formatBytes(handler.getBytes()) + ", to "
+				+ op.getDestDir());
+	}
+
 	protected void createMonitor() {
 		String objectName = this.getObjectName();
 		String tempMonitorName = getTempMonitorName();
@@ -16,14 +16,13 @@ package org.dpdirect.dpmgmt;
  * limitations under the License.
  */
  
-import java.io.DataInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Scanner;
-import java.util.concurrent.TimeUnit;
 import java.util.regex.PatternSyntaxException;
 
 import org.dpdirect.schema.SchemaLoader;
@@ -73,6 +72,13 @@ public class DPDirect extends DPDirectBase implements DPDirectInterface {
 	protected static final String CMD_PROMPT_TXT = "\n"
 			+ DPDirect.class.getSimpleName() + "> ";
 
+	/** Options naming a local file or directory. */
+	private static final List<String> PATH_OPT_NAMES = Arrays.asList(
+			Constants.SRC_FILE_OPT_NAME, Constants.SRC_DIR_OPT_NAME,
+			Constants.DEST_FILE_OPT_NAME, Constants.DEST_DIR_OPT_NAME,
+			Constants.MANIFEST_OPT_NAME, Constants.TRACE_FILE_OPT_NAME,
+			Constants.SCRIPT_OPT_NAME);
+
 	/** Command-Line mode. Default 'false'. */
 	protected boolean consoleMode = false;
 
@@ -105,7 +111,20 @@ public class DPDirect extends DPDirectBase implements DPDirectInterface {
 	public static void main(String... args) {
 		DPDirect dpSession = new DPDirect();
 		dpSession.failOnError = false;
+		processCommand(dpSession, args);
+	}
+
+	/**
+	 * Process a command line in the given session, as 'main' does.
+	 * 
+	 * @param dpSession
+	 *            DPDirect : a new instance of the class.
+	 * @param args
+	 *            String[] : command-line parameters, as for 'main'.
+	 */
+	public static void processCommand(DPDirect dpSession, String... args) {
 		Operation operation = null;
+		String scriptFile = null;
 
 		String opName = null;
 		String opValue = null;
@@ -129,23 +148,33 @@ public class DPDirect extends DPDirectBase implements DPDirectInterface {
 			} else {
 				cmdLineHelp();
 			}
-			System.exit(0);
+			dpSession.exit(0);
 		}
 		if (arg1.equalsIgnoreCase("find") || arg1.equalsIgnoreCase("f")) {
 			dpSession.sampleOperation(args[1]);
-			System.exit(0);
+			dpSession.exit(0);
 		}
 		if (arg1.contains("find=")) {
 			dpSession.sampleOperation(arg1.replace("find=", ""));
-			System.exit(0);
+			dpSession.exit(0);
 		}
 		if (arg1.equalsIgnoreCase("show")) {
 			dpSession.sampleOperation(args[1]);
-			System.exit(0);
+			dpSession.exit(0);
 		}
 		if (arg1.contains("show=")) {
 			dpSession.sampleOperation(arg1.replace("show=", ""));
-			System.exit(0);
+			dpSession.exit(0);
+		}
+		if (arg1.equalsIgnoreCase(Constants.EXPORTER_MODE_NAME)) {
+			MetricsExporter.run(dpSession,
+					Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		if (arg1.equalsIgnoreCase(Constants.DAEMON_MODE_NAME)) {
+			CommandDaemon.run(dpSession,
+					Arrays.copyOfRange(args, 1, args.length));
+			return;
 		}
 
 		for (int i = 0; i < args.length; i++) {
@@ -160,6 +189,7 @@ public class DPDirect extends DPDirectBase implements DPDirectInterface {
 			} else {
 				opName = option;
 			}
+			opValue = resolvePathOption(dpSession, opName, opValue);
 
 			// process properties file
 			if (i == 0 && (!args[0].contains("="))
@@ -170,7 +200,10 @@ public class DPDirect extends DPDirectBase implements DPDirectInterface {
 				// process consoleMode parameters
 			} else {
 				if (!opName.equalsIgnoreCase("operation")) {
-					if (operation == null) {
+					if (operation == null
+							&& Constants.SCRIPT_OPT_NAME.equalsIgnoreCase(opName)) {
+						scriptFile = opValue;
+					} else if (operation == null) {
 						dpSession.setGlobalOption(opName, opValue);
 					} else if (operation != null) {
 						if (opName.endsWith("file") || opName.endsWith("File")) {
@@ -183,9 +216,11 @@ public class DPDirect extends DPDirectBase implements DPDirectInterface {
 										log.error(ex.getMessage());
 									} else {
 										log.error(ex.getMessage(), ex);
-										System.exit(1);
+										dpSession.exit(1);
 									}
 								}
+							} else {
+								operation.addOption(opName, opValue);
 							}
 						} else {
 							operation.addOption(opName, opValue);
@@ -204,7 +239,12 @@ public class DPDirect extends DPDirectBase implements DPDirectInterface {
 //			dpSession.setCredentials(credentials);
 //		}
 
-		if (operation != null) {
+		if (scriptFile != null) {
+			if (operation != null) {
+				dpSession.execute();
+			}
+			ScriptRunner.run(dpSession, new File(scriptFile));
+		} else if (operation != null) {
 			dpSession.execute();
 		} else {
 			if (null == dpSession.getHostName()) {
@@ -235,8 +275,6 @@ public class DPDirect extends DPDirectBase implements DPDirectInterface {
 		}
 		
 		dpSession.consoleMode = true;
-		String opName = null;
-		String opValue = null;
 		Operation operation = null;
 		String input = "";
 
@@ -244,7 +282,7 @@ public class DPDirect extends DPDirectBase implements DPDirectInterface {
 
 		Scanner in = new Scanner(System.in);
 
-		nextCmd: while (in != null) {
+		while (in != null) {
 			dpSession.resetOperationChain();
 			operation = null;
 			// Echo command prompt text to the console.
@@ -257,72 +295,9 @@ public class DPDirect extends DPDirectBase implements DPDirectInterface {
 					|| input.equalsIgnoreCase("quit")
 					|| input.equalsIgnoreCase("q")) {
 				// Quit
-				System.exit(0);
+				dpSession.exit(0);
 			} else {
-				String newArgs[] = input.split("\\s+");
-				if (newArgs.length > 0) {
-					int firstIndex = 0;
-					String operationName = newArgs[firstIndex];
-					if (operationName.equalsIgnoreCase("find")
-							&& newArgs[1] != null) {
-						dpSession.sampleOperation(newArgs[1]);
-					} else if (operationName.equalsIgnoreCase("show")
-							&& newArgs[1] != null) {
-						dpSession.sampleOperation(newArgs[1]);
-					} else if (operationName.equalsIgnoreCase("help")) {
-						if (newArgs.length > 1
-								&& Constants.USAGE_HELP_ANT.equals(newArgs[1])) {
-							antHelp();
-						} else if (newArgs.length > 1
-								&& Constants.USAGE_HELP_CMDLINE
-										.equals(newArgs[1])) {
-							cmdLineHelp();
-						} else {
-							consoleHelp();
-						}
-					} else if (operationName.indexOf("=") < 0) {
-						operation = dpSession.createOperation();
-						operation.setName(operationName);
-						firstIndex = 1;
-					}
-					for (int i = firstIndex; i < newArgs.length; i++) {
-						String option = (String) newArgs[i];
-						if (option.startsWith("-")) {
-							option = option.substring(1, option.length());
-						}
-						if (option.indexOf("=") > 0) {
-							opName = option.substring(0, option.indexOf("="));
-							opValue = option.substring(option.indexOf("=") + 1,
-									option.length());
-						} else {
-							opName = option;
-						}
-						if (operation != null) {
-							if (opName.endsWith("file")
-									|| opName.endsWith("File")) {
-								try {
-									File f = new File(opName);
-									if (f.exists()) {
-										operation.addOption(opName, f);
-									} else {
-										operation.addOption(opName, opValue);
-									}
-								} catch (Exception ex) {
-									log.error(ex.getMessage());
-									continue nextCmd;
-								}
-							} else {
-								operation.addOption(opName, opValue);
-							}
-						} else {
-							if (opName.equalsIgnoreCase("properties")) {
-								dpSession.processPropertiesFile(opValue);
-							} else {
-								dpSession.setGlobalOption(opName, opValue);
-							}
-						}
-					}
-				}
+				operation = parseConsoleCommand(dpSession, input.split("\\s+"));
 			}
 			if (operation != null) {
 				if (operation.isPolling()) {
@@ -339,31 +314,22 @@ public class DPDirect extends DPDirectBase implements DPDirectInterface {
 										+ Constants.DEFAULT_LOG_FILE_NAME);
 					}
 
-					DataInputStream dis = new DataInputStream(System.in);
+					PollScheduler poller = new PollScheduler(customOp
+							.getPollIntMillis(), operation.getPollBackoff());
+					poller.watchKeyboard(System.in);
 					try {
-						while (0 == dis.available()) {
-							String responseXML = dpSession
-									.generateAndPost(operation);
-							operation.setResponse(responseXML);
-							boolean success = customOp.processTail(operation);
+						while (!poller.isCancelled()) {
+							boolean success = customOp.pollTail(operation);
 							if (!success) {
 								break;
 							}
-							long stopNanos = System.nanoTime()
-									+ TimeUnit.MILLISECONDS.toNanos(customOp
-											.getPollIntMillis());
-							while (System.nanoTime() < stopNanos) {
-								if (0 != dis.available()) {
-									break;
-								}
-							}
+							poller.pause();
 							// suppress logging on subsequent calls
 							operation.setSuppressResponse(true);
 						}
-					} catch (IOException ex) {
-						log.error(ex.getMessage());
-						continue nextCmd;
 					} finally {
+						poller.close();
+						customOp.stopTail();
 						if (Constants.TAIL_COUNT_CUSTOM_OP_NAME
 								.equals(customOp.getName())) {
 							boolean removedMonitor = customOp.removeMonitor();
@@ -375,8 +341,7 @@ public class DPDirect extends DPDirectBase implements DPDirectInterface {
 						}
 					}
 				} else if (null != operation.getCustomOperation()) {
-					dpSession.generateOperationXML();
-					dpSession.postOperationXML();
+					dpSession.processOperationChain();
 				} else {
 					String responseXML = dpSession.generateAndPost(operation);
 					if (null != responseXML) {
@@ -388,6 +353,115 @@ public class DPDirect extends DPDirectBase implements DPDirectInterface {
 		}
 	}
 	
+	@Override
+	protected DPDirect fork() {
+		return (DPDirect) super.fork();
+	}
+
+	/**
+	 * Apply one console command to the session - set its global options, print
+	 * the help or sample XML it asks for, or create its operation.
+	 * 
+	 * @param dpSession
+	 *            DPDirect : instance of the class.
+	 * @param newArgs
+	 *            String[] : the words of the command.
+	 * @return the operation of the command, or null if it has none.
+	 */
+	protected static Operation parseConsoleCommand(DPDirect dpSession,
+			String[] newArgs) {
+		String opName = null;
+		String opValue = null;
+		Operation operation = null;
+		if (newArgs.length > 0) {
+			int firstIndex = 0;
+			String operationName = newArgs[firstIndex];
+			if (operationName.equalsIgnoreCase("find")
+					&& newArgs[1] != null) {
+				dpSession.sampleOperation(newArgs[1]);
+			} else if (operationName.equalsIgnoreCase("show")
+					&& newArgs[1] != null) {
+				dpSession.sampleOperation(newArgs[1]);
+			} else if (operationName.equalsIgnoreCase("help")) {
+				if (newArgs.length > 1
+						&& Constants.USAGE_HELP_ANT.equals(newArgs[1])) {
+					antHelp();
+				} else if (newArgs.length > 1
+						&& Constants.USAGE_HELP_CMDLINE
+								.equals(newArgs[1])) {
+					cmdLineHelp();
+				} else {
+					consoleHelp();
+				}
+			} else if (operationName.indexOf("=") < 0) {
+				operation = dpSession.createOperation();
+				operation.setName(operationName);
+				firstIndex = 1;
+			}
+			for (int i = firstIndex; i < newArgs.length; i++) {
+				String option = (String) newArgs[i];
+				if (option.startsWith("-")) {
+					option = option.substring(1, option.length());
+				}
+				if (option.indexOf("=") > 0) {
+					opName = option.substring(0, option.indexOf("="));
+					opValue = option.substring(option.indexOf("=") + 1,
+							option.length());
+				} else {
+					opName = option;
+				}
+				opValue = resolvePathOption(dpSession, opName, opValue);
+				if (operation != null) {
+					if (opName.endsWith("file")
+							|| opName.endsWith("File")) {
+						try {
+							File f = new File(opName);
+							if (f.exists()) {
+								operation.addOption(opName, f);
+							} else {
+								operation.addOption(opName, opValue);
+							}
+						} catch (Exception ex) {
+							log.error(ex.getMessage());
+							return null;
+						}
+					} else {
+						operation.addOption(opName, opValue);
+					}
+				} else {
+					if (opName.equalsIgnoreCase("properties")) {
+						dpSession.processPropertiesFile(opValue);
+					} else {
+						dpSession.setGlobalOption(opName, opValue);
+					}
+				}
+			}
+		}
+		return operation;
+	}
+
+	/**
+	 * Resolve the value of an option naming a local file or directory against
+	 * the base directory of the session.
+	 * 
+	 * @param dpSession
+	 *            DPDirect : instance of the class.
+	 * @param opName
+	 *            String : the option name.
+	 * @param opValue
+	 *            String : the option value.
+	 * @return the value, resolved if the option names a local path.
+	 */
+	private static String resolvePathOption(DPDirect dpSession, String opName,
+			String opValue) {
+		for (String pathOption : PATH_OPT_NAMES) {
+			if (pathOption.equalsIgnoreCase(opName)) {
+				return dpSession.resolvePath(opValue);
+			}
+		}
+		return opValue;
+	}
+
 	/**
 	 * Print command line help to the console.
 	 */
@@ -462,13 +536,19 @@ public class DPDirect extends DPDirectBase implements DPDirectInterface {
 			}
 		}
 		// Cache the command line and console text file content.
+		if (null == consoleUsageText) {
+			loadUsageText();
+		}
+	}
+
+	private static void loadUsageText() {
 		InputStream inputStream = DPDirect.class
 				.getResourceAsStream(Constants.CONSOLE_USAGE_TEXT_FILE_PATH);
 		try {
 			byte[] fileBytes = FileUtils.readInputStreamBytes(inputStream);
 			consoleUsageText = new String(fileBytes);
 		} catch (IOException ex) {
-			if (!failOnError && !log.isDebugEnabled()) {
+			if (!log.isDebugEnabled()) {
 				log.error(ex.getMessage());
 			} else {
 				log.error(ex.getMessage(), ex);
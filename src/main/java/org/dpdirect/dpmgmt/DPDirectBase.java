@@ -17,12 +17,16 @@ package org.dpdirect.dpmgmt;
  */
  
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStreamWriter;
 import java.io.StringReader;
 import java.io.FileNotFoundException;
+import java.io.Writer;
 import java.net.URL;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -37,6 +41,7 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 
@@ -47,12 +52,15 @@ import org.xml.sax.InputSource;
 import org.apache.log4j.Logger;
 
 import org.dpdirect.dpmgmt.Operation.Option;
+import org.dpdirect.jfr.FlightEvents;
 import org.dpdirect.schema.DocumentHelper;
 import org.dpdirect.schema.SchemaLoader;
 import org.dpdirect.utils.Credentials;
 import org.dpdirect.utils.DPDirectProperties;
 import org.dpdirect.utils.FileUtils;
 import org.dpdirect.utils.PostXML;
+import org.dpdirect.utils.SpanRecorder;
+import org.dpdirect.utils.TransferTimings;
 import org.dpdirect.utils.XPathUtils;
 
 import static org.dpdirect.dpmgmt.Defaults.DEFAULT_FIRMWARE_LEVEL;
@@ -110,7 +118,7 @@ import static org.dpdirect.dpmgmt.Defaults.DEFAULT_FIRMWARE_LEVEL;
  * 
  * @author Tim Goodwill
  */
-public abstract class DPDirectBase implements DPDirectInterface {
+public abstract class DPDirectBase implements DPDirectInterface, Cloneable {
 
 	/**
 	 * Class logger.
@@ -123,6 +131,9 @@ public abstract class DPDirectBase implements DPDirectInterface {
 	 */
 	protected static final SimpleDateFormat DATE_FORMATTER = new SimpleDateFormat("yyyyMMddhhmmss");
 
+	/** The scheme of a device path, eg. 'local:'. */
+	private static final Pattern DEVICE_PATH = Pattern.compile("[A-Za-z][\\w-]*:");
+
 	/**
 	 * Cache of project properties.
 	 */
@@ -254,6 +265,189 @@ public abstract class DPDirectBase implements DPDirectInterface {
 	/** Checkpoint saved, and rolled back in case of deployment errors. */
 	protected String checkPointName = null;
 
+	/**
+	 * @return true if a checkpoint is saved for rollback in case of errors.
+	 */
+	public boolean isRollbackEnabled() {
+		return null != this.checkPointName;
+	}
+
+	/** Generate, post and parse stacked operations concurrently. Default 'false'. */
+	protected boolean pipeline = false;
+
+	public boolean getPipeline() {
+		return this.pipeline;
+	}
+
+	@Override
+	public void setPipeline(boolean pipeline) {
+		this.pipeline = pipeline;
+	}
+
+	/** Number of operations buffered between pipeline stages. */
+	protected int pipelineDepth = Defaults.DEFAULT_PIPELINE_DEPTH;
+
+	public int getPipelineDepth() {
+		return this.pipelineDepth;
+	}
+
+	public void setPipelineDepth(int pipelineDepth) {
+		this.pipelineDepth = pipelineDepth;
+	}
+
+	/** Log a table of the phase timings of each operation. Default 'false'. */
+	protected boolean timings = false;
+
+	public boolean getTimings() {
+		return this.timings;
+	}
+
+	@Override
+	public void setTimings(boolean timings) {
+		this.timings = timings;
+	}
+
+	/** OTLP/JSON file the operation spans are written to, or null. */
+	protected String traceFile = null;
+
+	/** Records the operation spans, when a traceFile is set. */
+	protected SpanRecorder tracer = null;
+
+	/** The span of the session, holding the span of each operation chain. */
+	protected SpanRecorder.Span sessionSpan = null;
+
+	/** The span of the operation chain being processed. */
+	protected SpanRecorder.Span chainSpan = null;
+
+	public String getTraceFile() {
+		return this.traceFile;
+	}
+
+	/**
+	 * Record a span per operation, with child spans for the generation, post
+	 * and parse of each, and for the sub-operations of custom operations, and
+	 * write them to the given file in OTLP/JSON for a trace viewer. The file
+	 * is written after each operation chain, and on exit.
+	 *
+	 * @param traceFile
+	 *            the trace file path.
+	 */
+	@Override
+	public synchronized void setTraceFile(String traceFile) {
+		if (null == this.tracer) {
+			this.tracer = new SpanRecorder(Constants.TRACE_SERVICE_NAME);
+			this.sessionSpan = tracer.group(Constants.TRACE_SERVICE_NAME, null);
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				public void run() {
+					writeTrace();
+				}
+			}, "dpdirect-trace"));
+		}
+		this.traceFile = traceFile;
+	}
+
+	/**
+	 * Write the spans recorded so far to the traceFile, if set.
+	 */
+	public synchronized void writeTrace() {
+		if (null == tracer || null == traceFile) {
+			return;
+		}
+		try {
+			tracer.write(new File(traceFile));
+		} catch (IOException ex) {
+			log.warn("Failed to write trace file '" + traceFile + "' - "
+					+ ex.getMessage());
+		}
+	}
+
+	/**
+	 * @return the span of the operation, under the span of its custom parent
+	 *         operation or else of the chain, or null if not tracing.
+	 */
+	protected synchronized SpanRecorder.Span operationSpan(Operation operation) {
+		if (null == tracer) {
+			return null;
+		}
+		if (null == operation.span) {
+			SpanRecorder.Span parent = (null != operation.parentOperation)
+					? operationSpan(operation.parentOperation.op)
+					: ((null != chainSpan) ? chainSpan : sessionSpan);
+			String name = (null != operation.customOperation)
+					? operation.customOperation.getName() : operation.getName();
+			operation.span = tracer.group(name, parent)
+					.setAttribute("dpdirect.operation", name)
+					.setAttribute("dpdirect.domain", operation.getDomain());
+		}
+		return operation.span;
+	}
+
+	/**
+	 * @return a started span of a phase of the operation, or null if not
+	 *         tracing.
+	 */
+	protected SpanRecorder.Span startSpan(Operation operation, String phase,
+			int kind) {
+		SpanRecorder.Span parent = operationSpan(operation);
+		return (null == parent) ? null : tracer.start(phase, parent, kind);
+	}
+
+	/**
+	 * End the span of the post of an operation, with its sizes and status.
+	 */
+	private static void endPostSpan(SpanRecorder.Span span, String hostName,
+			Operation operation, TransferTimings transfer, boolean failed) {
+		if (null == span) {
+			return;
+		}
+		span.setAttribute("server.address", hostName);
+		span.setAttribute("url.path", operation.getEndPoint());
+		if (null != transfer) {
+			span.setAttribute("http.request.body.size", transfer.getBytesSent());
+			span.setAttribute("http.response.body.size", transfer.getBytesReceived());
+			if (transfer.getResponseCode() > 0) {
+				span.setAttribute("http.response.status_code", transfer.getResponseCode());
+			}
+		}
+		if (failed) {
+			span.setError("No response from " + hostName);
+		}
+		span.end();
+	}
+
+	/** Shortest request round trip to the device, in milliseconds, or -1. */
+	private volatile long latencyMillis = -1;
+
+	/**
+	 * @return the shortest request round trip measured this session, in
+	 *         milliseconds, or -1 if nothing has been posted.
+	 */
+	public long getLatencyMillis() {
+		return latencyMillis;
+	}
+
+	/**
+	 * Record the round trip of a post. The shortest is kept, as the nearest
+	 * measure of latency rather than of payload size.
+	 */
+	protected synchronized void recordLatency(long millis) {
+		if (latencyMillis < 0 || millis < latencyMillis) {
+			latencyMillis = millis;
+		}
+	}
+
+	/** Seconds a saved filestore listing may be reused, 0 to always list. */
+	protected int filestoreCacheTTL = 0;
+
+	public int getFilestoreCacheTTL() {
+		return this.filestoreCacheTTL;
+	}
+
+	@Override
+	public void setFilestoreCacheTTL(int seconds) {
+		this.filestoreCacheTTL = seconds;
+	}
+
 	/** List of operations to build and post in order. */
 	protected List<Operation> operationChain = new ArrayList<Operation>();
 
@@ -290,6 +484,22 @@ public abstract class DPDirectBase implements DPDirectInterface {
 		operationChain.clear();
 	}
 
+	/**
+	 * @return a session of the same options, credentials, schemas and trace,
+	 *         with its own operation chain, to run operations concurrently
+	 *         with this session.
+	 */
+	protected DPDirectBase fork() {
+		try {
+			DPDirectBase fork = (DPDirectBase) super.clone();
+			fork.operationChain = new ArrayList<Operation>();
+			fork.chainSpan = null;
+			return fork;
+		} catch (CloneNotSupportedException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
 	/** List of loaded SchemaLoader schemas */
 	protected List<SchemaLoader> schemaLoaderList = new ArrayList<SchemaLoader>();
 
@@ -303,6 +513,48 @@ public abstract class DPDirectBase implements DPDirectInterface {
 	 */
 	protected String netrcFilePath = null;
 
+	/** The properties of the properties files processed, by name. */
+	protected Properties sessionProperties = new Properties();
+
+	/**
+	 * @return the properties of the properties files processed.
+	 */
+	public Properties getSessionProperties() {
+		return this.sessionProperties;
+	}
+
+	/**
+	 * The directory relative local paths are resolved against, or null for
+	 * the working directory.
+	 */
+	protected File baseDir = null;
+
+	public File getBaseDir() {
+		return this.baseDir;
+	}
+
+	public void setBaseDir(File dir) {
+		this.baseDir = dir;
+	}
+
+	/**
+	 * Resolve a relative local path against the base directory of the
+	 * session. A device path, eg. 'local:///a.xml', or an absolute path, is
+	 * returned as it is.
+	 * 
+	 * @param path
+	 *            String : the path, as given.
+	 * @return the resolved path.
+	 */
+	public String resolvePath(String path) {
+		if (null == baseDir || null == path
+				|| DEVICE_PATH.matcher(path).lookingAt()
+				|| new File(path).isAbsolute()) {
+			return path;
+		}
+		return new File(baseDir, path).getPath();
+	}
+
 	public String getNetrcFilePath() {
 		return this.netrcFilePath;
 	}
@@ -412,8 +664,37 @@ public abstract class DPDirectBase implements DPDirectInterface {
 			setCredentials(credentials);
 		}
 		setSchema();
-		this.generateOperationXML();
-		this.postOperationXML();
+		processOperationChain();
+	}
+
+	/**
+	 * Generate, post and process the operation chain, pipelined when the
+	 * 'pipeline' option is set and the chain holds more than one operation.
+	 */
+	public void processOperationChain() {
+		if (null != tracer) {
+			chainSpan = tracer.group("operation-chain", sessionSpan)
+					.setAttribute("server.address", getHostName());
+		}
+		try {
+			executeOperationChain();
+		} finally {
+			writeTrace();
+		}
+	}
+
+	private void executeOperationChain() {
+		if (pipeline && getOperationChain().size() > 1) {
+			new OperationPipeline(this, pipelineDepth).execute(getOperationChain());
+			// Remove checkpoint if no errors have occurred.
+			if (null != checkPointName) {
+				removeCheckpoint();
+			}
+			logTimings();
+		} else {
+			generateOperationXML();
+			postOperationXML();
+		}
 	}
 
 	/**
@@ -467,6 +748,16 @@ public abstract class DPDirectBase implements DPDirectInterface {
 		}
 	}
 
+	/**
+	 * @return a loader of the schema at the given URI. Loading the schemas is
+	 *         the slowest part of starting a session.
+	 * @throws Exception
+	 *             if the schema cannot be loaded.
+	 */
+	protected SchemaLoader newSchemaLoader(String schemaURI) throws Exception {
+		return new SchemaLoader(schemaURI);
+	}
+
 	/**
 	 * Loads a schema resource from the classpath and adds it to schemaLoaderList.
 	 *
@@ -482,7 +773,7 @@ public abstract class DPDirectBase implements DPDirectInterface {
 			log.error(errMsg);
 			throw new FileNotFoundException(errMsg);
 		}
-		SchemaLoader loader = new SchemaLoader(url.toExternalForm());
+		SchemaLoader loader = newSchemaLoader(url.toExternalForm());
 		if (index != null) {
 			schemaLoaderList.add(index, loader);
 		} else {
@@ -507,8 +798,8 @@ public abstract class DPDirectBase implements DPDirectInterface {
 			propFileName = propFileName + PROP_SUFFIX;
 		}
 		try {
-			File propFile = new File(propFileName);
-			String propFilePath = propFile.getParent();
+			File propFile = new File(resolvePath(propFileName));
+			String propFilePath = new File(propFileName).getParent();
 			if (propFilePath == null && !propFile.exists()) {
 				String filePath = FileUtils.class.getProtectionDomain()
 						.getCodeSource().getLocation().getPath();
@@ -521,6 +812,7 @@ public abstract class DPDirectBase implements DPDirectInterface {
 				propFile = new File(propFilePath + "/" + propFileName);
 			}
 			Properties props = FileUtils.loadProperties(propFile);
+			sessionProperties.putAll(props);
 			for (Object key : props.keySet()) {
 				opName = (String) key;
 				opValue = props.getProperty(opName);
@@ -530,7 +822,7 @@ public abstract class DPDirectBase implements DPDirectInterface {
 			log.error("Error. Could not locate properties file '"
 					+ propFileName + "'");
 			help();
-			System.exit(0);
+			exit(0);
 		}
 	}
 
@@ -552,11 +844,29 @@ public abstract class DPDirectBase implements DPDirectInterface {
 		} else if (Constants.DOMAIN_OPT_NAME.equalsIgnoreCase(name)) {
 			this.setDomain(value);
 		} else if (Constants.FAIL_ON_ERROR_OPT_NAME.equalsIgnoreCase(name)) {
-			this.setFailOnError(Boolean.getBoolean(value));
+			this.setFailOnError(Boolean.parseBoolean(value));
 		} else if (Constants.SCHEMA_OPT_NAME.equalsIgnoreCase(name)) {
 			this.setSchema(value);
 		} else if (Constants.OUTPUT_TYPE_OPT_NAME.equalsIgnoreCase(name)) {
 			this.setOutputType(value);
+		} else if (Constants.PIPELINE_OPT_NAME.equalsIgnoreCase(name)) {
+			this.setPipeline(Constants.TRUE_OPT_VALUE.equalsIgnoreCase(value));
+		} else if (Constants.TRACE_FILE_OPT_NAME.equalsIgnoreCase(name)) {
+			this.setTraceFile(value);
+		} else if (Constants.TIMINGS_OPT_NAME.equalsIgnoreCase(name)) {
+			this.setTimings(Constants.TRUE_OPT_VALUE.equalsIgnoreCase(value));
+		} else if (Constants.PIPELINE_DEPTH_OPT_NAME.equalsIgnoreCase(name)) {
+			try {
+				this.setPipelineDepth(Integer.parseInt(value.trim()));
+			} catch (NumberFormatException ex) {
+				log.warn("Ignoring invalid " + name + " value '" + value + "'");
+			}
+		} else if (Constants.FILESTORE_CACHE_TTL_OPT_NAME.equalsIgnoreCase(name)) {
+			try {
+				this.setFilestoreCacheTTL(Integer.parseInt(value.trim()));
+			} catch (NumberFormatException ex) {
+				log.warn("Ignoring invalid " + name + " value '" + value + "'");
+			}
 		} else if (Constants.FIRMWARE_OPT_NAME.equalsIgnoreCase(name)) {
 			this.setFirmware(value);
 			if (!this.schemaLoaderList.isEmpty()) {
@@ -579,6 +889,18 @@ public abstract class DPDirectBase implements DPDirectInterface {
 
 	}
 
+	/**
+	 * Exit with the given status, on a fatal error or when a command is
+	 * complete. Exits the JVM, unless overridden where the session runs
+	 * within a longer lived process.
+	 *
+	 * @param status
+	 *            the exit status, 0 for success.
+	 */
+	protected void exit(int status) {
+		System.exit(status);
+	}
+
 	/**
 	 * Resolve the credentials for the target host. If credentials are not
 	 * provided by the command line or ant task, then the Netrc file is checked
@@ -660,13 +982,90 @@ public abstract class DPDirectBase implements DPDirectInterface {
 			DPDirectBase.antHelp();
 		}
 		for (Operation operation : getOperationChain()) {
-			if (!operation.getMemSafe()) {
+			if (!operation.getMemSafe() && !operation.isPayloadDeferred()) {
 				generateXMLInstance(operation);
 			}
 		}
 	}
 
+	/**
+	 * Generate the payload of the operation, recording the time taken. On a
+	 * failure the operation is removed from the chain, and the session exits
+	 * if failOnError is set.
+	 *
+	 * @param operation
+	 *            Operation : the operation to generate.
+	 * @return the payload, or null if it could not be generated.
+	 */
 	public String generateXMLInstance(Operation operation) {
+		try {
+			return generateXMLInstanceOrThrow(operation);
+		} catch (Exception ex) {
+			generationFailed(operation, ex);
+			return null;
+		}
+	}
+
+	/**
+	 * Remove an operation that could not be generated from the chain, and log
+	 * the failure. Exits if failOnError is set.
+	 *
+	 * @param operation
+	 *            Operation : the operation that failed.
+	 * @param ex
+	 *            Exception : the failure.
+	 */
+	protected void generationFailed(Operation operation, Exception ex) {
+		getOperationChain().remove(operation);
+		if (log.isDebugEnabled()) {
+			log.error(ex.getMessage(), ex);
+		} else {
+			log.error(ex.getMessage());
+		}
+		if (failOnError) {
+			exit(1);
+		}
+	}
+
+	/**
+	 * Generate the payload of the operation, recording the time taken. A
+	 * failure is thrown to the caller, leaving the operation chain and the
+	 * session as they are, so that worker threads may generate operations and
+	 * hand their failures back to the thread that owns the chain.
+	 *
+	 * @param operation
+	 *            Operation : the operation to generate.
+	 * @return the payload, or null if the operation is not in the schemas and
+	 *         failOnError is not set.
+	 * @throws Exception
+	 *             if the payload cannot be generated.
+	 */
+	protected String generateXMLInstanceOrThrow(Operation operation) throws Exception {
+		long generateStart = System.nanoTime();
+		Object generateEvent = FlightEvents.beginGenerate();
+		SpanRecorder.Span generateSpan = startSpan(operation, "generate",
+				SpanRecorder.KIND_INTERNAL);
+		String xmlString = null;
+		try {
+			xmlString = buildXMLInstance(operation);
+		} finally {
+			operation.getTimings().setGenerateNanos(System.nanoTime() - generateStart);
+			FlightEvents.endGenerate(generateEvent, operation.getName(),
+					operation.getDomain(), xmlString);
+			if (null != generateSpan) {
+				if (null == xmlString) {
+					generateSpan.setError("Failed to generate " + operation.getName());
+				}
+				generateSpan.end();
+			}
+		}
+		return xmlString;
+	}
+
+	private String buildXMLInstance(Operation operation) throws Exception {
+		if (operation.isSkipped()) {
+			return null;
+		}
 		String xmlString = null;
 		SchemaLoader workingInstance = null;
 		String operationName = operation.getName();
@@ -682,17 +1081,31 @@ public abstract class DPDirectBase implements DPDirectInterface {
 			}
 		}
 		
-		try {
-			if (null == workingInstance) {
-				if (failOnError) {
-					throw new Exception(
-							"No such operation available in the versions of SOMA and/or AMP schemas provided.");
-				} else {
-					logError(operation, "No such operation available in the loaded versions of SOMA and/or AMP schemas.");
-					return null;
-				}
+		if (null == workingInstance) {
+			if (null != operation.getParentOperation()) {
+				// a custom operation goes on without the parts older schemas
+				// lack, eg. the CreateDir and RemoveDir actions of set-dir.
+				log.warn(operation.getName() + " is not available in the loaded versions of SOMA and/or AMP schemas, and is skipped.");
+				operation.setSkipped(true);
+				return null;
+			} else if (failOnError) {
+				throw new Exception(
+						"No such operation available in the versions of SOMA and/or AMP schemas provided.");
 			} else {
-
+				logError(operation, "No such operation available in the loaded versions of SOMA and/or AMP schemas.");
+				return null;
+			}
+		} else {
+			// encode source files before taking the schema lock, so that
+			// concurrent uploads do not queue behind file IO.
+			String[] srcFileValues = new String[options.size()];
+			for (int i = 0; i < options.size(); i++) {
+				if (null != options.get(i).getSrcFile()) {
+					srcFileValues[i] = FileUtils.getBase64FileBytes(options.get(i).getSrcFile());
+				}
+			}
+			// a SchemaLoader holds the document under construction.
+			synchronized (workingInstance) {
 				workingInstance.newDocument();
 				workingInstance.setTargetNode(operationName);
 				workingInstance.setSoapEnv();
@@ -705,8 +1118,9 @@ public abstract class DPDirectBase implements DPDirectInterface {
 		            }
 		        }
 
-				for (Option option : options) {
+				for (int i = 0; i < options.size(); i++) {
 					// set operation options in the SchemaLoader model
+					Option option = options.get(i);
 					String optionName = option.getName();
 					String optionValue = option.getValue();
 
@@ -730,8 +1144,10 @@ public abstract class DPDirectBase implements DPDirectInterface {
 							workingInstance.setValue(Constants.DOMAIN_UCC_OPT_NAME, optionValue);
 						}
 					} else if (null != option.getSrcFile()) {
-						optionValue = FileUtils.getBase64FileBytes(option.getSrcFile());
-						workingInstance.setValue(optionName, optionValue);
+						workingInstance.setValue(optionName, srcFileValues[i]);
+					} else if (null != option.getContent()) {
+						// replaced by the streamed content when posted.
+						workingInstance.setValue(optionName, Operation.streamedContentToken(i));
 					} else {
 						workingInstance.setValue(optionName, optionValue);
 					}
@@ -761,16 +1177,6 @@ public abstract class DPDirectBase implements DPDirectInterface {
 				}				
 				
 			}
-		} catch (Exception ex) {
-			getOperationChain().remove(operation);
-			if (log.isDebugEnabled()) {
-				log.error(ex.getMessage(), ex);
-			} else {
-				log.error(ex.getMessage());
-			}
-			if (failOnError) {
-				System.exit(1);
-			} 
 		}
 		return xmlString;
 	}
@@ -783,7 +1189,9 @@ public abstract class DPDirectBase implements DPDirectInterface {
 				if (operation.getMemSafe()) {
 					operation.setPayload(generateXMLInstance(operation));
 				}
-				if (!operation.customPostIntercept()){
+				if (operation.isResponseStreamed()) {
+					streamResponse(operation, credentials);
+				} else if (!operation.customPostIntercept()){
 					String xmlResponse = postXMLInstance(operation, credentials);
 					operation.setResponse(xmlResponse);
 					processResponse(operation);
@@ -798,7 +1206,7 @@ public abstract class DPDirectBase implements DPDirectInterface {
 					log.error(ex.getMessage());
 				}
 				if (failOnError) {
-					System.exit(1);
+					exit(1);
 				} 
 			}
 		}
@@ -806,14 +1214,64 @@ public abstract class DPDirectBase implements DPDirectInterface {
 		if (null != checkPointName) {
 			removeCheckpoint();
 		}
+		logTimings();
+	}
+
+	/**
+	 * Post the operation and write its response out as JSON records as they
+	 * are read, to the output file or standard output, so that a status or
+	 * log dump of any size is written in constant memory. An error in the
+	 * response is handled once the response ends.
+	 * 
+	 * @param operation
+	 *            Operation : the operation to post.
+	 * @param credentials
+	 *            Credentials : the device credentials.
+	 * @throws Exception
+	 *             on a transport error, or if the response cannot be parsed.
+	 */
+	protected void streamResponse(Operation operation, Credentials credentials)
+			throws Exception {
+		logPostedOperation(operation);
+		ResponseParser parser = operation.getResponseParser();
+		String outputFile = parser.getOutputFile();
+		Writer out = new BufferedWriter((null != outputFile)
+				? new OutputStreamWriter(new FileOutputStream(outputFile), "UTF-8")
+				: new OutputStreamWriter(System.out));
+		JsonResponseHandler handler = parser.newJsonHandler(out);
+		try {
+			sendXMLInstance(operation, credentials, handler);
+		} finally {
+			if (null != outputFile) {
+				out.close();
+			} else {
+				out.flush();
+			}
+		}
+		if (null != outputFile) {
+			logInfo(operation, handler.getWrittenCount() + " records written to "
+					+ outputFile);
+		}
+		if (null != handler.getFault()) {
+			errorHandler(operation, handler.getFault(),
+					org.apache.log4j.Level.FATAL);
+		}
+	}
+
+	/**
+	 * Log the table of phase timings of the operation chain, if the 'timings'
+	 * option is set or debug is enabled.
+	 */
+	protected void logTimings() {
+		if ((timings || log.isDebugEnabled()) && !getOperationChain().isEmpty()) {
+			log.info("Timings (ms) :\n"
+					+ OperationTimings.formatTable(getOperationChain()));
+		}
 	}
 
 	public void pollForResult(Operation operation) throws Exception {
 		String responseString = null;
-		int numberOfPolls = 0;
 		int waitTimeSeconds = operation.getWaitTime();
-		int remainingTimeSeconds = waitTimeSeconds;
-		int pollIntervalSeconds = operation.getPollIntMillis()/1000;
 		boolean matchResponse = false;
 		
 		String waitFor = operation.getWaitFor();
@@ -837,7 +1295,25 @@ public abstract class DPDirectBase implements DPDirectInterface {
 			}
 		}
 	
-		while (!matchResponse && remainingTimeSeconds > 0) {
+		XPathExpression waitForExpression = null;
+		if (waitForXPath != null) {
+			try {
+				waitForExpression = XPathUtils.compile(waitForXPath);
+			} catch (XPathExpressionException ex) {
+				String errorText = "Failed to compile XPath expression - " + ex.getMessage();
+				errorHandler(operation, errorText, org.apache.log4j.Level.FATAL);
+			}
+		}
+
+		PollScheduler poller = new PollScheduler(operation.getPollIntMillis(),
+				operation.getPollBackoff());
+		long deadline = System.currentTimeMillis()
+				+ TimeUnit.SECONDS.toMillis(waitTimeSeconds);
+		long remainingMillis = deadline - System.currentTimeMillis();
+		int iteration = 0;
+		while (!matchResponse && remainingMillis > 0) {
+			Object pollEvent = FlightEvents.beginPoll();
+			iteration++;
 			String responseXML = generateAndPost(operation); 
 			operation.response = responseXML;
 			responseString = processResponse(operation);
@@ -850,14 +1326,23 @@ public abstract class DPDirectBase implements DPDirectInterface {
 			if (waitFor != null) {
 				Matcher waitForMatch = waitForPattern.matcher(responseString);
 				matchResponse = waitForMatch.matches();
-			} else if (waitForXPath != null) {
-				matchResponse = XPathUtils.evaluateXPath(responseXML, waitForXPath);
+			} else if (waitForExpression != null) {
+				try {
+					matchResponse = XPathUtils.evaluateXPath(
+							XPathUtils.parseDocument(responseXML), waitForExpression);
+				} catch (Exception ex) {
+					matchResponse = false;
+				}
 			}
+			FlightEvents.endPoll(pollEvent, operation.getName(), iteration,
+					matchResponse);
 	
-			numberOfPolls++;
-			for (long stop = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(operation.getPollIntMillis()); 
-				 stop > System.nanoTime();) { }
-			remainingTimeSeconds = waitTimeSeconds - (numberOfPolls * pollIntervalSeconds);
+			remainingMillis = deadline - System.currentTimeMillis();
+			if (!matchResponse && remainingMillis > 0
+					&& !poller.sleep(Math.min(poller.nextDelay(), remainingMillis))) {
+				break;
+			}
+			remainingMillis = deadline - System.currentTimeMillis();
 		}
 	
 		if (!matchResponse && failOnError) {
@@ -873,50 +1358,46 @@ public abstract class DPDirectBase implements DPDirectInterface {
 	}
 
 	public String postXMLInstance(Operation operation, Credentials credentials) {
-		// String endPoint = operation.getEndPoint();
-		String xmlResponse = null;
-		String xmlPayload = operation.getPayload();
-		
-		try {
-			if (log.isDebugEnabled()) {
-				log.debug("PostXML : " + operation.getName() + "  https://"
-						+ getHostName() + ":" + getPort() + operation.getEndPoint());
-			}
-	
-			if (log.isDebugEnabled()) {
-				String payloadText = DocumentHelper.prettyPrintXML(xmlPayload);
-				if (payloadText.length() > 4000) {
-					payloadText = payloadText.substring(0, 2000)
-							+ "... \n* truncated *";
-				}
-				log.debug("payload :\n" + payloadText);
-			}
-			
-			if (logOutput) {
-				if (null != operation.getParentOperation()){
-					DPCustomOp customOp = operation.getParentOperation();
-					if (!customOp.getPostLogged()){
-						String opName = customOp.getName();
-						log.info(opName);
-						customOp.setPostLogged(true);
-					}
-				} else {
-					String opName = operation.getInvokedName();
+		logPostedOperation(operation);
+		return sendXMLInstance(operation, credentials);
+	}
+
+	/**
+	 * Log the name of an operation as it is posted. Sub-operations of a custom
+	 * operation are logged once under the custom operation name.
+	 *
+	 * @param operation
+	 *            Operation : the posted operation.
+	 */
+	protected void logPostedOperation(Operation operation) {
+		if (logOutput) {
+			if (null != operation.getParentOperation()){
+				DPCustomOp customOp = operation.getParentOperation();
+				if (!customOp.getPostLogged()){
+					String opName = customOp.getName();
 					log.info(opName);
+					customOp.setPostLogged(true);
 				}
+			} else {
+				String opName = operation.getInvokedName();
+				log.info(opName);
 			}
-			
-			xmlResponse = PostXML.postTrusting(getHostName(), getPort(),
-					operation.getEndPoint(), xmlPayload, credentials);
-	
-			if (log.isDebugEnabled()) {
-				String responseText = DocumentHelper.prettyPrintXML(xmlResponse);
-				if (responseText.length() > 4000) {
-					responseText = responseText.substring(0, 2000)
-							+ "... \n* truncated *";
-				}
-				log.debug("response :\n" + responseText);
-			}
+		}
+	}
+
+	/**
+	 * Post the operation payload to the device without logging the operation
+	 * name. On a failure the session exits if failOnError is set.
+	 *
+	 * @param operation
+	 *            Operation : the operation to post.
+	 * @param credentials
+	 *            Credentials : the device credentials.
+	 * @return the response XML string, or null if the post failed.
+	 */
+	protected String sendXMLInstance(Operation operation, Credentials credentials) {
+		try {
+			return sendXMLInstanceOrThrow(operation, credentials);
 		} catch (Exception ex) {
 			if (log.isDebugEnabled()) {
 				log.error(ex.getMessage(), ex);
@@ -924,22 +1405,180 @@ public abstract class DPDirectBase implements DPDirectInterface {
 				log.error(ex.getMessage());
 			}
 			if (failOnError) {
-				System.exit(1);
+				exit(1);
 			} 
+			return null;
+		}
+	}
+
+	/**
+	 * Post the operation payload to the device without logging the operation
+	 * name. A failure is thrown to the caller, so that worker threads may
+	 * post operations and hand their failures back to the thread that owns
+	 * the session.
+	 *
+	 * @param operation
+	 *            Operation : the operation to post.
+	 * @param credentials
+	 *            Credentials : the device credentials.
+	 * @return the response XML string.
+	 * @throws Exception
+	 *             on a transport error.
+	 */
+	protected String sendXMLInstanceOrThrow(Operation operation,
+			Credentials credentials) throws Exception {
+		String xmlResponse = null;
+		String xmlPayload = operation.getPayload();
+		
+		if (log.isDebugEnabled()) {
+			log.debug("PostXML : " + operation.getName() + "  https://"
+					+ getHostName() + ":" + getPort() + operation.getEndPoint());
+		}
+
+		if (log.isDebugEnabled()) {
+			String payloadText = DocumentHelper.prettyPrintXML(xmlPayload);
+			if (payloadText.length() > 4000) {
+				payloadText = payloadText.substring(0, 2000)
+						+ "... \n* truncated *";
+			}
+			log.debug("payload :\n" + payloadText);
+		}
+		
+		long start = System.currentTimeMillis();
+		Object exchangeEvent = FlightEvents.beginExchange();
+		SpanRecorder.Span postSpan = startSpan(operation, "post",
+				SpanRecorder.KIND_CLIENT);
+		try {
+			if (operation.hasStreamedContent()) {
+				xmlResponse = PostXML.postTrusting(getHostName(), getPort(),
+						operation.getEndPoint(), operation.getStreamedPayload(), credentials,
+						operation.getTimings());
+			} else {
+				xmlResponse = PostXML.postTrusting(getHostName(), getPort(),
+						operation.getEndPoint(), xmlPayload, credentials,
+						operation.getTimings());
+			}
+		} finally {
+			FlightEvents.endExchange(exchangeEvent, getHostName(),
+					operation.getEndPoint(), operation.getName(),
+					operation.getTimings());
+			endPostSpan(postSpan, getHostName(), operation,
+					operation.getTimings(), null == xmlResponse);
+		}
+		recordLatency(System.currentTimeMillis() - start);
+
+		if (log.isDebugEnabled()) {
+			String responseText = DocumentHelper.prettyPrintXML(xmlResponse);
+			if (responseText.length() > 4000) {
+				responseText = responseText.substring(0, 2000)
+						+ "... \n* truncated *";
+			}
+			log.debug("response :\n" + responseText);
 		}
 //        operation.setResponse(xmlResponse);
 		return xmlResponse;
 	}
 
+	/**
+	 * Post the operation payload to the device, streaming the response to the
+	 * given handler rather than returning it as a String.
+	 *
+	 * @param operation
+	 *            Operation : the operation to post.
+	 * @param credentials
+	 *            Credentials : the device credentials.
+	 * @param handler
+	 *            PostXML.ResponseHandler : consumes the response body.
+	 * @throws Exception
+	 *             on a transport error, or if the handler fails.
+	 */
+	protected void sendXMLInstance(Operation operation, Credentials credentials,
+			PostXML.ResponseHandler handler) throws Exception {
+		sendXMLInstance(operation, getHostName(), getPort(), credentials,
+				handler, operation.getTimings());
+	}
+
+	/**
+	 * Post the operation payload to the given device, streaming the response
+	 * to the given handler. The payload is only read, so one generated
+	 * operation may be posted to several devices at once.
+	 *
+	 * @param operation
+	 *            Operation : the operation to post.
+	 * @param hostName
+	 *            String : the device host name.
+	 * @param port
+	 *            String : the device XML management port.
+	 * @param credentials
+	 *            Credentials : the device credentials.
+	 * @param handler
+	 *            PostXML.ResponseHandler : consumes the response body.
+	 * @throws Exception
+	 *             on a transport error, or if the handler fails.
+	 */
+	protected void sendXMLInstance(Operation operation, String hostName,
+			String port, Credentials credentials,
+			PostXML.ResponseHandler handler) throws Exception {
+		sendXMLInstance(operation, hostName, port, credentials, handler, null);
+	}
+
+	/**
+	 * Post the operation payload to the given device, streaming the response
+	 * to the given handler, and recording the phases of the post in the given
+	 * timings, if not null.
+	 */
+	private void sendXMLInstance(Operation operation, String hostName,
+			String port, Credentials credentials,
+			PostXML.ResponseHandler handler, OperationTimings timings) throws Exception {
+		if (log.isDebugEnabled()) {
+			log.debug("PostXML : " + operation.getName() + "  https://"
+					+ hostName + ":" + port + operation.getEndPoint());
+			log.debug("payload :\n" + DocumentHelper.prettyPrintXML(operation.getPayload()));
+		}
+		long start = System.currentTimeMillis();
+		Object exchangeEvent = FlightEvents.beginExchange();
+		// a recorded post from several devices at once needs its own timings.
+		TransferTimings transfer = (null == timings && null != exchangeEvent)
+				? new TransferTimings() : timings;
+		// posts to several devices at once are not traced.
+		SpanRecorder.Span postSpan = (null == timings) ? null : startSpan(
+				operation, "post", SpanRecorder.KIND_CLIENT);
+		boolean failed = true;
+		try {
+			PostXML.postTrusting(hostName, port, operation.getEndPoint(),
+					operation.getPayload(), credentials, handler, transfer);
+			failed = false;
+		} finally {
+			FlightEvents.endExchange(exchangeEvent, hostName,
+					operation.getEndPoint(), operation.getName(), transfer);
+			endPostSpan(postSpan, hostName, operation, transfer, failed);
+		}
+		recordLatency(System.currentTimeMillis() - start);
+	}
+
 	public String parseResponseMsg(Operation operation, boolean handleError) {
 		List<Object> parseResult = new ArrayList<Object>();
 	    org.apache.log4j.Level logLevel = org.apache.log4j.Level.INFO;
 		String parsedText = null;
+		SpanRecorder.Span parseSpan = startSpan(operation, "parse",
+				SpanRecorder.KIND_INTERNAL);
 		try {
+			long parseStart = System.nanoTime();
 			parseResult = operation.getResponseParser().parseResponseMsg(operation
 					.getResponse());
+			operation.getTimings().setParseNanos(System.nanoTime() - parseStart);
+			if (log.isDebugEnabled()) {
+				log.debug("Timings : " + operation.getName() + " "
+						+ operation.getTimings());
+			}
 			logLevel = (org.apache.log4j.Level) parseResult.get(0);
 			parsedText = (String) parseResult.get(1);
+			if (null != parseSpan) {
+				parseSpan.end();
+				if (logLevel.toInt() > org.apache.log4j.Level.INFO_INT) {
+					operationSpan(operation).setError(parsedText);
+				}
+			}
 			
 			if ((logLevel.toInt() > org.apache.log4j.Level.INFO_INT) && log.isDebugEnabled() && handleError) {
 				logWarn(operation, parsedText);
@@ -949,13 +1588,17 @@ public abstract class DPDirectBase implements DPDirectInterface {
 				logInfo(operation, parsedText);
 			}
 		} catch (Exception ex) {
+			if (null != parseSpan) {
+				parseSpan.setError(ex.getMessage());
+				parseSpan.end();
+			}
 			if (log.isDebugEnabled()) {
 				log.error(ex.getMessage(), ex);
 			} else {
 				log.error(ex.getMessage());
 			}
 			if (failOnError) {
-				System.exit(1);
+				exit(1);
 			} 
 		}
 		/* Process errors and warnings */
@@ -967,17 +1610,9 @@ public abstract class DPDirectBase implements DPDirectInterface {
 
 	public boolean isSuccessResponse(Operation operation) {
 		boolean success = false;
-		List<Object> parseResult = new ArrayList<Object>();
-	    org.apache.log4j.Level logLevel = org.apache.log4j.Level.WARN;
-		String parsedText = null;
 		try {
-			parseResult = operation.getResponseParser().parseResponseMsg(operation
-					.getResponse());
-			logLevel = (org.apache.log4j.Level) parseResult.get(0);
-			parsedText = (String) parseResult.get(1);
-			if (logLevel.toInt() <= org.apache.log4j.Level.INFO_INT) {
-				success = true;
-			} 
+			// judge the response itself, even where its output is suppressed.
+			success = operation.getResult().isSuccess();
 		} catch (Exception ex) {
 			log.warn(ex.getMessage());
 			log.debug(ex.getMessage(), ex);
@@ -1013,7 +1648,7 @@ public abstract class DPDirectBase implements DPDirectInterface {
 				log.error(ex.getMessage());
 			}
 			if (failOnError) {
-				System.exit(1);
+				exit(1);
 			} 
 		}
 		return parsedText;
@@ -1051,7 +1686,7 @@ public abstract class DPDirectBase implements DPDirectInterface {
 						if (rolledBack) {
 							removeCheckpoint();
 							log.info("Rollback was successful.");
-							System.exit(2);
+							exit(2);
 						} else {
 							log.info("Rollback was UNSUCCESSFUL!.");
 						}
@@ -1059,7 +1694,7 @@ public abstract class DPDirectBase implements DPDirectInterface {
 						// STOP DEPLOYMENT.
 						logError(operation, errorResponse);
 					}
-					System.exit(1);
+					exit(1);
 				} else {
 					logWarn(operation, errorResponse);
 				}
@@ -1074,7 +1709,7 @@ public abstract class DPDirectBase implements DPDirectInterface {
 				log.error(ex.getMessage());
 			}
 			if (failOnError) {
-				System.exit(1);
+				exit(1);
 			} 
 		}
 	}
@@ -1153,6 +1788,43 @@ public abstract class DPDirectBase implements DPDirectInterface {
 		return xmlResponse;
 	}
 
+	/**
+	 * Generate and post the operation, streaming the response to the given
+	 * handler rather than returning it as a String.
+	 *
+	 * @param operation
+	 *            Operation : the operation to post.
+	 * @param handler
+	 *            PostXML.ResponseHandler : consumes the response body.
+	 * @throws Exception
+	 *             on a transport error, or if the handler fails.
+	 */
+	public void generateAndPost(Operation operation,
+			PostXML.ResponseHandler handler) throws Exception {
+		if (generatePayload(operation)) {
+			logPostedOperation(operation);
+			sendXMLInstance(operation, getCredentials(), handler);
+		}
+	}
+
+	/**
+	 * Assign the device endpoint and generate the payload of the operation,
+	 * without posting it.
+	 *
+	 * @param operation
+	 *            Operation : the operation to generate.
+	 * @return true if a payload was generated.
+	 */
+	public boolean generatePayload(Operation operation) {
+		for (SchemaLoader loader : schemaLoaderList) {
+			if (loader.nodeExists(operation.getName())) {
+				operation.defineEndPoint(loader);
+			}
+		}
+		generateXMLInstance(operation);
+		return operation.payload != null;
+	}
+
 	/**
 	 * Get the credentials from the Netrc configuration file.
 	 * @param hostName the host name to lookup.
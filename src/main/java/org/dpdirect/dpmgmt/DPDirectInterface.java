@@ -91,6 +91,42 @@ public interface DPDirectInterface {
 	 */
 	public abstract void setRollbackOnError(boolean enableRollback);
 
+	/**
+	 * Setter to generate, post and parse stacked operations concurrently.
+	 * Operations are still posted and reported in order.
+	 * 
+	 * @param pipeline
+	 *            boolean : true to pipeline the operation chain.
+	 */
+	public abstract void setPipeline(boolean pipeline);
+
+	/**
+	 * Setter to log a table of the generate, connect, send, wait, receive and
+	 * parse times, and the bytes sent and received, of each operation.
+	 * 
+	 * @param timings
+	 *            boolean : true to log the timings table.
+	 */
+	public abstract void setTimings(boolean timings);
+
+	/**
+	 * Setter to write a span per operation, with its generation, post, parse
+	 * and sub-operations, to an OpenTelemetry OTLP/JSON trace file.
+	 * 
+	 * @param traceFile
+	 *            String : the trace file path.
+	 */
+	public abstract void setTraceFile(String traceFile);
+
+	/**
+	 * Setter to reuse a saved get-dir filestore listing for a number of
+	 * seconds, rather than listing the device on every run.
+	 * 
+	 * @param seconds
+	 *            int : the listing time-to-live, 0 to always list.
+	 */
+	public abstract void setFilestoreCacheTTL(int seconds);
+
 	/**
 	 * Sets the output type.
 	 * 
@@ -20,6 +20,7 @@ import org.apache.log4j.Logger;
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Task;
 import org.dpdirect.utils.XPathUtils;
+import org.w3c.dom.Document;
 
 /**
  * Class for the management of IBM DataPower device via the and and the XML
@@ -77,7 +78,8 @@ public class DPDirectTask extends Task implements DPDirectInterface {
 
 		@Override
 		public String processResponse(Operation operation) {
-			// process set-properties arguments
+			// process set-properties arguments, parsing the response once for all.
+			Document responseDoc = null;
 			for (Operation.SetProperty property : operation.getSetProperties()) {
 				String name = property.getName();
 				String xpath = property.getXpath();
@@ -85,7 +87,10 @@ public class DPDirectTask extends Task implements DPDirectInterface {
 
 				try {
 					log.debug("evaluating xpath \"" + xpath + "\" to set property \"" + name + "\"");
-					String value = XPathUtils.extractValue(xml, xpath);
+					if (null == responseDoc) {
+						responseDoc = XPathUtils.parseDocument(xml);
+					}
+					String value = XPathUtils.extractValue(responseDoc, xpath);
 
 					log.info("setting property \"" + name + "\" to \"" + value + "\"");
 					getProject().setProperty(name, value);
@@ -94,7 +99,7 @@ public class DPDirectTask extends Task implements DPDirectInterface {
 							+ "\"" + xpath + "\" in response \"" + xml + "\"", e);
 
 					if (this.getFailOnError()) {
-						System.exit(1);
+						exit(1);
 					}
 				}
 			}
@@ -145,6 +150,26 @@ public class DPDirectTask extends Task implements DPDirectInterface {
 		base.setRollbackOnError(enableRollback);
 	}
 
+	@Override
+	public void setPipeline(boolean pipeline) {
+		base.setPipeline(pipeline);
+	}
+
+	@Override
+	public void setTimings(boolean timings) {
+		base.setTimings(timings);
+	}
+
+	@Override
+	public void setTraceFile(String traceFile) {
+		base.setTraceFile(traceFile);
+	}
+
+	@Override
+	public void setFilestoreCacheTTL(int seconds) {
+		base.setFilestoreCacheTTL(seconds);
+	}
+
 	@Override
 	public void setOutputType(String type) {
 		base.setOutputType(type);
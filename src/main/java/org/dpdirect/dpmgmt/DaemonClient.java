@@ -0,0 +1,180 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Properties;
+
+/**
+ * Thin client of a {@link CommandDaemon}, taking the same arguments as
+ * DPDirect 'main', eg.
+ *
+ * <pre>
+ * java -cp dpdirect.jar org.dpdirect.dpmgmt.DaemonClient DEV operation=get-status class=ActiveUsers
+ * </pre>
+ *
+ * The arguments are run by the daemon, with relative local paths resolved
+ * against the working directory of the client, the output printed as it
+ * arrives, and the client exits with the status of the command. The client loads nothing
+ * but this class, so starts in a fraction of the time of a full session.
+ *
+ * The daemon is found by its port and token in the daemon file, by default
+ * ~/.dpdirect/daemon.properties, or as set by the 'dpdirect.daemon.file'
+ * system property.
+ */
+public class DaemonClient {
+
+	/** The system property naming the daemon file. */
+	public static final String DAEMON_FILE_PROPERTY = "dpdirect.daemon.file";
+
+	/** The daemon file key of the daemon port. */
+	static final String PORT_KEY = "port";
+
+	/** The daemon file key of the token a client must present. */
+	static final String TOKEN_KEY = "token";
+
+	/** A response frame carrying the exit status of the command. */
+	static final int FRAME_EXIT = 0;
+
+	/** A response frame of standard output. */
+	static final int FRAME_OUT = 1;
+
+	/** A response frame of standard error. */
+	static final int FRAME_ERR = 2;
+
+	/** The status of a command the daemon could not be reached to run. */
+	static final int NO_DAEMON_STATUS = 2;
+
+	/**
+	 * @return the file the daemon writes its port and token to.
+	 */
+	public static File daemonFile() {
+		String path = System.getProperty(DAEMON_FILE_PROPERTY);
+		if (null != path) {
+			return new File(path);
+		}
+		return new File(new File(System.getProperty("user.home"), ".dpdirect"),
+				"daemon.properties");
+	}
+
+	public static void main(String... args) {
+		File file = daemonFile();
+		Properties daemon = new Properties();
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				daemon.load(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException ex) {
+			System.err.println("No DPDirect daemon found at " + file
+					+ ". Start one with 'DPDirect daemon'.");
+			System.exit(NO_DAEMON_STATUS);
+		}
+		int status;
+		try {
+			status = send(Integer.parseInt(daemon.getProperty(PORT_KEY, "").trim()),
+					daemon.getProperty(TOKEN_KEY, ""), args, System.out, System.err);
+		} catch (NumberFormatException ex) {
+			System.err.println("Invalid daemon port in " + file + ".");
+			status = NO_DAEMON_STATUS;
+		} catch (IOException ex) {
+			System.err.println("Failed to reach the DPDirect daemon : "
+					+ ex.getMessage());
+			status = NO_DAEMON_STATUS;
+		}
+		System.exit(status);
+	}
+
+	/**
+	 * Run a command in the daemon, with relative local paths resolved against
+	 * the working directory of this process.
+	 *
+	 * @param port
+	 *            the loopback port of the daemon.
+	 * @param token
+	 *            the token of the daemon.
+	 * @param args
+	 *            the command, as for DPDirect 'main'.
+	 * @param out
+	 *            the stream to copy the standard output of the command to.
+	 * @param err
+	 *            the stream to copy the standard error of the command to.
+	 * @return the exit status of the command.
+	 * @throws IOException
+	 *             if the daemon cannot be reached, or closes the connection
+	 *             before the command ends.
+	 */
+	public static int send(int port, String token, String[] args,
+			OutputStream out, OutputStream err) throws IOException {
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		try {
+			socket.setTcpNoDelay(true);
+			DataOutputStream request = new DataOutputStream(
+					new BufferedOutputStream(socket.getOutputStream()));
+			request.writeUTF(token);
+			request.writeUTF(new File(System.getProperty("user.dir"))
+					.getAbsolutePath());
+			request.writeInt(args.length);
+			for (String arg : args) {
+				request.writeUTF(arg);
+			}
+			request.flush();
+
+			DataInputStream response = new DataInputStream(
+					new BufferedInputStream(socket.getInputStream()));
+			byte[] buffer = new byte[8192];
+			while (true) {
+				int type = response.read();
+				if (type < 0) {
+					throw new EOFException("The daemon closed the connection.");
+				}
+				int length = response.readInt();
+				if (FRAME_EXIT == type) {
+					return length;
+				}
+				OutputStream target = (FRAME_ERR == type) ? err : out;
+				while (length > 0) {
+					int read = response.read(buffer, 0,
+							Math.min(length, buffer.length));
+					if (read < 0) {
+						throw new EOFException(
+								"The daemon closed the connection.");
+					}
+					target.write(buffer, 0, read);
+					length -= read;
+				}
+				target.flush();
+			}
+		} finally {
+			socket.close();
+		}
+	}
+
+}
@@ -16,5 +16,68 @@ public class Defaults {
      */
     public static final int DEFAULT_POLL_INT_MILLIS = 2000;
 
+    /**
+     * Default number of operations buffered between pipeline stages.
+     */
+    public static final int DEFAULT_PIPELINE_DEPTH = 4;
+
+    /**
+     * Default number of concurrent file transfers for set-dir.
+     */
+    public static final int DEFAULT_PARALLELISM = 1;
+
+    /**
+     * Default number of times a failed file transfer is retried.
+     */
+    public static final int DEFAULT_RETRIES = 2;
+
+    /**
+     * Default number of operations of a script parallel block run at a time.
+     */
+    public static final int DEFAULT_SCRIPT_PARALLELISM = 4;
+
+    /**
+     * Assumed request round trip when planning a transfer before any request
+     * has been timed, in milliseconds.
+     */
+    public static final long DEFAULT_LATENCY_MILLIS = 50;
+
+    /**
+     * Assumed upload bandwidth to the device when planning a transfer, in KB
+     * (1000 bytes) per second.
+     */
+    public static final long DEFAULT_BANDWIDTH_KB_PER_SECOND = 5000;
+
+    /**
+     * Assumed device cost of a do-import beyond its round trip when planning
+     * a transfer, in milliseconds.
+     */
+    public static final long DEFAULT_IMPORT_OVERHEAD_MILLIS = 1500;
+
+    /**
+     * Default port the exporter serves /metrics on.
+     */
+    public static final int DEFAULT_METRICS_PORT = 9555;
+
+    /**
+     * Default interval between exporter polls of an appliance, in seconds.
+     */
+    public static final int DEFAULT_EXPORTER_INTERVAL_SECONDS = 15;
+
+    /**
+     * Default get-status classes polled by the exporter.
+     */
+    public static final String DEFAULT_EXPORTER_CLASSES = "CPUUsage,MemoryStatus,ObjectStatus,HTTPMeanTransactionTime";
+
+    /**
+     * Default loopback port the command daemon listens on.
+     */
+    public static final int DEFAULT_DAEMON_PORT = 9556;
+
+    /**
+     * Default time the command daemon waits for a client to send its command.
+     */
+    public static final int DEFAULT_DAEMON_REQUEST_TIMEOUT_MILLIS = 10000;
+
     private Defaults() { }
 }
@@ -0,0 +1,160 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+
+import org.dpdirect.utils.ZipStreamExtractor;
+
+/**
+ * Streams the zip content of a 'do-export' response straight into a local
+ * directory. The base64 content is decoded into a pipe, and unzipped from the
+ * pipe on a separate thread as it arrives, so neither the response nor the zip
+ * is held in memory or written to disk.
+ *
+ * With overwrite set, each top level directory of the export replaces the
+ * existing local one, deleted when the first entry under it is read. Local
+ * directories the export does not contain are left alone.
+ */
+public class ExportResponseHandler extends FileResponseHandler {
+
+	/** Size of the pipe between the decoder and the extractor. */
+	private static final int PIPE_SIZE = 1024 * 1024;
+
+	/** Number of threads writing extracted files. */
+	protected static final int WRITERS = 4;
+
+	private final ZipStreamExtractor extractor;
+
+	private Thread thread = null;
+
+	private volatile IOException failure = null;
+
+	/**
+	 * Constructs a new <code>ExportResponseHandler</code>.
+	 *
+	 * @param destination
+	 *            the local directory to extract to.
+	 * @param sourceDir
+	 *            the exported device directory, eg. 'local:/xsl'.
+	 * @param overwrite
+	 *            replace the existing local directories the export contains.
+	 */
+	public ExportResponseHandler(File destination, String sourceDir,
+			boolean overwrite) {
+		super(destination);
+		this.extractor = new ZipStreamExtractor(destination,
+				sourceDir.replace(":", ""), WRITERS, overwrite);
+	}
+
+	/**
+	 * @return the number of files extracted.
+	 */
+	public int getFiles() {
+		return extractor.getFiles();
+	}
+
+	@Override
+	public long getBytes() {
+		return extractor.getBytes();
+	}
+
+	/**
+	 * Extract the exported zip, reporting an extraction failure in place of
+	 * the broken pipe it causes.
+	 */
+	@Override
+	public void handleResponse(InputStream in) throws Exception {
+		try {
+			super.handleResponse(in);
+		} catch (Exception ex) {
+			if (null != failure) {
+				throw failure;
+			}
+			throw ex;
+		}
+	}
+
+	@Override
+	protected void prepare() throws IOException {
+		if (!destination.isDirectory() && !destination.mkdirs()
+				&& !destination.isDirectory()) {
+			throw new IOException("Cannot create directory " + destination);
+		}
+	}
+
+	@Override
+	protected OutputStream openOutput() throws IOException {
+		final PipedInputStream in = new PipedInputStream(PIPE_SIZE);
+		PipedOutputStream out = new PipedOutputStream(in);
+		thread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					extractor.extract(in);
+					// drain anything after the zip, so the decoder never blocks.
+					byte[] rest = new byte[8192];
+					while (in.read(rest) >= 0) {
+					}
+				} catch (IOException ex) {
+					failure = ex;
+				} finally {
+					try {
+						in.close();
+					} catch (IOException ex) {
+						// Ignore.
+					}
+				}
+			}
+		}, "dpdirect-extract");
+		thread.setDaemon(true);
+		thread.start();
+		return out;
+	}
+
+	@Override
+	protected void discard() {
+		if (null != thread) {
+			thread.interrupt();
+			join();
+		}
+	}
+
+	@Override
+	protected void commit() throws IOException {
+		join();
+		if (null != failure) {
+			throw failure;
+		}
+	}
+
+	private void join() {
+		if (null == thread) {
+			return;
+		}
+		try {
+			thread.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,230 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.dpdirect.utils.Base64StreamDecoder;
+import org.dpdirect.utils.PostXML;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Streams the base64 content of a 'get-file' response straight to a local
+ * file, without holding the response or the decoded file in memory.
+ *
+ * The content is written to a '.part' file alongside the destination and
+ * renamed once complete, so an interrupted download never leaves a truncated
+ * file under the destination name. Missing parent directories are created.
+ */
+public class FileResponseHandler extends DefaultHandler implements
+		PostXML.ResponseHandler {
+
+	/** Characters examined before decoding, to recognise an ERROR result. */
+	private static final int LEAD_CHARS = 16;
+
+	/** Maximum length of response text kept for an error message. */
+	private static final int MAX_ERROR_TEXT = 2000;
+
+	/** The destination file. */
+	protected File destination = null;
+
+	/** Decoded bytes written. */
+	protected long bytes = 0;
+
+	private File partFile = null;
+
+	private OutputStream out = null;
+
+	private Base64StreamDecoder decoder = null;
+
+	private StringBuilder lead = null;
+
+	private boolean inFile = false;
+
+	private boolean saved = false;
+
+	private StringBuilder responseText = new StringBuilder();
+
+	/**
+	 * Constructs a new <code>FileResponseHandler</code>.
+	 *
+	 * @param destination
+	 *            the local file to save the content to.
+	 */
+	public FileResponseHandler(File destination) {
+		this.destination = destination;
+	}
+
+	/**
+	 * Parse the response, saving the file content to the destination.
+	 *
+	 * @throws IOException
+	 *             if the response holds no file content, or it cannot be
+	 *             saved.
+	 */
+	public void handleResponse(InputStream in) throws Exception {
+		prepare();
+		try {
+			SAXParserFactory factory = SAXParserFactory.newInstance();
+			factory.setNamespaceAware(true);
+			factory.newSAXParser().parse(in, this);
+		} catch (Exception ex) {
+			closeQuietly();
+			discard();
+			throw ex;
+		}
+		closeQuietly();
+		if (!saved) {
+			discard();
+			String text = responseText.toString().trim();
+			throw new IOException("Failed to get " + destination.getName()
+					+ (text.isEmpty() ? "" : " : " + text));
+		}
+		commit();
+	}
+
+	/**
+	 * Create the destination's parent directories before parsing.
+	 */
+	protected void prepare() throws IOException {
+		File parent = destination.getAbsoluteFile().getParentFile();
+		if (null != parent && !parent.isDirectory() && !parent.mkdirs()
+				&& !parent.isDirectory()) {
+			throw new IOException("Cannot create directory " + parent);
+		}
+		partFile = new File(destination.getPath() + ".part");
+	}
+
+	/**
+	 * @return the stream receiving the decoded content.
+	 */
+	protected OutputStream openOutput() throws IOException {
+		return new BufferedOutputStream(new FileOutputStream(partFile), 65536);
+	}
+
+	/**
+	 * Discard partial content after a failure.
+	 */
+	protected void discard() {
+		partFile.delete();
+	}
+
+	/**
+	 * Move the completed content into place.
+	 */
+	protected void commit() throws IOException {
+		if (destination.exists() && !destination.delete()) {
+			partFile.delete();
+			throw new IOException("Cannot replace " + destination);
+		}
+		if (!partFile.renameTo(destination)) {
+			throw new IOException("Cannot rename " + partFile + " to "
+					+ destination);
+		}
+	}
+
+	/**
+	 * @return the number of bytes saved.
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	@Override
+	public void startElement(String uri, String localName, String qName,
+			Attributes attributes) throws SAXException {
+		if ("file".equals(localName) && null != uri
+				&& uri.contains("http://www.datapower.com/schemas/management")) {
+			try {
+				out = openOutput();
+			} catch (IOException ex) {
+				throw new SAXException(ex.getMessage(), ex);
+			}
+			decoder = new Base64StreamDecoder(out);
+			lead = new StringBuilder();
+			inFile = true;
+		}
+	}
+
+	@Override
+	public void characters(char[] ch, int start, int length)
+			throws SAXException {
+		try {
+			if (!inFile) {
+				if (responseText.length() < MAX_ERROR_TEXT) {
+					responseText.append(ch, start, length);
+				}
+			} else if (null != lead) {
+				lead.append(ch, start, length);
+				if (lead.length() >= LEAD_CHARS) {
+					decoder.decode(lead.toString());
+					lead = null;
+				}
+			} else {
+				decoder.decode(ch, start, length);
+			}
+		} catch (IOException ex) {
+			throw new SAXException(ex.getMessage(), ex);
+		}
+	}
+
+	@Override
+	public void endElement(String uri, String localName, String qName)
+			throws SAXException {
+		if (inFile && "file".equals(localName)) {
+			inFile = false;
+			try {
+				if (null != lead) {
+					if ("ERROR".equals(lead.toString().trim())) {
+						responseText.append("ERROR");
+						return;
+					}
+					decoder.decode(lead.toString());
+					lead = null;
+				}
+				decoder.finish();
+				bytes = decoder.getBytesWritten();
+				out.close();
+				out = null;
+				saved = true;
+			} catch (IOException ex) {
+				throw new SAXException(ex.getMessage(), ex);
+			}
+		}
+	}
+
+	private void closeQuietly() {
+		if (null != out) {
+			try {
+				out.close();
+			} catch (IOException ex) {
+				// already failing.
+			}
+			out = null;
+		}
+	}
+
+}
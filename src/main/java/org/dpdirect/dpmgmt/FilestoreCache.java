@@ -0,0 +1,212 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Indexed listing of a device filestore location (eg. 'local:') for one host
+ * and domain, holding the path, size and modified time of each file.
+ *
+ * The device can only list a whole location, so a refresh streams one
+ * get-filestore response and replaces the whole index. The index may be
+ * saved and reused without contacting the device while it is younger than a
+ * time-to-live.
+ */
+public class FilestoreCache {
+
+	/** Default directory holding listings, under the user home directory. */
+	public static final String DEFAULT_CACHE_DIR = ".dpdirect" + File.separator + "filestore";
+
+	/** The cache file, or null if held in memory only. */
+	protected File file = null;
+
+	/** Time of the last device listing, in milliseconds. */
+	protected long refreshed = 0;
+
+	/** All files by path. */
+	protected SortedMap<String, FilestoreEntry> entries = new TreeMap<String, FilestoreEntry>();
+
+	/**
+	 * Constructs a new, empty <code>FilestoreCache</code>.
+	 *
+	 * @param file
+	 *            the cache file, or null to hold the listing in memory only.
+	 */
+	public FilestoreCache(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * The default cache file for a host, domain and location.
+	 *
+	 * @return a file in the user's dpdirect cache directory.
+	 */
+	public static File defaultFile(String host, String domain, String location) {
+		String key = host + "_" + ((null == domain) ? "default" : domain) + "_" + location;
+		String name = key.replaceAll("[^A-Za-z0-9._-]+", "_") + "-"
+				+ Integer.toHexString(key.hashCode()) + ".filestore";
+		return new File(new File(System.getProperty("user.home"), DEFAULT_CACHE_DIR), name);
+	}
+
+	/**
+	 * Load a saved listing, or return an empty one if the file does not
+	 * exist.
+	 *
+	 * @throws IOException
+	 *             if the file exists but cannot be read.
+	 */
+	public static FilestoreCache load(File file) throws IOException {
+		FilestoreCache cache = new FilestoreCache(file);
+		if (!file.isFile()) {
+			return cache;
+		}
+		List<FilestoreEntry> listing = new ArrayList<FilestoreEntry>();
+		long listed = 0;
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] fields = line.split("\t", -1);
+				try {
+					if (fields.length == 2 && "T".equals(fields[0])) {
+						listed = Long.parseLong(fields[1]);
+					} else if (fields.length == 4 && "F".equals(fields[0])) {
+						listing.add(new FilestoreEntry(fields[3], Long.parseLong(fields[1]),
+								fields[2].isEmpty() ? null : fields[2]));
+					}
+				} catch (NumberFormatException ex) {
+					// skip a corrupt line - the next refresh restores it.
+				}
+			}
+		} finally {
+			in.close();
+		}
+		cache.update(listing);
+		cache.refreshed = listed;
+		return cache;
+	}
+
+	/**
+	 * Write the listing to the cache file.
+	 *
+	 * @throws IOException
+	 *             if the listing cannot be written.
+	 */
+	public void save() throws IOException {
+		if (null == file) {
+			return;
+		}
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (null != parent && !parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Cannot create directory " + parent);
+		}
+		File temp = new File(file.getPath() + ".tmp");
+		BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(temp), "UTF-8"));
+		try {
+			out.write("T\t" + refreshed + "\n");
+			for (FilestoreEntry entry : entries.values()) {
+				out.write("F\t" + entry.getSize() + "\t"
+						+ ((null == entry.getModified()) ? "" : entry.getModified())
+						+ "\t" + entry.getPath() + "\n");
+			}
+		} finally {
+			out.close();
+		}
+		if (file.exists() && !file.delete()) {
+			throw new IOException("Cannot replace " + file);
+		}
+		if (!temp.renameTo(file)) {
+			throw new IOException("Cannot rename " + temp + " to " + file);
+		}
+	}
+
+	/**
+	 * Mark a saved listing as stale, so that the next use lists the device
+	 * again. Does nothing if there is no saved listing.
+	 *
+	 * @throws IOException
+	 *             if the listing cannot be rewritten.
+	 */
+	public static void invalidate(File file) throws IOException {
+		if (file.isFile()) {
+			FilestoreCache cache = load(file);
+			cache.refreshed = 0;
+			cache.save();
+		}
+	}
+
+	/**
+	 * @param ttlMillis
+	 *            the maximum age of a reusable listing.
+	 * @return true if the listing may be used without listing the device.
+	 */
+	public boolean isFresh(long ttlMillis) {
+		return refreshed > 0 && System.currentTimeMillis() - refreshed < ttlMillis;
+	}
+
+	/**
+	 * Replace the listing with a new device listing.
+	 *
+	 * @param listing
+	 *            every file listed by the device.
+	 */
+	public void update(List<FilestoreEntry> listing) {
+		entries = new TreeMap<String, FilestoreEntry>();
+		for (FilestoreEntry entry : listing) {
+			entries.put(entry.getPath(), entry);
+		}
+		refreshed = System.currentTimeMillis();
+	}
+
+	/**
+	 * @param dir
+	 *            a device directory, eg. 'local:/xsl'.
+	 * @return every file under the directory, by path.
+	 */
+	public SortedMap<String, FilestoreEntry> subtree(String dir) {
+		return entries.subMap(dir + "/", dir + "/" + Character.MAX_VALUE);
+	}
+
+	/**
+	 * @return all files by path.
+	 */
+	public SortedMap<String, FilestoreEntry> getEntries() {
+		return entries;
+	}
+
+	/**
+	 * @return the time of the last device listing, in milliseconds.
+	 */
+	public long getRefreshed() {
+		return refreshed;
+	}
+
+}
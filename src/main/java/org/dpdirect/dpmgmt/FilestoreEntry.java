@@ -0,0 +1,115 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+
+/**
+ * A file on the device as listed by a 'get-filestore' operation.
+ */
+public class FilestoreEntry {
+
+	/** Format of the get-filestore 'modified' element. */
+	public static final String MODIFIED_DATE_FORMAT = "yyyy-MM-dd HH:mm:ss";
+
+	/** Device path, eg. 'local:/dir/file.xsl'. */
+	protected String path = null;
+
+	/** File size in bytes, or -1 if not listed. */
+	protected long size = -1;
+
+	/** Modified time as listed by the device, or null. */
+	protected String modified = null;
+
+	/**
+	 * Constructs a new <code>FilestoreEntry</code>.
+	 *
+	 * @param path
+	 *            the device path.
+	 * @param size
+	 *            the size in bytes, or -1 if not listed.
+	 * @param modified
+	 *            the modified time as listed, or null.
+	 */
+	public FilestoreEntry(String path, long size, String modified) {
+		this.path = path;
+		this.size = size;
+		this.modified = modified;
+	}
+
+	/**
+	 * @return the device path.
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * @return the size in bytes, or -1 if not listed.
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the modified time as listed by the device, or null.
+	 */
+	public String getModified() {
+		return modified;
+	}
+
+	/**
+	 * The device lists modified times in its own time zone; the value is
+	 * interpreted in the local time zone, which is consistent from run to run
+	 * for a given workstation.
+	 *
+	 * @return the modified time in milliseconds, or 0 if not listed.
+	 */
+	public long getModifiedMillis() {
+		if (null == modified) {
+			return 0;
+		}
+		try {
+			return new SimpleDateFormat(MODIFIED_DATE_FORMAT).parse(modified.trim()).getTime();
+		} catch (ParseException ex) {
+			return 0;
+		}
+	}
+
+	/**
+	 * A local file matches if it has the listed size and was stamped with the
+	 * listed modified time when downloaded.
+	 *
+	 * @param localFile
+	 *            the local copy of this file.
+	 * @return true if the local copy is unchanged.
+	 */
+	public boolean matches(File localFile) {
+		long modifiedMillis = getModifiedMillis();
+		return size >= 0 && modifiedMillis > 0 && localFile.isFile()
+				&& localFile.length() == size
+				&& Math.abs(localFile.lastModified() - modifiedMillis) < 1000;
+	}
+
+	@Override
+	public String toString() {
+		return path + " (" + size + " bytes, " + modified + ")";
+	}
+
+}
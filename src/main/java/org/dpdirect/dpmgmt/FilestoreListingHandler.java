@@ -0,0 +1,126 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.dpdirect.utils.PostXML;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Streams a 'get-filestore' response into a list of {@link FilestoreEntry},
+ * without building a DOM of what can be a many megabyte response.
+ */
+public class FilestoreListingHandler extends DefaultHandler implements
+		PostXML.ResponseHandler {
+
+	/** Maximum length of response text kept for an error message. */
+	private static final int MAX_ERROR_TEXT = 2000;
+
+	/** The listed files, in document order. */
+	protected List<FilestoreEntry> entries = new ArrayList<FilestoreEntry>();
+
+	private Deque<String> directories = new ArrayDeque<String>();
+
+	private boolean located = false;
+
+	private String fileName = null;
+
+	private long fileSize = -1;
+
+	private String fileModified = null;
+
+	private StringBuilder text = new StringBuilder();
+
+	private StringBuilder responseText = new StringBuilder();
+
+	/**
+	 * Parse the response.
+	 *
+	 * @throws IOException
+	 *             if the response is not a filestore listing.
+	 */
+	public void handleResponse(InputStream in) throws Exception {
+		SAXParserFactory factory = SAXParserFactory.newInstance();
+		factory.setNamespaceAware(true);
+		factory.newSAXParser().parse(in, this);
+		if (!located) {
+			throw new IOException("Failed to list filestore : "
+					+ responseText.toString().trim());
+		}
+	}
+
+	/**
+	 * @return the listed files, in document order.
+	 */
+	public List<FilestoreEntry> getEntries() {
+		return entries;
+	}
+
+	@Override
+	public void startElement(String uri, String localName, String qName,
+			Attributes attributes) {
+		text.setLength(0);
+		if ("location".equals(localName) || "directory".equals(localName)) {
+			located = true;
+			directories.push(attributes.getValue("name"));
+		} else if ("file".equals(localName) && !directories.isEmpty()) {
+			fileName = attributes.getValue("name");
+			fileSize = -1;
+			fileModified = null;
+		}
+	}
+
+	@Override
+	public void characters(char[] ch, int start, int length) {
+		text.append(ch, start, length);
+		if (!located && responseText.length() < MAX_ERROR_TEXT) {
+			responseText.append(ch, start, length);
+		}
+	}
+
+	@Override
+	public void endElement(String uri, String localName, String qName) {
+		if ("location".equals(localName) || "directory".equals(localName)) {
+			directories.pop();
+		} else if (null != fileName) {
+			if ("size".equals(localName)) {
+				try {
+					fileSize = Long.parseLong(text.toString().trim());
+				} catch (NumberFormatException ex) {
+					fileSize = -1;
+				}
+			} else if ("modified".equals(localName)) {
+				fileModified = text.toString().trim();
+			} else if ("file".equals(localName)) {
+				entries.add(new FilestoreEntry(directories.peek() + "/"
+						+ fileName, fileSize, fileModified));
+				fileName = null;
+			}
+		}
+		text.setLength(0);
+	}
+
+}
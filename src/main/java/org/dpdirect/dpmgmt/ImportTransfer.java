@@ -0,0 +1,181 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.dpdirect.dpmgmt.Operation.Option;
+import org.dpdirect.utils.ImportZip;
+
+/**
+ * Uploads a set of set-file operations as one or more do-import zips
+ * ('shards'), posted over a bounded pool of worker threads. Each shard is
+ * zipped and base64 encoded straight into its request as it is posted, so
+ * zipping overlaps the upload and no temporary zip is written.
+ *
+ * A failed shard fails every set-file it carries.
+ */
+public class ImportTransfer extends ParallelTransfer {
+
+	/** The custom op on whose behalf the shards are posted. */
+	protected DPCustomOp parent = null;
+
+	/** Number of zips to split the files across. */
+	protected int shards = 1;
+
+	/** Device path to local file, per shard operation. */
+	private final Map<Operation, Map<String, File>> shardFiles = new ConcurrentHashMap<Operation, Map<String, File>>();
+
+	/** The set-file operations carried, per shard operation. */
+	private final Map<Operation, List<Operation>> shardUploads = new ConcurrentHashMap<Operation, List<Operation>>();
+
+	/**
+	 * Constructs a new <code>ImportTransfer</code>.
+	 *
+	 * @param parent
+	 *            the custom op on whose behalf the shards are posted.
+	 * @param parallelism
+	 *            maximum number of concurrent shards.
+	 * @param retries
+	 *            number of times a failed shard is retried.
+	 * @param shards
+	 *            number of zips to split the files across.
+	 */
+	public ImportTransfer(DPCustomOp parent, int parallelism, int retries, int shards) {
+		super(parent.DPDBase, parallelism, retries);
+		this.parent = parent;
+		this.shards = Math.max(1, shards);
+	}
+
+	/**
+	 * Zip and import the files of the given set-file operations.
+	 *
+	 * @param operations
+	 *            set-file operations, each naming a device path and a local
+	 *            file.
+	 * @return the set-file operations whose shard failed every attempt.
+	 */
+	@Override
+	public List<Operation> execute(List<Operation> operations) {
+		List<Operation> imports = partition(operations);
+		List<Operation> failed = new ArrayList<Operation>();
+		for (Operation failedImport : super.execute(imports)) {
+			failed.addAll(shardUploads.get(failedImport));
+			// report the import, where the device gives its reason.
+			if (null != failedImport.getResponse()) {
+				for (Operation upload : shardUploads.get(failedImport)) {
+					upload.setResponse(failedImport.getResponse());
+				}
+			}
+		}
+		return failed;
+	}
+
+	/**
+	 * Split the uploads into shards of similar size, largest files first.
+	 *
+	 * @return a do-import operation per non-empty shard.
+	 */
+	protected List<Operation> partition(List<Operation> operations) {
+		final Map<Operation, Integer> order = new IdentityHashMap<Operation, Integer>();
+		for (int i = 0; i < operations.size(); i++) {
+			order.put(operations.get(i), i);
+		}
+		List<Operation> bySize = new ArrayList<Operation>(operations);
+		Collections.sort(bySize, new Comparator<Operation>() {
+			public int compare(Operation a, Operation b) {
+				return Long.compare(ParallelTransfer.sourceSize(b), ParallelTransfer.sourceSize(a));
+			}
+		});
+		int count = Math.min(shards, Math.max(1, operations.size()));
+		List<List<Operation>> groups = new ArrayList<List<Operation>>();
+		long[] sizes = new long[count];
+		for (int i = 0; i < count; i++) {
+			groups.add(new ArrayList<Operation>());
+		}
+		for (Operation upload : bySize) {
+			int smallest = 0;
+			for (int i = 1; i < count; i++) {
+				if (sizes[i] < sizes[smallest]) {
+					smallest = i;
+				}
+			}
+			groups.get(smallest).add(upload);
+			sizes[smallest] += ParallelTransfer.sourceSize(upload);
+		}
+
+		List<Operation> imports = new ArrayList<Operation>();
+		for (List<Operation> group : groups) {
+			if (group.isEmpty()) {
+				continue;
+			}
+			// zip in the original order, so directory listings read naturally.
+			Collections.sort(group, new Comparator<Operation>() {
+				public int compare(Operation a, Operation b) {
+					return order.get(a) - order.get(b);
+				}
+			});
+			Map<String, File> files = new LinkedHashMap<String, File>();
+			for (Operation upload : group) {
+				String devicePath = upload.getOptionValue(Constants.SET_FILE_OP_NAME
+						+ "@" + Constants.NAME_OPT_NAME);
+				for (Option option : upload.getOptions()) {
+					if (null != option.getSrcFile()) {
+						files.put(devicePath, new File(option.getSrcFile()));
+					}
+				}
+			}
+			Operation importOp = parent.newChildOperation(Constants.DO_IMPORT_OP_NAME);
+			importOp.addOption("overwrite-files",
+					String.valueOf(parent.op.getOverwrite()));
+			importOp.addOption("source-type", "ZIP");
+			importOp.addOption(Constants.INPUT_FILE_OPT_NAME,
+					new ImportZip(files, parent.op.getEffectiveDomain()));
+			shardFiles.put(importOp, files);
+			shardUploads.put(importOp, group);
+			imports.add(importOp);
+		}
+		return imports;
+	}
+
+	@Override
+	protected int countOf(Operation operation) {
+		List<Operation> uploads = shardUploads.get(operation);
+		return (null == uploads) ? 1 : uploads.size();
+	}
+
+	/**
+	 * @return the total size of the files in the shard, before zipping.
+	 */
+	@Override
+	protected long sizeOf(Operation operation) {
+		long size = 0;
+		for (File file : shardFiles.get(operation).values()) {
+			size += file.length();
+		}
+		return size;
+	}
+
+}
@@ -0,0 +1,394 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.dpdirect.utils.JsonWriter;
+import org.dpdirect.utils.PostXML;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Streams a SOMA or AMP response out as JSON records - each status object,
+ * configuration object, 'log-entry', 'cfg-result' and 'file-result' - each
+ * record written as soon as its end tag is parsed. Only the record being
+ * parsed is held, so a status or log dump of any size is written in constant
+ * memory.
+ *
+ * As NDJSON each record is one line. As JSON the records are the elements of
+ * one array. A response holding no records is written as a single record of
+ * its values, eg. a 'result' of 'OK'.
+ *
+ * Each record is a JSON object, with its element name as 'record', its
+ * attributes, and its child elements. A child holding only text is a string,
+ * any other an object, and repeated children an array.
+ *
+ * A SOAP fault, an error 'result' or 'log-event', or a failed 'cfg-result' is
+ * kept as the fault of the response, for the caller to handle once the response ends.
+ */
+public class JsonResponseHandler extends DefaultHandler implements
+		PostXML.ResponseHandler {
+
+	/** Member naming the element of a record. */
+	public static final String RECORD_NAME = "record";
+
+	/** Member holding the text of an element that also has attributes. */
+	public static final String VALUE_NAME = "value";
+
+	private final Writer out;
+
+	private final JsonWriter json;
+
+	private final boolean lines;
+
+	private final Pattern filter;
+
+	private final Pattern filterOut;
+
+	private int records = 0;
+
+	private int written = 0;
+
+	/** The record being parsed, then its open descendants. */
+	private final List<Element> open = new ArrayList<Element>();
+
+	/** Values outside any record, by element name. */
+	private final Map<String, String> values = new LinkedHashMap<String, String>();
+
+	private final StringBuilder text = new StringBuilder();
+
+	/** Element names of the open elements outside any record. */
+	private final List<String> path = new ArrayList<String>();
+
+	/** Name of the response element, within any SOAP envelope. */
+	private String responseName = "response";
+
+	private boolean named = false;
+
+	private ResponseClassifier classifier = new ResponseClassifier(null);
+
+	/** Text of the first error in the response, or null. */
+	private String fault = null;
+
+	/** True within a 'log-event' of an error level. */
+	private boolean errorEvent = false;
+
+	/**
+	 * Constructs a new <code>JsonResponseHandler</code>.
+	 *
+	 * @param out
+	 *            the target of the JSON.
+	 * @param lines
+	 *            true for NDJSON, false for a JSON array.
+	 * @param filter
+	 *            a record is written only if its text matches, or null.
+	 * @param filterOut
+	 *            a record is not written if its text matches, or null.
+	 */
+	public JsonResponseHandler(Writer out, boolean lines, Pattern filter,
+			Pattern filterOut) {
+		this.out = out;
+		this.json = new JsonWriter(out);
+		this.lines = lines;
+		this.filter = filter;
+		this.filterOut = filterOut;
+	}
+
+	/**
+	 * Parse the response, writing each record as it is parsed.
+	 */
+	public void handleResponse(InputStream in) throws Exception {
+		handleResponse(new InputSource(in));
+	}
+
+	/**
+	 * Parse the response, writing each record as it is parsed.
+	 */
+	public void handleResponse(InputSource in) throws Exception {
+		SAXParserFactory factory = SAXParserFactory.newInstance();
+		factory.setNamespaceAware(true);
+		factory.newSAXParser().parse(in, this);
+	}
+
+	/**
+	 * @param classifier
+	 *            judges which 'result' and 'cfg-result' states are errors.
+	 */
+	public void setClassifier(ResponseClassifier classifier) {
+		this.classifier = classifier;
+	}
+
+	/**
+	 * @return the text of the first error in the response, or null if there
+	 *         was none.
+	 */
+	public String getFault() {
+		return fault;
+	}
+
+	/**
+	 * @return the number of records parsed.
+	 */
+	public int getRecordCount() {
+		return records;
+	}
+
+	/**
+	 * @return the number of records written, once past the filters.
+	 */
+	public int getWrittenCount() {
+		return written;
+	}
+
+	@Override
+	public void startDocument() throws SAXException {
+		if (!lines) {
+			write("[");
+		}
+	}
+
+	@Override
+	public void endDocument() throws SAXException {
+		if (0 == records && !values.isEmpty()) {
+			Element response = new Element(responseName);
+			for (Map.Entry<String, String> value : values.entrySet()) {
+				Element child = new Element(value.getKey());
+				child.text.append(value.getValue());
+				response.children.add(child);
+			}
+			emit(response);
+		}
+		write(lines ? "" : (0 < written ? "\n]\n" : "]\n"));
+		try {
+			json.flush();
+		} catch (IOException ex) {
+			throw new SAXException(ex);
+		}
+	}
+
+	@Override
+	public void startElement(String uri, String localName, String qName,
+			Attributes attributes) {
+		text.setLength(0);
+		if (!open.isEmpty() || isRecord(localName)) {
+			Element element = new Element(localName);
+			for (int i = 0; i < attributes.getLength(); i++) {
+				element.attributes.put(attributes.getLocalName(i),
+						attributes.getValue(i));
+			}
+			if (!open.isEmpty()) {
+				open.get(open.size() - 1).children.add(element);
+			}
+			open.add(element);
+		} else {
+			if (!named && !"Envelope".equals(localName)
+					&& !"Body".equals(localName) && !"Header".equals(localName)) {
+				responseName = localName;
+				named = true;
+			}
+			if ("log-event".equals(localName)) {
+				errorEvent = classifier.isErrorCondition(attributes.getValue("level"));
+			}
+			path.add(localName);
+		}
+	}
+
+	@Override
+	public void characters(char[] ch, int start, int length) {
+		text.append(ch, start, length);
+	}
+
+	@Override
+	public void endElement(String uri, String localName, String qName)
+			throws SAXException {
+		if (!open.isEmpty()) {
+			Element element = open.remove(open.size() - 1);
+			if (element.children.isEmpty()) {
+				element.text.append(text.toString().trim());
+			}
+			if (open.isEmpty()) {
+				records++;
+				if ("cfg-result".equals(localName) && null == fault
+						&& classifier.isErrorCondition(element.attributes.get("status"))) {
+					StringBuilder recordText = new StringBuilder();
+					element.appendText(recordText);
+					fault = recordText.toString().trim();
+				}
+				emit(element);
+			}
+		} else {
+			String value = text.toString().trim();
+			path.remove(path.size() - 1);
+			if (0 < value.length()) {
+				values.put(localName, value);
+				if (null == fault && ("faultstring".equals(localName)
+						|| ("result".equals(localName) && classifier.isErrorCondition(value))
+						|| ("log-event".equals(localName) && errorEvent))) {
+					fault = value;
+				}
+			}
+		}
+		text.setLength(0);
+	}
+
+	/**
+	 * @return true if an element of the name, at this point, is a record.
+	 */
+	private boolean isRecord(String localName) {
+		if ("log-entry".equals(localName) || "cfg-result".equals(localName)
+				|| "file-result".equals(localName)) {
+			return true;
+		}
+		String parent = path.isEmpty() ? null : path.get(path.size() - 1);
+		return "status".equals(parent) || "config".equals(parent);
+	}
+
+	/**
+	 * Write a record, if it passes the filters.
+	 */
+	private void emit(Element record) throws SAXException {
+		if (null != filter || null != filterOut) {
+			StringBuilder recordText = new StringBuilder();
+			record.appendText(recordText);
+			if ((null != filter && !filter.matcher(recordText).find())
+					|| (null != filterOut && filterOut.matcher(recordText).find())) {
+				return;
+			}
+		}
+		try {
+			if (!lines) {
+				out.write(0 == written ? "\n" : ",\n");
+			}
+			json.beginObject();
+			json.name(RECORD_NAME).value(record.name);
+			record.writeMembers(json);
+			json.endObject();
+			if (lines) {
+				out.write('\n');
+			}
+		} catch (IOException ex) {
+			throw new SAXException(ex);
+		}
+		written++;
+	}
+
+	private void write(String text) throws SAXException {
+		try {
+			out.write(text);
+		} catch (IOException ex) {
+			throw new SAXException(ex);
+		}
+	}
+
+	/**
+	 * An element of the record being parsed.
+	 */
+	private static class Element {
+
+		private final String name;
+
+		private final Map<String, String> attributes = new LinkedHashMap<String, String>();
+
+		private final List<Element> children = new ArrayList<Element>();
+
+		private final StringBuilder text = new StringBuilder();
+
+		Element(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Write the attributes, then the children or the text.
+		 */
+		void writeMembers(JsonWriter json) throws IOException {
+			for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+				json.name(attribute.getKey()).value(attribute.getValue());
+			}
+			if (!children.isEmpty()) {
+				writeChildren(json);
+			} else if (0 < text.length()) {
+				json.name(VALUE_NAME).value(text.toString());
+			}
+		}
+
+		/**
+		 * Write the children by name, repeated children as an array.
+		 */
+		void writeChildren(JsonWriter json) throws IOException {
+			Map<String, List<Element>> byName = new LinkedHashMap<String, List<Element>>();
+			for (Element child : children) {
+				List<Element> named = byName.get(child.name);
+				if (null == named) {
+					named = new ArrayList<Element>(1);
+					byName.put(child.name, named);
+				}
+				named.add(child);
+			}
+			for (Map.Entry<String, List<Element>> named : byName.entrySet()) {
+				json.name(named.getKey());
+				if (1 == named.getValue().size()) {
+					named.getValue().get(0).writeValue(json);
+				} else {
+					json.beginArray();
+					for (Element child : named.getValue()) {
+						child.writeValue(json);
+					}
+					json.endArray();
+				}
+			}
+		}
+
+		/**
+		 * Write the element as a string if it holds only text, otherwise as
+		 * an object.
+		 */
+		void writeValue(JsonWriter json) throws IOException {
+			if (children.isEmpty() && attributes.isEmpty()) {
+				json.value(text.toString());
+				return;
+			}
+			json.beginObject();
+			writeMembers(json);
+			json.endObject();
+		}
+
+		void appendText(StringBuilder all) {
+			for (String value : attributes.values()) {
+				all.append(value).append(' ');
+			}
+			if (0 < text.length()) {
+				all.append(text).append(' ');
+			}
+			for (Element child : children) {
+				child.appendText(all);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,358 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.dpdirect.utils.LineHashWindow;
+
+/**
+ * Incremental tail of a device log file, polled with 'get-file'.
+ *
+ * The file content is decoded as it streams in. Content up to the end of the
+ * last line seen by the previous poll is skipped unparsed, after checking that
+ * the bytes just before that offset are unchanged. Only the lines after it are
+ * split, filtered and reported, so the work per poll does not grow with the
+ * number of lines already shown.
+ *
+ * When the file has been rotated or truncated the check fails. The next poll
+ * then reads from the start, reporting entries no older than the last entry
+ * seen, and dropping those in a {@link LineHashWindow} of recent lines.
+ */
+public class LogTail {
+
+	/** Marks the first line of a log entry. */
+	public static final Pattern TIMESTAMP = Pattern
+			.compile("^(\\d{8}T\\d{6}\\.\\d+Z)\\s+\\[");
+
+	/** Bytes before the offset compared to detect a rotated file. */
+	protected static final int CHECK_BYTES = 256;
+
+	/** Number of recent lines remembered to drop repeats after rotation. */
+	protected static final int DEDUP_WINDOW = 4096;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final int initialLines;
+
+	private final Pattern filter;
+
+	private final Pattern filterOut;
+
+	/** End of the last complete line seen. */
+	private long offset = 0;
+
+	/** The bytes just before the offset. */
+	private byte[] check = new byte[0];
+
+	/** Timestamp of the last entry reported. */
+	private String lastTimestamp = null;
+
+	private boolean polled = false;
+
+	private final LineHashWindow recent = new LineHashWindow(DEDUP_WINDOW);
+
+	// per poll state.
+
+	private long position = 0;
+
+	private boolean mismatched = false;
+
+	private final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+
+	private String entryTimestamp = null;
+
+	private boolean entryShown = false;
+
+	private long lineEnd = 0;
+
+	private byte[] lineCheck = null;
+
+	private Deque<Entry> lines = new ArrayDeque<Entry>();
+
+	/**
+	 * Constructs a new <code>LogTail</code>.
+	 *
+	 * @param initialLines
+	 *            number of lines shown from the first poll, 0 for all.
+	 * @param filter
+	 *            regex a shown line must contain, or null.
+	 * @param filterOut
+	 *            regex a shown line must not contain, or null.
+	 */
+	public LogTail(int initialLines, String filter, String filterOut) {
+		this.initialLines = initialLines;
+		this.filter = compile(filter);
+		this.filterOut = compile(filterOut);
+	}
+
+	/**
+	 * @param regex
+	 *            a filter regex, or null.
+	 * @return the compiled filter, or null if none is set.
+	 */
+	static Pattern compile(String regex) {
+		if (null == regex || Constants.NONE_OPT_VALUE.equals(regex)) {
+			return null;
+		}
+		return Pattern.compile(regex);
+	}
+
+	/**
+	 * Start a poll.
+	 *
+	 * @return the stream receiving the decoded file content.
+	 */
+	public OutputStream open() {
+		position = 0;
+		mismatched = false;
+		line.reset();
+		lineEnd = offset;
+		lineCheck = null;
+		lines.clear();
+		return new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] bytes, int start, int length) {
+				accept(bytes, start, length);
+			}
+		};
+	}
+
+	/**
+	 * Complete a poll.
+	 *
+	 * @return true if the new lines were read, false if the file was rotated
+	 *         or truncated since the last poll and should be read again.
+	 */
+	public boolean finish() {
+		polled = true;
+		if (mismatched || position < offset) {
+			// read the whole file next time.
+			offset = 0;
+			check = new byte[0];
+			entryTimestamp = null;
+			lines.clear();
+			return false;
+		}
+		if (null != lineCheck) {
+			offset = lineEnd;
+			check = lineCheck;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the lines to show from the last poll, in order.
+	 */
+	public List<String> getLines() {
+		List<String> text = new ArrayList<String>(lines.size());
+		for (Entry entry : lines) {
+			text.add(entry.getText());
+		}
+		return text;
+	}
+
+	/**
+	 * @return the lines to show from the last poll, in order, each with the
+	 *         timestamp of its log entry.
+	 */
+	public List<Entry> getEntries() {
+		return new ArrayList<Entry>(lines);
+	}
+
+	/**
+	 * @return the offset of the end of the last complete line seen.
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	private void accept(byte[] bytes, int start, int length) {
+		int end = start + length;
+		int i = start;
+		if (position < offset) {
+			// already seen - compare the bytes before the offset, skip the rest.
+			int skip = (int) Math.min(offset - position, length);
+			long checkFrom = offset - check.length;
+			for (int j = 0; j < skip; j++) {
+				long at = position + j;
+				if (at >= checkFrom && bytes[i + j] != check[(int) (at - checkFrom)]) {
+					mismatched = true;
+				}
+			}
+			i += skip;
+			position += skip;
+		}
+		if (mismatched) {
+			position += end - i;
+			return;
+		}
+		int from = i;
+		for (; i < end; i++) {
+			if (bytes[i] == '\n') {
+				line.write(bytes, from, i + 1 - from);
+				position += i + 1 - from;
+				from = i + 1;
+				completeLine();
+			}
+		}
+		line.write(bytes, from, end - from);
+		position += end - from;
+	}
+
+	private void completeLine() {
+		byte[] content = line.toByteArray();
+		line.reset();
+		lineEnd = position;
+		lineCheck = (content.length <= CHECK_BYTES) ? content : Arrays
+				.copyOfRange(content, content.length - CHECK_BYTES, content.length);
+
+		String text = new String(content, UTF8).trim();
+		if (text.length() <= 1) {
+			return;
+		}
+		Matcher stamp = TIMESTAMP.matcher(text);
+		if (stamp.find()) {
+			entryTimestamp = stamp.group(1);
+			entryShown = isNew(entryTimestamp, text);
+			if (entryShown) {
+				lastTimestamp = entryTimestamp;
+			}
+		} else if (null == entryTimestamp) {
+			entryShown = !polled || isNew(null, text);
+		}
+		if (!entryShown || !matches(text)) {
+			return;
+		}
+		lines.add(new Entry(entryTimestamp, text));
+		if (!polled && initialLines > 0 && lines.size() > initialLines) {
+			lines.removeFirst();
+		}
+	}
+
+	/**
+	 * @return is the entry newer than those reported, and not among the
+	 *         recently seen lines.
+	 */
+	private boolean isNew(String timestamp, String text) {
+		boolean seen = !recent.add(text);
+		if (null != lastTimestamp && null != timestamp
+				&& timestamp.compareTo(lastTimestamp) < 0) {
+			return false;
+		}
+		return !seen;
+	}
+
+	private boolean matches(String text) {
+		for (String messageId : DPCustomOp.OMITED_DP_MSG_IDS) {
+			if (text.contains("[" + messageId + "]")) {
+				return false;
+			}
+		}
+		return (null == filter || filter.matcher(text).find())
+				&& (null == filterOut || !filterOut.matcher(text).find());
+	}
+
+	/**
+	 * A line shown from the log.
+	 */
+	public static class Entry {
+
+		private final String timestamp;
+
+		private final String text;
+
+		/**
+		 * @param timestamp
+		 *            the timestamp of the log entry, or null if unknown.
+		 * @param text
+		 *            the line.
+		 */
+		public Entry(String timestamp, String text) {
+			this.timestamp = timestamp;
+			this.text = text;
+		}
+
+		/**
+		 * @return the timestamp of the log entry, shared by its continuation
+		 *         lines, or null if unknown.
+		 */
+		public String getTimestamp() {
+			return timestamp;
+		}
+
+		/**
+		 * @return the line.
+		 */
+		public String getText() {
+			return text;
+		}
+	}
+
+	/**
+	 * Streams a 'get-file' response of the log into the tail.
+	 */
+	public static class Handler extends FileResponseHandler {
+
+		private final LogTail tail;
+
+		/**
+		 * @param tail
+		 *            the tail receiving the content.
+		 * @param logName
+		 *            the log file, for error messages.
+		 */
+		public Handler(LogTail tail, String logName) {
+			super(new File(logName));
+			this.tail = tail;
+		}
+
+		@Override
+		protected void prepare() {
+		}
+
+		@Override
+		protected OutputStream openOutput() {
+			return tail.open();
+		}
+
+		@Override
+		protected void discard() {
+		}
+
+		@Override
+		protected void commit() {
+		}
+	}
+
+}
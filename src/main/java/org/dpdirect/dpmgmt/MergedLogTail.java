@@ -0,0 +1,312 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.log4j.Logger;
+import org.dpdirect.utils.Credentials;
+
+/**
+ * Tails the same log on several appliances at once, merging their lines into
+ * a single stream ordered by entry timestamp.
+ *
+ * Each appliance is polled by its own worker thread with its own
+ * {@link LogTail}, so a slow or unreachable appliance delays only its own
+ * lines. New lines are held in a small reorder buffer for a short time after
+ * they arrive, and released in timestamp order, so entries polled from
+ * different appliances a moment apart still interleave correctly. An entry
+ * arriving later than the reorder time is shown as soon as it arrives.
+ */
+public class MergedLogTail {
+
+	/** Least time a line is held for reordering. */
+	protected static final long MIN_REORDER_MILLIS = 1000;
+
+	/** Order of the reorder buffer - timestamp, then appliance, then arrival. */
+	private static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+		public int compare(Entry a, Entry b) {
+			int result = a.timestamp.compareTo(b.timestamp);
+			if (0 == result) {
+				result = a.hostIndex - b.hostIndex;
+			}
+			if (0 == result) {
+				result = (a.sequence < b.sequence) ? -1
+						: ((a.sequence == b.sequence) ? 0 : 1);
+			}
+			return result;
+		}
+	};
+
+	private final DPDirectBase base;
+
+	private final Operation operation;
+
+	private final long intervalMillis;
+
+	private final long reorderMillis;
+
+	private final List<Worker> workers = new ArrayList<Worker>();
+
+	/** Lines polled by the workers, not yet reordered. */
+	private final Queue<Entry> arrivals = new ConcurrentLinkedQueue<Entry>();
+
+	private final PriorityQueue<Entry> buffer = new PriorityQueue<Entry>(256,
+			ORDER);
+
+	/**
+	 * Constructs a new <code>MergedLogTail</code>.
+	 *
+	 * @param base
+	 *            the session posting the polls.
+	 * @param operation
+	 *            the 'get-file' operation of the log.
+	 * @param hosts
+	 *            the appliances to tail, each 'host' or 'host:port'.
+	 * @param initialLines
+	 *            number of lines shown from the first poll of each appliance,
+	 *            0 for all.
+	 * @param filter
+	 *            regex a shown line must contain, or null.
+	 * @param filterOut
+	 *            regex a shown line must not contain, or null.
+	 * @param intervalMillis
+	 *            the delay between polls of an appliance.
+	 */
+	public MergedLogTail(DPDirectBase base, Operation operation,
+			List<String> hosts, int initialLines, String filter,
+			String filterOut, long intervalMillis) {
+		this.base = base;
+		this.operation = operation;
+		this.intervalMillis = intervalMillis;
+		this.reorderMillis = Math.max(intervalMillis, MIN_REORDER_MILLIS);
+		int width = 0;
+		for (String host : hosts) {
+			width = Math.max(width, host.length());
+		}
+		for (String host : hosts) {
+			workers.add(new Worker(host, workers.size(), width, new LogTail(
+					initialLines, filter, filterOut)));
+		}
+	}
+
+	/**
+	 * Generate the poll and start a worker for each appliance.
+	 *
+	 * @return false if the poll could not be generated.
+	 */
+	public boolean start() {
+		if (!base.generatePayload(operation)) {
+			return false;
+		}
+		base.logPostedOperation(operation);
+		Credentials sessionCredentials = base.getCredentials();
+		for (Worker worker : workers) {
+			worker.credentials = base.getCredentialsFromNetrcConfig(worker.hostName);
+			if (null == worker.credentials) {
+				worker.credentials = sessionCredentials;
+			}
+			Thread thread = new Thread(worker, "dpdirect-tail-" + worker.host);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		return true;
+	}
+
+	/**
+	 * @return the lines due to be shown, in timestamp order.
+	 */
+	public List<Entry> drain() {
+		long now = System.currentTimeMillis();
+		for (Entry entry = arrivals.poll(); null != entry; entry = arrivals
+				.poll()) {
+			buffer.add(entry);
+		}
+		List<Entry> due = new ArrayList<Entry>();
+		// an earlier line still held keeps later ones back.
+		while (!buffer.isEmpty()
+				&& now - buffer.peek().arrived >= reorderMillis) {
+			due.add(buffer.poll());
+		}
+		return due;
+	}
+
+	/**
+	 * Stop the workers.
+	 */
+	public void close() {
+		for (Worker worker : workers) {
+			worker.poller.cancel();
+		}
+	}
+
+	/**
+	 * A line polled from one of the appliances.
+	 */
+	public static class Entry {
+
+		private final String timestamp;
+
+		private final int hostIndex;
+
+		private final long sequence;
+
+		private final long arrived;
+
+		private final String prefix;
+
+		private final String text;
+
+		Entry(String timestamp, int hostIndex, long sequence, long arrived,
+				String prefix, String text) {
+			this.timestamp = timestamp;
+			this.hostIndex = hostIndex;
+			this.sequence = sequence;
+			this.arrived = arrived;
+			this.prefix = prefix;
+			this.text = text;
+		}
+
+		/**
+		 * @return the appliance prefix, eg. '[dp-host-1] ', padded to align
+		 *         the lines of every appliance.
+		 */
+		public String getPrefix() {
+			return prefix;
+		}
+
+		/**
+		 * @return the line.
+		 */
+		public String getText() {
+			return text;
+		}
+	}
+
+	/**
+	 * Polls one appliance until cancelled.
+	 */
+	private class Worker implements Runnable {
+
+		private final String host;
+
+		private final String hostName;
+
+		private final String port;
+
+		private final int index;
+
+		private final String prefix;
+
+		private final LogTail tail;
+
+		private final PollScheduler poller;
+
+		private final String logName;
+
+		private Credentials credentials;
+
+		private long sequence = 0;
+
+		/** Timestamp given to lines before the first entry of the log. */
+		private String lastTimestamp = "";
+
+		private int failures = 0;
+
+		Worker(String host, int index, int width, LogTail tail) {
+			this.host = host;
+			this.index = index;
+			this.tail = tail;
+			int colon = host.lastIndexOf(':');
+			if (colon > 0) {
+				this.hostName = host.substring(0, colon);
+				this.port = host.substring(colon + 1);
+			} else {
+				this.hostName = host;
+				this.port = base.getPort();
+			}
+			StringBuilder label = new StringBuilder("[").append(host).append("]");
+			while (label.length() < width + 3) {
+				label.append(' ');
+			}
+			this.prefix = label.toString();
+			this.poller = new PollScheduler(intervalMillis,
+					operation.getPollBackoff());
+			this.logName = operation.getOptionValue(Constants.NAME_OPT_NAME);
+		}
+
+		public void run() {
+			// an unreachable appliance is retried ever less often.
+			PollScheduler retry = new PollScheduler(intervalMillis,
+					PollScheduler.Backoff.EXPONENTIAL);
+			while (!poller.isCancelled()) {
+				int shown = poll();
+				if (shown < 0) {
+					poller.sleep(retry.nextDelay());
+				} else {
+					retry.reset();
+					if (shown > 0) {
+						poller.reset();
+					}
+					poller.pause();
+				}
+			}
+		}
+
+		/**
+		 * @return the number of new lines, or -1 if the poll failed.
+		 */
+		private int poll() {
+			Logger log = base.getLogger();
+			// a rotated log is read again from the start.
+			boolean read = false;
+			for (int attempt = 0; attempt < 2 && !read; attempt++) {
+				try {
+					base.sendXMLInstance(operation, hostName, port, credentials,
+							new LogTail.Handler(tail, logName));
+				} catch (Exception ex) {
+					if (0 == failures++) {
+						log.error(host + " : " + ex.getMessage());
+					}
+					log.debug(host + " : " + ex.getMessage(), ex);
+					return -1;
+				}
+				read = tail.finish();
+			}
+			if (failures > 0) {
+				log.info(host + " : tail resumed.");
+				failures = 0;
+			}
+			long now = System.currentTimeMillis();
+			List<LogTail.Entry> entries = tail.getEntries();
+			for (LogTail.Entry entry : entries) {
+				if (null != entry.getTimestamp()) {
+					lastTimestamp = entry.getTimestamp();
+				}
+				arrivals.add(new Entry(lastTimestamp, index, sequence++, now,
+						prefix, entry.getText()));
+			}
+			return entries.size();
+		}
+	}
+
+}
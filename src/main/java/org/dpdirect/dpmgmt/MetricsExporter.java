@@ -0,0 +1,481 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.dpdirect.utils.Credentials;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Long running exporter, polling a set of 'get-status' classes from one or
+ * more appliances on a schedule and serving the results at a local /metrics
+ * endpoint in OpenMetrics text format.
+ *
+ * The schema is loaded and each get-status request generated once, when the
+ * exporter starts. Each appliance is then polled on its own thread, so a slow
+ * appliance does not delay the others. Responses are streamed through a
+ * {@link StatusHandler} straight into numeric gauges. A scrape is served from
+ * the results of the last poll of each appliance, and never waits on a poll.
+ *
+ * Every numeric field of a status entry becomes a gauge named
+ * datapower_&lt;class&gt;_&lt;field&gt;, labelled with the appliance and the
+ * text fields that identify the entry. The state fields OpState and
+ * AdminState become 1/0 gauges rather than labels, so that a change of state
+ * does not start a new series.
+ */
+public class MetricsExporter {
+
+	/** Prefix of the status gauges. */
+	protected static final String PREFIX = "datapower_";
+
+	/** Content type of an OpenMetrics scrape. */
+	protected static final String OPENMETRICS_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+	/** Content type of a Prometheus text scrape. */
+	protected static final String TEXT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	/** Text state fields exported as gauges, with the value counted as 1. */
+	private static final Map<String, String> STATE_FIELDS = new HashMap<String, String>();
+	static {
+		STATE_FIELDS.put("OpState", "up");
+		STATE_FIELDS.put("AdminState", "enabled");
+	}
+
+	/** Text fields that change with the state of an object, not exported. */
+	private static final Set<String> VOLATILE_FIELDS = new HashSet<String>();
+	static {
+		VOLATILE_FIELDS.add("EventCode");
+		VOLATILE_FIELDS.add("ErrorCode");
+		VOLATILE_FIELDS.add("ConfigState");
+		VOLATILE_FIELDS.add("Details");
+	}
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final DPDirectBase session;
+
+	private final List<Operation> polls = new ArrayList<Operation>();
+
+	private final List<Appliance> appliances = new ArrayList<Appliance>();
+
+	private final long intervalSeconds;
+
+	private ScheduledExecutorService scheduler = null;
+
+	private HttpServer server = null;
+
+	/**
+	 * Constructs a new <code>MetricsExporter</code>.
+	 *
+	 * @param session
+	 *            the session holding the schema, domain and credentials.
+	 * @param hosts
+	 *            the appliances to poll, each 'host' or 'host:port'.
+	 * @param classes
+	 *            the get-status classes to poll.
+	 * @param intervalSeconds
+	 *            the delay between polls of an appliance.
+	 */
+	public MetricsExporter(DPDirectBase session, List<String> hosts,
+			List<String> classes, long intervalSeconds) {
+		this.session = session;
+		this.intervalSeconds = Math.max(1, intervalSeconds);
+		for (String statusClass : classes) {
+			Operation poll = session.newOperation(Constants.GET_STATUS_OP_NAME);
+			poll.addOption(Constants.CLASS_OPT_NAME, statusClass);
+			polls.add(poll);
+		}
+		Credentials sessionCredentials = null;
+		for (String host : hosts) {
+			Appliance appliance = new Appliance(host);
+			appliance.credentials = session.getCredentialsFromNetrcConfig(appliance.hostName);
+			if (null == appliance.credentials) {
+				if (null == sessionCredentials) {
+					sessionCredentials = session.getCredentials();
+				}
+				appliance.credentials = sessionCredentials;
+			}
+			appliances.add(appliance);
+		}
+	}
+
+	/**
+	 * Run the exporter from the command line, until the process is stopped.
+	 * Arguments are an optional properties file, the global options of the
+	 * session, and the exporter options 'hosts', 'classes', 'interval',
+	 * 'metricsPort' and 'metricsAddress'.
+	 *
+	 * @param session
+	 *            a new session.
+	 * @param args
+	 *            the arguments following 'exporter'.
+	 */
+	public static void run(DPDirectBase session, String... args) {
+		Logger log = session.getLogger();
+		List<String> hosts = new ArrayList<String>();
+		String classes = Defaults.DEFAULT_EXPORTER_CLASSES;
+		long interval = Defaults.DEFAULT_EXPORTER_INTERVAL_SECONDS;
+		int port = Defaults.DEFAULT_METRICS_PORT;
+		String address = "localhost";
+		for (int i = 0; i < args.length; i++) {
+			String option = args[i];
+			if (option.startsWith("-")) {
+				option = option.substring(1);
+			}
+			int equals = option.indexOf('=');
+			if (i == 0 && equals < 0) {
+				session.processPropertiesFile(option);
+				continue;
+			}
+			String name = (equals < 0) ? option : option.substring(0, equals);
+			String value = (equals < 0) ? null : option.substring(equals + 1);
+			try {
+				if (Constants.HOSTS_OPT_NAME.equalsIgnoreCase(name)) {
+					hosts = split(value);
+				} else if (Constants.CLASSES_OPT_NAME.equalsIgnoreCase(name)) {
+					classes = value;
+				} else if (Constants.INTERVAL_OPT_NAME.equalsIgnoreCase(name)) {
+					interval = Long.parseLong(value.trim());
+				} else if (Constants.METRICS_PORT_OPT_NAME.equalsIgnoreCase(name)) {
+					port = Integer.parseInt(value.trim());
+				} else if (Constants.METRICS_ADDRESS_OPT_NAME.equalsIgnoreCase(name)) {
+					address = value;
+				} else {
+					session.setGlobalOption(name, value);
+				}
+			} catch (NumberFormatException ex) {
+				log.warn("Ignoring invalid " + name + " value '" + value + "'");
+			}
+		}
+		if (hosts.isEmpty()) {
+			if (null == session.getHostName()) {
+				log.error("Hostname not set. Set with \"hostName=<name>\" or \"hosts=<name>,<name>\"");
+				session.exit(1);
+			}
+			hosts.add(session.getHostName() + ":" + session.getPort());
+		}
+		session.setSchema();
+		final MetricsExporter exporter = new MetricsExporter(session, hosts,
+				split(classes), interval);
+		try {
+			exporter.start(new InetSocketAddress(address, port));
+		} catch (IOException ex) {
+			log.error("Failed to serve metrics on " + address + ":" + port
+					+ " : " + ex.getMessage());
+			session.exit(1);
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				exporter.stop();
+			}
+		}, "dpdirect-exporter-stop"));
+		log.info("Serving metrics of " + hosts + " on http://" + address
+				+ ":" + port + "/metrics");
+		try {
+			Thread.currentThread().join();
+		} catch (InterruptedException ex) {
+			exporter.stop();
+		}
+	}
+
+	private static List<String> split(String list) {
+		List<String> items = new ArrayList<String>();
+		if (null != list) {
+			for (String item : list.split("[,\\s]+")) {
+				if (0 < item.length()) {
+					items.add(item);
+				}
+			}
+		}
+		return items;
+	}
+
+	/**
+	 * Generate the polls, start polling each appliance and serve /metrics.
+	 *
+	 * @param address
+	 *            the address to serve on.
+	 * @throws IOException
+	 *             if the address cannot be bound.
+	 */
+	public void start(InetSocketAddress address) throws IOException {
+		for (Operation poll : polls) {
+			if (!session.generatePayload(poll)) {
+				throw new IOException("Failed to generate get-status for "
+						+ poll.getOptionValue(Constants.CLASS_OPT_NAME));
+			}
+		}
+		server = HttpServer.create(address, 0);
+		server.createContext("/metrics", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				serve(exchange);
+			}
+		});
+		server.start();
+		scheduler = Executors.newScheduledThreadPool(appliances.size(),
+				new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "dpdirect-exporter-"
+								+ count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		for (final Appliance appliance : appliances) {
+			scheduler.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					poll(appliance);
+				}
+			}, 0, intervalSeconds, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Stop polling and serving.
+	 */
+	public void stop() {
+		if (null != scheduler) {
+			scheduler.shutdownNow();
+		}
+		if (null != server) {
+			server.stop(0);
+		}
+	}
+
+	/**
+	 * Poll every class from the appliance, replacing its last results.
+	 */
+	protected void poll(Appliance appliance) {
+		Logger log = session.getLogger();
+		long start = System.nanoTime();
+		Map<String, List<StatusHandler.Entry>> results = new LinkedHashMap<String, List<StatusHandler.Entry>>();
+		boolean failed = false;
+		for (Operation poll : polls) {
+			String statusClass = poll.getOptionValue(Constants.CLASS_OPT_NAME);
+			StatusHandler status = new StatusHandler();
+			try {
+				session.sendXMLInstance(poll, appliance.hostName, appliance.port,
+						appliance.credentials, status);
+				results.put(statusClass, status.getEntries());
+			} catch (Exception ex) {
+				results.put(statusClass, null);
+				if (!appliance.failing) {
+					log.error(appliance.host + " " + statusClass + " : "
+							+ ex.getMessage());
+				}
+				log.debug(appliance.host + " " + statusClass + " : "
+						+ ex.getMessage(), ex);
+				failed = true;
+			}
+		}
+		if (appliance.failing && !failed) {
+			log.info(appliance.host + " : polling resumed.");
+		}
+		appliance.failing = failed;
+		appliance.pollSeconds = (System.nanoTime() - start) / 1e9;
+		appliance.results = results;
+	}
+
+	private void serve(HttpExchange exchange) throws IOException {
+		try {
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			String accept = exchange.getRequestHeaders().getFirst("Accept");
+			boolean openMetrics = null != accept
+					&& accept.contains("application/openmetrics-text");
+			byte[] body = render().getBytes(UTF8);
+			exchange.getResponseHeaders().set("Content-Type",
+					openMetrics ? OPENMETRICS_TYPE : TEXT_TYPE);
+			exchange.sendResponseHeaders(200, body.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.close();
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * @return the last results of every appliance in OpenMetrics text format.
+	 */
+	public String render() {
+		// families by name, each with its samples, so each is written once.
+		Map<String, List<String>> families = new TreeMap<String, List<String>>();
+		Set<String> seen = new HashSet<String>();
+		for (Appliance appliance : appliances) {
+			String applianceLabel = "appliance=\"" + escape(appliance.host) + "\"";
+			Map<String, List<StatusHandler.Entry>> results = appliance.results;
+			if (null == results) {
+				continue;
+			}
+			for (Map.Entry<String, List<StatusHandler.Entry>> result : results.entrySet()) {
+				addSample(families, seen, "dpdirect_up", applianceLabel
+						+ ",class=\"" + escape(result.getKey()) + "\"",
+						(null == result.getValue()) ? 0 : 1);
+				if (null == result.getValue()) {
+					continue;
+				}
+				for (StatusHandler.Entry entry : result.getValue()) {
+					String family = PREFIX + metricName(entry.getStatusClass()) + "_";
+					StringBuilder labels = new StringBuilder(applianceLabel);
+					Map<String, Double> values = new LinkedHashMap<String, Double>(
+							entry.getValues());
+					for (Map.Entry<String, String> label : entry.getLabels().entrySet()) {
+						String state = STATE_FIELDS.get(label.getKey());
+						if (null != state) {
+							values.put(label.getKey(),
+									state.equalsIgnoreCase(label.getValue()) ? 1.0 : 0.0);
+						} else if (!VOLATILE_FIELDS.contains(label.getKey())) {
+							labels.append(',').append(metricName(label.getKey()))
+									.append("=\"").append(escape(label.getValue()))
+									.append('"');
+						}
+					}
+					for (Map.Entry<String, Double> value : values.entrySet()) {
+						addSample(families, seen, family + metricName(value.getKey()),
+								labels.toString(), value.getValue());
+					}
+				}
+			}
+			addSample(families, seen, "dpdirect_poll_duration_seconds",
+					applianceLabel, appliance.pollSeconds);
+		}
+		StringBuilder text = new StringBuilder();
+		for (Map.Entry<String, List<String>> family : families.entrySet()) {
+			text.append("# TYPE ").append(family.getKey()).append(" gauge\n");
+			for (String sample : family.getValue()) {
+				text.append(sample).append('\n');
+			}
+		}
+		text.append("# EOF\n");
+		return text.toString();
+	}
+
+	private static void addSample(Map<String, List<String>> families,
+			Set<String> seen, String name, String labels, double value) {
+		String series = name + "{" + labels + "}";
+		// two entries alike in every label would be rejected by the scraper.
+		if (!seen.add(series)) {
+			return;
+		}
+		List<String> samples = families.get(name);
+		if (null == samples) {
+			samples = new ArrayList<String>();
+			families.put(name, samples);
+		}
+		samples.add(series + " " + format(value));
+	}
+
+	/**
+	 * @return the name lower cased, with characters other than letters,
+	 *         digits and '_' replaced by '_'.
+	 */
+	protected static String metricName(String name) {
+		StringBuilder metric = new StringBuilder(name.length());
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_') {
+				metric.append(c);
+			} else if (c >= 'A' && c <= 'Z') {
+				metric.append((char) (c + ('a' - 'A')));
+			} else {
+				metric.append('_');
+			}
+		}
+		if (0 == metric.length() || Character.isDigit(metric.charAt(0))) {
+			metric.insert(0, '_');
+		}
+		return metric.toString();
+	}
+
+	/**
+	 * @return the label value with backslash, quote and newline escaped.
+	 */
+	protected static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"")
+				.replace("\n", "\\n");
+	}
+
+	private static String format(double value) {
+		if (Double.isInfinite(value)) {
+			return (value > 0) ? "+Inf" : "-Inf";
+		}
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			return Long.toString((long) value);
+		}
+		return Double.toString(value);
+	}
+
+	/**
+	 * An appliance polled by the exporter, with the results of its last poll.
+	 */
+	protected class Appliance {
+
+		private final String host;
+
+		private final String hostName;
+
+		private final String port;
+
+		private Credentials credentials;
+
+		private boolean failing = false;
+
+		private volatile double pollSeconds = 0;
+
+		/** Entries by class, null for a class that failed. */
+		private volatile Map<String, List<StatusHandler.Entry>> results = null;
+
+		Appliance(String host) {
+			this.host = host;
+			int colon = host.lastIndexOf(':');
+			if (colon > 0) {
+				this.hostName = host.substring(0, colon);
+				this.port = host.substring(colon + 1);
+			} else {
+				this.hostName = host;
+				this.port = session.getPort();
+			}
+		}
+	}
+
+}
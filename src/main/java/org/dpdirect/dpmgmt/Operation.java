@@ -2,10 +2,14 @@ package org.dpdirect.dpmgmt;
 
 import org.apache.log4j.Logger;
 import org.dpdirect.schema.SchemaLoader;
+import org.dpdirect.utils.Base64StreamEncoder;
 import org.dpdirect.utils.FileUtils;
+import org.dpdirect.utils.PostXML;
+import org.dpdirect.utils.SpanRecorder;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.ListIterator;
@@ -59,6 +63,8 @@ public class Operation {
 
     protected int pollIntMillis = DEFAULT_POLL_INT_MILLIS;
 
+    protected PollScheduler.Backoff pollBackoff = PollScheduler.Backoff.FIXED;
+
     protected String filter = null;
 
     protected String filterOut = null;
@@ -69,8 +75,30 @@ public class Operation {
 
     protected boolean suppressResponse = false;
 
+    protected boolean skipped = false;
+
     protected boolean memSafe = false;
 
+    protected int parallelism = Defaults.DEFAULT_PARALLELISM;
+
+    protected int retries = Defaults.DEFAULT_RETRIES;
+
+    protected boolean skipUnchanged = false;
+
+    protected boolean sync = false;
+
+    protected boolean delete = false;
+
+    protected boolean dryRun = false;
+
+    protected String manifest = null;
+
+    protected String transferMode = Constants.TRANSFER_MODE_SET_FILE;
+
+    protected long bandwidth = Defaults.DEFAULT_BANDWIDTH_KB_PER_SECOND;
+
+    protected long importOverhead = Defaults.DEFAULT_IMPORT_OVERHEAD_MILLIS;
+
     protected List<Option> options = new ArrayList<Option>();
 
     protected List<SetProperty> setProperties = new ArrayList<SetProperty>();
@@ -79,6 +107,12 @@ public class Operation {
     /** Response parser. */
     protected ResponseParser responseParser = null;
 
+    /** The phase timings of the operation. */
+    protected final OperationTimings timings = new OperationTimings();
+
+    /** The trace span of the operation, when tracing. */
+    protected SpanRecorder.Span span = null;
+
     /**
      * Default constructor for nested Operation class.
      */
@@ -129,7 +163,11 @@ public class Operation {
      */
     public boolean customPostIntercept() throws Exception {
         if (null != this.customOperation){
-            return customOperation.customPostIntercept();
+            return customOperation.customPostIntercept() || skipped;
+        }
+        else if (isPostedByParent() || skipped){
+            // already posted by the parent custom operation.
+            return true;
         }
         else if (null != this.waitFor || null != this.waitForXPath){
             base.pollForResult(this);
@@ -138,6 +176,50 @@ public class Operation {
         return false;
     }
 
+    /**
+     * @return true if posting is handled by customPostIntercept() rather
+     *         than a single post of the payload.
+     */
+    public boolean isPostIntercepted() {
+        if (null != this.customOperation){
+            return customOperation.interceptsPost();
+        }
+        return isPostedByParent() || null != this.waitFor || null != this.waitForXPath;
+    }
+
+    /**
+     * @return true if the response is written out as JSON records while it
+     *         is read, rather than parsed once read. Only a single plain post
+     *         is streamed, not a file payload nor a polled response.
+     */
+    public boolean isResponseStreamed() {
+        return null == this.customOperation && !isPostIntercepted()
+                && !getSuppressResponse()
+                && !Constants.GET_FILE_OP_NAME.equals(this.name)
+                && !Constants.DO_EXPORT_OP_NAME.equals(this.name)
+                && getResponseParser().isStreamedOutput();
+    }
+
+    /**
+     * @return true if this operation is one of several posted together by
+     *         its parent custom operation, eg. a parallel set-dir.
+     */
+    public boolean isPostedByParent() {
+        return null != this.parentOperation && parentOperation.postsChild(this);
+    }
+
+    /**
+     * @return true if the payload is generated at post time by the custom
+     *         operation, eg. a parallel transfer or sync, rather than ahead
+     *         of the post.
+     */
+    public boolean isPayloadDeferred() {
+        if (null != this.customOperation){
+            return customOperation.defersPayload();
+        }
+        return isPostedByParent();
+    }
+
     /**
      * call the customOperation.customResultIntercept()
      * @returns new result text if applicable
@@ -427,6 +509,194 @@ public class Operation {
         return this.memSafe;
     }
 
+    /**
+     * Set the number of concurrent file transfers for set-dir.
+     *
+     * @param parallelism
+     *            maximum concurrent transfers - 1 posts each file in turn.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Get the number of concurrent file transfers
+     *
+     * @return the parallelism value
+     */
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    /**
+     * Set the number of times a failed file transfer is retried.
+     *
+     * @param retries
+     *            retries per file for parallel transfers.
+     */
+    public void setRetries(int retries) {
+        this.retries = Math.max(0, retries);
+    }
+
+    /**
+     * Get the number of times a failed file transfer is retried.
+     *
+     * @return the retries value
+     */
+    public int getRetries() {
+        return this.retries;
+    }
+
+    /**
+     * Set the skipUnchanged flag for get-dir.
+     *
+     * @param skipUnchanged
+     *            skip files whose local size and modified time match the
+     *            device listing.
+     */
+    public void setSkipUnchanged(boolean skipUnchanged) {
+        this.skipUnchanged = skipUnchanged;
+    }
+
+    /**
+     * Get the skipUnchanged flag
+     *
+     * @return the skipUnchanged value
+     */
+    public boolean getSkipUnchanged() {
+        return this.skipUnchanged;
+    }
+
+    /**
+     * Set the sync flag for set-dir.
+     *
+     * @param sync
+     *            upload only files changed since the last sync.
+     */
+    public void setSync(boolean sync) {
+        this.sync = sync;
+    }
+
+    /**
+     * Get the sync flag
+     *
+     * @return the sync value
+     */
+    public boolean getSync() {
+        return this.sync;
+    }
+
+    /**
+     * Set the delete flag for set-dir sync.
+     *
+     * @param delete
+     *            delete device files that were removed locally.
+     */
+    public void setDelete(boolean delete) {
+        this.delete = delete;
+    }
+
+    /**
+     * Get the delete flag
+     *
+     * @return the delete value
+     */
+    public boolean getDelete() {
+        return this.delete;
+    }
+
+    /**
+     * Set the dryRun flag for set-dir sync.
+     *
+     * @param dryRun
+     *            print the sync plan without changing the device.
+     */
+    public void setDryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    /**
+     * Get the dryRun flag
+     *
+     * @return the dryRun value
+     */
+    public boolean getDryRun() {
+        return this.dryRun;
+    }
+
+    /**
+     * Set the sync manifest file, in place of the default in the user's
+     * dpdirect cache directory.
+     *
+     * @param manifest
+     *            the manifest file path.
+     */
+    public void setManifest(String manifest) {
+        this.manifest = manifest;
+    }
+
+    /**
+     * Get the sync manifest file path
+     *
+     * @return the manifest path, or null for the default.
+     */
+    public String getManifest() {
+        return this.manifest;
+    }
+
+    /**
+     * Set how set-dir uploads its files: 'set-file', 'import' or 'auto'.
+     *
+     * @param transferMode
+     *            the transfer mode.
+     */
+    public void setTransferMode(String transferMode) {
+        this.transferMode = transferMode;
+    }
+
+    /**
+     * Get the set-dir transfer mode
+     *
+     * @return the transferMode value
+     */
+    public String getTransferMode() {
+        return this.transferMode;
+    }
+
+    /**
+     * Set the upload bandwidth to the device assumed by 'transferMode=auto'.
+     *
+     * @param bandwidth
+     *            the bandwidth in KB per second.
+     */
+    public void setBandwidth(long bandwidth) {
+        this.bandwidth = Math.max(1, bandwidth);
+    }
+
+    /**
+     * @return the assumed upload bandwidth, in KB per second
+     */
+    public long getBandwidth() {
+        return this.bandwidth;
+    }
+
+    /**
+     * Set the device cost of a do-import assumed by 'transferMode=auto'.
+     *
+     * @param importOverhead
+     *            the cost in milliseconds, beyond the round trip.
+     */
+    public void setImportOverhead(long importOverhead) {
+        this.importOverhead = Math.max(0, importOverhead);
+    }
+
+    /**
+     * @return the assumed device cost of a do-import, in milliseconds
+     */
+    public long getImportOverhead() {
+        return this.importOverhead;
+    }
+
     /**
      * Set the waitFor value
      *
@@ -499,6 +769,31 @@ public class Operation {
         this.pollIntMillis = logPollIntMillis;
     }
 
+    /**
+     * Set how the delay between polls changes: 'fixed', 'exponential' or
+     * 'jittered'.
+     *
+     * @param pollBackoff
+     *            the backoff name.
+     */
+    public void setPollBackoff(String pollBackoff) {
+        PollScheduler.Backoff backoff = PollScheduler.Backoff.parse(pollBackoff);
+        if (null == backoff) {
+            log.warn("Invalid pollBackoff '" + pollBackoff + "', ignored.");
+        } else {
+            this.pollBackoff = backoff;
+        }
+    }
+
+    /**
+     * Get the poll backoff
+     *
+     * @return the pollBackoff value
+     */
+    public PollScheduler.Backoff getPollBackoff() {
+        return this.pollBackoff;
+    }
+
     /**
      * @return the customOperation
      */
@@ -595,6 +890,22 @@ public class Operation {
         this.suppressResponse = suppress;
     }
 
+    /**
+     * @return true if this part of a custom operation has nothing to post, or
+     *         the loaded schemas lack it. Its payload is not generated.
+     */
+    public boolean isSkipped() {
+        return skipped;
+    }
+
+    /**
+     * @param skipped
+     *            the operation is not posted
+     */
+    public void setSkipped(boolean skipped) {
+        this.skipped = skipped;
+    }
+
     /**
      * @return the failState
      */
@@ -800,6 +1111,24 @@ public class Operation {
         return this.responseParser;
     }
 
+    /**
+     * @return the parsed result of the response, parsed once per response
+     * @throws Exception
+     *             if the response cannot be parsed
+     */
+    public OperationResult getResult() throws Exception {
+        OperationResult result = getResponseParser().parseResult(getResponse());
+        result.timings = this.timings;
+        return result;
+    }
+
+    /**
+     * @return the generate, transfer and parse timings of the operation.
+     */
+    public OperationTimings getTimings() {
+        return this.timings;
+    }
+
     /**
      * Set the responseParser for the operation
      */
@@ -897,9 +1226,66 @@ public class Operation {
                             + e.getMessage(), e);
                 }
                 if (getOuterInstance().failOnError) {
-                    System.exit(1);
+                    getOuterInstance().exit(1);
+                }
+            }
+        } else if (Constants.PARALLELISM_OPT_NAME.equalsIgnoreCase(optionName)) {
+            try {
+                setParallelism(Integer.parseInt(optionValue.trim()));
+            } catch (NumberFormatException e) {
+                log.warn("Invalid parallelism '" + optionValue + "', ignored.");
+            }
+        } else if (Constants.RETRIES_OPT_NAME.equalsIgnoreCase(optionName)) {
+            try {
+                setRetries(Integer.parseInt(optionValue.trim()));
+            } catch (NumberFormatException e) {
+                log.warn("Invalid retries '" + optionValue + "', ignored.");
+            }
+        } else if (Constants.SKIP_UNCHANGED_OPT_NAME.equalsIgnoreCase(optionName)) {
+            if (null != optionValue) {
+                setSkipUnchanged(Constants.TRUE_OPT_VALUE.equals(optionValue.trim().toLowerCase()));
+            }
+        } else if (Constants.SYNC_OPT_NAME.equalsIgnoreCase(optionName)) {
+            if (null != optionValue) {
+                setSync(Constants.TRUE_OPT_VALUE.equals(optionValue.trim().toLowerCase()));
+            }
+        } else if (Constants.DELETE_OPT_NAME.equalsIgnoreCase(optionName)) {
+            if (null != optionValue) {
+                setDelete(Constants.TRUE_OPT_VALUE.equals(optionValue.trim().toLowerCase()));
+            }
+        } else if (Constants.DRY_RUN_OPT_NAME.equalsIgnoreCase(optionName)) {
+            if (null != optionValue) {
+                setDryRun(Constants.TRUE_OPT_VALUE.equals(optionValue.trim().toLowerCase()));
+            }
+        } else if (Constants.MANIFEST_OPT_NAME.equalsIgnoreCase(optionName)) {
+            setManifest(optionValue);
+        } else if (Constants.TRANSFER_MODE_OPT_NAME.equalsIgnoreCase(optionName)) {
+            if (null != optionValue) {
+                String mode = optionValue.trim().toLowerCase();
+                if (Constants.TRANSFER_MODE_SET_FILE.equals(mode)
+                        || Constants.TRANSFER_MODE_IMPORT.equals(mode)
+                        || Constants.TRANSFER_MODE_AUTO.equals(mode)) {
+                    setTransferMode(mode);
+                } else {
+                    log.warn("Invalid transferMode '" + optionValue + "', ignored.");
                 }
             }
+        } else if (Constants.BANDWIDTH_OPT_NAME.equalsIgnoreCase(optionName)) {
+            try {
+                setBandwidth(Long.parseLong(optionValue.trim()));
+            } catch (NumberFormatException e) {
+                log.warn("Invalid bandwidth '" + optionValue + "', ignored.");
+            }
+        } else if (Constants.IMPORT_OVERHEAD_OPT_NAME.equalsIgnoreCase(optionName)) {
+            try {
+                setImportOverhead(Long.parseLong(optionValue.trim()));
+            } catch (NumberFormatException e) {
+                log.warn("Invalid importOverhead '" + optionValue + "', ignored.");
+            }
+        } else if (Constants.POLL_BACKOFF_OPT_NAME.equalsIgnoreCase(optionName)) {
+            if (null != optionValue) {
+                setPollBackoff(optionValue);
+            }
         } else if (Constants.FAIL_STATE_OPT_NAME.equalsIgnoreCase(optionName)) {
             setFailState(optionValue);
         } else if (Constants.DOMAIN_OPT_NAME.equalsIgnoreCase(optionName)) {
@@ -931,6 +1317,76 @@ public class Operation {
         this.srcFile = srcFile.getAbsolutePath();
     }
 
+    /**
+     * Utility method to create a nested operation option whose content is
+     * base64 encoded straight into the request when posted, rather than held
+     * in the payload.
+     *
+     * @param optionName
+     *            the name of the option.
+     * @param content
+     *            writes the raw content.
+     */
+    public void addOption(String optionName, PostXML.ContentWriter content) {
+        Option option = createOption();
+        option.setName(optionName);
+        option.setContent(content);
+    }
+
+    /**
+     * @return true if an option has content streamed into the request.
+     */
+    public boolean hasStreamedContent() {
+        for (Option option : getOptions()) {
+            if (null != option.getContent()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the token standing in the payload for the streamed content of
+     *         the option at the given index.
+     */
+    public static String streamedContentToken(int index) {
+        return Constants.STREAMED_CONTENT_TOKEN + index;
+    }
+
+    /**
+     * The request body: the generated payload, with the token of each
+     * streamed option replaced by its base64 encoded content as it is
+     * written.
+     *
+     * @return the request body writer.
+     */
+    public PostXML.ContentWriter getStreamedPayload() {
+        final String xml = getPayload();
+        final List<Option> streamed = new ArrayList<Option>(getOptions());
+        return new PostXML.ContentWriter() {
+            public void writeTo(OutputStream out) throws IOException {
+                int from = 0;
+                for (int i = 0; i < streamed.size(); i++) {
+                    Option option = streamed.get(i);
+                    if (null == option.getContent()) {
+                        continue;
+                    }
+                    String token = streamedContentToken(i);
+                    int at = xml.indexOf(token, from);
+                    if (at < 0) {
+                        throw new IOException("No place for the content of " + option.getName());
+                    }
+                    out.write(xml.substring(from, at).getBytes("UTF-8"));
+                    Base64StreamEncoder encoder = new Base64StreamEncoder(out);
+                    option.getContent().writeTo(encoder);
+                    encoder.finish();
+                    from = at + token.length();
+                }
+                out.write(xml.substring(from).getBytes("UTF-8"));
+            }
+        };
+    }
+
     /**
      * Gets an option value for the current list of options.
      *
@@ -1002,6 +1458,8 @@ public class Operation {
 
         protected String srcFile = null;
 
+        protected PostXML.ContentWriter content = null;
+
         /**
          * Default constructor for nested Option class.
          */
@@ -1090,6 +1548,21 @@ public class Operation {
         public String getSrcFile() {
             return srcFile;
         }
+
+        /**
+         * @param content
+         *            writes content streamed into the request.
+         */
+        public void setContent(PostXML.ContentWriter content) {
+            this.content = content;
+        }
+
+        /**
+         * @return the streamed content, or null.
+         */
+        public PostXML.ContentWriter getContent() {
+            return content;
+        }
     }
 
     public class SetProperty {
@@ -0,0 +1,356 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import org.dpdirect.dpmgmt.Operation.Option;
+import org.dpdirect.schema.SchemaLoader;
+import org.dpdirect.utils.Credentials;
+
+/**
+ * Pipelined executor for an operation chain.
+ *
+ * Operations pass through three stages connected by bounded queues: a
+ * generator thread builds SOMA and AMP payloads ahead of time, a poster thread
+ * sends them to the device in chain order, and the calling thread parses and
+ * logs each response in chain order. CPU bound payload generation and response
+ * parsing therefore overlap with network wait.
+ *
+ * Ordering and fail-fast behaviour match the sequential executor:
+ * <ul>
+ * <li>operations are posted and their responses processed strictly in chain
+ * order;</li>
+ * <li>when failOnError (or rollbackOnError) is set, an operation is not posted
+ * until the response of its predecessor has been processed, so an error
+ * response still halts the chain before the next operation reaches the
+ * device;</li>
+ * <li>when failOnError is set, every operation is pre-flighted against the
+ * loaded schemas before the first post, as every payload was previously
+ * generated before the first post;</li>
+ * <li>memSafe operations are generated just in time by the poster, never
+ * ahead;</li>
+ * <li>a payload that cannot be generated is handed to the poster, which
+ * removes the operation from the chain, rolls back and exits once the
+ * preceding responses have been processed;</li>
+ * <li>intercepting operations (waitFor polling, tail-log) run only once all
+ * preceding responses have been processed.</li>
+ * </ul>
+ */
+public class OperationPipeline {
+
+	/**
+	 * Class logger.
+	 */
+	protected final static Logger log = Logger.getLogger(OperationPipeline.class);
+
+	/** Marks the end of the operation stream between stages. */
+	private static final Stage END_OF_CHAIN = new Stage(null);
+
+	/** The session owning the operation chain. */
+	protected DPDirectBase base = null;
+
+	/** Maximum number of operations buffered between two stages. */
+	protected int depth = Defaults.DEFAULT_PIPELINE_DEPTH;
+
+	/** Number of operations whose response has been fully processed. */
+	private int processedCount = 0;
+
+	/** Guards processedCount. */
+	private final Object progressLock = new Object();
+
+	/** Set once the pipeline is shutting down. */
+	private volatile boolean aborted = false;
+
+	/**
+	 * Constructs a new <code>OperationPipeline</code> for the given session.
+	 *
+	 * @param base
+	 *            the session owning the operation chain.
+	 * @param depth
+	 *            maximum number of operations buffered between two stages.
+	 */
+	public OperationPipeline(DPDirectBase base, int depth) {
+		this.base = base;
+		if (depth > 0) {
+			this.depth = depth;
+		}
+	}
+
+	/**
+	 * Generate, post and process every operation in the chain.
+	 *
+	 * @param chain
+	 *            the operations to process, in order.
+	 */
+	public void execute(List<Operation> chain) {
+		final List<Operation> operations = new ArrayList<Operation>(chain);
+		if (operations.isEmpty()) {
+			return;
+		}
+		if (base.getFailOnError()) {
+			preflight(operations);
+		}
+
+		final BlockingQueue<Stage> generated = new ArrayBlockingQueue<Stage>(depth);
+		final BlockingQueue<Stage> posted = new ArrayBlockingQueue<Stage>(depth);
+
+		Thread generator = new Thread(new Runnable() {
+			public void run() {
+				generateStage(operations, generated);
+			}
+		}, "dpdirect-generate");
+		Thread poster = new Thread(new Runnable() {
+			public void run() {
+				postStage(generated, posted);
+			}
+		}, "dpdirect-post");
+		generator.setDaemon(true);
+		poster.setDaemon(true);
+		generator.start();
+		poster.start();
+
+		try {
+			processStage(posted);
+		} finally {
+			aborted = true;
+			generator.interrupt();
+			poster.interrupt();
+		}
+	}
+
+	/**
+	 * Stage 1 - generate payloads ahead of the poster.
+	 */
+	protected void generateStage(List<Operation> operations, BlockingQueue<Stage> out) {
+		try {
+			for (Operation operation : operations) {
+				if (aborted) {
+					return;
+				}
+				Stage stage = new Stage(operation);
+				if (!operation.getMemSafe() && !operation.isPostIntercepted()
+						&& null == operation.getPayload()) {
+					try {
+						base.generateXMLInstanceOrThrow(operation);
+					} catch (Exception ex) {
+						stage.generateError = ex;
+					}
+				}
+				out.put(stage);
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} finally {
+			offerEnd(out);
+		}
+	}
+
+	/**
+	 * Stage 2 - post payloads to the device in chain order.
+	 */
+	protected void postStage(BlockingQueue<Stage> in, BlockingQueue<Stage> out) {
+		Credentials credentials = base.getCredentials();
+		boolean gated = base.getFailOnError() || base.isRollbackEnabled();
+		int index = 0;
+		try {
+			Stage stage = in.take();
+			while (stage != END_OF_CHAIN && !aborted) {
+				Operation operation = stage.operation;
+				if (null != stage.generateError) {
+					generationFailed(index, operation, stage.generateError);
+				} else {
+					try {
+						if (operation.isPostIntercepted()) {
+							// polling and tailing write their own output.
+							awaitProcessed(index);
+							operation.customPostIntercept();
+							stage.intercepted = true;
+						} else {
+							if (gated) {
+								awaitProcessed(index);
+							}
+							if (operation.getMemSafe()) {
+								try {
+									operation.setPayload(base.generateXMLInstanceOrThrow(operation));
+								} catch (InterruptedException ex) {
+									throw ex;
+								} catch (Exception ex) {
+									generationFailed(index, operation, ex);
+								}
+							}
+							if (null != operation.getPayload()) {
+								operation.setResponse(base.sendXMLInstance(operation, credentials));
+							}
+							if (operation.getMemSafe()) {
+								operation.resetPayload();
+							}
+						}
+					} catch (InterruptedException ex) {
+						throw ex;
+					} catch (Exception ex) {
+						stage.error = ex;
+					}
+				}
+				out.put(stage);
+				index++;
+				stage = in.take();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} finally {
+			offerEnd(out);
+		}
+	}
+
+	/**
+	 * Stage 3 - process and log responses in chain order.
+	 */
+	protected void processStage(BlockingQueue<Stage> in) {
+		try {
+			Stage stage = in.take();
+			while (stage != END_OF_CHAIN) {
+				Operation operation = stage.operation;
+				try {
+					if (null != stage.error) {
+						throw stage.error;
+					}
+					if (!stage.intercepted && null != operation.getResponse()) {
+						base.logPostedOperation(operation);
+						base.processResponse(operation);
+					}
+				} catch (Exception ex) {
+					if (log.isDebugEnabled()) {
+						log.error(ex.getMessage(), ex);
+					} else {
+						log.error(ex.getMessage());
+					}
+					if (base.getFailOnError()) {
+						base.exit(1);
+					}
+				}
+				synchronized (progressLock) {
+					processedCount++;
+					progressLock.notifyAll();
+				}
+				stage = in.take();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Handle an operation that could not be generated, in chain order: once
+	 * the preceding responses have been processed, remove it from the chain,
+	 * and roll back and exit when failOnError is set.
+	 */
+	private void generationFailed(int index, Operation operation, Exception ex)
+			throws InterruptedException {
+		awaitProcessed(index);
+		if (base.getFailOnError() && base.isRollbackEnabled()) {
+			// the preceding operations have reached the device.
+			base.errorHandler(operation, ex.getMessage(), Level.FATAL);
+		}
+		base.generationFailed(operation, ex);
+	}
+
+	/**
+	 * Verify that each operation can be generated before any are posted. Exits
+	 * on the first operation that is unknown to the loaded schemas or names a
+	 * missing source file.
+	 */
+	protected void preflight(List<Operation> operations) {
+		for (Operation operation : operations) {
+			String problem = null;
+			boolean known = false;
+			for (SchemaLoader loader : base.schemaLoaderList) {
+				if (loader.nodeExists(operation.getName())) {
+					known = true;
+					break;
+				}
+			}
+			if (!known && null == operation.getParentOperation()) {
+				problem = "No such operation available in the versions of SOMA and/or AMP schemas provided.";
+			} else {
+				for (Option option : operation.getOptions()) {
+					if (null != option.getSrcFile()
+							&& !new File(option.getSrcFile()).canRead()) {
+						problem = "Cannot read source file " + option.getSrcFile();
+						break;
+					}
+				}
+			}
+			if (null != problem) {
+				log.error(operation.getInvokedName() + " : " + problem);
+				base.exit(1);
+			}
+		}
+	}
+
+	/**
+	 * Block until the given number of operations have been processed.
+	 */
+	private void awaitProcessed(int count) throws InterruptedException {
+		synchronized (progressLock) {
+			while (processedCount < count) {
+				progressLock.wait();
+			}
+		}
+	}
+
+	/**
+	 * Signal the end of the chain to the next stage, giving up if the pipeline
+	 * has been shut down.
+	 */
+	private void offerEnd(BlockingQueue<Stage> out) {
+		try {
+			while (!aborted && !out.offer(END_OF_CHAIN, 100, TimeUnit.MILLISECONDS)) {
+				// next stage is still draining.
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * An operation in flight, with any error raised by an earlier stage.
+	 */
+	private static class Stage {
+
+		protected final Operation operation;
+
+		protected Exception generateError = null;
+
+		protected Exception error = null;
+
+		protected boolean intercepted = false;
+
+		protected Stage(Operation operation) {
+			this.operation = operation;
+		}
+	}
+
+}
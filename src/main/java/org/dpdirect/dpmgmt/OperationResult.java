@@ -0,0 +1,324 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Level;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * The parsed result of a SOMA or AMP response - its severity, status, any
+ * fault, and the records of a status, log or configuration response - parsed
+ * once and shared by whatever reads it.
+ *
+ * The text shown for the response is one view of the result, rendered by the
+ * {@link ResponseParser} when first needed. The records are read from the
+ * response when first asked for.
+ */
+public class OperationResult {
+
+	private final Level severity;
+
+	private final String status;
+
+	private final String faultCode;
+
+	private final String faultString;
+
+	private final Document document;
+
+	private final Node payload;
+
+	private final Node resultNode;
+
+	/** The base64 file content, read before any rendering replaces it. */
+	private final String fileContent;
+
+	private List<Record> records = null;
+
+	/** The number of 'ObjectStatus' elements, as counted by the classifier. */
+	int objectStatusCount = -1;
+
+	/** True if the response holds 'MessageCounts', as found by the classifier. */
+	boolean monitor = false;
+
+	private String text = null;
+
+	/** The timings of the operation, where the result is of an operation. */
+	OperationTimings timings = null;
+
+	/**
+	 * Constructs a new <code>OperationResult</code>.
+	 *
+	 * @param severity
+	 *            the level the result is logged at.
+	 * @param status
+	 *            the result status, eg. 'OK', or null.
+	 * @param faultCode
+	 *            the fault code, or null.
+	 * @param faultString
+	 *            the fault text, or null if no fault.
+	 * @param document
+	 *            the parsed response.
+	 * @param payload
+	 *            the response element within any SOAP envelope.
+	 * @param resultNode
+	 *            the node holding the result.
+	 */
+	public OperationResult(Level severity, String status, String faultCode,
+			String faultString, Document document, Node payload, Node resultNode) {
+		this.severity = severity;
+		this.status = status;
+		this.faultCode = faultCode;
+		this.faultString = faultString;
+		this.document = document;
+		this.payload = payload;
+		this.resultNode = resultNode;
+		if ("file".equals(resultNode.getLocalName())
+				&& null != resultNode.getFirstChild()
+				&& !"ERROR".equals(resultNode.getFirstChild().getNodeValue())) {
+			this.fileContent = resultNode.getTextContent();
+		} else {
+			this.fileContent = null;
+		}
+	}
+
+	/**
+	 * @return the level the result is logged at, INFO or below for success.
+	 */
+	public Level getSeverity() {
+		return severity;
+	}
+
+	/**
+	 * @return true if the severity is INFO or below.
+	 */
+	public boolean isSuccess() {
+		return severity.toInt() <= Level.INFO_INT;
+	}
+
+	/**
+	 * @return the result status, eg. 'OK', 'up' or 'ERROR', or null.
+	 */
+	public String getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return the fault code of a SOAP fault, or null.
+	 */
+	public String getFaultCode() {
+		return faultCode;
+	}
+
+	/**
+	 * @return the fault or error text, or null if no fault.
+	 */
+	public String getFaultString() {
+		return faultString;
+	}
+
+	/**
+	 * @return the parsed response.
+	 */
+	public Document getDocument() {
+		return document;
+	}
+
+	/**
+	 * @return the response element within any SOAP envelope.
+	 */
+	public Node getPayload() {
+		return payload;
+	}
+
+	/**
+	 * @return the node holding the result.
+	 */
+	public Node getResultNode() {
+		return resultNode;
+	}
+
+	/**
+	 * @return true if the response holds a file.
+	 */
+	public boolean hasFile() {
+		return null != fileContent;
+	}
+
+	/**
+	 * @return the decoded content of a returned file, or null if none.
+	 */
+	public InputStream openFile() {
+		if (null == fileContent) {
+			return null;
+		}
+		return Base64.getMimeDecoder().wrap(new ByteArrayInputStream(
+				fileContent.getBytes(StandardCharsets.US_ASCII)));
+	}
+
+	/**
+	 * @return the generate, transfer and parse timings of the operation, or
+	 *         null if the result was not parsed for an operation.
+	 */
+	public OperationTimings getTimings() {
+		return timings;
+	}
+
+	/**
+	 * @return the rendered text, or null if not yet rendered.
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * @param text
+	 *            the rendered text.
+	 */
+	protected void setText(String text) {
+		this.text = text;
+	}
+
+	/**
+	 * The records of the response - each status object of a 'get-status',
+	 * each 'log-entry' of a 'get-log', and each 'cfg-result' or 'file-result'.
+	 *
+	 * @return the records, in document order, empty if none.
+	 */
+	public List<Record> getRecords() {
+		if (null == records) {
+			records = new ArrayList<Record>();
+			if ("status".equals(resultNode.getLocalName())) {
+				addRecords(resultNode.getChildNodes());
+			} else {
+				addRecords(document.getElementsByTagName("log-entry"));
+				addRecords(document.getElementsByTagName("cfg-result"));
+				addRecords(document.getElementsByTagName("file-result"));
+			}
+		}
+		return records;
+	}
+
+	private void addRecords(NodeList nodes) {
+		for (int i = 0; i < nodes.getLength(); i++) {
+			Node node = nodes.item(i);
+			if (Node.ELEMENT_NODE == node.getNodeType()) {
+				Record record = new Record(node.getLocalName());
+				addAttributes(record, node, "");
+				if (hasElements(node)) {
+					addFields(record, node, "");
+				} else if (0 < node.getTextContent().trim().length()) {
+					record.fields.put(node.getLocalName(), node.getTextContent().trim());
+				}
+				records.add(record);
+			}
+		}
+	}
+
+	/**
+	 * Add the leaf elements beneath the node as fields named by their path.
+	 */
+	private static void addFields(Record record, Node parent, String prefix) {
+		NodeList children = parent.getChildNodes();
+		for (int i = 0; i < children.getLength(); i++) {
+			Node child = children.item(i);
+			if (Node.ELEMENT_NODE == child.getNodeType()) {
+				String name = prefix + child.getLocalName();
+				addAttributes(record, child, name + ".");
+				if (hasElements(child)) {
+					addFields(record, child, name + ".");
+				} else {
+					record.fields.put(name, child.getTextContent().trim());
+				}
+			}
+		}
+	}
+
+	private static void addAttributes(Record record, Node node, String prefix) {
+		NamedNodeMap attributes = node.getAttributes();
+		for (int i = 0; null != attributes && i < attributes.getLength(); i++) {
+			Node attribute = attributes.item(i);
+			if (!attribute.getNodeName().startsWith("xmlns")) {
+				record.fields.put(prefix + attribute.getNodeName(),
+						attribute.getNodeValue());
+			}
+		}
+	}
+
+	private static boolean hasElements(Node node) {
+		for (Node child = node.getFirstChild(); null != child; child = child
+				.getNextSibling()) {
+			if (Node.ELEMENT_NODE == child.getNodeType()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * One record of a response, eg. an 'ObjectStatus' or a 'log-entry'.
+	 */
+	public static class Record {
+
+		private final String name;
+
+		private final Map<String, String> fields = new LinkedHashMap<String, String>();
+
+		/**
+		 * @param name
+		 *            the record element name.
+		 */
+		public Record(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * @return the record element name.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the attributes and leaf elements of the record, by name.
+		 *         Nested elements are named by their path joined with '.'.
+		 */
+		public Map<String, String> getFields() {
+			return fields;
+		}
+
+		/**
+		 * @return the named field, or null.
+		 */
+		public String get(String field) {
+			return fields.get(field);
+		}
+	}
+
+}
@@ -0,0 +1,125 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.List;
+import java.util.Locale;
+
+import org.dpdirect.utils.TransferTimings;
+
+/**
+ * The phases of one operation - the generation of its payload, the post to the
+ * device, and the parsing of its response - in nanoseconds, with the bytes
+ * sent and received.
+ *
+ * A polled or retried operation posts more than once; the transfer phases are
+ * those of the last post.
+ */
+public class OperationTimings extends TransferTimings {
+
+	private static final String TABLE_FORMAT = "%-24s %9s %9s %9s %9s %9s %9s %9s %10s %10s";
+
+	private long generateNanos = -1;
+
+	private long parseNanos = -1;
+
+	public synchronized long getGenerateNanos() {
+		return generateNanos;
+	}
+
+	public synchronized void setGenerateNanos(long generateNanos) {
+		this.generateNanos = generateNanos;
+	}
+
+	public synchronized long getParseNanos() {
+		return parseNanos;
+	}
+
+	public synchronized void setParseNanos(long parseNanos) {
+		this.parseNanos = parseNanos;
+	}
+
+	/**
+	 * @return the sum of all phases reached, in nanoseconds.
+	 */
+	public synchronized long getTotalNanos() {
+		return sum(generateNanos, getTransferNanos(), parseNanos);
+	}
+
+	/**
+	 * @return the phases on one line, in milliseconds.
+	 */
+	@Override
+	public synchronized String toString() {
+		return "generate=" + millis(generateNanos) + "ms connect="
+				+ millis(getConnectNanos()) + "ms send=" + millis(getSendNanos())
+				+ "ms wait=" + millis(getWaitNanos()) + "ms receive="
+				+ millis(getReceiveNanos()) + "ms parse=" + millis(parseNanos)
+				+ "ms sent=" + bytes(getBytesSent()) + " received="
+				+ bytes(getBytesReceived());
+	}
+
+	/**
+	 * Format the timings of the given operations as a table, one row per
+	 * operation and a row of totals, in milliseconds and bytes.
+	 *
+	 * @param operations
+	 *            the operations, in order of execution.
+	 * @return the table.
+	 */
+	public static String formatTable(List<Operation> operations) {
+		StringBuilder table = new StringBuilder();
+		table.append(String.format(Locale.ROOT, TABLE_FORMAT, "Operation",
+				"Generate", "Connect", "Send", "Wait", "Receive", "Parse", "Total",
+				"Sent", "Received"));
+		long[] totals = new long[9];
+		for (Operation operation : operations) {
+			OperationTimings timings = operation.getTimings();
+			long[] row;
+			synchronized (timings) {
+				row = new long[] { timings.generateNanos,
+						timings.getConnectNanos(), timings.getSendNanos(),
+						timings.getWaitNanos(), timings.getReceiveNanos(),
+						timings.parseNanos, timings.getTotalNanos(),
+						timings.getBytesSent(), timings.getBytesReceived() };
+			}
+			for (int i = 0; i < row.length; i++) {
+				totals[i] += Math.max(0, row[i]);
+			}
+			table.append('\n').append(formatRow(operation.getName(), row));
+		}
+		if (operations.size() > 1) {
+			table.append('\n').append(formatRow("(total)", totals));
+		}
+		return table.toString();
+	}
+
+	private static String formatRow(String name, long[] row) {
+		return String.format(Locale.ROOT, TABLE_FORMAT, name, millis(row[0]),
+				millis(row[1]), millis(row[2]), millis(row[3]), millis(row[4]),
+				millis(row[5]), millis(row[6]), bytes(row[7]), bytes(row[8]));
+	}
+
+	private static String millis(long nanos) {
+		return (nanos < 0) ? "-" : String.format(Locale.ROOT, "%.1f", nanos / 1000000.0);
+	}
+
+	private static String bytes(long bytes) {
+		return (bytes < 0) ? "-" : String.valueOf(bytes);
+	}
+
+}
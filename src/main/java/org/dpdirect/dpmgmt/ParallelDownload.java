@@ -0,0 +1,93 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.dpdirect.utils.Credentials;
+
+/**
+ * Downloads a set of get-file operations over a bounded pool of worker
+ * threads, decoding each response straight to its destination file.
+ */
+public class ParallelDownload extends ParallelTransfer {
+
+	/** Listed device files by path, to stamp modified times, or null. */
+	protected Map<String, FilestoreEntry> remoteEntries = null;
+
+	/** Bytes saved per operation. */
+	private final Map<Operation, Long> savedBytes = new ConcurrentHashMap<Operation, Long>();
+
+	/**
+	 * Constructs a new <code>ParallelDownload</code>.
+	 *
+	 * @param base
+	 *            the session on whose behalf files are transferred.
+	 * @param parallelism
+	 *            maximum number of concurrent transfers.
+	 * @param retries
+	 *            number of times a failed file is retried.
+	 * @param remoteEntries
+	 *            listed device files by path, or null.
+	 */
+	public ParallelDownload(DPDirectBase base, int parallelism, int retries,
+			Map<String, FilestoreEntry> remoteEntries) {
+		super(base, parallelism, retries);
+		this.remoteEntries = remoteEntries;
+	}
+
+	/**
+	 * Generate and post the get-file once, streaming the content to the
+	 * operation's destFile.
+	 */
+	@Override
+	protected boolean attempt(Operation operation, Credentials credentials)
+			throws Exception {
+		String payload = base.generateXMLInstanceOrThrow(operation);
+		if (null == payload) {
+			return false;
+		}
+		File destination = new File(operation.getDestFile());
+		FileResponseHandler handler = new FileResponseHandler(destination);
+		try {
+			base.sendXMLInstance(operation, credentials, handler);
+		} finally {
+			operation.resetPayload();
+		}
+		savedBytes.put(operation, handler.getBytes());
+		String path = operation.getOptionValue(Constants.GET_FILE_OP_NAME + "@"
+				+ Constants.NAME_OPT_NAME);
+		FilestoreEntry entry = (null == remoteEntries) ? null : remoteEntries.get(path);
+		if (null != entry && entry.getModifiedMillis() > 0) {
+			// stamp the listed time, so an unchanged file can be skipped next run.
+			destination.setLastModified(entry.getModifiedMillis());
+		}
+		return true;
+	}
+
+	/**
+	 * @return the number of bytes saved for the operation.
+	 */
+	@Override
+	protected long sizeOf(Operation operation) {
+		Long size = savedBytes.get(operation);
+		return (null == size) ? 0 : size;
+	}
+
+}
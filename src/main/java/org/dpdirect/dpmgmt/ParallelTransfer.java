@@ -0,0 +1,292 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import org.dpdirect.dpmgmt.Operation.Option;
+import org.dpdirect.jfr.FlightEvents;
+import org.dpdirect.utils.Credentials;
+import org.dpdirect.utils.TransferProgress;
+
+/**
+ * Posts a set of independent single file operations (such as the set-file
+ * operations of a set-dir) over a bounded pool of worker threads, retrying
+ * each failed file before giving up on it.
+ *
+ * Responses are not logged per file; the caller reports the returned
+ * failures and the throughput summary. The workers leave the operation chain
+ * and the session alone: a failure to generate or post a file is kept with
+ * the file, and the caller applies failOnError to the returned failures.
+ */
+public class ParallelTransfer {
+
+	/**
+	 * Class logger.
+	 */
+	protected final static Logger log = Logger.getLogger(ParallelTransfer.class);
+
+	/** Pause before the first retry, multiplied by the attempt number. */
+	protected static final long RETRY_BACKOFF_MILLIS = 500;
+
+	/** Minimum interval between progress lines. */
+	protected static final long PROGRESS_INTERVAL_MILLIS = 5000;
+
+	/** The session on whose behalf files are transferred. */
+	protected DPDirectBase base = null;
+
+	/** Maximum number of concurrent transfers. */
+	protected int parallelism = Defaults.DEFAULT_PARALLELISM;
+
+	/** Number of times a failed file is retried. */
+	protected int retries = Defaults.DEFAULT_RETRIES;
+
+	/** Tally of completed transfers. */
+	protected TransferProgress progress = null;
+
+	/** Last error per operation, where the attempt failed without a response. */
+	private final Map<Operation, String> errors = new ConcurrentHashMap<Operation, String>();
+
+	/** Set when failOnError is set and a file has failed every attempt. */
+	private volatile boolean aborted = false;
+
+	/** Time of the last progress line. */
+	private final AtomicLong lastReportMillis = new AtomicLong(System.currentTimeMillis());
+
+	/**
+	 * Constructs a new <code>ParallelTransfer</code>.
+	 *
+	 * @param base
+	 *            the session on whose behalf files are transferred.
+	 * @param parallelism
+	 *            maximum number of concurrent transfers.
+	 * @param retries
+	 *            number of times a failed file is retried.
+	 */
+	public ParallelTransfer(DPDirectBase base, int parallelism, int retries) {
+		this.base = base;
+		this.parallelism = Math.max(1, parallelism);
+		this.retries = Math.max(0, retries);
+	}
+
+	/**
+	 * Post every operation, at most <code>parallelism</code> at a time.
+	 *
+	 * @param operations
+	 *            the single file operations to post.
+	 * @return the operations that failed every attempt, in the given order.
+	 */
+	public List<Operation> execute(List<Operation> operations) {
+		int files = 0;
+		for (Operation operation : operations) {
+			files += countOf(operation);
+		}
+		progress = new TransferProgress(files);
+		List<Operation> failed = new ArrayList<Operation>();
+		if (operations.isEmpty()) {
+			return failed;
+		}
+		final Credentials credentials = base.getCredentials();
+		ExecutorService pool = Executors.newFixedThreadPool(
+				Math.min(parallelism, operations.size()), new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "dpdirect-transfer-"
+								+ count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		try {
+			for (final Operation operation : operations) {
+				results.add(pool.submit(new Callable<Boolean>() {
+					public Boolean call() throws Exception {
+						return transfer(operation, credentials);
+					}
+				}));
+			}
+			for (int i = 0; i < results.size(); i++) {
+				boolean success = false;
+				try {
+					success = results.get(i).get();
+				} catch (ExecutionException ex) {
+					log.error(ex.getCause().getMessage());
+					log.debug(ex.getCause().getMessage(), ex.getCause());
+				}
+				if (!success) {
+					failed.add(operations.get(i));
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} finally {
+			pool.shutdownNow();
+			try {
+				pool.awaitTermination(PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return failed;
+	}
+
+	/**
+	 * @return the error of the last attempt of a failed operation, or null if
+	 *         the device responded.
+	 */
+	public String getError(Operation operation) {
+		return errors.get(operation);
+	}
+
+	/**
+	 * @return the progress of the most recent execute().
+	 */
+	public TransferProgress getProgress() {
+		return progress;
+	}
+
+	/**
+	 * Transfer a single file, retrying with a linear backoff.
+	 *
+	 * @return true if the file was transferred.
+	 */
+	protected boolean transfer(Operation operation, Credentials credentials)
+			throws InterruptedException {
+		for (int attempt = 0; attempt <= retries && !aborted; attempt++) {
+			if (attempt > 0) {
+				progress.retried();
+				if (log.isDebugEnabled()) {
+					log.debug("Retrying " + describe(operation) + " (attempt "
+							+ (attempt + 1) + ")");
+				}
+				Thread.sleep(RETRY_BACKOFF_MILLIS * attempt);
+			}
+			Object transferEvent = FlightEvents.beginFileTransfer();
+			boolean success = false;
+			try {
+				success = attempt(operation, credentials);
+				errors.remove(operation);
+			} catch (Exception ex) {
+				errors.put(operation, (null == ex.getMessage()) ? ex.toString()
+						: ex.getMessage());
+				log.debug(ex.getMessage(), ex);
+			}
+			if (null != transferEvent) {
+				FlightEvents.endFileTransfer(transferEvent, operation.getName(),
+						describe(operation), attempt + 1,
+						success ? sizeOf(operation) : 0, success);
+			}
+			if (success) {
+				progress.filesDone(countOf(operation), sizeOf(operation));
+				reportProgress();
+				return true;
+			}
+		}
+		progress.filesFailed(countOf(operation));
+		if (base.getFailOnError()) {
+			aborted = true;
+		}
+		return false;
+	}
+
+	/**
+	 * Generate and post the operation once, on a worker thread.
+	 *
+	 * @return true if the device reported success.
+	 * @throws Exception
+	 *             if the operation could not be generated or posted.
+	 */
+	protected boolean attempt(Operation operation, Credentials credentials)
+			throws Exception {
+		String payload = base.generateXMLInstanceOrThrow(operation);
+		if (null == payload) {
+			return false;
+		}
+		try {
+			operation.setResponse(base.sendXMLInstanceOrThrow(operation, credentials));
+		} finally {
+			operation.resetPayload();
+		}
+		return null != operation.getResponse() && base.isSuccessResponse(operation);
+	}
+
+	/**
+	 * @return the number of files carried by the operation.
+	 */
+	protected int countOf(Operation operation) {
+		return 1;
+	}
+
+	/**
+	 * @return the total size of the source files of the operation.
+	 */
+	protected long sizeOf(Operation operation) {
+		return sourceSize(operation);
+	}
+
+	/**
+	 * @return the total size of the source files of the operation.
+	 */
+	protected static long sourceSize(Operation operation) {
+		long size = 0;
+		for (Option option : operation.getOptions()) {
+			if (null != option.getSrcFile()) {
+				size += new File(option.getSrcFile()).length();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Log the progress, at most once per PROGRESS_INTERVAL_MILLIS.
+	 */
+	private void reportProgress() {
+		long now = System.currentTimeMillis();
+		long last = lastReportMillis.get();
+		if (now - last >= PROGRESS_INTERVAL_MILLIS
+				&& lastReportMillis.compareAndSet(last, now)) {
+			log.info(progress.summary());
+		}
+	}
+
+	/**
+	 * @return the device path named by the operation, for log messages.
+	 */
+	private String describe(Operation operation) {
+		String path = operation.getOptionValue(operation.getName() + "@"
+				+ Constants.NAME_OPT_NAME);
+		return (null == path) ? operation.getName() : path;
+	}
+
+}
@@ -0,0 +1,262 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Paces repeated polls of the device - waitFor checks, tail-log and
+ * tail-count - without holding a CPU while waiting.
+ *
+ * Each wait is woken by a task on a small scheduler shared by every poller in
+ * the process, and can be cut short by <code>cancel()</code> from any thread.
+ * The delay between polls is fixed, or grows exponentially up to a maximum,
+ * optionally jittered so that many concurrent pollers do not post in step.
+ *
+ * A poller may also watch the keyboard, cancelling once input is waiting.
+ * The input is sampled on the scheduler rather than read, so it is left for
+ * the console to read afterwards.
+ */
+public class PollScheduler {
+
+	/** The ways the delay between polls may change. */
+	public enum Backoff {
+		/** The poll interval every time. */
+		FIXED,
+		/** The poll interval, doubling after each poll. */
+		EXPONENTIAL,
+		/** As exponential, each delay randomly shortened by up to half. */
+		JITTERED;
+
+		/**
+		 * @return the backoff named, ignoring case, or null if none matches.
+		 */
+		public static Backoff parse(String name) {
+			if (null != name) {
+				for (Backoff backoff : values()) {
+					if (backoff.name().equalsIgnoreCase(name.trim())) {
+						return backoff;
+					}
+				}
+			}
+			return null;
+		}
+	}
+
+	/** How often waiting keyboard input is checked for. */
+	protected static final long KEYBOARD_SAMPLE_MILLIS = 100;
+
+	/** Default ceiling of a growing delay. */
+	protected static final long DEFAULT_MAX_INTERVAL_MILLIS = 30000;
+
+	private static ScheduledExecutorService scheduler = null;
+
+	private final long intervalMillis;
+
+	private final Backoff backoff;
+
+	private long maxIntervalMillis;
+
+	private int polls = 0;
+
+	private volatile boolean cancelled = false;
+
+	private volatile CountDownLatch wake = null;
+
+	private ScheduledFuture<?> keyboardWatch = null;
+
+	private final Random random = new Random();
+
+	/**
+	 * Constructs a new <code>PollScheduler</code>.
+	 *
+	 * @param intervalMillis
+	 *            the delay after the first poll.
+	 * @param backoff
+	 *            how the delay changes over later polls, FIXED if null.
+	 */
+	public PollScheduler(long intervalMillis, Backoff backoff) {
+		this.intervalMillis = Math.max(0, intervalMillis);
+		this.backoff = (null == backoff) ? Backoff.FIXED : backoff;
+		this.maxIntervalMillis = Math.max(this.intervalMillis,
+				DEFAULT_MAX_INTERVAL_MILLIS);
+	}
+
+	/**
+	 * @param maxIntervalMillis
+	 *            the ceiling of a growing delay.
+	 */
+	public void setMaxIntervalMillis(long maxIntervalMillis) {
+		this.maxIntervalMillis = Math.max(intervalMillis, maxIntervalMillis);
+	}
+
+	/**
+	 * @return the scheduler shared by all pollers, started on first use.
+	 */
+	protected static synchronized ScheduledExecutorService scheduler() {
+		if (null == scheduler) {
+			scheduler = Executors.newScheduledThreadPool(1, new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "dpdirect-poll-"
+							+ count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return scheduler;
+	}
+
+	/**
+	 * @return the delay to wait before the next poll, advancing the backoff.
+	 */
+	public long nextDelay() {
+		long delay = intervalMillis;
+		if (Backoff.FIXED != backoff) {
+			int doublings = Math.min(polls, 30);
+			delay = Math.min(maxIntervalMillis, intervalMillis << doublings);
+			if (Backoff.JITTERED == backoff && delay > 1) {
+				delay -= (long) (random.nextDouble() * (delay / 2));
+			}
+		}
+		polls++;
+		return delay;
+	}
+
+	/**
+	 * Restart the backoff from the poll interval, eg. once a poll sees
+	 * progress.
+	 */
+	public void reset() {
+		polls = 0;
+	}
+
+	/**
+	 * Wait out the next delay.
+	 *
+	 * @return true to poll again, false if cancelled.
+	 */
+	public boolean pause() {
+		return sleep(nextDelay());
+	}
+
+	/**
+	 * Wait the given time, or until cancelled.
+	 *
+	 * @param millis
+	 *            the time to wait.
+	 * @return true if the time passed, false if cancelled.
+	 */
+	public boolean sleep(long millis) {
+		if (cancelled) {
+			return false;
+		}
+		if (millis <= 0) {
+			return true;
+		}
+		final CountDownLatch latch = new CountDownLatch(1);
+		wake = latch;
+		ScheduledFuture<?> timer = scheduler().schedule(new Runnable() {
+			public void run() {
+				latch.countDown();
+			}
+		}, millis, TimeUnit.MILLISECONDS);
+		try {
+			if (!cancelled) {
+				latch.await();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			cancelled = true;
+		} finally {
+			timer.cancel(false);
+			wake = null;
+		}
+		return !cancelled;
+	}
+
+	/**
+	 * Stop polling, waking a waiting poller at once.
+	 */
+	public void cancel() {
+		cancelled = true;
+		CountDownLatch latch = wake;
+		if (null != latch) {
+			latch.countDown();
+		}
+	}
+
+	/**
+	 * @return has polling been cancelled.
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Cancel once input is waiting on the given stream, eg. 'enter' typed at
+	 * the console. The input is not consumed.
+	 *
+	 * @param in
+	 *            the stream to watch.
+	 */
+	public synchronized void watchKeyboard(final InputStream in) {
+		if (null != keyboardWatch) {
+			return;
+		}
+		try {
+			if (0 != in.available()) {
+				cancel();
+			}
+		} catch (IOException ex) {
+			cancel();
+		}
+		keyboardWatch = scheduler().scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					if (0 != in.available()) {
+						cancel();
+					}
+				} catch (IOException ex) {
+					cancel();
+				}
+			}
+		}, KEYBOARD_SAMPLE_MILLIS, KEYBOARD_SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop watching the keyboard.
+	 */
+	public synchronized void close() {
+		if (null != keyboardWatch) {
+			keyboardWatch.cancel(false);
+			keyboardWatch = null;
+		}
+	}
+
+}
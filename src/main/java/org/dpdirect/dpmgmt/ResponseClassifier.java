@@ -0,0 +1,293 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Level;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+/**
+ * Classifies a parsed SOMA or AMP response as an {@link OperationResult},
+ * detecting error conditions and assigning an error Level.
+ *
+ * A classifier is built once for a set of failure states, eg. once per
+ * operation, and reused for every response it parses. The nodes that decide
+ * the result are found in a single walk of the response.
+ */
+public class ResponseClassifier {
+
+	/** The SOAP envelope namespace. */
+	protected static final String SOAP_NS = "http://schemas.xmlsoap.org/soap/envelope/";
+
+	/** Response text indicating an error, whatever the operation. */
+	private static final List<String> ERROR_CONDITIONS = Arrays.asList("error",
+			"Error", "ERROR", "failure", "Authentication failure");
+
+	/** Namespaced elements that decide the result, by local name. */
+	private static final Set<String> RESULT_ELEMENTS = new HashSet<String>(
+			Arrays.asList("Body", "Fault", "OpState", "Status", "status",
+					"file", "result", "response", "log-event"));
+
+	private final Set<String> errorConditions;
+
+	/**
+	 * Constructs a new <code>ResponseClassifier</code>.
+	 *
+	 * @param failureStates
+	 *            optional strings in the response message that would indicate
+	 *            an unexpected result eg. 'up' for status request following a
+	 *            stop command.
+	 */
+	public ResponseClassifier(Collection<String> failureStates) {
+		errorConditions = new HashSet<String>(ERROR_CONDITIONS);
+		if (null != failureStates) {
+			errorConditions.addAll(failureStates);
+		}
+	}
+
+	/**
+	 * @return true if the text indicates an error.
+	 */
+	public boolean isErrorCondition(String text) {
+		return null != text && errorConditions.contains(text);
+	}
+
+	/**
+	 * Classify a parsed response.
+	 *
+	 * @param responseDoc
+	 *            the parsed response.
+	 * @return the result.
+	 */
+	public OperationResult classify(Document responseDoc) {
+		Scan scan = new Scan();
+		scan.walk(responseDoc);
+
+		Level resultLevel = Level.INFO;
+		String status = null;
+		String faultCode = null;
+		String faultString = null;
+
+		Node xmlPayload = responseDoc.getFirstChild();
+		Node bodyNode = scan.first(SOAP_NS, "Body");
+		if (bodyNode != null && bodyNode.getFirstChild() != null) {
+			xmlPayload = bodyNode.getFirstChild();
+		}
+
+		Node resultNode = xmlPayload;
+		String responseNamespace = resultNode.getNamespaceURI();
+		String nodeName = resultNode.getLocalName();
+
+		// Process response with no namespace
+		if (responseNamespace == null) {
+			if (nodeName.equals("HttpErrorResponse")) {
+				resultLevel = Level.FATAL;
+				faultString = resultNode.getTextContent().trim();
+			}
+		}
+
+		// Process response with SOAP namespace
+		else if (responseNamespace.contains("http://schemas.xmlsoap.org/soap/envelope")) {
+			Node faultNode = scan.first(responseNamespace, "Fault");
+			if (faultNode != null) {
+				resultNode = faultNode;
+				resultLevel = Level.FATAL;
+				faultCode = childText(resultNode, "faultcode");
+				faultString = childText(resultNode, "faultstring");
+				if (null == faultString) {
+					faultString = resultNode.getTextContent().trim();
+				}
+			}
+		}
+
+		// Process response with AMP namespace
+		else if (responseNamespace.contains("http://www.datapower.com/schemas/appliance/management")) {
+			Node opStateNode = scan.first(responseNamespace, "OpState");
+			Node statusNode = scan.first(responseNamespace, "Status");
+
+			// OpState node
+			if (opStateNode != null) {
+				resultNode = opStateNode;
+				status = opStateNode.getFirstChild().getNodeValue();
+				if (isErrorCondition(status)) {
+					resultLevel = Level.WARN;
+				}
+			}
+			// Status node
+			else if (statusNode != null && statusNode.hasChildNodes()) {
+				resultNode = statusNode;
+				status = statusNode.getFirstChild().getNodeValue();
+				if (isErrorCondition(status)) {
+					resultLevel = Level.WARN;
+				}
+			}
+		}
+
+		// Process response with SOMA namespace
+		else if (responseNamespace.contains("http://www.datapower.com/schemas/management")) {
+			Node statusNode = scan.first(responseNamespace, "status");
+			Node fileNode = scan.first(responseNamespace, "file");
+			Node resultTag = scan.first(responseNamespace, "result");
+
+			// Status node
+			if (statusNode != null && statusNode.hasChildNodes()) {
+				resultNode = statusNode;
+				status = statusNode.getFirstChild().getNodeValue();
+				if (isErrorCondition(status)) {
+					resultLevel = Level.WARN;
+				}
+				// a list of object statii is a report, not a failure.
+				if (scan.objectStatusCount > 3) {
+					resultLevel = Level.INFO;
+				}
+			}
+			// File node
+			else if (fileNode != null) {
+				resultNode = fileNode;
+				status = "OK";
+				if (fileNode.getFirstChild() != null &&
+						fileNode.getFirstChild().getNodeValue().equals("ERROR")) {
+					resultLevel = Level.FATAL;
+					status = "ERROR";
+					faultString = "ERROR";
+				}
+			}
+			// Result node
+			else if (resultTag != null) {
+				resultNode = resultTag;
+
+				if (scan.errorLog != null) {
+					resultNode = scan.errorLog;
+				}
+				if (resultTag.getFirstChild() != null
+						&& resultTag.getFirstChild().getNodeValue() != null) {
+					status = resultTag.getFirstChild().getNodeValue().trim();
+				}
+
+				Node eventNode = scan.first(responseNamespace, "log-event");
+				if (resultNode.getFirstChild() != null &&
+						resultNode.getFirstChild().getNodeValue() != null &&
+						isErrorCondition(resultNode.getFirstChild().getNodeValue().trim())) {
+					resultLevel = Level.FATAL;
+				} else if (eventNode != null &&
+						eventNode.getAttributes().getNamedItem("level") != null &&
+						isErrorCondition(eventNode.getAttributes()
+								.getNamedItem("level")
+								.getNodeValue())) {
+					resultLevel = Level.FATAL;
+				}
+				if (resultLevel == Level.FATAL) {
+					faultString = resultNode.getTextContent().trim();
+				}
+			}
+			// CfgResultList node, or any other response left to the output
+			else {
+				for (Node cfgResult : scan.cfgResults) {
+					resultNode = cfgResult;
+
+					status = resultNode.getAttributes().getNamedItem("status").getNodeValue();
+					if (isErrorCondition(status)) {
+						resultLevel = Level.FATAL;
+						faultString = resultNode.getTextContent().trim();
+						break;
+					}
+				}
+			}
+		}
+
+		if (null != status) {
+			status = status.trim();
+		}
+		OperationResult result = new OperationResult(resultLevel, status,
+				faultCode, faultString, responseDoc, xmlPayload, resultNode);
+		result.objectStatusCount = scan.objectStatusCount;
+		result.monitor = scan.messageCounts;
+		return result;
+	}
+
+	/**
+	 * @return the trimmed text of the named child element, or null.
+	 */
+	private static String childText(Node parent, String localName) {
+		for (Node child = parent.getFirstChild(); null != child; child = child
+				.getNextSibling()) {
+			if (localName.equals(child.getLocalName())) {
+				return child.getTextContent().trim();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The nodes of a response that decide its result, found in one walk in
+	 * document order.
+	 */
+	private static class Scan {
+
+		/** The first of each result element, by namespace and local name. */
+		private final Map<String, Node> firstByName = new HashMap<String, Node>();
+
+		private Node errorLog = null;
+
+		private final List<Node> cfgResults = new ArrayList<Node>();
+
+		private int objectStatusCount = 0;
+
+		private boolean messageCounts = false;
+
+		void walk(Node parent) {
+			for (Node node = parent.getFirstChild(); null != node; node = node
+					.getNextSibling()) {
+				if (Node.ELEMENT_NODE == node.getNodeType()) {
+					String tagName = node.getNodeName();
+					if ("cfg-result".equals(tagName)) {
+						cfgResults.add(node);
+					} else if ("ObjectStatus".equals(tagName)) {
+						objectStatusCount++;
+					} else if ("MessageCounts".equals(tagName)) {
+						messageCounts = true;
+					} else if (null == errorLog && "error-log".equals(tagName)) {
+						errorLog = node;
+					}
+					String localName = node.getLocalName();
+					if (null != node.getNamespaceURI()
+							&& RESULT_ELEMENTS.contains(localName)) {
+						String key = node.getNamespaceURI() + ' ' + localName;
+						if (!firstByName.containsKey(key)) {
+							firstByName.put(key, node);
+						}
+					}
+					walk(node);
+				}
+			}
+		}
+
+		Node first(String namespace, String localName) {
+			return firstByName.get(namespace + ' ' + localName);
+		}
+	}
+
+}
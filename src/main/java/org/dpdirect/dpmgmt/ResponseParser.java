@@ -1,11 +1,20 @@
 package org.dpdirect.dpmgmt;
 
+import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -29,10 +38,10 @@ import javax.xml.parsers.ParserConfigurationException;
 import org.dpdirect.schema.DocumentHelper;
 import org.dpdirect.utils.FileUtils;
 import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 /**
@@ -45,12 +54,13 @@ public class ResponseParser {
 
 	/** Output types that may be specified as 'outputType'. */
 	protected static enum OutputType {
-		OUTPUT_PARSED, OUTPUT_LINES, OUTPUT_XML
+		OUTPUT_PARSED, OUTPUT_LINES, OUTPUT_XML, OUTPUT_JSON, OUTPUT_NDJSON
 	};
 
 	/**
 	 * Set the style of output for the eyeball (OUTPUT_PARSED), string
-	 * manipulation (OUTPUT_LINES) or xml parsing (OUTPUT_XML).
+	 * manipulation (OUTPUT_LINES), xml parsing (OUTPUT_XML) or json
+	 * processing (OUTPUT_JSON, or OUTPUT_NDJSON for a record per line).
 	 * */
 	private OutputType outputType = OutputType.OUTPUT_PARSED;
 	
@@ -68,17 +78,39 @@ public class ResponseParser {
 
 	private String filterOut = null;
 	
-	private String filterString = null;
-	
-	private String filterOutString = null;
-	
+	private static final Pattern LINE_BREAK = Pattern.compile("\r\n|\r|\n");
+
+	/** The filters, compiled when set, or null if none. */
 	private Pattern filterPattern = null;
 	
 	private Pattern filterOutPattern = null;
 	
 	private boolean suppressResponse = false;
 
-	private org.apache.log4j.Level resultLevel = org.apache.log4j.Level.INFO;
+	/** Elements left out of, and tabbed within, each style of line output. */
+	private static final List<String> LOG_IGNORE = Arrays.asList("date", "time");
+
+	private static final List<String> LOG_TABS = Arrays.asList("code", "type");
+
+	private static final List<String> STATUS_IGNORE = Arrays.asList("ObjectStatus");
+
+	private static final List<String> STATUS_TABS = Arrays.asList("Name");
+
+	private static final List<String> MONITOR_IGNORE = Collections.emptyList();
+
+	private static final List<String> MONITOR_TABS = Arrays.asList("tenSeconds");
+
+	private static final List<String> LINES_IGNORE = Arrays.asList("timestamp");
+
+	private static final List<String> LINES_TABS = Collections.emptyList();
+
+	/** The last response parsed, and its result. */
+	private String parsedResponse = null;
+
+	private OperationResult parsedResult = null;
+
+	/** Classifies responses for the failure states, built when first needed. */
+	private ResponseClassifier classifier = null;
 
 	/**
 	 * Constructs a new <code>ResponseParser</code> object.
@@ -115,6 +147,7 @@ public class ResponseParser {
 	public void setFailureState(String failString) {
 		if (null != failString) {
 			this.failureState.add(failString);
+			this.classifier = null;
 		}
 	}
 
@@ -125,6 +158,7 @@ public class ResponseParser {
 	public void setFilterOut(String filterOutString) {
 		if (null != filterOutString){
 		    this.filterOut = filterOutString.trim();
+		    this.filterOutPattern = compileFilter(this.filterOut);
 		}
 	}
 
@@ -149,9 +183,21 @@ public class ResponseParser {
 	public void setFilter(String filterString) {
 		if (null != filterString){
 		    this.filter = filterString.trim();
+		    this.filterPattern = compileFilter(this.filter);
 		}
 	}
 	
+	/**
+	 * @return the pattern matching lines that contain the filter, or null if
+	 *         no filter.
+	 */
+	private static Pattern compileFilter(String filterString) {
+		if (Constants.NONE_OPT_VALUE == filterString) {
+			return null;
+		}
+		return Pattern.compile(".*(" + filterString + ").*");
+	}
+
 	/**
 	 * @return the filter
 	 */
@@ -188,7 +234,7 @@ public class ResponseParser {
 	 */
 	public void setOutputType(String type) {
 		for (OutputType t : OutputType.values()) {
-			if (t.toString().endsWith(type.toUpperCase())) {
+			if (t.toString().endsWith("_" + type.toUpperCase())) {
 				outputType = t;
 			}
 		}
@@ -200,171 +246,67 @@ public class ResponseParser {
 	 * 
 	 * @param responseString
 	 *            a valid XML response string.
-	 * @param failureState
-	 *            an optional string in the response message that would indicate
-	 *            an unexpected result eg. 'up' for status request following a
-	 *            stop command.
 	 * @return a list of results including the result test and result org.apache.log4j.Level.
 	 * @throws Exception
 	 */
 	public List<Object> parseResponseMsg(String responseString) throws Exception {
-		String resultText = "";
-
+		List<Object> result = new ArrayList<Object>();
 		if (suppressResponse) {
-			List<Object> result = new ArrayList<Object>();
-			result.add(resultLevel);
-			result.add(resultText);
+			result.add(org.apache.log4j.Level.INFO);
+			result.add("");
 			return result;
 		}
+		OperationResult parsed = parseResult(responseString);
+		result.add(parsed.getSeverity());
+		result.add(renderResult(parsed));
+		return result;
+	}
 
-		List<String> errorConditions = new ArrayList<String>();
-		errorConditions.add("error");
-		errorConditions.add("Error");
-		errorConditions.add("ERROR");
-		errorConditions.add("failure");
-		errorConditions.add("Authentication failure");
-		errorConditions.addAll(failureState);
-
-		responseDoc = DocumentHelper.parseDocument(new ByteArrayInputStream(responseString.getBytes()));
-		xmlPayload = responseDoc.getFirstChild();
-
-		Node bodyNode = responseDoc.getElementsByTagNameNS(
-"http://schemas.xmlsoap.org/soap/envelope/", "Body").item(0);
-		if (bodyNode != null && bodyNode.getFirstChild() != null) {
-			xmlPayload = bodyNode.getFirstChild();
-		}
-
-		Node resultNode = xmlPayload;
-		String responseNamespace = resultNode.getNamespaceURI();
-		String nodeName = resultNode.getLocalName();
-
-		// Process response with no namespace
-		if (responseNamespace == null) {
-			if (nodeName.equals("HttpErrorResponse")) {
-				resultLevel = org.apache.log4j.Level.FATAL;
-			}
-		}
-
-		// Process response with SOAP namespace
-		else if (responseNamespace.contains("http://schemas.xmlsoap.org/soap/envelope")) {
-			if (responseDoc.getElementsByTagNameNS(responseNamespace, "Fault").getLength() > 0) {
-				resultNode = responseDoc.getElementsByTagNameNS(responseNamespace, "Fault").item(0);
-				resultLevel = org.apache.log4j.Level.FATAL;
-			}
+	/**
+	 * Parse an XML response string into an {@link OperationResult}, detecting
+	 * error conditions and assigning an error org.apache.log4j.Level. The
+	 * result of the last response parsed is kept, so the same response is
+	 * parsed once however often it is asked for.
+	 * 
+	 * @param responseString
+	 *            a valid XML response string.
+	 * @return the parsed result.
+	 * @throws Exception
+	 */
+	public OperationResult parseResult(String responseString) throws Exception {
+		if (null != parsedResult && responseString == parsedResponse) {
+			responseDoc = parsedResult.getDocument();
+			xmlPayload = parsedResult.getPayload();
+			return parsedResult;
 		}
-
-		// Process response with AMP namespace
-		else if (responseNamespace.contains("http://www.datapower.com/schemas/appliance/management")) {
-			Node opStateNode = responseDoc.getElementsByTagNameNS(responseNamespace, "OpState").item(0);
-			Node statusNode = responseDoc.getElementsByTagNameNS(responseNamespace, "Status").item(0);
-
-			// OpState node
-			if (opStateNode != null) {
-				resultNode = opStateNode;
-				if (errorConditions.contains(opStateNode.getFirstChild().getNodeValue())) {
-					resultLevel = org.apache.log4j.Level.WARN;
-				}
-			}
-			// Status node
-			else if (statusNode != null && statusNode.hasChildNodes()) {
-				resultNode = statusNode;
-
-				if (errorConditions.contains(statusNode.getFirstChild().getNodeValue())) {
-					resultLevel = org.apache.log4j.Level.WARN;
-				}
-			}
+		if (null == classifier) {
+			classifier = new ResponseClassifier(failureState);
 		}
+		responseDoc = DocumentHelper.parseDocument(new ByteArrayInputStream(responseString.getBytes()));
+		parsedResult = classifier.classify(responseDoc);
+		xmlPayload = parsedResult.getPayload();
+		parsedResponse = responseString;
+		return parsedResult;
+	}
 
-		// Process response with SOMA namespace
-		else if (responseNamespace.contains("http://www.datapower.com/schemas/management")) {
-			Node statusNode = responseDoc.getElementsByTagNameNS(responseNamespace, "status").item(0);
-			Node fileNode = responseDoc.getElementsByTagNameNS(responseNamespace, "file").item(0);
-			Node resultTag = responseDoc.getElementsByTagNameNS(responseNamespace, "result").item(0);
-			NodeList cfgResultList = responseDoc.getElementsByTagName("cfg-result");
-			NodeList fileResultList = responseDoc.getElementsByTagName("file-result");
-			Node responseNode = responseDoc.getElementsByTagNameNS(responseNamespace, "response").item(0);
-
-			// Status node
-			if (statusNode != null && statusNode.hasChildNodes()) {
-				resultNode = statusNode;
-
-				if (errorConditions.contains(statusNode.getFirstChild().getNodeValue())) {
-					resultLevel = org.apache.log4j.Level.WARN;
-				}
-			}
-			// File node
-			else if (fileNode != null) {
-				resultNode = fileNode;
-				if (fileNode.getFirstChild() != null &&
-						fileNode.getFirstChild().getNodeValue().equals("ERROR")) {
-					resultLevel = org.apache.log4j.Level.FATAL;
-				}
-			}
-			// Result node
-			else if (resultTag != null) {
-				resultNode = resultTag;
-
-				Node errorLog = responseDoc.getElementsByTagName("error-log").item(0);
-				if (errorLog != null) {
-					resultNode = errorLog;
-				}
-
-				Node eventNode = responseDoc.getElementsByTagNameNS(responseNamespace, "log-event").item(0);
-				if (resultNode.getFirstChild() != null &&
-						resultNode.getFirstChild().getNodeValue() != null &&
-						errorConditions.contains(resultNode.getFirstChild().getNodeValue().trim())) {
-					resultLevel = org.apache.log4j.Level.FATAL;
-				} else if (eventNode != null &&
-						eventNode.getAttributes().getNamedItem("level") != null &&
-						errorConditions.contains(eventNode.getAttributes()
-								.getNamedItem("level")
-								.getNodeValue())) {
-					resultLevel = org.apache.log4j.Level.FATAL;
-				}
-			}
-			// CfgResultList node
-			else if (cfgResultList != null) {
-				for (int i = 0; i < cfgResultList.getLength(); i++) {
-					resultNode = cfgResultList.item(i);
-
-					String status = resultNode.getAttributes().getNamedItem("status").getNodeValue();
-					if (errorConditions.contains(status)) {
-						resultLevel = org.apache.log4j.Level.FATAL;
-						break;
-					}
-				}
-			}
-			// FileResultList node
-			else if (fileResultList != null) {
-				for (int i = 0; i < fileResultList.getLength(); i++) {
-					resultNode = fileResultList.item(i);
-
-					String status = resultNode.getAttributes().getNamedItem("result").getNodeValue();
-					if (errorConditions.contains(status)) {
-						resultLevel = org.apache.log4j.Level.FATAL;
-						break;
-					}
-				}
-			}
-			// Response node
-			else if (responseNode != null) {
-				resultNode = responseNode;
-				if (errorConditions.contains(responseNode.getFirstChild().getNodeValue())) {
-					resultLevel = org.apache.log4j.Level.FATAL;
-				}
-			}
+	/**
+	 * Return the text of a parsed result, rendered by the selected output
+	 * mode. The text is rendered once and kept with the result.
+	 * 
+	 * @param result
+	 *            the parsed result.
+	 * @return the result text.
+	 * @throws Exception
+	 */
+	public String renderResult(OperationResult result) throws Exception {
+		if (null == result.getText()) {
+			responseDoc = result.getDocument();
+			xmlPayload = result.getPayload();
+			result.setText(processResponse(result.getResultNode()));
 		}
-
-		resultText = processResponse(resultNode);
-
-		List<Object> result = new ArrayList<Object>();
-		result.add(resultLevel);
-		result.add(resultText);
-
-		return result;
+		return result.getText();
 	}
 
-
 	/**
 	 * Return output from response XML based on selected output mode.
 	 * 
@@ -376,11 +318,8 @@ public class ResponseParser {
 	 */
 	public String processResponse(Node resultNode) throws Exception {
 		String resultText = null;
+		boolean fileWritten = false;
 			
-		filterString = ".*(" + filter + ").*";
-		filterOutString = ".*(" + filterOut + ").*";
-		filterPattern = Pattern.compile(filterString);
-		filterOutPattern = Pattern.compile(filterOutString);
 
 		/*
 		 * Process base64 encoded file payload
@@ -394,6 +333,7 @@ public class ResponseParser {
 			if (null != outputFile) {
 				FileUtils.writeStringToFile(outputFile, resultText);
 				resultNode.getFirstChild().setNodeValue(outputFile);
+				fileWritten = true;
 			} else {
 				resultNode.getFirstChild().setNodeValue(resultText);
 				if (!outputType.equals(OutputType.OUTPUT_XML)) {
@@ -402,13 +342,16 @@ public class ResponseParser {
 			}
 		}
 
+		// the classifier has counted these, where it parsed this response.
+		boolean classified = null != parsedResult
+				&& responseDoc == parsedResult.getDocument();
 		switch (outputType) {
 		case OUTPUT_PARSED:
-			if (responseDoc.getElementsByTagName("MessageCounts").getLength() > 0) {
+			if (classified ? parsedResult.monitor
+					: responseDoc.getElementsByTagName("MessageCounts").getLength() > 0) {
 				resultText = processMonitor(resultNode);
-			} else if (responseDoc.getElementsByTagName("ObjectStatus")
-					.getLength() > 3) {
-				resultLevel = org.apache.log4j.Level.INFO;
+			} else if ((classified ? parsedResult.objectStatusCount
+					: responseDoc.getElementsByTagName("ObjectStatus").getLength()) > 3) {
 				resultText = processStatii(resultNode);
 			} else {
 				resultText = processNameValue(resultNode);
@@ -420,17 +363,78 @@ public class ResponseParser {
 		case OUTPUT_XML:
 			resultText = DocumentHelper.buildNodeString(xmlPayload);
 			break;
+		case OUTPUT_JSON:
+		case OUTPUT_NDJSON:
+			// a file payload is already written out, and is not a record.
+			return (null != resultText) ? resultText : processJson();
 		default:
 			resultText = processNameValue(resultNode);
 			break;
 		}
 
-		if (null != outputFile) {
+		// a file payload is already written out, in place of its report.
+		if (null != outputFile && !fileWritten) {
 			FileUtils.writeStringToFile(outputFile, resultText);
 		}
 		return resultText;
 	}
 
+	/**
+	 * Return the response as JSON records, streamed from the response text
+	 * as it is parsed. Where there is an output file, the records are written
+	 * straight to it.
+	 * 
+	 * @return the JSON text, or a note of the records written to the file.
+	 * @throws Exception
+	 */
+	private String processJson() throws Exception {
+		String xml = (null != parsedResponse) ? parsedResponse
+				: DocumentHelper.buildNodeString(xmlPayload);
+
+		if (null != outputFile) {
+			Writer out = new BufferedWriter(new OutputStreamWriter(
+					new FileOutputStream(outputFile), "UTF-8"));
+			JsonResponseHandler handler = newJsonHandler(out);
+			try {
+				handler.handleResponse(new InputSource(new StringReader(xml)));
+			} finally {
+				out.close();
+			}
+			return handler.getWrittenCount() + " records written to " + outputFile;
+		}
+		StringWriter out = new StringWriter(Math.max(16, xml.length() / 2));
+		newJsonHandler(out).handleResponse(new InputSource(new StringReader(xml)));
+		return out.toString().trim();
+	}
+
+	/**
+	 * @return true if the output is JSON records, which may be written out
+	 *         as the response is read rather than once it is parsed.
+	 */
+	public boolean isStreamedOutput() {
+		return OutputType.OUTPUT_JSON.equals(outputType)
+				|| OutputType.OUTPUT_NDJSON.equals(outputType);
+	}
+
+	/**
+	 * Return a handler writing a response as JSON records, by the output type
+	 * and filters of this parser.
+	 * 
+	 * @param out
+	 *            the target of the JSON.
+	 * @return the handler.
+	 */
+	public JsonResponseHandler newJsonHandler(Writer out) {
+		JsonResponseHandler handler = new JsonResponseHandler(out,
+				OutputType.OUTPUT_NDJSON.equals(outputType), filterPattern,
+				filterOutPattern);
+		if (null == classifier) {
+			classifier = new ResponseClassifier(failureState);
+		}
+		handler.setClassifier(classifier);
+		return handler;
+	}
+
 	/**
 	 * Filter lines by supplied filter and filterOut strings
 	 * 
@@ -438,21 +442,11 @@ public class ResponseParser {
 	 *            String : The parsed text.
 	 */
 	public String filterLines(String parsedText) {
-		StringBuffer outputLines = new StringBuffer();
-		String[] lines = parsedText.split("\r\n|\r|\n");
+		StringBuilder outputLines = new StringBuilder(parsedText.length());
+		String[] lines = LINE_BREAK.split(parsedText);
 		for (int i = 0; i < lines.length; i++) {
 			String line = lines[i];
-			
-			Matcher filterMatch = filterPattern.matcher(line);
-			Matcher filterOutMatch = filterOutPattern.matcher(line);
-			
-			if (line.length() > 1
-					&& (null == filter 
-						|| Constants.NONE_OPT_VALUE == filter 
-						|| filterMatch.find())
-					&& (null == filterOut
-						|| Constants.NONE_OPT_VALUE == filterOut 
-						|| !filterOutMatch.find())) {
+			if (line.length() > 1 && passesFilters(line)) {
 				outputLines.append(line).append("\n");
 			}
 		}
@@ -526,29 +520,29 @@ public class ResponseParser {
 	 * 
 	 * @param node to recurse.
 	 * @param the depth to recurse to.
+	 * @param tagCounts the number of elements of each tag name in the response.
 	 * 
 	 * @return parent node of record set, or null if none found.     
 	 */
-	private Node findRecordParent(Node node, int drillDepth){
+	private Node findRecordParent(Node node, int drillDepth, Map<String, Integer> tagCounts){
 		/*
 		 * Look (drillDepth) nodes deep to find multiple records (nodes of the same name).
 		 */
-		int childNodeCount = node.getChildNodes().getLength();
+		NodeList childNodes = node.getChildNodes();
+		int childNodeCount = childNodes.getLength();
 		
 		for (int i = 0; i < childNodeCount; i++) {
-			Node childNode = node.getChildNodes().item(i);
-			String childNodeName = childNode.getLocalName();
+			String childNodeName = childNodes.item(i).getLocalName();
 			if (null != childNodeName) {
-				if (responseDoc.getElementsByTagName(childNodeName)
-						.getLength() > 1) {
+				Integer count = tagCounts.get(childNodeName);
+				if (null != count && count > 1) {
 					return node;
 				}
 			}
 		}
 		if (drillDepth > 0){
 			for (int i = 0; i < childNodeCount; i++) {
-				Node childNode = node.getChildNodes().item(i);
-				Node foundNode = findRecordParent(childNode, drillDepth-1);
+				Node foundNode = findRecordParent(childNodes.item(i), drillDepth-1, tagCounts);
 				if (foundNode != null){
 					return foundNode;
 				}
@@ -557,6 +551,79 @@ public class ResponseParser {
 		return null;
 	}
 
+	/**
+	 * Count the elements of each tag name beneath a node, in one pass.
+	 * 
+	 * @param node the node to count beneath.
+	 * @param tagCounts the counts by tag name.
+	 * 
+	 * @return the counts by tag name.
+	 */
+	private static Map<String, Integer> countTags(Node node, Map<String, Integer> tagCounts) {
+		for (Node child = node.getFirstChild(); null != child; child = child.getNextSibling()) {
+			if (child.getNodeType() == Node.ELEMENT_NODE) {
+				Integer count = tagCounts.get(child.getNodeName());
+				tagCounts.put(child.getNodeName(), (null == count) ? 1 : count + 1);
+				countTags(child, tagCounts);
+			}
+		}
+		return tagCounts;
+	}
+
+	/**
+	 * Count the element descendants of a node by tag name, as
+	 * getElementsByTagName() would find them.
+	 * 
+	 * @param parent the parent node.
+	 * 
+	 * @return the counts by tag name.
+	 */
+	private static Map<String, Integer> countDescendants(Node parent) {
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		countDescendants(parent, counts);
+		return counts;
+	}
+
+	private static void countDescendants(Node parent, Map<String, Integer> counts) {
+		for (Node child = parent.getFirstChild(); null != child; child = child.getNextSibling()) {
+			if (child.getNodeType() == Node.ELEMENT_NODE) {
+				Integer count = counts.get(child.getNodeName());
+				counts.put(child.getNodeName(), (null == count) ? 1 : count + 1);
+				countDescendants(child, counts);
+			}
+		}
+	}
+
+	/**
+	 * @return true if a filter or filterOut is set.
+	 */
+	private boolean hasFilters() {
+		return null != filterPattern || null != filterOutPattern;
+	}
+
+	/**
+	 * @return true if the text satisfies the filter and filterOut.
+	 */
+	private boolean passesFilters(CharSequence text) {
+		return (null == filterPattern || filterPattern.matcher(text).find())
+				&& (null == filterOutPattern || !filterOutPattern.matcher(text).find());
+	}
+
+	/**
+	 * Keep the entry last rendered to the lines, or remove it if it is empty
+	 * or fails the filters.
+	 * 
+	 * @param lines the rendered lines.
+	 * @param mark the length of the lines before the entry and its separator.
+	 * @param start the start of the entry.
+	 */
+	private void keepEntry(StringBuilder lines, int mark, int start) {
+		if (lines.length() - start <= 1
+				|| (hasFilters() && !passesFilters(lines.subSequence(start, lines.length())))) {
+			lines.setLength(mark);
+		}
+	}
+
 	/**
 	 * Return a string of 'name: value' pairs extracted from XML response
 	 * 
@@ -566,91 +633,88 @@ public class ResponseParser {
 	 * @return the concatenated result text.
 	 */
 	private String processNameValue(Node parentNode) {
-		return recurseNameValue(parentNode, "", 1).replaceAll("\\n+$", "");
+		StringBuilder resultText = new StringBuilder();
+		Map<String, Integer> siblingCounts = null;
+		if (hasFilters() && null != parentNode.getParentNode()) {
+			siblingCounts = countDescendants(parentNode.getParentNode());
+		}
+		recurseNameValue(parentNode, resultText, 1, siblingCounts);
+		int end = resultText.length();
+		while (end > 0 && resultText.charAt(end - 1) == '\n') {
+			end--;
+		}
+		resultText.setLength(end);
+		return resultText.toString();
 	}
 
 	/**
-	 * Recurse XML node tree to return 'name: value' pairs.
+	 * Recurse XML node tree to append 'name: value' pairs.
 	 * 
 	 * @param nextNode
 	 *            the next node in the XML tree to be parsed.
 	 * @param resultText
-	 *            the concatenated result text.
+	 *            the result text, appended to.
 	 * @param depth
 	 *            the recursion depth. Controls indenting.
-	 * 
-	 * @return the concatenated result text.
+	 * @param siblingCounts
+	 *            the element descendants of the parent node by tag name, or null
+	 *            where there are no filters to apply.
 	 */
-	private String recurseNameValue(Node nextNode, String resultText, int depth) {
-		
-		String indentText = "";
+	private void recurseNameValue(Node nextNode, StringBuilder resultText, int depth,
+			Map<String, Integer> siblingCounts) {
 		if (nextNode.getNodeType() == Node.ELEMENT_NODE) {
-			// the entire text of the node and its descendants
-			String nodeText = nextNode.getTextContent();
-			
-			Matcher filterMatch = filterPattern.matcher(nodeText);
-			Matcher filterOutMatch = filterOutPattern.matcher(nodeText);
-			
-			Element parentElement = null;
-			if (nextNode.getParentNode().getNodeType() == Node.ELEMENT_NODE) {
-				parentElement = (Element) nextNode.getParentNode();
+			boolean show = true;
+			// multiple nodes of this name are indicative of a record, shown if it satisfies the regex
+			if (null != siblingCounts
+					&& nextNode.getParentNode().getNodeType() == Node.ELEMENT_NODE) {
+				// by local name, so prefixed records are not filtered
+				Integer count = siblingCounts.get(nextNode.getLocalName());
+				if (null != count && count > 1) {
+					// the entire text of the node and its descendants
+					show = passesFilters(nextNode.getTextContent());
+				}
 			}
 			
-			// if NOT multiple nodes of this name, or if multiple node (indicative of a record) satisfies regex
-			if (parentElement == null || parentElement
-					.getElementsByTagName(nextNode.getLocalName()).getLength()<2
-					|| (null == filter 
-							|| Constants.NONE_OPT_VALUE == filter 
-							|| filterMatch.find())
-						&& (null == filterOut
-							|| Constants.NONE_OPT_VALUE == filterOut 
-							|| !filterOutMatch.find())) {
-				
-				// indent based on node depth
-				for (int i = 1; i < depth; i++) {
-					indentText = indentText + indentBlock;
-				}
-	
-				// Element name
-				String nameEntry = indentText + nextNode.getLocalName();
+			if (show) {
 				boolean hasText = (nextNode.getFirstChild() != null)
 						&& (nextNode.getFirstChild().getNodeValue() != null);
 				boolean hasChildren = nextNode.hasChildNodes();
 				boolean hasAttributes = nextNode.hasAttributes();
 				
-				// append element name
+				// append element name, indented by node depth
 				if (hasText || hasChildren || hasAttributes) {
-					resultText = resultText + nameEntry;
+					for (int i = 1; i < depth; i++) {
+						resultText.append(indentBlock);
+					}
+					resultText.append(nextNode.getLocalName());
 					// process attributes
-					resultText = concatAttributes(nextNode, resultText);
+					concatAttributes(nextNode, resultText);
 					// process child elements
 					if (hasText) {
-						resultText = resultText + ": "
-								+ nextNode.getFirstChild().getNodeValue().trim();
+						resultText.append(": ").append(
+								nextNode.getFirstChild().getNodeValue().trim());
 					}	
-					resultText = resultText + "\n";
+					resultText.append('\n');
 				}
 	
 				if (hasChildren) { // recurse into child nodes
-					depth += 1;
-					NodeList childNodeList = nextNode.getChildNodes();
-					for (int i = 0; i < childNodeList.getLength(); i++) {
-						Node childNode = childNodeList.item(i);
-						resultText = recurseNameValue(childNode, resultText, depth);
+					Map<String, Integer> childCounts = (null == siblingCounts) ? null
+							: countDescendants(nextNode);
+					for (Node childNode = nextNode.getFirstChild(); null != childNode; childNode = childNode
+							.getNextSibling()) {
+						recurseNameValue(childNode, resultText, depth + 1, childCounts);
 					}
 				} else { // process siblings
 					if (nextNode.getPreviousSibling() == null) { // only process
 																	// siblings once
 						Node nextSibling = nextNode.getNextSibling();
 						if (nextSibling != null) {
-							resultText = recurseNameValue(nextSibling, resultText,
-									depth);
+							recurseNameValue(nextSibling, resultText, depth, siblingCounts);
 						}
 					}
 				}
 			}
 		}
-		return resultText;
 	}
 
 	/**
@@ -663,35 +727,16 @@ public class ResponseParser {
 	 * @return the concatenated result text.
 	 */
 	private String processLogEntry(Node parentNode) {
-		String lines = "";
-
-		List<String> ignoreList = new ArrayList<String>();
-		ignoreList.add("date");
-		ignoreList.add("time");
-
-		List<String> tabList = new ArrayList<String>();
-		tabList.add("code");
-		tabList.add("type");
-
+		StringBuilder lines = new StringBuilder();
 		NodeList entries = responseDoc.getElementsByTagName("log-entry");
 		for (int i = 0; i < entries.getLength(); i++) {
-			String parsedEntry = recurseBlocksToLines(entries.item(i), "",
-					ignoreList, tabList, 0);
-			
-			Matcher filterMatch = filterPattern.matcher(parsedEntry);
-			Matcher filterOutMatch = filterOutPattern.matcher(parsedEntry);
-			
-			if (parsedEntry.length() > 1
-					&& (null == filter 
-						|| Constants.NONE_OPT_VALUE == filter 
-						|| filterMatch.find())
-					&& (null == filterOut 
-						|| Constants.NONE_OPT_VALUE == filterOut 
-						|| !filterOutMatch.find())) {
-				lines = lines + "\n" + parsedEntry;
-			}
+			int mark = lines.length();
+			lines.append('\n');
+			int start = lines.length();
+			recurseBlocksToLines(entries.item(i), lines, start, LOG_IGNORE, LOG_TABS, 0);
+			keepEntry(lines, mark, start);
 		}
-		return lines.trim();
+		return lines.toString().trim();
 	}
 
 	/**
@@ -704,38 +749,21 @@ public class ResponseParser {
 	 * @return the concatenated result text.
 	 */
 	private String processStatii(Node parentNode) {
-		String lines = "";
-
-		List<String> ignoreList = new ArrayList<String>();
-		ignoreList.add("ObjectStatus");
-
-		List<String> tabList = new ArrayList<String>();
-		tabList.add("Name");
-
-		NodeList entries = parentNode.getChildNodes();
-		for (int i = 0; i < entries.getLength(); i++) {
-			String parsedEntry = recurseBlocksToLines(entries.item(i), "",
-					ignoreList, tabList, 0);
-			
-			Matcher filterMatch = filterPattern.matcher(parsedEntry);
-			Matcher filterOutMatch = filterOutPattern.matcher(parsedEntry);
-			
-			if (parsedEntry.length() > 1
-					&& (null == filter
-						|| Constants.NONE_OPT_VALUE == filter
-					    || filterMatch.find())
-			        && (null == filterOut 
-			        	|| Constants.NONE_OPT_VALUE == filterOut 
-			            || !filterOutMatch.find())) {
-				lines = lines + "\n" + parsedEntry;
-			}
+		StringBuilder lines = new StringBuilder();
+		for (Node entry = parentNode.getFirstChild(); null != entry; entry = entry.getNextSibling()) {
+			int mark = lines.length();
+			lines.append('\n');
+			int start = lines.length();
+			recurseBlocksToLines(entry, lines, start, STATUS_IGNORE, STATUS_TABS, 0);
+			keepEntry(lines, mark, start);
 		}
 
+		String text = lines.toString();
 		if (OutputType.OUTPUT_PARSED.equals(getOutputType())) {
-			lines = lines.replace(",\t", "\n ");
+			text = text.replace(",\t", "\n ");
 		}
 
-		return lines.trim();
+		return text.trim();
 	}
 
 	/**
@@ -748,42 +776,25 @@ public class ResponseParser {
 	 * @return the concatenated result text.
 	 */
 	private String processMonitor(Node parentNode) {
-		String lines = "";
-
-		List<String> ignoreList = new ArrayList<String>();
-
-		List<String> tabList = new ArrayList<String>();
-		tabList.add("tenSeconds");
-
-		NodeList entries = parentNode.getChildNodes();
-		for (int i = 0; i < entries.getLength(); i++) {
-			Node nextNode = entries.item(i);
-			String concatValues = nextNode.getTextContent();
-				
-			Matcher filterMatch = filterPattern.matcher(concatValues);
-			Matcher filterOutMatch = filterOutPattern.matcher(concatValues);
-			
-			if ((null == filter 
-					|| Constants.NONE_OPT_VALUE == filter 
-					|| filterMatch.find())
-				&& (null == filterOut
-					|| Constants.NONE_OPT_VALUE == filterOut 
-					|| !filterOutMatch.find())){
-			String parsedEntry = recurseBlocksToLines(nextNode, "",
-					ignoreList, tabList, 0);
-			if (parsedEntry.length() > 1) {
-				if (parsedEntry.indexOf("\t") > -1) {
-					parsedEntry = parsedEntry
-							.substring(parsedEntry.indexOf("\t") + 1,
-									parsedEntry.length());
+		StringBuilder lines = new StringBuilder();
+		boolean filtered = hasFilters();
+		for (Node nextNode = parentNode.getFirstChild(); null != nextNode; nextNode = nextNode
+				.getNextSibling()) {
+			if (!filtered || passesFilters(nextNode.getTextContent())) {
+				int start = lines.length();
+				recurseBlocksToLines(nextNode, lines, start, MONITOR_IGNORE, MONITOR_TABS, 0);
+				if (lines.length() - start > 1) {
+					int tab = lines.indexOf("\t", start);
+					if (tab > -1) {
+						lines.delete(start, tab + 1);
+					}
+				} else {
+					lines.setLength(start);
 				}
-
-				lines = lines + parsedEntry;
-			}
 			}
 		}
 
-		return lines.trim();
+		return lines.toString().trim();
 	}
 
 	/**
@@ -796,159 +807,148 @@ public class ResponseParser {
 	 * @return the concatenated result text.
 	 */
 	private String processLines(Node parentNode) {
-		String lines = "";
-
-		List<String> ignoreList = new ArrayList<String>();
-		ignoreList.add("timestamp");
-
-		List<String> tabList = new ArrayList<String>();
+		StringBuilder lines = new StringBuilder();
 
 		/*
 		 * Look 2 nodes deep to find multiple entries as line entry candidate.
 		 */
-		Node recordParent = findRecordParent(parentNode, 2);
+		Node recordParent = findRecordParent(parentNode, 2,
+				countTags(responseDoc, new HashMap<String, Integer>()));
 		if (null == recordParent) {
 			recordParent = parentNode;
 		}
 
-		NodeList entries = recordParent.getChildNodes();
-		for (int i = 0; i < entries.getLength(); i++) {
-			String parsedEntry = recurseBlocksToLines(entries.item(i), "",
-					ignoreList, tabList, 0);
-			
-			Matcher filterMatch = filterPattern.matcher(parsedEntry);
-			Matcher filterOutMatch = filterOutPattern.matcher(parsedEntry);
-		
-			if (parsedEntry.length() > 1
-				&& (null == filter 
-					|| Constants.NONE_OPT_VALUE == filter 
-					|| filterMatch.find())
-				&& (null == filterOut
-					|| Constants.NONE_OPT_VALUE == filterOut 
-					|| !filterOutMatch.find())) {
-				lines = lines + "\n" + parsedEntry;
-			}
+		for (Node entry = recordParent.getFirstChild(); null != entry; entry = entry.getNextSibling()) {
+			int mark = lines.length();
+			lines.append('\n');
+			int start = lines.length();
+			recurseBlocksToLines(entry, lines, start, LINES_IGNORE, LINES_TABS, 0);
+			keepEntry(lines, mark, start);
 		}
 
-		return lines.trim();
+		return lines.toString().trim();
 	}
 
 	/**
-	 * Recurse XML node tree to return concatenated log name/values.
+	 * Recurse XML node tree to append concatenated log name/values.
 	 * 
 	 * @param nextNode
 	 *            Node : next node in the XML tree to be parsed.
 	 * @param resultText
-	 *            Node : the concatenated result text.
+	 *            StringBuilder : the result text, appended to.
+	 * @param entryStart
+	 *            integer : the start of the current entry in the result text.
 	 * @param depth
 	 *            integer : the recursion depth. Controls indenting.
-	 * 
-	 * @return the concatenated result text.
 	 */
-	private String recurseBlocksToLines(Node nextNode, String resultText,
+	private void recurseBlocksToLines(Node nextNode, StringBuilder resultText, int entryStart,
 			List<String> ignoreList, List<String> tabList, int depth) {
-		String indentText = "";
 		if (nextNode.getNodeType() == Node.ELEMENT_NODE) {
-			if (!ignoreList.contains(nextNode.getLocalName())) {
+			String localName = nextNode.getLocalName();
+			if (!ignoreList.contains(localName)) {
 				if (depth > 0) {
 					// line formatting
-					if (tabList.contains(nextNode.getLocalName())) {
-						resultText = resultText + "," + "\t";
+					if (tabList.contains(localName)) {
+						resultText.append(",\t");
 					} else if (nextNode.hasChildNodes()
-							&& !resultText.endsWith(", ")
-							&& !(resultText.lastIndexOf('\n') == resultText
-									.length() - 1)) {
-						resultText = resultText + ", ";
+							&& !endsWithSeparator(resultText, entryStart)
+							&& !atLineStart(resultText, entryStart)) {
+						resultText.append(", ");
 					}
 
 					// process elements
 					if ((nextNode.getFirstChild() != null)
 							&& (nextNode.getFirstChild().getNodeValue() != null)) {
-						String newEntry = indentText
-								+ nextNode.getLocalName()
-								+ ": "
-								+ nextNode.getFirstChild().getNodeValue()
-										.trim();
-						resultText = resultText + newEntry;
+						resultText.append(localName).append(": ").append(
+								nextNode.getFirstChild().getNodeValue().trim());
 					} else if ((nextNode.hasChildNodes())) { // No text
-						resultText = resultText + indentText
-								+ nextNode.getLocalName();
-						resultText = concatAttributes(nextNode, resultText);
+						resultText.append(localName);
+						concatAttributes(nextNode, resultText);
 					}
 				}
 				if (nextNode.getNextSibling() == null
 						&& (!nextNode.hasChildNodes() || nextNode
 								.getFirstChild().getNodeType() != Node.ELEMENT_NODE)) {
-					resultText = resultText + "\n";
+					resultText.append('\n');
 				}
 			}
 			if (nextNode.hasChildNodes()) { // recurse into child nodes
-				depth = depth + 1;
-				NodeList childNodeList = nextNode.getChildNodes();
-				for (int i = 0; i < childNodeList.getLength(); i++) {
-					Node childNode = childNodeList.item(i);
-					resultText = recurseBlocksToLines(childNode, resultText,
-							ignoreList, tabList, depth);
+				for (Node childNode = nextNode.getFirstChild(); null != childNode; childNode = childNode
+						.getNextSibling()) {
+					recurseBlocksToLines(childNode, resultText, entryStart,
+							ignoreList, tabList, depth + 1);
 				}
 			} else { // process children into child nodes
 				if (nextNode.getPreviousSibling() == null) { // only process
 																// siblings once
 					Node nextSibling = nextNode.getNextSibling();
 					if (nextSibling != null) {
-						resultText = recurseBlocksToLines(nextSibling,
-								resultText, ignoreList, tabList, depth);
+						recurseBlocksToLines(nextSibling, resultText, entryStart,
+								ignoreList, tabList, depth);
 					}
 				}
 			}
 		}
-		return resultText;
 	}
 
 	/**
-	 * Retrieve and concatenate a node's attribute name/value pairs
+	 * @return true if the entry so far ends with ', '.
+	 */
+	private static boolean endsWithSeparator(StringBuilder text, int entryStart) {
+		int length = text.length();
+		return length - entryStart >= 2 && text.charAt(length - 2) == ','
+				&& text.charAt(length - 1) == ' ';
+	}
+
+	/**
+	 * @return true if the entry is empty or ends with a line break.
+	 */
+	private static boolean atLineStart(StringBuilder text, int entryStart) {
+		int length = text.length();
+		return length == entryStart || text.charAt(length - 1) == '\n';
+	}
+
+	/**
+	 * Append the attributes of a node, name first, as ', name=value, ...'.
 	 * 
 	 * @param nextNode
-	 *            the next node in the XML tree to be parsed.
+	 *            the node.
 	 * @param resultText
-	 *            the concatenated result text.
-	 * 
-	 * @return the concatenated result text.
+	 *            the result text, appended to.
 	 */
-	private String concatAttributes(Node nextNode, String resultText) {
+	private void concatAttributes(Node nextNode, StringBuilder resultText) {
 		try {
 			// process element attributes
 			if (nextNode.getAttributes() != null) {
 				NamedNodeMap attributes = nextNode.getAttributes();
-				String attributesBlock = "";
+				StringBuilder attributesBlock = new StringBuilder();
 				if (attributes.getNamedItem("name") != null) { // name attribute
 																// first.
-					attributesBlock = attributesBlock + "name="
-							+ attributes.getNamedItem("name").getNodeValue();
+					attributesBlock.append("name=").append(
+							attributes.getNamedItem("name").getNodeValue());
 					if (attributes.getLength() > 1) {
-						attributesBlock = attributesBlock + ", ";
+						attributesBlock.append(", ");
 					}
 				}
 				// Clean up DP response namespace declaration.
 				for (int i = 0; i < attributes.getLength(); i++) {
-					if (!attributes.item(i).getNodeValue()
-							.contains("soap-envelope")
-							&& (attributes.item(i).getLocalName() != "name")) {
-						attributesBlock = attributesBlock
-								+ attributes.item(i).getLocalName() + "="
-								+ attributes.item(i).getNodeValue();
+					Node attribute = attributes.item(i);
+					if (!attribute.getNodeValue().contains("soap-envelope")
+							&& !"name".equals(attribute.getLocalName())) {
+						attributesBlock.append(attribute.getLocalName())
+								.append('=').append(attribute.getNodeValue());
 						if (i != attributes.getLength() - 1) {
-							attributesBlock = attributesBlock + ", ";
+							attributesBlock.append(", ");
 						}
 					}
 				}
-				if (attributesBlock != "") {
-					resultText = resultText + ", " + attributesBlock;
+				if (attributesBlock.length() > 0) {
+					resultText.append(", ").append(attributesBlock);
 				}
 			}
 		} catch (NullPointerException ex) {
-			return resultText;
+			// leave the attributes out.
 		}
-		return resultText;
 	}
 
 }
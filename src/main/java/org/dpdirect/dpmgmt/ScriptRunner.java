@@ -0,0 +1,412 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.dpdirect.utils.Credentials;
+import org.dpdirect.utils.FileUtils;
+
+/**
+ * Runs a script of console commands in one session, eg.
+ *
+ * <pre>
+ * # deploy.dps
+ * domain=${domain}
+ * set-dir srcDir=build/xsl destDir=local:/xsl
+ * parallel {
+ *     set-file srcFile=build/a.xml destFile=local:/a.xml
+ *     set-file srcFile=build/b.xml destFile=local:/b.xml
+ * }
+ * SaveConfig
+ * </pre>
+ *
+ * Each line is a command as typed at the console - an operation and its
+ * options, or global options. '${name}' is replaced by the property of that
+ * name from the properties files processed, or else the Java system property.
+ * Lines starting '#' are comments, and 'quit' ends the script.
+ *
+ * The operations of a 'parallel { ... }' block run concurrently, each in a
+ * fork of the session sharing its options, credentials and schemas, and the
+ * block ends when all of them have. A block holds operations only. At most
+ * 'parallelism' of them run at a time, set as 'parallel parallelism=4 {', so
+ * that a long block does not open a connection per operation.
+ *
+ * A failed command ends the script when failOnError is set. The time and
+ * result of each command is logged when the script ends.
+ */
+public class ScriptRunner {
+
+	private static final Logger log = Logger.getLogger(ScriptRunner.class);
+
+	private static final Pattern VARIABLE = Pattern.compile("\\$\\{([^}]+)\\}");
+
+	private static final Pattern PARALLEL_START = Pattern.compile("parallel(?:\\s+"
+			+ Constants.PARALLELISM_OPT_NAME + "=(\\d+))?\\s*\\{", Pattern.CASE_INSENSITIVE);
+
+	private static final String TABLE_FORMAT = "%-6s %-36s %-8s %10s";
+
+	/**
+	 * One command of the script, or a parallel block of commands.
+	 */
+	static class Step {
+
+		private final int line;
+
+		private final String text;
+
+		private final List<Step> block;
+
+		/** The most commands of a block run at a time. */
+		private final int parallelism;
+
+		private volatile String result = "-";
+
+		private volatile long nanos = -1;
+
+		Step(int line, String text, List<Step> block, int parallelism) {
+			this.line = line;
+			this.text = text;
+			this.block = block;
+			this.parallelism = parallelism;
+		}
+
+		/**
+		 * @return the operation name, or '(options)', without option values.
+		 */
+		String getName() {
+			if (null != block) {
+				return "parallel";
+			}
+			String first = text.split("\\s+")[0];
+			return (first.indexOf('=') < 0) ? first : "(options)";
+		}
+	}
+
+	private final DPDirect session;
+
+	private final String scriptName;
+
+	private final List<Step> steps;
+
+	/**
+	 * Read a script.
+	 *
+	 * @param session
+	 *            the session to run the script in.
+	 * @param script
+	 *            the script file.
+	 * @throws IOException
+	 *             if the script cannot be read, or is not well formed.
+	 */
+	public ScriptRunner(DPDirect session, File script) throws IOException {
+		this.session = session;
+		this.scriptName = script.getName();
+		this.steps = parse(script);
+	}
+
+	/**
+	 * Run a script from the command line, exiting with 1 if it cannot be read,
+	 * or if a command fails and failOnError is set.
+	 *
+	 * @param session
+	 *            the session, with the options of the command line.
+	 * @param script
+	 *            the script file.
+	 */
+	public static void run(DPDirect session, File script) {
+		ScriptRunner runner;
+		try {
+			runner = new ScriptRunner(session, script);
+		} catch (IOException ex) {
+			log.error("Failed to read script : " + ex.getMessage());
+			session.exit(1);
+			return;
+		}
+		if (!runner.execute() && session.getFailOnError()) {
+			session.exit(1);
+		}
+	}
+
+	private List<Step> parse(File script) throws IOException {
+		List<Step> parsed = new ArrayList<Step>();
+		List<Step> block = null;
+		int blockLine = 0;
+		int blockParallelism = Defaults.DEFAULT_SCRIPT_PARALLELISM;
+		BufferedReader reader = new BufferedReader(new FileReader(script));
+		try {
+			String line;
+			int lineNumber = 0;
+			while (null != (line = reader.readLine())) {
+				lineNumber++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				Matcher parallelStart = PARALLEL_START.matcher(line);
+				if (parallelStart.matches()) {
+					if (null != block) {
+						throw error(lineNumber, "parallel blocks may not be nested");
+					}
+					block = new ArrayList<Step>();
+					blockLine = lineNumber;
+					blockParallelism = (null == parallelStart.group(1))
+							? Defaults.DEFAULT_SCRIPT_PARALLELISM
+							: Math.max(1, Integer.parseInt(parallelStart.group(1)));
+				} else if ("}".equals(line)) {
+					if (null == block) {
+						throw error(lineNumber, "'}' outside a parallel block");
+					}
+					parsed.add(new Step(blockLine, line, block, blockParallelism));
+					block = null;
+				} else if (line.equalsIgnoreCase("quit") || line.equalsIgnoreCase("exit")
+						|| line.equalsIgnoreCase("end") || line.equalsIgnoreCase("q")) {
+					if (null != block) {
+						throw error(lineNumber, "'" + line + "' within a parallel block");
+					}
+					break;
+				} else if (null != block) {
+					String first = line.split("\\s+")[0];
+					if (first.indexOf('=') >= 0 || first.equalsIgnoreCase("find")
+							|| first.equalsIgnoreCase("show") || first.equalsIgnoreCase("help")) {
+						throw error(lineNumber, "a parallel block may hold operations only");
+					}
+					block.add(new Step(lineNumber, line, null, 1));
+				} else {
+					parsed.add(new Step(lineNumber, line, null, 1));
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		if (null != block) {
+			throw error(blockLine, "parallel block is not closed");
+		}
+		return parsed;
+	}
+
+	private IOException error(int line, String message) {
+		return new IOException(scriptName + ":" + line + ": " + message);
+	}
+
+	/**
+	 * Run the script, and log the time and result of each command.
+	 *
+	 * @return true if every command succeeded.
+	 */
+	public boolean execute() {
+		// prompt for user credentials if not supplied.
+		if (null == session.getCredentials()) {
+			Credentials credentials = FileUtils.promptForLogonCredentials();
+			session.setCredentials(credentials);
+		}
+		session.setSchema();
+
+		long start = System.nanoTime();
+		boolean success = true;
+		List<Step> run = new ArrayList<Step>();
+		for (Step step : steps) {
+			run.add(step);
+			boolean stepSuccess = (null == step.block) ? runCommand(session, step)
+					: runParallel(step);
+			success &= stepSuccess;
+			if (!stepSuccess && session.getFailOnError()) {
+				log.error(scriptName + ":" + step.line + ": " + step.getName()
+						+ " failed. Ending the script.");
+				break;
+			}
+		}
+		log.info("Script timings (ms) :\n"
+				+ formatTable(run, success, System.nanoTime() - start));
+		return success;
+	}
+
+	/**
+	 * Run one command in the given session.
+	 *
+	 * @return true if the command succeeded.
+	 */
+	private boolean runCommand(DPDirect target, Step step) {
+		long start = System.nanoTime();
+		boolean success = false;
+		try {
+			String[] words = step.text.split("\\s+");
+			for (int i = 0; i < words.length; i++) {
+				words[i] = substitute(words[i], step);
+			}
+			String first = words[0];
+			boolean isOperation = first.indexOf('=') < 0
+					&& !first.equalsIgnoreCase("find") && !first.equalsIgnoreCase("show")
+					&& !first.equalsIgnoreCase("help");
+
+			target.resetOperationChain();
+			Operation operation = DPDirect.parseConsoleCommand(target, words);
+			if (!isOperation) {
+				success = true;
+			} else if (null == operation) {
+				success = false;
+			} else if (operation.isPolling()) {
+				log.error(scriptName + ":" + step.line + ": " + step.getName()
+						+ " polls until stopped at the console, and cannot run in a script");
+			} else {
+				target.processOperationChain();
+				success = true;
+				for (Operation chained : target.getOperationChain()) {
+					if (null != chained.getResponse() && !target.isSuccessResponse(chained)) {
+						success = false;
+					}
+				}
+			}
+		} catch (IOException ex) {
+			log.error(ex.getMessage());
+		} catch (RuntimeException ex) {
+			if (log.isDebugEnabled()) {
+				log.error(ex.getMessage(), ex);
+			} else {
+				log.error(ex.getMessage());
+			}
+		}
+		step.nanos = System.nanoTime() - start;
+		step.result = success ? "ok" : "failed";
+		return success;
+	}
+
+	/**
+	 * Run the commands of a parallel block concurrently, each in a fork of
+	 * the session.
+	 *
+	 * @return true if every command succeeded.
+	 */
+	private boolean runParallel(Step parallel) {
+		long start = System.nanoTime();
+		boolean success = true;
+		if (!parallel.block.isEmpty()) {
+			ExecutorService executor = Executors.newFixedThreadPool(
+					Math.min(parallel.parallelism, parallel.block.size()), new ThreadFactory() {
+						private final AtomicInteger count = new AtomicInteger();
+
+						public Thread newThread(Runnable runnable) {
+							Thread thread = new Thread(runnable, "dpdirect-script-"
+									+ count.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			try {
+				List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+				for (final Step step : parallel.block) {
+					final DPDirect fork = session.fork();
+					results.add(executor.submit(new Callable<Boolean>() {
+						public Boolean call() {
+							return runCommand(fork, step);
+						}
+					}));
+				}
+				for (Future<Boolean> result : results) {
+					try {
+						success &= result.get();
+					} catch (ExecutionException ex) {
+						// an Error, such as the exit of a session within a daemon.
+						if (ex.getCause() instanceof Error) {
+							throw (Error) ex.getCause();
+						}
+						log.error(ex.getCause().getMessage());
+						success = false;
+					}
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				success = false;
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+		parallel.nanos = System.nanoTime() - start;
+		parallel.result = success ? "ok" : "failed";
+		return success;
+	}
+
+	/**
+	 * @return the word with each '${name}' replaced by its property.
+	 * @throws IOException
+	 *             if a property is not set.
+	 */
+	private String substitute(String word, Step step) throws IOException {
+		if (word.indexOf("${") < 0) {
+			return word;
+		}
+		Matcher matcher = VARIABLE.matcher(word);
+		StringBuffer replaced = new StringBuffer();
+		while (matcher.find()) {
+			String name = matcher.group(1);
+			String value = session.getSessionProperties().getProperty(name);
+			if (null == value) {
+				value = System.getProperty(name);
+			}
+			if (null == value) {
+				throw error(step.line, "'" + name + "' is not set");
+			}
+			matcher.appendReplacement(replaced, Matcher.quoteReplacement(value));
+		}
+		matcher.appendTail(replaced);
+		return replaced.toString();
+	}
+
+	/**
+	 * @return the time and result of each command run, and of the script.
+	 */
+	private static String formatTable(List<Step> run, boolean success, long nanos) {
+		StringBuilder table = new StringBuilder();
+		table.append(String.format(Locale.ROOT, TABLE_FORMAT, "Line", "Command",
+				"Result", "Time"));
+		for (Step step : run) {
+			table.append('\n').append(formatRow(String.valueOf(step.line),
+					step.getName(), step.result, step.nanos));
+			if (null != step.block) {
+				for (Step command : step.block) {
+					table.append('\n').append(formatRow(String.valueOf(command.line),
+							"  " + command.getName(), command.result, command.nanos));
+				}
+			}
+		}
+		table.append('\n').append(formatRow("", "(total)", success ? "ok" : "failed",
+				nanos));
+		return table.toString();
+	}
+
+	private static String formatRow(String line, String name, String result, long nanos) {
+		return String.format(Locale.ROOT, TABLE_FORMAT, line, name, result,
+				(nanos < 0) ? "-" : String.format(Locale.ROOT, "%.1f", nanos / 1000000.0));
+	}
+
+}
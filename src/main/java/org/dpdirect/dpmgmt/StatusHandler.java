@@ -0,0 +1,239 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.dpdirect.utils.PostXML;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Streams a 'get-status' response into a list of {@link Entry}, one per
+ * status element, with the numeric fields parsed as numbers and the others
+ * kept as labels.
+ */
+public class StatusHandler extends DefaultHandler implements
+		PostXML.ResponseHandler {
+
+	/** Maximum length of response text kept for an error message. */
+	private static final int MAX_ERROR_TEXT = 2000;
+
+	/** The status entries, in document order. */
+	protected List<Entry> entries = new ArrayList<Entry>();
+
+	private boolean located = false;
+
+	private boolean inStatus = false;
+
+	private int depth = 0;
+
+	/** Depth of the status element. */
+	private int statusDepth = -1;
+
+	/** Depth of the last element started. */
+	private int startDepth = -1;
+
+	private Entry entry = null;
+
+	private Deque<String> path = new ArrayDeque<String>();
+
+	private StringBuilder text = new StringBuilder();
+
+	private StringBuilder responseText = new StringBuilder();
+
+	/**
+	 * Parse the response.
+	 *
+	 * @throws IOException
+	 *             if the response holds no status.
+	 */
+	public void handleResponse(InputStream in) throws Exception {
+		SAXParserFactory factory = SAXParserFactory.newInstance();
+		factory.setNamespaceAware(true);
+		factory.newSAXParser().parse(in, this);
+		if (!located) {
+			throw new IOException("Failed to get status : "
+					+ responseText.toString().trim());
+		}
+	}
+
+	/**
+	 * @return the status entries, in document order.
+	 */
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	@Override
+	public void startElement(String uri, String localName, String qName,
+			Attributes attributes) {
+		depth++;
+		startDepth = depth;
+		text.setLength(0);
+		if (!located) {
+			if ("status".equals(localName)) {
+				located = true;
+				inStatus = true;
+				statusDepth = depth;
+			}
+		} else if (inStatus && depth == statusDepth + 1) {
+			entry = new Entry(localName);
+		} else if (null != entry) {
+			path.addLast(localName);
+		}
+	}
+
+	@Override
+	public void characters(char[] ch, int start, int length) {
+		text.append(ch, start, length);
+		if (!located && responseText.length() < MAX_ERROR_TEXT) {
+			responseText.append(ch, start, length);
+		}
+	}
+
+	@Override
+	public void endElement(String uri, String localName, String qName) {
+		if (null != entry) {
+			if (depth == statusDepth + 1) {
+				entries.add(entry);
+				entry = null;
+			} else {
+				if (startDepth == depth) {
+					// a leaf - no element started since this one.
+					entry.put(fieldName(), text.toString().trim());
+				}
+				path.removeLast();
+			}
+		} else if (inStatus && depth == statusDepth) {
+			inStatus = false;
+		}
+		text.setLength(0);
+		depth--;
+	}
+
+	private String fieldName() {
+		StringBuilder name = new StringBuilder();
+		for (String element : path) {
+			if (0 < name.length()) {
+				name.append('.');
+			}
+			name.append(element);
+		}
+		return name.toString();
+	}
+
+	/**
+	 * One status element, eg. a 'MessageCounts' or 'CPUUsage'.
+	 */
+	public static class Entry {
+
+		private final String statusClass;
+
+		private final Map<String, String> labels = new LinkedHashMap<String, String>();
+
+		private final Map<String, Double> values = new LinkedHashMap<String, Double>();
+
+		/**
+		 * @param statusClass
+		 *            the status element name.
+		 */
+		public Entry(String statusClass) {
+			this.statusClass = statusClass;
+		}
+
+		/**
+		 * Add a field, as a value if numeric, otherwise as a label.
+		 */
+		public void put(String name, String text) {
+			if (0 == text.length()) {
+				return;
+			}
+			char first = text.charAt(0);
+			if ((first >= '0' && first <= '9') || first == '-' || first == '.') {
+				try {
+					values.put(name, Double.valueOf(text));
+					return;
+				} catch (NumberFormatException ex) {
+					// a label.
+				}
+			}
+			labels.put(name, text);
+		}
+
+		/**
+		 * @return the status element name.
+		 */
+		public String getStatusClass() {
+			return statusClass;
+		}
+
+		/**
+		 * @return the non numeric fields, by field name.
+		 */
+		public Map<String, String> getLabels() {
+			return labels;
+		}
+
+		/**
+		 * @return the numeric fields, by field name.
+		 */
+		public Map<String, Double> getValues() {
+			return values;
+		}
+
+		/**
+		 * @return the labels joined, identifying the entry among others of
+		 *         its class.
+		 */
+		public String getKey() {
+			StringBuilder key = new StringBuilder();
+			for (String label : labels.values()) {
+				if (0 < key.length()) {
+					key.append(' ');
+				}
+				key.append(label);
+			}
+			return key.toString();
+		}
+
+		/**
+		 * @return the labels and values, for filtering.
+		 */
+		public String getText() {
+			StringBuilder all = new StringBuilder(statusClass);
+			for (Map.Entry<String, String> label : labels.entrySet()) {
+				all.append(' ').append(label.getValue());
+			}
+			for (Map.Entry<String, Double> value : values.entrySet()) {
+				all.append(' ').append(value.getKey()).append('=')
+						.append(value.getValue());
+			}
+			return all.toString();
+		}
+	}
+
+}
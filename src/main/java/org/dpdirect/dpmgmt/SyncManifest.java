@@ -0,0 +1,261 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Record of the files last synchronised from a local directory to a device
+ * directory, keyed by path relative to the directory root.
+ *
+ * Each file is held with its SHA-256 content hash and the local size and
+ * modified time at which it was hashed, so that a file whose size and
+ * modified time are unchanged need not be read again. The manifest is a
+ * tab separated text file:
+ *
+ * <pre>
+ * D	relative/dir
+ * F	sha256	size	modified	relative/dir/file.xsl
+ * </pre>
+ */
+public class SyncManifest {
+
+	/** Default directory holding manifests, under the user home directory. */
+	public static final String DEFAULT_CACHE_DIR = ".dpdirect" + File.separator + "sync";
+
+	/** The manifest file. */
+	protected File file = null;
+
+	/** Synchronised files by relative path. */
+	protected Map<String, Entry> files = new TreeMap<String, Entry>();
+
+	/** Synchronised directories by relative path. */
+	protected Set<String> dirs = new TreeSet<String>();
+
+	/**
+	 * Constructs a new, empty <code>SyncManifest</code>.
+	 *
+	 * @param file
+	 *            the manifest file.
+	 */
+	public SyncManifest(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * The default manifest file for a host, domain and destination directory.
+	 *
+	 * @param host
+	 *            the device host name.
+	 * @param domain
+	 *            the device domain, or null.
+	 * @param destDir
+	 *            the device directory, eg. 'local:///xsl'.
+	 * @return a file in the user's dpdirect cache directory.
+	 */
+	public static File defaultFile(String host, String domain, String destDir) {
+		String key = host + "_" + ((null == domain) ? "default" : domain) + "_" + destDir;
+		String name = key.replaceAll("[^A-Za-z0-9._-]+", "_") + "-"
+				+ Integer.toHexString(key.hashCode()) + ".manifest";
+		return new File(new File(System.getProperty("user.home"), DEFAULT_CACHE_DIR), name);
+	}
+
+	/**
+	 * Load a manifest, or return an empty one if the file does not exist.
+	 *
+	 * @param file
+	 *            the manifest file.
+	 * @return the manifest.
+	 * @throws IOException
+	 *             if the file exists but cannot be read.
+	 */
+	public static SyncManifest load(File file) throws IOException {
+		SyncManifest manifest = new SyncManifest(file);
+		if (!file.isFile()) {
+			return manifest;
+		}
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] fields = line.split("\t", -1);
+				if (fields.length == 2 && "D".equals(fields[0])) {
+					manifest.dirs.add(fields[1]);
+				} else if (fields.length == 5 && "F".equals(fields[0])) {
+					try {
+						manifest.files.put(fields[4], new Entry(fields[1],
+								Long.parseLong(fields[2]), Long.parseLong(fields[3])));
+					} catch (NumberFormatException ex) {
+						// skip a corrupt line - the file will be re-uploaded.
+					}
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return manifest;
+	}
+
+	/**
+	 * Write the manifest, replacing the file atomically where the platform
+	 * allows.
+	 *
+	 * @throws IOException
+	 *             if the manifest cannot be written.
+	 */
+	public void save() throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (null != parent && !parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Cannot create directory " + parent);
+		}
+		File temp = new File(file.getPath() + ".tmp");
+		BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(temp), "UTF-8"));
+		try {
+			for (String dir : dirs) {
+				out.write("D\t" + dir + "\n");
+			}
+			for (Map.Entry<String, Entry> entry : files.entrySet()) {
+				Entry value = entry.getValue();
+				out.write("F\t" + value.hash + "\t" + value.size + "\t"
+						+ value.modified + "\t" + entry.getKey() + "\n");
+			}
+		} finally {
+			out.close();
+		}
+		if (file.exists() && !file.delete()) {
+			throw new IOException("Cannot replace " + file);
+		}
+		if (!temp.renameTo(file)) {
+			throw new IOException("Cannot rename " + temp + " to " + file);
+		}
+	}
+
+	/**
+	 * @return the manifest file.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the synchronised files by relative path.
+	 */
+	public Map<String, Entry> getFiles() {
+		return files;
+	}
+
+	/**
+	 * @return the synchronised directories by relative path.
+	 */
+	public Set<String> getDirs() {
+		return dirs;
+	}
+
+	/**
+	 * Hash the contents of a file.
+	 *
+	 * @param localFile
+	 *            the file to hash.
+	 * @return the lower case hex SHA-256 digest.
+	 * @throws IOException
+	 *             if the file cannot be read.
+	 */
+	public static String hash(File localFile) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IOException(ex.getMessage(), ex);
+		}
+		InputStream in = new FileInputStream(localFile);
+		try {
+			byte[] buffer = new byte[65536];
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				digest.update(buffer, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+			hex.append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * A synchronised file.
+	 */
+	public static class Entry {
+
+		protected final String hash;
+
+		protected final long size;
+
+		protected final long modified;
+
+		/**
+		 * @param hash
+		 *            the SHA-256 content hash.
+		 * @param size
+		 *            the local size when hashed.
+		 * @param modified
+		 *            the local modified time when hashed.
+		 */
+		public Entry(String hash, long size, long modified) {
+			this.hash = hash;
+			this.size = size;
+			this.modified = modified;
+		}
+
+		/**
+		 * @return the SHA-256 content hash.
+		 */
+		public String getHash() {
+			return hash;
+		}
+
+		/**
+		 * @param localFile
+		 *            the local file.
+		 * @return true if the file has the size and modified time at which
+		 *         it was hashed.
+		 */
+		public boolean statMatches(File localFile) {
+			return localFile.length() == size && localFile.lastModified() == modified;
+		}
+	}
+
+}
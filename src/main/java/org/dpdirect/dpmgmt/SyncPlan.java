@@ -0,0 +1,276 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.dpdirect.utils.FileUtils;
+
+/**
+ * The changes needed to bring a device directory in line with a local
+ * directory, computed against the {@link SyncManifest} of the last sync.
+ *
+ * Paths are relative to the directory root, '/' separated, with "" denoting
+ * the root itself.
+ */
+public class SyncPlan {
+
+	/** Files not in the manifest. */
+	protected List<String> addedFiles = new ArrayList<String>();
+
+	/** Files whose content hash differs from the manifest. */
+	protected List<String> modifiedFiles = new ArrayList<String>();
+
+	/** Manifest files no longer present locally. */
+	protected List<String> deletedFiles = new ArrayList<String>();
+
+	/** Directories to create, parents before children. */
+	protected List<String> createDirs = new ArrayList<String>();
+
+	/** Manifest directories no longer present locally, children first. */
+	protected List<String> removeDirs = new ArrayList<String>();
+
+	/** Number of files matching the manifest. */
+	protected int unchangedFiles = 0;
+
+	/** Number of local directories holding no change. */
+	protected int unchangedDirs = 0;
+
+	/** Current state of every local file, by relative path. */
+	protected Map<String, SyncManifest.Entry> localFiles = new HashMap<String, SyncManifest.Entry>();
+
+	/** Every local directory, by relative path. */
+	protected Set<String> localDirs = new TreeSet<String>();
+
+	/** The local directory root. */
+	protected File root = null;
+
+	/**
+	 * Compare a local directory with the manifest of the last sync. Files
+	 * whose size and modified time match the manifest are not read.
+	 *
+	 * @param root
+	 *            the local directory.
+	 * @param manifest
+	 *            the manifest of the last sync.
+	 * @return the plan.
+	 * @throws IOException
+	 *             if the directory or a changed file cannot be read.
+	 */
+	public static SyncPlan build(File root, SyncManifest manifest) throws IOException {
+		SyncPlan plan = new SyncPlan();
+		plan.root = root;
+		String rootPath = root.getAbsoluteFile().getPath();
+		Set<String> changedDirs = new HashSet<String>();
+
+		plan.localDirs.add("");
+		for (File file : FileUtils.getFilesFromDirectory(root)) {
+			String path = relativePath(rootPath, file);
+			if (file.isDirectory()) {
+				plan.localDirs.add(path);
+				continue;
+			}
+			SyncManifest.Entry previous = manifest.getFiles().get(path);
+			SyncManifest.Entry current;
+			if (null != previous && previous.statMatches(file)) {
+				current = previous;
+			} else {
+				current = new SyncManifest.Entry(SyncManifest.hash(file),
+						file.length(), file.lastModified());
+			}
+			plan.localFiles.put(path, current);
+			if (null == previous) {
+				plan.addedFiles.add(path);
+			} else if (!previous.getHash().equals(current.getHash())) {
+				plan.modifiedFiles.add(path);
+			} else {
+				plan.unchangedFiles++;
+				continue;
+			}
+			for (String dir = parentOf(path); null != dir; dir = parentOf(dir)) {
+				changedDirs.add(dir);
+			}
+		}
+
+		boolean firstSync = manifest.getFiles().isEmpty() && manifest.getDirs().isEmpty();
+		for (String dir : plan.localDirs) {
+			if (firstSync || !manifest.getDirs().contains(dir)) {
+				plan.createDirs.add(dir);
+			} else if (!changedDirs.contains(dir)) {
+				plan.unchangedDirs++;
+			}
+		}
+		for (String path : manifest.getFiles().keySet()) {
+			if (!plan.localFiles.containsKey(path)) {
+				plan.deletedFiles.add(path);
+			}
+		}
+		for (String dir : manifest.getDirs()) {
+			if (!plan.localDirs.contains(dir)) {
+				plan.removeDirs.add(dir);
+			}
+		}
+		// TreeSet order puts parents first; remove children first.
+		Collections.reverse(plan.removeDirs);
+		return plan;
+	}
+
+	/**
+	 * @return the files to upload, added then modified.
+	 */
+	public List<String> getUploads() {
+		List<String> uploads = new ArrayList<String>(addedFiles);
+		uploads.addAll(modifiedFiles);
+		return uploads;
+	}
+
+	public List<String> getAddedFiles() {
+		return addedFiles;
+	}
+
+	public List<String> getModifiedFiles() {
+		return modifiedFiles;
+	}
+
+	public List<String> getDeletedFiles() {
+		return deletedFiles;
+	}
+
+	public List<String> getCreateDirs() {
+		return createDirs;
+	}
+
+	public List<String> getRemoveDirs() {
+		return removeDirs;
+	}
+
+	public int getUnchangedFiles() {
+		return unchangedFiles;
+	}
+
+	public int getUnchangedDirs() {
+		return unchangedDirs;
+	}
+
+	/**
+	 * @return the current state of the named local file.
+	 */
+	public SyncManifest.Entry getLocalEntry(String path) {
+		return localFiles.get(path);
+	}
+
+	/**
+	 * @return every local directory.
+	 */
+	public Set<String> getLocalDirs() {
+		return localDirs;
+	}
+
+	/**
+	 * @return the local file for a relative path.
+	 */
+	public File localFile(String path) {
+		return path.isEmpty() ? root : new File(root, path);
+	}
+
+	/**
+	 * @param deletes
+	 *            include remote deletions.
+	 * @return true if there is nothing to do.
+	 */
+	public boolean isEmpty(boolean deletes) {
+		return createDirs.isEmpty() && addedFiles.isEmpty() && modifiedFiles.isEmpty()
+				&& (!deletes || (deletedFiles.isEmpty() && removeDirs.isEmpty()));
+	}
+
+	/**
+	 * @param deletes
+	 *            include remote deletions.
+	 * @return a one line count of the planned changes.
+	 */
+	public String summary(boolean deletes) {
+		String summary = addedFiles.size() + " added, " + modifiedFiles.size()
+				+ " modified, " + unchangedFiles + " unchanged";
+		if (deletes) {
+			summary += ", " + deletedFiles.size() + " deleted";
+		} else if (!deletedFiles.isEmpty()) {
+			summary += ", " + deletedFiles.size() + " removed locally (kept)";
+		}
+		return summary + "; " + createDirs.size() + " directories to create, "
+				+ unchangedDirs + " unchanged";
+	}
+
+	/**
+	 * @param destDir
+	 *            the device directory.
+	 * @param deletes
+	 *            include remote deletions.
+	 * @return the plan, one change per line, eg. '+ local:///xsl/new.xsl'.
+	 */
+	public String describe(String destDir, boolean deletes) {
+		StringBuilder sb = new StringBuilder();
+		for (String dir : createDirs) {
+			sb.append("+ ").append(devicePath(destDir, dir)).append("/\n");
+		}
+		for (String path : addedFiles) {
+			sb.append("+ ").append(devicePath(destDir, path)).append('\n');
+		}
+		for (String path : modifiedFiles) {
+			sb.append("~ ").append(devicePath(destDir, path)).append('\n');
+		}
+		if (deletes) {
+			for (String path : deletedFiles) {
+				sb.append("- ").append(devicePath(destDir, path)).append('\n');
+			}
+			for (String dir : removeDirs) {
+				sb.append("- ").append(devicePath(destDir, dir)).append("/\n");
+			}
+		}
+		return sb.append(summary(deletes)).toString();
+	}
+
+	/**
+	 * @return the device path of a relative path under destDir.
+	 */
+	public static String devicePath(String destDir, String path) {
+		return path.isEmpty() ? destDir : destDir + "/" + path;
+	}
+
+	private static String relativePath(String rootPath, File file) {
+		String path = file.getAbsoluteFile().getPath().substring(rootPath.length());
+		path = path.replace('\\', '/');
+		return path.startsWith("/") ? path.substring(1) : path;
+	}
+
+	private static String parentOf(String path) {
+		if (path.isEmpty()) {
+			return null;
+		}
+		int slash = path.lastIndexOf('/');
+		return (slash < 0) ? "" : path.substring(0, slash);
+	}
+
+}
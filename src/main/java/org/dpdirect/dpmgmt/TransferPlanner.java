@@ -0,0 +1,232 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.dpdirect.utils.TransferProgress;
+
+/**
+ * Chooses how to upload a set of files: one set-file request per file over
+ * 'parallelism' connections, or one or more do-import zips.
+ *
+ * The estimate for each strategy is the sum of:
+ * <ul>
+ * <li>request round trips - the measured latency plus a fixed device cost,
+ * once per wave of 'parallelism' concurrent requests;</li>
+ * <li>per file device cost - an import unpacks and commits every file on the
+ * device, serially, however many shards carry them;</li>
+ * <li>wire time - base64 payload bytes over the assumed bandwidth, after
+ * compression for a zip;</li>
+ * <li>local zip time, for an import.</li>
+ * </ul>
+ * A zip is split into shards only when it would exceed the maximum shard
+ * size, or when more shards lets the upload overlap across connections.
+ */
+public class TransferPlanner {
+
+	/** The upload strategies. */
+	public enum Strategy {
+		SET_FILE, IMPORT
+	}
+
+	/** Assumed bandwidth to the device, in bytes per millisecond. */
+	protected double bytesPerMilli = Defaults.DEFAULT_BANDWIDTH_KB_PER_SECOND;
+
+	/** Device cost of a single set-file request, beyond the round trip. */
+	protected long setFileOverheadMillis = 20;
+
+	/** Device cost of a do-import request, beyond the round trip. */
+	protected long importOverheadMillis = Defaults.DEFAULT_IMPORT_OVERHEAD_MILLIS;
+
+	/** Device cost of each file unpacked by a do-import. */
+	protected double importPerFileMillis = 2;
+
+	/** Local zip rate, in bytes per millisecond. */
+	protected double zipBytesPerMilli = 40000;
+
+	/** Assumed compressed size as a fraction of the original. */
+	protected double compressionRatio = 0.4;
+
+	/** Largest zip sent in a single do-import. */
+	protected long maxShardBytes = 32L * 1024 * 1024;
+
+	/**
+	 * Constructs a new <code>TransferPlanner</code> with the default cost
+	 * model.
+	 */
+	public TransferPlanner() {
+	}
+
+	/**
+	 * Choose the cheapest strategy.
+	 *
+	 * @param files
+	 *            number of files to upload.
+	 * @param bytes
+	 *            total size of the files.
+	 * @param latencyMillis
+	 *            measured request round trip to the device.
+	 * @param parallelism
+	 *            maximum number of concurrent requests.
+	 * @return the plan, with its estimate and the reasoning behind it.
+	 */
+	public Plan plan(int files, long bytes, long latencyMillis, int parallelism) {
+		parallelism = Math.max(1, parallelism);
+		long setFileMillis = setFileMillis(files, bytes, latencyMillis, parallelism);
+		int shards = minimumShards(bytes);
+		long importMillis = importMillis(files, bytes, latencyMillis, parallelism, shards);
+		for (int k = shards + 1; k <= Math.min(files, parallelism); k++) {
+			long millis = importMillis(files, bytes, latencyMillis, parallelism, k);
+			if (millis < importMillis) {
+				importMillis = millis;
+				shards = k;
+			}
+		}
+
+		StringBuilder reason = new StringBuilder();
+		reason.append(files).append(" files, ")
+				.append(TransferProgress.formatBytes(bytes)).append(", latency ")
+				.append(latencyMillis).append(" ms, parallelism ").append(parallelism)
+				.append(": set-file est. ").append(setFileMillis).append(" ms, ");
+		if (shards > 1) {
+			reason.append(shards).append(" import shards");
+		} else {
+			reason.append("import");
+		}
+		reason.append(" est. ").append(importMillis).append(" ms");
+
+		if (files > 0 && importMillis < setFileMillis) {
+			return new Plan(Strategy.IMPORT, shards, importMillis, reason.toString());
+		}
+		return new Plan(Strategy.SET_FILE, 0, setFileMillis, reason.toString());
+	}
+
+	/**
+	 * Plan an import regardless of cost, with as many shards as the size
+	 * requires.
+	 */
+	public Plan planImport(int files, long bytes, long latencyMillis, int parallelism) {
+		int shards = Math.min(Math.max(1, files), minimumShards(bytes));
+		long millis = importMillis(files, bytes, latencyMillis, Math.max(1, parallelism), shards);
+		return new Plan(Strategy.IMPORT, shards, millis, files + " files, "
+				+ TransferProgress.formatBytes(bytes) + ": import requested");
+	}
+
+	/**
+	 * @return the estimated time to post one set-file per file.
+	 */
+	public long setFileMillis(int files, long bytes, long latencyMillis, int parallelism) {
+		long waves = (files + parallelism - 1) / parallelism;
+		return waves * (latencyMillis + setFileOverheadMillis)
+				+ Math.round(wireBytes(bytes) / bytesPerMilli);
+	}
+
+	/**
+	 * @return the estimated time to zip and post the files in the given
+	 *         number of do-import shards.
+	 */
+	public long importMillis(int files, long bytes, long latencyMillis,
+			int parallelism, int shards) {
+		long waves = (shards + parallelism - 1) / parallelism;
+		double zipped = bytes * compressionRatio;
+		return waves * (latencyMillis + importOverheadMillis)
+				+ Math.round(files * importPerFileMillis)
+				+ Math.round(wireBytes((long) zipped) / bytesPerMilli)
+				+ Math.round(bytes / zipBytesPerMilli);
+	}
+
+	/**
+	 * @return the fewest shards keeping each zip within maxShardBytes.
+	 */
+	protected int minimumShards(long bytes) {
+		long zipped = (long) (bytes * compressionRatio);
+		return (int) Math.max(1, (zipped + maxShardBytes - 1) / maxShardBytes);
+	}
+
+	private static double wireBytes(long bytes) {
+		// base64 in the SOAP body.
+		return bytes * 4.0 / 3.0;
+	}
+
+	/**
+	 * @param kiloBytesPerSecond
+	 *            the assumed bandwidth to the device, the 'bandwidth' option.
+	 */
+	public void setBandwidth(long kiloBytesPerSecond) {
+		// a KB per second is a byte per millisecond.
+		this.bytesPerMilli = kiloBytesPerSecond;
+	}
+
+	/**
+	 * @param importOverheadMillis
+	 *            the device cost of a do-import, the 'importOverhead' option.
+	 */
+	public void setImportOverheadMillis(long importOverheadMillis) {
+		this.importOverheadMillis = importOverheadMillis;
+	}
+
+	/**
+	 * A chosen strategy.
+	 */
+	public static class Plan {
+
+		protected final Strategy strategy;
+
+		protected final int shards;
+
+		protected final long estimateMillis;
+
+		protected final String reason;
+
+		public Plan(Strategy strategy, int shards, long estimateMillis, String reason) {
+			this.strategy = strategy;
+			this.shards = shards;
+			this.estimateMillis = estimateMillis;
+			this.reason = reason;
+		}
+
+		public Strategy getStrategy() {
+			return strategy;
+		}
+
+		/**
+		 * @return the number of do-import zips, 0 for set-file.
+		 */
+		public int getShards() {
+			return shards;
+		}
+
+		public long getEstimateMillis() {
+			return estimateMillis;
+		}
+
+		/**
+		 * @return the inputs and the estimate of each strategy.
+		 */
+		public String getReason() {
+			return reason;
+		}
+
+		@Override
+		public String toString() {
+			String chosen = (Strategy.IMPORT == strategy)
+					? ((shards > 1) ? shards + " do-import shards" : "do-import")
+					: "set-file";
+			return chosen + " (" + reason + ")";
+		}
+	}
+
+}
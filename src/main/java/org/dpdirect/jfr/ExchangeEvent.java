@@ -0,0 +1,93 @@
+package org.dpdirect.jfr;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import org.dpdirect.utils.TransferTimings;
+
+/**
+ * One HTTP exchange with a device XML management interface.
+ */
+@Name(FlightEvents.PREFIX + "Exchange")
+@Label("Management Exchange")
+@Category(FlightEvents.CATEGORY)
+@Description("One HTTP request to a device XML management interface, and its response")
+@Enabled(false)
+@StackTrace(false)
+class ExchangeEvent extends Event {
+
+	@Label("Host")
+	String host;
+
+	@Label("End Point")
+	String endPoint;
+
+	@Label("Operation")
+	String operation;
+
+	@Label("Bytes Sent")
+	@DataAmount
+	long bytesSent;
+
+	@Label("Bytes Received")
+	@DataAmount
+	long bytesReceived;
+
+	@Label("Status")
+	@Description("The HTTP status of the response, or -1 if none was received")
+	int status;
+
+	/**
+	 * @return a begun event, or null if the event is not enabled.
+	 */
+	static Object open() {
+		ExchangeEvent event = new ExchangeEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * End the given open event, committing it if it meets the recording
+	 * threshold.
+	 */
+	static void close(Object open, String host, String endPoint,
+			String operation, TransferTimings timings) {
+		ExchangeEvent event = (ExchangeEvent) open;
+		event.end();
+		if (event.shouldCommit()) {
+			event.host = host;
+			event.endPoint = endPoint;
+			event.operation = operation;
+			event.bytesSent = timings.getBytesSent();
+			event.bytesReceived = timings.getBytesReceived();
+			event.status = timings.getResponseCode();
+			event.commit();
+		}
+	}
+
+}
@@ -0,0 +1,85 @@
+package org.dpdirect.jfr;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One attempt at the transfer of a file of a parallel set-dir or get-dir.
+ */
+@Name(FlightEvents.PREFIX + "FileTransfer")
+@Label("File Transfer")
+@Category(FlightEvents.CATEGORY)
+@Description("One attempt at the transfer of a file of a parallel set-dir or get-dir")
+@Enabled(false)
+@StackTrace(false)
+class FileTransferEvent extends Event {
+
+	@Label("Operation")
+	String operation;
+
+	@Label("Path")
+	String path;
+
+	@Label("Attempt")
+	int attempt;
+
+	@Label("Bytes")
+	@DataAmount
+	long bytes;
+
+	@Label("Success")
+	boolean success;
+
+	/**
+	 * @return a begun event, or null if the event is not enabled.
+	 */
+	static Object open() {
+		FileTransferEvent event = new FileTransferEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * End the given open event, committing it if it meets the recording
+	 * threshold.
+	 */
+	static void close(Object open, String operation, String path, int attempt,
+			long bytes, boolean success) {
+		FileTransferEvent event = (FileTransferEvent) open;
+		event.end();
+		if (event.shouldCommit()) {
+			event.operation = operation;
+			event.path = path;
+			event.attempt = attempt;
+			event.bytes = bytes;
+			event.success = success;
+			event.commit();
+		}
+	}
+
+}
@@ -0,0 +1,142 @@
+package org.dpdirect.jfr;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.dpdirect.utils.TransferTimings;
+
+/**
+ * Java Flight Recorder events of schema loads, payload generation, device
+ * exchanges, poll iterations and file transfers.
+ *
+ * The events are disabled by default, and are enabled in a recording with the
+ * 'dpdirect.jfc' settings, eg.
+ *
+ * <pre>
+ * java -XX:StartFlightRecording=settings=default,settings=dpdirect.jfc,filename=deploy.jfr ...
+ * </pre>
+ *
+ * Each event is begun with a 'begin' method, which returns null where the
+ * event is not enabled or the JVM has no Flight Recorder, and is ended with
+ * the matching 'end' method, which does nothing given null. The event classes
+ * are only loaded where the Flight Recorder is present.
+ */
+public final class FlightEvents {
+
+	/** The prefix of the event names. */
+	static final String PREFIX = "org.dpdirect.";
+
+	/** The category of the events. */
+	static final String CATEGORY = "DPDirect";
+
+	/** True if the JVM has the Flight Recorder API. */
+	private static final boolean AVAILABLE = isAvailable();
+
+	private FlightEvents() {
+	}
+
+	private static boolean isAvailable() {
+		try {
+			Class.forName("jdk.jfr.Event");
+			return true;
+		} catch (Throwable ex) {
+			return false;
+		}
+	}
+
+	public static Object beginSchemaLoad() {
+		return AVAILABLE ? SchemaLoadEvent.open() : null;
+	}
+
+	/**
+	 * @param uri
+	 *            the schema URI.
+	 * @param elements
+	 *            the number of element declarations loaded, or -1 on failure.
+	 */
+	public static void endSchemaLoad(Object event, String uri, int elements) {
+		if (null != event) {
+			SchemaLoadEvent.close(event, uri, elements);
+		}
+	}
+
+	public static Object beginGenerate() {
+		return AVAILABLE ? GenerateEvent.open() : null;
+	}
+
+	/**
+	 * @param payload
+	 *            the generated payload, or null if generation failed.
+	 */
+	public static void endGenerate(Object event, String operation,
+			String domain, String payload) {
+		if (null != event) {
+			GenerateEvent.close(event, operation, domain,
+					(null == payload) ? -1 : payload.length());
+		}
+	}
+
+	public static Object beginExchange() {
+		return AVAILABLE ? ExchangeEvent.open() : null;
+	}
+
+	/**
+	 * @param timings
+	 *            the timings of the post, holding its sizes and status.
+	 */
+	public static void endExchange(Object event, String host, String endPoint,
+			String operation, TransferTimings timings) {
+		if (null != event) {
+			ExchangeEvent.close(event, host, endPoint, operation, timings);
+		}
+	}
+
+	public static Object beginPoll() {
+		return AVAILABLE ? PollEvent.open() : null;
+	}
+
+	/**
+	 * @param iteration
+	 *            the poll number, from 1.
+	 * @param matched
+	 *            true if the response matched the awaited result.
+	 */
+	public static void endPoll(Object event, String operation, int iteration,
+			boolean matched) {
+		if (null != event) {
+			PollEvent.close(event, operation, iteration, matched);
+		}
+	}
+
+	public static Object beginFileTransfer() {
+		return AVAILABLE ? FileTransferEvent.open() : null;
+	}
+
+	/**
+	 * @param attempt
+	 *            the attempt number, from 1.
+	 * @param bytes
+	 *            the bytes transferred, or 0 if the attempt failed.
+	 */
+	public static void endFileTransfer(Object event, String operation,
+			String path, int attempt, long bytes, boolean success) {
+		if (null != event) {
+			FileTransferEvent.close(event, operation, path, attempt, bytes,
+					success);
+		}
+	}
+
+}
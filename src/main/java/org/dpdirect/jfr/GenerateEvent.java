@@ -0,0 +1,76 @@
+package org.dpdirect.jfr;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The generation of an operation payload from the schema.
+ */
+@Name(FlightEvents.PREFIX + "Generate")
+@Label("Payload Generation")
+@Category(FlightEvents.CATEGORY)
+@Description("The generation of an operation payload from the management schema")
+@Enabled(false)
+@StackTrace(false)
+class GenerateEvent extends Event {
+
+	@Label("Operation")
+	String operation;
+
+	@Label("Domain")
+	String domain;
+
+	@Label("Payload Length")
+	@Description("The characters of the generated payload, or -1 if generation failed")
+	int payloadLength;
+
+	/**
+	 * @return a begun event, or null if the event is not enabled.
+	 */
+	static Object open() {
+		GenerateEvent event = new GenerateEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * End the given open event, committing it if it meets the recording
+	 * threshold.
+	 */
+	static void close(Object open, String operation, String domain,
+			int payloadLength) {
+		GenerateEvent event = (GenerateEvent) open;
+		event.end();
+		if (event.shouldCommit()) {
+			event.operation = operation;
+			event.domain = domain;
+			event.payloadLength = payloadLength;
+			event.commit();
+		}
+	}
+
+}
@@ -0,0 +1,75 @@
+package org.dpdirect.jfr;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One poll of an operation waiting for a result.
+ */
+@Name(FlightEvents.PREFIX + "Poll")
+@Label("Poll Iteration")
+@Category(FlightEvents.CATEGORY)
+@Description("One post and match of an operation waiting for a result")
+@Enabled(false)
+@StackTrace(false)
+class PollEvent extends Event {
+
+	@Label("Operation")
+	String operation;
+
+	@Label("Iteration")
+	int iteration;
+
+	@Label("Matched")
+	boolean matched;
+
+	/**
+	 * @return a begun event, or null if the event is not enabled.
+	 */
+	static Object open() {
+		PollEvent event = new PollEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * End the given open event, committing it if it meets the recording
+	 * threshold.
+	 */
+	static void close(Object open, String operation, int iteration,
+			boolean matched) {
+		PollEvent event = (PollEvent) open;
+		event.end();
+		if (event.shouldCommit()) {
+			event.operation = operation;
+			event.iteration = iteration;
+			event.matched = matched;
+			event.commit();
+		}
+	}
+
+}
@@ -0,0 +1,71 @@
+package org.dpdirect.jfr;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The load of a management schema by a SchemaLoader.
+ */
+@Name(FlightEvents.PREFIX + "SchemaLoad")
+@Label("Schema Load")
+@Category(FlightEvents.CATEGORY)
+@Description("The load of a management schema, and the element declarations it holds")
+@Enabled(false)
+@StackTrace(false)
+class SchemaLoadEvent extends Event {
+
+	@Label("URI")
+	String uri;
+
+	@Label("Elements")
+	@Description("The number of element declarations loaded")
+	int elements;
+
+	/**
+	 * @return a begun event, or null if the event is not enabled.
+	 */
+	static Object open() {
+		SchemaLoadEvent event = new SchemaLoadEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * End the given open event, committing it if it meets the recording
+	 * threshold.
+	 */
+	static void close(Object open, String uri, int elements) {
+		SchemaLoadEvent event = (SchemaLoadEvent) open;
+		event.end();
+		if (event.shouldCommit()) {
+			event.uri = uri;
+			event.elements = elements;
+			event.commit();
+		}
+	}
+
+}
@@ -42,6 +42,7 @@ import org.apache.xerces.xs.XSSimpleTypeDefinition;
 import org.apache.xerces.xs.XSTerm;
 import org.apache.xerces.xs.XSTypeDefinition;
 import org.apache.xerces.xs.XSWildcard;
+import org.dpdirect.jfr.FlightEvents;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -142,7 +143,10 @@ public class SchemaLoader {
 		// schemaLoader.getConfig().setParameter("validate", Boolean.TRUE);
 		String[] soapenvSchemaPath = { schemaFileURI, this.getClass().getResource(SOAP_11_SCHEMA_PATH).toExternalForm() };
 		StringList schemaList = new StringListImpl(soapenvSchemaPath, 2);
+		Object loadEvent = FlightEvents.beginSchemaLoad();
 		xsModel = schemaLoader.loadURIList(schemaList);
+		FlightEvents.endSchemaLoad(loadEvent, schemaFileURI, (null == xsModel) ? -1
+				: xsModel.getComponents(XSConstants.ELEMENT_DECLARATION).getLength());
 		this.referenceNodes = new SchemaHelper(xsModel);
 		
 		if (nodeName != null && 0 < nodeName.trim().length()) {
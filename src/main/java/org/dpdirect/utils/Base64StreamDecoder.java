@@ -0,0 +1,144 @@
+package org.dpdirect.utils;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Incremental base64 decoder. Characters may be supplied in chunks of any size, such as SAX character events, and
+ * the decoded bytes are written to the target stream as each 4 character quantum completes. Whitespace is ignored.
+ */
+public class Base64StreamDecoder {
+
+   private static final byte[] DECODE = new byte[128];
+
+   static {
+      Arrays.fill(DECODE, (byte) -1);
+      String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+      for (int i = 0; i < alphabet.length(); i++) {
+         DECODE[alphabet.charAt(i)] = (byte) i;
+      }
+   }
+
+   private final OutputStream out;
+
+   private final byte[] buffer = new byte[8192];
+
+   private int buffered = 0;
+
+   private int quantum = 0;
+
+   private int quantumChars = 0;
+
+   private int padding = 0;
+
+   private long bytesWritten = 0;
+
+   /**
+    * @param out the stream receiving decoded bytes.
+    */
+   public Base64StreamDecoder(OutputStream out) {
+      this.out = out;
+   }
+
+   /**
+    * Decodes a chunk of base64 characters.
+    *
+    * @param chars the character buffer.
+    * @param start the start offset.
+    * @param length the number of characters.
+    * @throws IOException if the characters are not valid base64, or cannot be written.
+    */
+   public void decode(char[] chars, int start, int length) throws IOException {
+      for (int i = start; i < start + length; i++) {
+         char c = chars[i];
+         if (c == '=') {
+            padding++;
+            appendSextet(0);
+         }
+         else if (c < 128 && DECODE[c] >= 0) {
+            if (padding > 0) {
+               throw new IOException("Invalid base64 content after padding.");
+            }
+            appendSextet(DECODE[c]);
+         }
+         else if (!Character.isWhitespace(c)) {
+            throw new IOException("Invalid base64 character '" + c + "'.");
+         }
+      }
+   }
+
+   /**
+    * Decodes a String of base64 characters.
+    *
+    * @param text the base64 text.
+    * @throws IOException if the text is not valid base64, or cannot be written.
+    */
+   public void decode(String text) throws IOException {
+      char[] chars = text.toCharArray();
+      decode(chars, 0, chars.length);
+   }
+
+   /**
+    * Flushes decoded bytes to the target stream. Does not close the stream.
+    *
+    * @throws IOException if the input ended mid quantum, or bytes cannot be written.
+    */
+   public void finish() throws IOException {
+      if (quantumChars != 0) {
+         throw new IOException("Truncated base64 content.");
+      }
+      flushBuffer();
+      out.flush();
+   }
+
+   /**
+    * @return the number of decoded bytes.
+    */
+   public long getBytesWritten() {
+      return bytesWritten + buffered;
+   }
+
+   private void appendSextet(int sextet) throws IOException {
+      quantum = (quantum << 6) | sextet;
+      if (++quantumChars == 4) {
+         if (buffered > buffer.length - 3) {
+            flushBuffer();
+         }
+         buffer[buffered++] = (byte) (quantum >> 16);
+         if (padding < 2) {
+            buffer[buffered++] = (byte) (quantum >> 8);
+         }
+         if (padding < 1) {
+            buffer[buffered++] = (byte) quantum;
+         }
+         quantum = 0;
+         quantumChars = 0;
+      }
+   }
+
+   private void flushBuffer() throws IOException {
+      if (buffered > 0) {
+         out.write(buffer, 0, buffered);
+         bytesWritten += buffered;
+         buffered = 0;
+      }
+   }
+
+}
@@ -0,0 +1,126 @@
+package org.dpdirect.utils;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Incremental base64 encoder. Bytes written to this stream are written to the target stream as unbroken base64
+ * text, so content of any size can be encoded into a request body without holding it in memory.
+ */
+public class Base64StreamEncoder extends OutputStream {
+
+   private static final byte[] ENCODE =
+         "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes();
+
+   private final OutputStream out;
+
+   /** Encoded characters awaiting the target stream, a multiple of 4. */
+   private final byte[] buffer = new byte[8192];
+
+   private int buffered = 0;
+
+   private int quantum = 0;
+
+   private int quantumBytes = 0;
+
+   /**
+    * @param out the stream receiving base64 text.
+    */
+   public Base64StreamEncoder(OutputStream out) {
+      this.out = out;
+   }
+
+   @Override
+   public void write(int b) throws IOException {
+      quantum = (quantum << 8) | (b & 0xFF);
+      if (++quantumBytes == 3) {
+         appendQuantum(4);
+      }
+   }
+
+   @Override
+   public void write(byte[] bytes, int start, int length) throws IOException {
+      int i = start;
+      int end = start + length;
+      // complete a partial quantum, then encode whole quanta directly.
+      while (quantumBytes != 0 && i < end) {
+         write(bytes[i++]);
+      }
+      while (end - i >= 3) {
+         quantum = ((bytes[i] & 0xFF) << 16) | ((bytes[i + 1] & 0xFF) << 8) | (bytes[i + 2] & 0xFF);
+         appendQuantum(4);
+         i += 3;
+      }
+      while (i < end) {
+         write(bytes[i++]);
+      }
+   }
+
+   /**
+    * Writes the final, padded quantum and flushes the target stream. Does not close the stream.
+    *
+    * @throws IOException if the text cannot be written.
+    */
+   public void finish() throws IOException {
+      if (quantumBytes == 1) {
+         quantum <<= 16;
+         appendQuantum(2);
+      }
+      else if (quantumBytes == 2) {
+         quantum <<= 8;
+         appendQuantum(3);
+      }
+      flushBuffer();
+      out.flush();
+   }
+
+   @Override
+   public void flush() throws IOException {
+      flushBuffer();
+      out.flush();
+   }
+
+   /**
+    * Finishes the encoding. Does not close the target stream.
+    */
+   @Override
+   public void close() throws IOException {
+      finish();
+   }
+
+   private void appendQuantum(int chars) throws IOException {
+      if (buffered > buffer.length - 4) {
+         flushBuffer();
+      }
+      buffer[buffered++] = ENCODE[(quantum >> 18) & 0x3F];
+      buffer[buffered++] = ENCODE[(quantum >> 12) & 0x3F];
+      buffer[buffered++] = (chars > 2) ? ENCODE[(quantum >> 6) & 0x3F] : (byte) '=';
+      buffer[buffered++] = (chars > 3) ? ENCODE[quantum & 0x3F] : (byte) '=';
+      quantum = 0;
+      quantumBytes = 0;
+   }
+
+   private void flushBuffer() throws IOException {
+      if (buffered > 0) {
+         out.write(buffer, 0, buffered);
+         buffered = 0;
+      }
+   }
+
+}
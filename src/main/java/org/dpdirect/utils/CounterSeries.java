@@ -0,0 +1,202 @@
+package org.dpdirect.utils;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Arrays;
+
+/**
+ * A fixed size time series of the most recent samples of one counter, held in primitive ring buffers.
+ *
+ * Statistics are taken over a window ending at the latest sample, so that a table of many series polled together
+ * reads consistently. Memory is fixed at construction however long the series runs; adding a sample evicts the
+ * oldest once full.
+ */
+public class CounterSeries {
+
+   private final long[] times;
+
+   private final double[] values;
+
+   private int head = 0;
+
+   private int size = 0;
+
+   /**
+    * @param capacity the number of samples kept.
+    */
+   public CounterSeries(int capacity) {
+      times = new long[Math.max(2, capacity)];
+      values = new double[times.length];
+   }
+
+   /**
+    * Adds a sample, evicting the oldest when full.
+    *
+    * @param timeMillis the time of the sample.
+    * @param value the counter value.
+    */
+   public void add(long timeMillis, double value) {
+      times[head] = timeMillis;
+      values[head] = value;
+      head = (head + 1) % times.length;
+      if (size < times.length) {
+         size++;
+      }
+   }
+
+   /**
+    * @return the number of samples held.
+    */
+   public int size() {
+      return size;
+   }
+
+   /**
+    * @return the number of samples held when full.
+    */
+   public int capacity() {
+      return times.length;
+   }
+
+   /**
+    * @param i the sample, 0 for the oldest held.
+    * @return the time of the sample.
+    */
+   public long timeAt(int i) {
+      return times[index(i)];
+   }
+
+   /**
+    * @param i the sample, 0 for the oldest held.
+    * @return the value of the sample.
+    */
+   public double valueAt(int i) {
+      return values[index(i)];
+   }
+
+   /**
+    * @return the latest value, or NaN if empty.
+    */
+   public double last() {
+      return (0 == size) ? Double.NaN : valueAt(size - 1);
+   }
+
+   /**
+    * @return the mean of the values in the window, or NaN if empty.
+    */
+   public double mean(long windowMillis) {
+      int first = first(windowMillis);
+      if (first >= size) {
+         return Double.NaN;
+      }
+      double sum = 0;
+      for (int i = first; i < size; i++) {
+         sum += valueAt(i);
+      }
+      return sum / (size - first);
+   }
+
+   /**
+    * @return the least value in the window, or NaN if empty.
+    */
+   public double min(long windowMillis) {
+      double min = Double.NaN;
+      for (int i = first(windowMillis); i < size; i++) {
+         double value = valueAt(i);
+         if (!(value >= min)) {
+            min = value;
+         }
+      }
+      return min;
+   }
+
+   /**
+    * @return the greatest value in the window, or NaN if empty.
+    */
+   public double max(long windowMillis) {
+      double max = Double.NaN;
+      for (int i = first(windowMillis); i < size; i++) {
+         double value = valueAt(i);
+         if (!(value <= max)) {
+            max = value;
+         }
+      }
+      return max;
+   }
+
+   /**
+    * @param percent the percentile, 0 to 100.
+    * @return the nearest rank percentile of the values in the window, or NaN if empty.
+    */
+   public double percentile(long windowMillis, double percent) {
+      int first = first(windowMillis);
+      if (first >= size) {
+         return Double.NaN;
+      }
+      double[] sorted = new double[size - first];
+      for (int i = first; i < size; i++) {
+         sorted[i - first] = valueAt(i);
+      }
+      Arrays.sort(sorted);
+      int rank = (int) Math.ceil(percent / 100 * sorted.length);
+      return sorted[Math.min(sorted.length - 1, Math.max(0, rank - 1))];
+   }
+
+   /**
+    * The rate of increase per second of a cumulative counter over the window. A fall in the value is taken as a
+    * counter reset, and the rate is taken from the reset on.
+    *
+    * @return the rate per second, or NaN with fewer than two samples.
+    */
+   public double ratePerSecond(long windowMillis) {
+      int first = first(windowMillis);
+      for (int i = size - 1; i > first; i--) {
+         if (valueAt(i) < valueAt(i - 1)) {
+            first = i;
+            break;
+         }
+      }
+      if (size - first < 2) {
+         return Double.NaN;
+      }
+      long elapsed = timeAt(size - 1) - timeAt(first);
+      if (elapsed <= 0) {
+         return Double.NaN;
+      }
+      return (valueAt(size - 1) - valueAt(first)) * 1000 / elapsed;
+   }
+
+   /**
+    * @return the first sample no older than the window before the latest sample.
+    */
+   private int first(long windowMillis) {
+      if (0 == size) {
+         return 0;
+      }
+      long from = timeAt(size - 1) - windowMillis;
+      int first = size - 1;
+      while (first > 0 && timeAt(first - 1) >= from) {
+         first--;
+      }
+      return first;
+   }
+
+   private int index(int i) {
+      return (head - size + i + times.length) % times.length;
+   }
+
+}
@@ -30,7 +30,9 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.ResourceBundle;
 import java.util.zip.ZipEntry;
@@ -40,10 +42,6 @@ import java.util.zip.ZipOutputStream;
 import javax.xml.parsers.ParserConfigurationException;
 
 import org.apache.xerces.impl.dv.util.Base64;
-import org.dpdirect.schema.DocumentHelper;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
 
 /**
  * A collection of common File and IO utilities.
@@ -444,49 +442,61 @@ public class FileUtils {
  * @throws Exception 
     */
   public static void zipDirectoryForImport(String zipDirPath, File file, String destZipFile, String domainName) throws Exception {
-      ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(destZipFile));
-	  String basePath = file.getParentFile().getCanonicalPath();
-	  String exportFileName = basePath + "/export.xml";
-      Document exportDoc = DocumentHelper.generateDocument();
-      Element rootElement = exportDoc.createElement("datapower-configuration");
-      rootElement.setAttribute("version", "3");
-      exportDoc.appendChild(rootElement);
-      Element configurationElement = exportDoc.createElement("configuration");
-      configurationElement.setAttribute("domain", domainName);
-      rootElement.appendChild(configurationElement);
-      Element filesElement = exportDoc.createElement("files");
-      rootElement.appendChild(filesElement);
-      
       if (file.isDirectory()) {
-          addFolderToZip(zipDirPath, file, null, zos, exportDoc);
-          
-//          DocumentHelper.buildDocument(exportDoc, exportFileName);
-//          File exportFile = new File(exportFileName);
-//          addFileToZip(exportFile, zos);
-          
-          addDocumentToZip(exportDoc, zos, "export.xml");
-          
+          importZipForDirectory(zipDirPath, file, domainName).writeTo(new File(destZipFile));
       } else {
-          addFileToZip(file, zos);
+          ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(destZipFile));
+          try {
+              addFileToZip(file, zos);
+              zos.flush();
+          } finally {
+              zos.close();
+          }
       }
-      
-      zos.flush();
-      zos.close();
   }
-  
+
+  /**
+   * A do-import zip of a directory, to be written straight into a request
+   * rather than to a file.
+   *
+   * @param zipDirPath the device directory in zip form, eg. 'local/xsl'.
+   * @param dir the local directory.
+   * @param domainName the domain imported into.
+   * @return the zip writer.
+   */
+  public static ImportZip importZipForDirectory(String zipDirPath, File dir, String domainName) throws IOException {
+      Map<String, File> files = new LinkedHashMap<String, File>();
+      addFolderToImport(zipDirPath, dir, null, files);
+      return new ImportZip(files, domainName);
+  }
+
+  /**
+   * Zip a set of files for a do-import, with an export.xml manifest naming
+   * the device path of each.
+   *
+   * @param files device path (eg. 'local:///xsl/a.xsl') to local file.
+   * @param destZipFile the zip file to write.
+   * @param domainName the domain imported into.
+   */
+  public static void zipFilesForImport(Map<String, File> files, String destZipFile, String domainName) throws Exception {
+      new ImportZip(files, domainName).writeTo(new File(destZipFile));
+  }
+
   /**
-   * Adds a directory to the current zip output stream
+   * Adds the files of a directory to a do-import file map
    * 
    * @param folder the directory to be  added
    * @param parentFolder the path of parent directory
-   * @param zos the current zip output stream
-   * @throws FileNotFoundException
+   * @param files device path to local file
    * @throws IOException
    */
-   private static void addFolderToZip(String zipDirPath, File folder, String parentFolder,
-           ZipOutputStream zos, Document exportDoc) throws FileNotFoundException, IOException {
-	   
-	   for (File file : folder.listFiles()) {
+   private static void addFolderToImport(String zipDirPath, File folder, String parentFolder,
+           Map<String, File> files) throws IOException {
+	   File[] children = folder.listFiles();
+	   if (null == children) {
+		   throw new IOException("Cannot list directory " + folder);
+	   }
+	   for (File file : children) {
 		   String ThisRelativePath;
 		   if (null != parentFolder) {
 			   ThisRelativePath = parentFolder + "/" + file.getName();
@@ -496,37 +506,13 @@ public class FileUtils {
 		   }
 		   String zipSource = zipDirPath + "/" + ThisRelativePath;
 		   String destName = zipSource.replaceFirst("/", ":///");
-		   String destLocation = destName.substring(0, destName.indexOf(":"));
 		   
            if (file.isDirectory()) {
-               addFolderToZip(zipDirPath, file, ThisRelativePath, zos, exportDoc);
-               continue;
+               addFolderToImport(zipDirPath, file, ThisRelativePath, files);
            }
            else {
-        	   Node filesElement = exportDoc.getElementsByTagName("files").item(0);
-        	   Element fileElement = exportDoc.createElement("file");
-        	   fileElement.setAttribute("name", destName);
-        	   fileElement.setAttribute("location", destLocation);
-        	   fileElement.setAttribute("src", zipSource);
-        	   filesElement.appendChild(fileElement);
+               files.put(destName, file);
            }
-
-           zos.putNextEntry(new ZipEntry(zipSource));
-
-           BufferedInputStream bis = new BufferedInputStream(
-                   new FileInputStream(file));
-
-           long bytesRead = 0;
-           byte[] bytesIn = new byte[BUFFER_SIZE];
-           int read = 0;
-
-           while ((read = bis.read(bytesIn)) != -1) {
-               zos.write(bytesIn, 0, read);
-               bytesRead += read;
-           }
-
-           zos.closeEntry();
-
        }
    }
 
@@ -558,19 +544,6 @@ public class FileUtils {
    }
    
 
-   /**
-    * Adds a file to the current zip output stream
-    * 
-    * @param file the file to be added
-    * @param zos the current zip output stream
- * @throws Exception 
-    */
-   private static void addDocumentToZip(Document exportDoc, ZipOutputStream zos, String fileName)
-           throws Exception {
-	   DocumentHelper.addDocumentToZip(exportDoc, zos, fileName);
-   }
-
-
    /**
     * Copies the InputStream into the OutputStream, until the end of the stream has been reached.<br/>
     * This method uses a buffer of 4096 kbyte.
@@ -581,7 +554,7 @@ public class FileUtils {
     */
    public static void copyStreams(InputStream in,
                                   OutputStream out) throws IOException {
-      copyStreams(in, out, 4096);
+      copyStreams(in, out, 65536);
    }
 
    /**
@@ -0,0 +1,195 @@
+package org.dpdirect.utils;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * A do-import zip of device files, written straight to an output stream, such as a request body. The export.xml
+ * manifest naming each device file is written with a streaming XML writer after the files. Files whose extension
+ * marks them as already compressed are stored rather than deflated.
+ */
+public class ImportZip implements PostXML.ContentWriter {
+
+   /** Extensions of already compressed files, stored rather than deflated. */
+   public static final Set<String> STORED_EXTENSIONS = new HashSet<String>(Arrays.asList("zip", "jar", "war",
+         "ear", "gz", "tgz", "bz2", "xz", "7z", "png", "jpg", "jpeg", "gif", "pdf", "p12", "pfx"));
+
+   private static final int BUFFER_SIZE = 65536;
+
+   /** Device path (eg. 'local:///xsl/a.xsl') to local file, in zip order. */
+   private final Map<String, File> files;
+
+   private final String domainName;
+
+   /**
+    * @param files device path (eg. 'local:///xsl/a.xsl') to local file, in zip order.
+    * @param domainName the domain imported into.
+    */
+   public ImportZip(Map<String, File> files, String domainName) {
+      this.files = new LinkedHashMap<String, File>(files);
+      this.domainName = domainName;
+   }
+
+   /**
+    * Writes the zip. Does not close the stream.
+    *
+    * @param out the stream receiving the zip.
+    * @throws IOException if a file cannot be read, or the zip cannot be written.
+    */
+   public void writeTo(OutputStream out) throws IOException {
+      ZipOutputStream zos = new ZipOutputStream(new FilterOutputStream(out) {
+         @Override
+         public void write(byte[] bytes, int start, int length) throws IOException {
+            out.write(bytes, start, length);
+         }
+
+         @Override
+         public void close() throws IOException {
+            flush();
+         }
+      });
+      zos.setLevel(Deflater.BEST_SPEED);
+      byte[] buffer = new byte[BUFFER_SIZE];
+      for (Map.Entry<String, File> entry : files.entrySet()) {
+         File file = entry.getValue();
+         ZipEntry zipEntry = new ZipEntry(zipPath(entry.getKey()));
+         zipEntry.setTime(file.lastModified());
+         if (isCompressed(file.getName())) {
+            // a stored entry needs its size and CRC ahead of the content.
+            zipEntry.setMethod(ZipEntry.STORED);
+            zipEntry.setSize(file.length());
+            zipEntry.setCompressedSize(file.length());
+            zipEntry.setCrc(crc(file, buffer));
+         }
+         zos.putNextEntry(zipEntry);
+         InputStream in = new FileInputStream(file);
+         try {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+               zos.write(buffer, 0, read);
+            }
+         }
+         finally {
+            in.close();
+         }
+         zos.closeEntry();
+      }
+      zos.putNextEntry(new ZipEntry("export.xml"));
+      try {
+         writeManifest(zos);
+      }
+      catch (XMLStreamException ex) {
+         throw new IOException("Failed to write export.xml : " + ex.getMessage(), ex);
+      }
+      zos.closeEntry();
+      zos.finish();
+      zos.flush();
+   }
+
+   /**
+    * Writes the zip to a file.
+    *
+    * @param destZipFile the zip file to write.
+    * @throws IOException if the zip cannot be written.
+    */
+   public void writeTo(File destZipFile) throws IOException {
+      OutputStream out = new BufferedOutputStream(new FileOutputStream(destZipFile));
+      try {
+         writeTo(out);
+      }
+      finally {
+         out.close();
+      }
+   }
+
+   /**
+    * @return true if the file name has the extension of an already compressed format.
+    */
+   public static boolean isCompressed(String fileName) {
+      int dot = fileName.lastIndexOf('.');
+      return dot >= 0 && STORED_EXTENSIONS.contains(fileName.substring(dot + 1).toLowerCase(Locale.ROOT));
+   }
+
+   /**
+    * @return the zip entry name for a device path, eg. 'local/xsl/a.xsl' for 'local:///xsl/a.xsl'.
+    */
+   public static String zipPath(String devicePath) {
+      return devicePath.replaceFirst(":/+", "/");
+   }
+
+   private void writeManifest(OutputStream out) throws XMLStreamException {
+      XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+      xml.writeStartElement("datapower-configuration");
+      xml.writeAttribute("version", "3");
+      xml.writeCharacters("\n  ");
+      xml.writeEmptyElement("configuration");
+      xml.writeAttribute("domain", (null == domainName) ? "default" : domainName);
+      xml.writeCharacters("\n  ");
+      xml.writeStartElement("files");
+      for (String devicePath : files.keySet()) {
+         xml.writeCharacters("\n    ");
+         xml.writeEmptyElement("file");
+         xml.writeAttribute("name", devicePath);
+         xml.writeAttribute("location", devicePath.substring(0, devicePath.indexOf(':')));
+         xml.writeAttribute("src", zipPath(devicePath));
+      }
+      xml.writeCharacters("\n  ");
+      xml.writeEndElement();
+      xml.writeCharacters("\n");
+      xml.writeEndElement();
+      xml.writeCharacters("\n");
+      xml.flush();
+   }
+
+   private static long crc(File file, byte[] buffer) throws IOException {
+      CRC32 crc = new CRC32();
+      InputStream in = new FileInputStream(file);
+      try {
+         int read;
+         while ((read = in.read(buffer)) > 0) {
+            crc.update(buffer, 0, read);
+         }
+      }
+      finally {
+         in.close();
+      }
+      return crc.getValue();
+   }
+
+}
@@ -0,0 +1,206 @@
+package org.dpdirect.utils;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Minimal streaming JSON writer. Objects, arrays, names and values are written to the target as they are given,
+ * with the separators between them, so a document of any size is written without being held in memory.
+ *
+ * Output is compact. Several values may be written one after another at the top level, eg. one per line of
+ * NDJSON, with the line breaks written to the target directly.
+ */
+public class JsonWriter {
+
+   private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+   private static final int MAX_DEPTH = 256;
+
+   private final Writer out;
+
+   /** Per open object or array, whether a value has been written in it. */
+   private final boolean[] written = new boolean[MAX_DEPTH];
+
+   private int depth = 0;
+
+   /** A name has been written, and its value is due. */
+   private boolean named = false;
+
+   /**
+    * @param out the target of the JSON text.
+    */
+   public JsonWriter(Writer out) {
+      this.out = out;
+   }
+
+   /**
+    * Begins an object.
+    */
+   public JsonWriter beginObject() throws IOException {
+      open('{');
+      return this;
+   }
+
+   /**
+    * Ends the current object.
+    */
+   public JsonWriter endObject() throws IOException {
+      close('}');
+      return this;
+   }
+
+   /**
+    * Begins an array.
+    */
+   public JsonWriter beginArray() throws IOException {
+      open('[');
+      return this;
+   }
+
+   /**
+    * Ends the current array.
+    */
+   public JsonWriter endArray() throws IOException {
+      close(']');
+      return this;
+   }
+
+   /**
+    * Writes the name of the next member of the current object.
+    */
+   public JsonWriter name(String name) throws IOException {
+      separate();
+      string(name);
+      out.write(':');
+      named = true;
+      return this;
+   }
+
+   /**
+    * Writes a string value, or null.
+    */
+   public JsonWriter value(String value) throws IOException {
+      separate();
+      if (null == value) {
+         out.write("null");
+      } else {
+         string(value);
+      }
+      return this;
+   }
+
+   /**
+    * Writes a numeric value.
+    */
+   public JsonWriter value(long value) throws IOException {
+      separate();
+      out.write(Long.toString(value));
+      return this;
+   }
+
+   /**
+    * Writes a boolean value.
+    */
+   public JsonWriter value(boolean value) throws IOException {
+      separate();
+      out.write(value ? "true" : "false");
+      return this;
+   }
+
+   /**
+    * Flushes the target.
+    */
+   public void flush() throws IOException {
+      out.flush();
+   }
+
+   private void open(char bracket) throws IOException {
+      separate();
+      if (depth == MAX_DEPTH) {
+         throw new IOException("JSON nested too deep.");
+      }
+      out.write(bracket);
+      written[depth++] = false;
+   }
+
+   private void close(char bracket) throws IOException {
+      if (0 == depth) {
+         throw new IOException("No JSON object or array to close.");
+      }
+      depth--;
+      out.write(bracket);
+   }
+
+   /**
+    * Writes the comma before a member or element, other than the first.
+    */
+   private void separate() throws IOException {
+      if (named) {
+         named = false;
+         return;
+      }
+      if (depth > 0) {
+         if (written[depth - 1]) {
+            out.write(',');
+         }
+         written[depth - 1] = true;
+      }
+   }
+
+   private void string(String text) throws IOException {
+      out.write('"');
+      int start = 0;
+      int length = text.length();
+      for (int i = 0; i < length; i++) {
+         char c = text.charAt(i);
+         if (c >= 0x20 && c != '"' && c != '\\' && c != 0x2028 && c != 0x2029) {
+            continue;
+         }
+         out.write(text, start, i - start);
+         start = i + 1;
+         switch (c) {
+         case '"':
+            out.write("\\\"");
+            break;
+         case '\\':
+            out.write("\\\\");
+            break;
+         case '\n':
+            out.write("\\n");
+            break;
+         case '\r':
+            out.write("\\r");
+            break;
+         case '\t':
+            out.write("\\t");
+            break;
+         default:
+            out.write("\\u");
+            out.write(HEX[(c >> 12) & 0xF]);
+            out.write(HEX[(c >> 8) & 0xF]);
+            out.write(HEX[(c >> 4) & 0xF]);
+            out.write(HEX[c & 0xF]);
+            break;
+         }
+      }
+      out.write(text, start, length - start);
+      out.write('"');
+   }
+
+}
@@ -0,0 +1,179 @@
+package org.dpdirect.utils;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Arrays;
+
+/**
+ * A fixed size window of the most recently seen lines, held as 64 bit hashes, for dropping repeated lines from a
+ * long running tail.
+ *
+ * The hashes are kept in insertion order in a ring buffer, and indexed by an open addressing hash set with linear
+ * probing. Adding a line to a full window evicts the oldest. Memory is fixed at construction, and add and contains
+ * take constant time however many lines have passed through.
+ */
+public class LineHashWindow {
+
+   /** Stands in the set for an empty slot; a line hashing to it is stored as EMPTY_SUBSTITUTE. */
+   private static final long EMPTY = 0L;
+
+   private static final long EMPTY_SUBSTITUTE = 0x9E3779B97F4A7C15L;
+
+   private final long[] ring;
+
+   private final long[] table;
+
+   private final int mask;
+
+   private int head = 0;
+
+   private int size = 0;
+
+   /**
+    * @param capacity the number of lines remembered.
+    */
+   public LineHashWindow(int capacity) {
+      ring = new long[Math.max(1, capacity)];
+      // keep the set at most half full.
+      int tableSize = Integer.highestOneBit(ring.length * 2 - 1) << 1;
+      table = new long[tableSize];
+      mask = tableSize - 1;
+   }
+
+   /**
+    * @return the 64 bit FNV-1a hash of the characters.
+    */
+   public static long hash(CharSequence text) {
+      long hash = 0xcbf29ce484222325L;
+      for (int i = 0; i < text.length(); i++) {
+         hash ^= text.charAt(i);
+         hash *= 0x100000001b3L;
+      }
+      return hash;
+   }
+
+   /**
+    * @return true if the line is in the window.
+    */
+   public boolean contains(CharSequence line) {
+      return containsHash(hash(line));
+   }
+
+   /**
+    * Adds a line to the window, evicting the oldest line when full.
+    *
+    * @return true if the line was not already in the window.
+    */
+   public boolean add(CharSequence line) {
+      return addHash(hash(line));
+   }
+
+   /**
+    * @return true if the hash is in the window.
+    */
+   public boolean containsHash(long hash) {
+      hash = key(hash);
+      for (int slot = slot(hash); table[slot] != EMPTY; slot = (slot + 1) & mask) {
+         if (table[slot] == hash) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Adds a hash to the window, evicting the oldest when full.
+    *
+    * @return true if the hash was not already in the window.
+    */
+   public boolean addHash(long hash) {
+      hash = key(hash);
+      if (containsHash(hash)) {
+         return false;
+      }
+      if (size == ring.length) {
+         remove(ring[head]);
+      } else {
+         size++;
+      }
+      ring[head] = hash;
+      head = (head + 1) % ring.length;
+      int slot = slot(hash);
+      while (table[slot] != EMPTY) {
+         slot = (slot + 1) & mask;
+      }
+      table[slot] = hash;
+      return true;
+   }
+
+   /**
+    * @return the number of lines in the window.
+    */
+   public int size() {
+      return size;
+   }
+
+   /**
+    * @return the number of lines the window holds when full.
+    */
+   public int capacity() {
+      return ring.length;
+   }
+
+   /**
+    * Empties the window.
+    */
+   public void clear() {
+      Arrays.fill(table, EMPTY);
+      head = 0;
+      size = 0;
+   }
+
+   private static long key(long hash) {
+      return (hash == EMPTY) ? EMPTY_SUBSTITUTE : hash;
+   }
+
+   private int slot(long hash) {
+      // spread the high bits, FNV low bits alone cluster on similar lines.
+      return (int) (hash ^ (hash >>> 32) ^ (hash >>> 17)) & mask;
+   }
+
+   /**
+    * Removes a hash from the set, shifting back later entries of its probe run so that no lookup stops short.
+    */
+   private void remove(long hash) {
+      int slot = slot(hash);
+      while (table[slot] != hash) {
+         if (table[slot] == EMPTY) {
+            return;
+         }
+         slot = (slot + 1) & mask;
+      }
+      int gap = slot;
+      for (int next = (gap + 1) & mask; table[next] != EMPTY; next = (next + 1) & mask) {
+         int home = slot(table[next]);
+         // move the entry into the gap unless its home lies cyclically after the gap.
+         boolean movable = (next > gap) ? (home <= gap || home > next) : (home <= gap && home > next);
+         if (movable) {
+            table[gap] = table[next];
+            gap = next;
+         }
+      }
+      table[gap] = EMPTY;
+   }
+
+}
@@ -16,10 +16,15 @@ package org.dpdirect.utils;
  * limitations under the License.
  */
  
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
 import java.security.KeyManagementException;
@@ -36,6 +41,33 @@ import org.dpdirect.schema.DocumentHelper;
 
 public class PostXML {
 
+   /** Chunk size of streamed request bodies. */
+   private static final int CHUNK_SIZE = 65536;
+
+   /**
+    * Consumes a response body as it arrives, for responses too large to hold as a String.
+    */
+   public interface ResponseHandler {
+
+      /**
+       * @param in the response body stream, closed by the caller.
+       * @throws Exception if the response cannot be processed.
+       */
+      void handleResponse(InputStream in) throws Exception;
+   }
+
+   /**
+    * Writes content straight into a request body, for content too large to hold as a String.
+    */
+   public interface ContentWriter {
+
+      /**
+       * @param out the request body stream, not to be closed.
+       * @throws IOException if the content cannot be written.
+       */
+      void writeTo(OutputStream out) throws IOException;
+   }
+
    public static String postSecure(String host,
                                    String port,
                                    String path,
@@ -88,23 +120,32 @@ public class PostXML {
                                      String path,
                                      String stringWriter,
                                      Credentials credentials) {
+      return postTrusting(host, port, path, stringWriter, credentials, (TransferTimings) null);
+   }
+
+   /**
+    * Posts to a device trusting any certificate, recording the phases of the post in the given timings, if not null.
+    */
+   public static String postTrusting(String host,
+                                     String port,
+                                     String path,
+                                     String stringWriter,
+                                     Credentials credentials,
+                                     TransferTimings timings) {
 
       String hostString = host;
       if (port != null) {
          hostString = hostString + ":" + port;
       }
 
-      TrustManager[] trustManagers;
       String response = null;
       try {
-         trustManagers = SSL.createAllTrustingManagers();
-
          URL url = new URL("https://" + hostString + path);
          URLConnection connection = url.openConnection();
          if (connection instanceof HttpsURLConnection) {
-            ((HttpsURLConnection) connection).setSSLSocketFactory(SSL.initTrustAllSSLcontext(trustManagers));
+            ((HttpsURLConnection) connection).setSSLSocketFactory(SSL.trustAllSocketFactory());
          }
-         response = post(connection, stringWriter, credentials);
+         response = post(connection, stringWriter, credentials, timings);
       }
       catch (IOException ex) {
          try {
@@ -129,9 +170,200 @@ public class PostXML {
       return response;
    }
 
+   /**
+    * Posts to a device trusting any certificate, passing the response body stream to the given handler. Unlike
+    * postTrusting(), transport errors are thrown rather than returned as an HttpErrorResponse document.
+    */
+   public static void postTrusting(String host,
+                                   String port,
+                                   String path,
+                                   String stringWriter,
+                                   Credentials credentials,
+                                   ResponseHandler handler) throws Exception {
+      postTrusting(host, port, path, stringWriter, credentials, handler, null);
+   }
+
+   /**
+    * Posts to a device trusting any certificate, passing the response body stream to the given handler, and recording
+    * the phases of the post in the given timings, if not null. The handling of the response is timed as its receipt.
+    */
+   public static void postTrusting(String host,
+                                   String port,
+                                   String path,
+                                   String stringWriter,
+                                   Credentials credentials,
+                                   ResponseHandler handler,
+                                   TransferTimings timings) throws Exception {
+
+      String hostString = host;
+      if (port != null) {
+         hostString = hostString + ":" + port;
+      }
+
+      URL url = new URL("https://" + hostString + path);
+      URLConnection connection = url.openConnection();
+      if (connection instanceof HttpsURLConnection) {
+         ((HttpsURLConnection) connection).setSSLSocketFactory(SSL.trustAllSocketFactory());
+      }
+      writeRequest(connection, stringWriter, credentials, timings);
+
+      CountingInputStream in = awaitResponse(connection, timings);
+      long start = System.nanoTime();
+      try {
+         handler.handleResponse(in);
+      }
+      finally {
+         in.close();
+         if (null != timings) {
+            timings.setReceiveNanos(System.nanoTime() - start);
+            timings.setBytesReceived(in.count);
+         }
+      }
+   }
+
+   /**
+    * Posts to a device trusting any certificate, writing the request body from the given writer with chunked
+    * transfer encoding, so that the body need not be held in memory.
+    */
+   public static String postTrusting(String host,
+                                     String port,
+                                     String path,
+                                     ContentWriter body,
+                                     Credentials credentials) {
+      return postTrusting(host, port, path, body, credentials, null);
+   }
+
+   /**
+    * Posts to a device trusting any certificate, writing the request body from the given writer with chunked
+    * transfer encoding, and recording the phases of the post in the given timings, if not null.
+    */
+   public static String postTrusting(String host,
+                                     String port,
+                                     String path,
+                                     ContentWriter body,
+                                     Credentials credentials,
+                                     TransferTimings timings) {
+
+      String hostString = host;
+      if (port != null) {
+         hostString = hostString + ":" + port;
+      }
+
+      String response = null;
+      try {
+         URL url = new URL("https://" + hostString + path);
+         URLConnection connection = url.openConnection();
+         if (connection instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) connection).setSSLSocketFactory(SSL.trustAllSocketFactory());
+         }
+         if (connection instanceof HttpURLConnection) {
+            ((HttpURLConnection) connection).setChunkedStreamingMode(CHUNK_SIZE);
+         }
+         prepareRequest(connection, credentials);
+         connect(connection, timings);
+         long start = System.nanoTime();
+         CountingOutputStream counter = new CountingOutputStream(connection.getOutputStream());
+         OutputStream out = new BufferedOutputStream(counter, CHUNK_SIZE);
+         body.writeTo(out);
+         out.flush();
+         out.close();
+         if (null != timings) {
+            timings.setSendNanos(System.nanoTime() - start);
+            timings.setBytesSent(counter.count);
+         }
+         response = readResponse(connection, timings);
+      }
+      catch (IOException ex) {
+         try {
+            response = DocumentHelper.stringAsXML(ex.getLocalizedMessage(), "HttpErrorResponse");
+         }
+         catch (Exception ex1) {
+            Logger.getLogger(PostXML.class.getName()).log(Level.SEVERE, null, ex1);
+         }
+      }
+      catch (java.lang.Exception ex) {
+         Logger.getLogger(PostXML.class.getName()).log(Level.SEVERE, null, ex);
+      }
+      return response;
+   }
+
    public static String post(URLConnection connection,
                              String stringWriter,
                              Credentials credentials) throws Exception {
+      return post(connection, stringWriter, credentials, null);
+   }
+
+   private static String post(URLConnection connection,
+                              String stringWriter,
+                              Credentials credentials,
+                              TransferTimings timings) throws Exception {
+
+      writeRequest(connection, stringWriter, credentials, timings);
+
+      return readResponse(connection, timings);
+   }
+
+   private static String readResponse(URLConnection connection,
+                                      TransferTimings timings) throws IOException {
+      CountingInputStream counter = awaitResponse(connection, timings);
+      long start = System.nanoTime();
+      BufferedReader in = new BufferedReader(new InputStreamReader(counter));
+      StringBuilder response = new StringBuilder();
+      String line = "";
+      while ((line = in.readLine()) != null)
+         response.append(line);
+      in.close();
+      if (null != timings) {
+         timings.setReceiveNanos(System.nanoTime() - start);
+         timings.setBytesReceived(counter.count);
+      }
+
+      return response.toString();
+   }
+
+   /**
+    * Connects, timing the TCP and TLS handshake.
+    */
+   private static void connect(URLConnection connection,
+                               TransferTimings timings) throws IOException {
+      if (null != timings) {
+         timings.resetTransfer();
+      }
+      long start = System.nanoTime();
+      connection.connect();
+      if (null != timings) {
+         timings.setConnectNanos(System.nanoTime() - start);
+      }
+   }
+
+   /**
+    * Waits for the response, timing the wait to its first byte, and recording its HTTP status.
+    */
+   private static CountingInputStream awaitResponse(URLConnection connection,
+                                                    TransferTimings timings) throws IOException {
+      long start = System.nanoTime();
+      InputStream in = null;
+      try {
+         in = connection.getInputStream();
+      }
+      finally {
+         if (null != timings) {
+            timings.setWaitNanos(System.nanoTime() - start);
+            if (connection instanceof HttpURLConnection) {
+               try {
+                  timings.setResponseCode(((HttpURLConnection) connection).getResponseCode());
+               }
+               catch (IOException ex) {
+                  // no response was received.
+               }
+            }
+         }
+      }
+      return new CountingInputStream(in);
+   }
+
+   private static void prepareRequest(URLConnection connection,
+                                      Credentials credentials) {
 
       connection.setDoInput(true);
       connection.setDoOutput(true);
@@ -139,19 +371,85 @@ public class PostXML {
                                     "Basic "
                                           + Base64.encode((credentials.getUserName() + ":" + new String(
                                                 credentials.getPassword())).getBytes()));
-      OutputStreamWriter postData = new OutputStreamWriter(connection.getOutputStream());
-      postData.write(stringWriter);
-      postData.flush();
-      postData.close();
+   }
 
-      BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-      String response = "";
-      String line = "";
-      while ((line = in.readLine()) != null)
-         response = response + line;
-      in.close();
+   private static void writeRequest(URLConnection connection,
+                                    String stringWriter,
+                                    Credentials credentials,
+                                    TransferTimings timings) throws IOException {
 
-      return response;
+      // Encoded up front and sent with its length, so that the request is not
+      // buffered by the connection until the response is read, and the send
+      // time measured here is the time on the wire.
+      byte[] payloadBytes = stringWriter.getBytes();
+      if (connection instanceof HttpURLConnection) {
+         ((HttpURLConnection) connection).setFixedLengthStreamingMode(payloadBytes.length);
+      }
+      prepareRequest(connection, credentials);
+      connect(connection, timings);
+      long start = System.nanoTime();
+      CountingOutputStream counter = new CountingOutputStream(connection.getOutputStream());
+      counter.write(payloadBytes);
+      counter.flush();
+      counter.close();
+      if (null != timings) {
+         timings.setSendNanos(System.nanoTime() - start);
+         timings.setBytesSent(counter.count);
+      }
+   }
+
+   /**
+    * Counts the bytes read through it.
+    */
+   private static class CountingInputStream extends FilterInputStream {
+
+      private long count = 0;
+
+      CountingInputStream(InputStream in) {
+         super(in);
+      }
+
+      @Override
+      public int read() throws IOException {
+         int b = super.read();
+         if (b >= 0) {
+            count++;
+         }
+         return b;
+      }
+
+      @Override
+      public int read(byte[] bytes, int offset, int length) throws IOException {
+         int read = super.read(bytes, offset, length);
+         if (read > 0) {
+            count += read;
+         }
+         return read;
+      }
+   }
+
+   /**
+    * Counts the bytes written through it.
+    */
+   private static class CountingOutputStream extends FilterOutputStream {
+
+      private long count = 0;
+
+      CountingOutputStream(OutputStream out) {
+         super(out);
+      }
+
+      @Override
+      public void write(int b) throws IOException {
+         out.write(b);
+         count++;
+      }
+
+      @Override
+      public void write(byte[] bytes, int offset, int length) throws IOException {
+         out.write(bytes, offset, length);
+         count += length;
+      }
    }
 
 }
@@ -38,6 +38,9 @@ import javax.net.ssl.X509TrustManager;
 
 public class SSL {
 
+   /** The all-trusting socket factory, shared so that connections and TLS sessions are reused between posts. */
+   private static SSLSocketFactory trustAllSocketFactory = null;
+
    public static TrustManager[] createTrustManagers() throws KeyStoreException,
                                                      NoSuchAlgorithmException,
                                                      CertificateException,
@@ -106,4 +109,19 @@ public class SSL {
       return sslSocketfactory;
    }
 
+   /**
+    * @return the all-trusting socket factory, created on first use. Connections made with the one factory may be
+    *         kept alive and reused, and resume their TLS sessions, which a factory per connection prevents.
+    */
+   public static synchronized SSLSocketFactory trustAllSocketFactory() throws KeyStoreException,
+                                                                      NoSuchAlgorithmException,
+                                                                      CertificateException,
+                                                                      IOException,
+                                                                      KeyManagementException {
+      if (null == trustAllSocketFactory) {
+         trustAllSocketFactory = initTrustAllSSLcontext(createAllTrustingManagers());
+      }
+      return trustAllSocketFactory;
+   }
+
 }
@@ -0,0 +1,266 @@
+package org.dpdirect.utils;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Records the spans of one trace, and writes them as an OpenTelemetry OTLP/JSON trace file, for a trace viewer to
+ * load without a collector.
+ *
+ * A span is either started and ended, or is a group, whose times are those of the spans within it - eg. an operation
+ * spanning its generation, post and parse, which may run on different threads. A group with no timed span within it
+ * is not written.
+ */
+public class SpanRecorder {
+
+   /** The OTLP kind of a span of internal work. */
+   public static final int KIND_INTERNAL = 1;
+
+   /** The OTLP kind of a span of a request to a remote service. */
+   public static final int KIND_CLIENT = 3;
+
+   private static final int STATUS_ERROR = 2;
+
+   private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+   /**
+    * One span of the trace.
+    */
+   public static class Span {
+
+      private final String spanId;
+
+      private final Span parent;
+
+      private final String name;
+
+      private final int kind;
+
+      private long startNanos = -1;
+
+      private long endNanos = -1;
+
+      private final Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+
+      private String error = null;
+
+      Span(String spanId, Span parent, String name, int kind) {
+         this.spanId = spanId;
+         this.parent = parent;
+         this.name = name;
+         this.kind = kind;
+      }
+
+      /**
+       * @param value a String, Long, Integer or Boolean, or null to not set the attribute.
+       */
+      public synchronized Span setAttribute(String key, Object value) {
+         if (null != value) {
+            attributes.put(key, value);
+         }
+         return this;
+      }
+
+      /**
+       * Mark the span as failed.
+       */
+      public synchronized void setError(String message) {
+         this.error = (null == message) ? "" : message;
+      }
+
+      /**
+       * End a started span.
+       */
+      public synchronized void end() {
+         if (endNanos < 0) {
+            endNanos = System.nanoTime();
+         }
+      }
+   }
+
+   private final String serviceName;
+
+   private final String traceId;
+
+   private final Random random;
+
+   /** The wall clock time of nanoTime zero, in nanoseconds. */
+   private final long epochOffsetNanos;
+
+   private final List<Span> spans = new ArrayList<Span>();
+
+   /**
+    * @param serviceName the 'service.name' of the trace resource.
+    */
+   public SpanRecorder(String serviceName) {
+      this.serviceName = serviceName;
+      SecureRandom seed = new SecureRandom();
+      this.random = new Random(seed.nextLong());
+      this.traceId = hex(seed.nextLong()) + hex(seed.nextLong());
+      this.epochOffsetNanos = System.currentTimeMillis() * 1000000L - System.nanoTime();
+   }
+
+   /**
+    * @return a new span, started now.
+    */
+   public synchronized Span start(String name, Span parent, int kind) {
+      Span span = new Span(newSpanId(), parent, name, kind);
+      span.startNanos = System.nanoTime();
+      spans.add(span);
+      return span;
+   }
+
+   /**
+    * @return a new group span, timed by the spans within it.
+    */
+   public synchronized Span group(String name, Span parent) {
+      Span span = new Span(newSpanId(), parent, name, KIND_INTERNAL);
+      spans.add(span);
+      return span;
+   }
+
+   private String newSpanId() {
+      long id = 0;
+      while (0 == id) {
+         id = random.nextLong();
+      }
+      return hex(id);
+   }
+
+   /**
+    * Write the spans recorded so far as an OTLP/JSON 'TracesData' document. A span not yet ended is written as ending
+    * now.
+    *
+    * @param file the trace file, replaced if it exists.
+    */
+   public synchronized void write(File file) throws IOException {
+      long now = System.nanoTime();
+      Map<Span, long[]> extents = new IdentityHashMap<Span, long[]>();
+      for (Span span : spans) {
+         long start;
+         long end;
+         synchronized (span) {
+            if (span.startNanos < 0) {
+               continue;
+            }
+            start = span.startNanos;
+            end = (span.endNanos < 0) ? now : span.endNanos;
+         }
+         for (Span ancestor = span; null != ancestor; ancestor = ancestor.parent) {
+            long[] extent = extents.get(ancestor);
+            if (null == extent) {
+               extents.put(ancestor, new long[] { start, end });
+            }
+            else {
+               extent[0] = Math.min(extent[0], start);
+               extent[1] = Math.max(extent[1], end);
+            }
+         }
+      }
+
+      Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+      try {
+         JsonWriter json = new JsonWriter(out);
+         json.beginObject().name("resourceSpans").beginArray().beginObject();
+         json.name("resource").beginObject().name("attributes").beginArray();
+         writeAttribute(json, "service.name", serviceName);
+         json.endArray().endObject();
+         json.name("scopeSpans").beginArray().beginObject();
+         json.name("scope").beginObject().name("name").value("org.dpdirect").endObject();
+         json.name("spans").beginArray();
+         for (Span span : spans) {
+            long[] extent = extents.get(span);
+            if (null != extent) {
+               writeSpan(json, span, extent);
+            }
+         }
+         json.endArray().endObject().endArray();
+         json.endObject().endArray().endObject();
+         json.flush();
+         out.write('\n');
+      }
+      finally {
+         out.close();
+      }
+   }
+
+   private void writeSpan(JsonWriter json, Span span, long[] extent) throws IOException {
+      synchronized (span) {
+         json.beginObject();
+         json.name("traceId").value(traceId);
+         json.name("spanId").value(span.spanId);
+         if (null != span.parent) {
+            json.name("parentSpanId").value(span.parent.spanId);
+         }
+         json.name("name").value(span.name);
+         json.name("kind").value(span.kind);
+         json.name("startTimeUnixNano").value(String.valueOf(epochOffsetNanos + extent[0]));
+         json.name("endTimeUnixNano").value(String.valueOf(epochOffsetNanos + extent[1]));
+         json.name("attributes").beginArray();
+         for (Map.Entry<String, Object> attribute : span.attributes.entrySet()) {
+            writeAttribute(json, attribute.getKey(), attribute.getValue());
+         }
+         json.endArray();
+         if (null != span.error) {
+            json.name("status").beginObject();
+            json.name("code").value(STATUS_ERROR);
+            json.name("message").value(span.error);
+            json.endObject();
+         }
+         json.endObject();
+      }
+   }
+
+   private static void writeAttribute(JsonWriter json, String key, Object value) throws IOException {
+      json.beginObject().name("key").value(key).name("value").beginObject();
+      if (value instanceof Boolean) {
+         json.name("boolValue").value(((Boolean) value).booleanValue());
+      }
+      else if (value instanceof Long || value instanceof Integer) {
+         // OTLP/JSON carries 64 bit integers as strings.
+         json.name("intValue").value(String.valueOf(value));
+      }
+      else {
+         json.name("stringValue").value(String.valueOf(value));
+      }
+      json.endObject().endObject();
+   }
+
+   private static String hex(long value) {
+      char[] chars = new char[16];
+      for (int i = 15; i >= 0; i--) {
+         chars[i] = HEX[(int) (value & 0xf)];
+         value >>>= 4;
+      }
+      return new String(chars);
+   }
+
+}
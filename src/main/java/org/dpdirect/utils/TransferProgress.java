@@ -0,0 +1,160 @@
+package org.dpdirect.utils;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe tally of files and bytes moved by a multi-file transfer, with
+ * throughput reporting.
+ */
+public class TransferProgress {
+
+   private final long startNanos = System.nanoTime();
+
+   private final int totalFiles;
+
+   private final AtomicInteger files = new AtomicInteger();
+
+   private final AtomicInteger failures = new AtomicInteger();
+
+   private final AtomicInteger retries = new AtomicInteger();
+
+   private final AtomicLong bytes = new AtomicLong();
+
+   /**
+    * @param totalFiles the number of files expected to be transferred.
+    */
+   public TransferProgress(int totalFiles) {
+      this.totalFiles = totalFiles;
+   }
+
+   /**
+    * Records a completed file transfer.
+    *
+    * @param byteCount the size of the transferred file.
+    * @return the number of files transferred so far.
+    */
+   public int fileDone(long byteCount) {
+      return filesDone(1, byteCount);
+   }
+
+   /**
+    * Records several files completed by one transfer, such as a zip.
+    *
+    * @param fileCount the number of files transferred.
+    * @param byteCount their total size.
+    * @return the number of files transferred so far.
+    */
+   public int filesDone(int fileCount, long byteCount) {
+      bytes.addAndGet(byteCount);
+      return files.addAndGet(fileCount);
+   }
+
+   /**
+    * Records a file that could not be transferred.
+    */
+   public void fileFailed() {
+      filesFailed(1);
+   }
+
+   /**
+    * Records several files that could not be transferred.
+    *
+    * @param fileCount the number of files.
+    */
+   public void filesFailed(int fileCount) {
+      failures.addAndGet(fileCount);
+   }
+
+   /**
+    * Records a repeated attempt to transfer a file.
+    */
+   public void retried() {
+      retries.incrementAndGet();
+   }
+
+   public int getTotalFiles() {
+      return totalFiles;
+   }
+
+   public int getFiles() {
+      return files.get();
+   }
+
+   public int getFailures() {
+      return failures.get();
+   }
+
+   public int getRetries() {
+      return retries.get();
+   }
+
+   public long getBytes() {
+      return bytes.get();
+   }
+
+   /**
+    * @return seconds elapsed since the transfer began.
+    */
+   public double getElapsedSeconds() {
+      return (System.nanoTime() - startNanos) / 1e9;
+   }
+
+   /**
+    * @return a one line summary such as
+    *         "120/2000 files, 1.4 MB in 3.2s (37.5 files/s, 448.0 KB/s)".
+    */
+   public String summary() {
+      double seconds = Math.max(getElapsedSeconds(), 0.001);
+      StringBuilder sb = new StringBuilder();
+      sb.append(getFiles()).append('/').append(totalFiles).append(" files, ");
+      sb.append(formatBytes(getBytes()));
+      sb.append(String.format(Locale.ROOT, " in %.1fs (%.1f files/s, %s/s)", seconds, getFiles() / seconds,
+                              formatBytes((long) (getBytes() / seconds))));
+      if (getRetries() > 0) {
+         sb.append(", ").append(getRetries()).append(" retried");
+      }
+      if (getFailures() > 0) {
+         sb.append(", ").append(getFailures()).append(" failed");
+      }
+      return sb.toString();
+   }
+
+   /**
+    * Formats a byte count using binary units.
+    *
+    * @param byteCount the number of bytes.
+    * @return the formatted byte count, eg. "12.5 KB".
+    */
+   public static String formatBytes(long byteCount) {
+      if (byteCount < 1024) {
+         return byteCount + " B";
+      }
+      String units = "KMGT";
+      double value = byteCount;
+      int unit = -1;
+      while (value >= 1024 && unit < units.length() - 1) {
+         value = value / 1024;
+         unit++;
+      }
+      return String.format(Locale.ROOT, "%.1f %cB", value, units.charAt(unit));
+   }
+
+}
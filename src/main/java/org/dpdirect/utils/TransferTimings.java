@@ -0,0 +1,143 @@
+package org.dpdirect.utils;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * The phases of one post to a device, in nanoseconds, and the bytes sent and received. A phase not reached is -1.
+ *
+ * Connect is the TCP and TLS handshake, near zero on a kept-alive connection. Send is the writing of the request
+ * body. Wait is the time to the first byte of the response, ie. the device processing. Receive is the reading of
+ * the response body, or its handling where the response is streamed to a handler.
+ *
+ * A request body that is not streamed is buffered by the connection and only sent as the response is requested,
+ * so its upload is counted in the wait rather than the send.
+ */
+public class TransferTimings {
+
+   private long connectNanos = -1;
+
+   private long sendNanos = -1;
+
+   private long waitNanos = -1;
+
+   private long receiveNanos = -1;
+
+   private long bytesSent = -1;
+
+   private long bytesReceived = -1;
+
+   private int responseCode = -1;
+
+   /**
+    * Clear the phases, before a post.
+    */
+   public synchronized void resetTransfer() {
+      connectNanos = -1;
+      sendNanos = -1;
+      waitNanos = -1;
+      receiveNanos = -1;
+      bytesSent = -1;
+      bytesReceived = -1;
+      responseCode = -1;
+   }
+
+   public synchronized long getConnectNanos() {
+      return connectNanos;
+   }
+
+   public synchronized void setConnectNanos(long connectNanos) {
+      this.connectNanos = connectNanos;
+   }
+
+   public synchronized long getSendNanos() {
+      return sendNanos;
+   }
+
+   public synchronized void setSendNanos(long sendNanos) {
+      this.sendNanos = sendNanos;
+   }
+
+   public synchronized long getWaitNanos() {
+      return waitNanos;
+   }
+
+   public synchronized void setWaitNanos(long waitNanos) {
+      this.waitNanos = waitNanos;
+   }
+
+   public synchronized long getReceiveNanos() {
+      return receiveNanos;
+   }
+
+   public synchronized void setReceiveNanos(long receiveNanos) {
+      this.receiveNanos = receiveNanos;
+   }
+
+   /**
+    * @return the bytes of the request body, or -1.
+    */
+   public synchronized long getBytesSent() {
+      return bytesSent;
+   }
+
+   public synchronized void setBytesSent(long bytesSent) {
+      this.bytesSent = bytesSent;
+   }
+
+   /**
+    * @return the bytes of the response body, or -1.
+    */
+   public synchronized long getBytesReceived() {
+      return bytesReceived;
+   }
+
+   public synchronized void setBytesReceived(long bytesReceived) {
+      this.bytesReceived = bytesReceived;
+   }
+
+   /**
+    * @return the HTTP status of the response, or -1 if none was received.
+    */
+   public synchronized int getResponseCode() {
+      return responseCode;
+   }
+
+   public synchronized void setResponseCode(int responseCode) {
+      this.responseCode = responseCode;
+   }
+
+   /**
+    * @return the sum of the phases reached, in nanoseconds.
+    */
+   public synchronized long getTransferNanos() {
+      return sum(connectNanos, sendNanos, waitNanos, receiveNanos);
+   }
+
+   /**
+    * @return the sum of the given phases, not counting those of -1.
+    */
+   protected static long sum(long... phases) {
+      long total = 0;
+      for (long phase : phases) {
+         if (phase > 0) {
+            total += phase;
+         }
+      }
+      return total;
+   }
+
+}
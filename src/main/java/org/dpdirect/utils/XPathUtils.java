@@ -9,6 +9,7 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 import java.io.IOException;
@@ -44,20 +45,53 @@ public class XPathUtils {
         validateXPathExpression(xpath);
 
         try {
-            javax.xml.xpath.XPath xPath = XPathFactory.newInstance().newXPath();
-            xPath.compile(xpath);
-
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.parse(new InputSource(new StringReader(xml)));
-            NodeList nodes = (NodeList)xPath.evaluate(xpath, doc, XPathConstants.NODESET);
+            return evaluateXPath(parseDocument(xml), compile(xpath));
+        } catch (Exception e) {
+            return false;
+        }
+    }
 
+    /**
+     * Evaluate a compiled XPath expression against a parsed document.
+     *
+     * @param doc Document : the document to evaluate.
+     * @param expression XPathExpression : the compiled XPath expression.
+     *
+     * @return boolean : true if the XPath expression selects any node.
+     */
+    public static boolean evaluateXPath(Document doc, XPathExpression expression) {
+        try {
+            NodeList nodes = (NodeList) expression.evaluate(doc, XPathConstants.NODESET);
             return nodes.getLength() > 0;
         } catch (Exception e) {
             return false;
         }
     }
 
+    /**
+     * Compile an XPath expression, to be evaluated against many documents.
+     *
+     * @param xpath String : the XPath expression to compile.
+     *
+     * @return XPathExpression : the compiled expression.
+     */
+    public static XPathExpression compile(String xpath) throws XPathExpressionException {
+        return XPathFactory.newInstance().newXPath().compile(xpath);
+    }
+
+    /**
+     * Parse an XML string once, for several XPath expressions.
+     *
+     * @param xml String : the XML string to parse.
+     *
+     * @return Document : the parsed document.
+     */
+    public static Document parseDocument(String xml) throws ParserConfigurationException, IOException, SAXException {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        DocumentBuilder builder = factory.newDocumentBuilder();
+        return builder.parse(new InputSource(new StringReader(xml)));
+    }
+
     /**
      * Extract a value from an XML string using an XPath expression.
      *
@@ -72,11 +106,22 @@ public class XPathUtils {
      * @throws SAXException : if a parsing error occurs
      */
     public static String extractValue(String xml, String xpath) throws XPathExpressionException, ParserConfigurationException, IOException, SAXException {
+        return extractValue(parseDocument(xml), xpath);
+    }
+
+    /**
+     * Extract a value from a parsed document using an XPath expression.
+     *
+     * @param doc Document : the document to extract the value from.
+     * @param xpath String : the XPath expression to use to extract the value.
+     *
+     * @return String : the values selected, joined with ','.
+     *
+     * @throws XPathExpressionException : if the XPath expression is invalid
+     */
+    public static String extractValue(Document doc, String xpath) throws XPathExpressionException {
         validateXPathExpression(xpath);
 
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        Document doc = builder.parse(new InputSource(new StringReader(xml)));
         NodeList nodes = (NodeList) XPathFactory.newInstance().newXPath().evaluate(xpath, doc, XPathConstants.NODESET);
 
         if (nodes.getLength() == 0) {
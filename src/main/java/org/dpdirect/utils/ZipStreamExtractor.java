@@ -0,0 +1,293 @@
+package org.dpdirect.utils;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Extracts a zip as it is read from a stream, such as a decoding response, without a temporary zip file.
+ *
+ * Entries are read in turn from the stream and handed to a small pool of writer threads, so that file creation
+ * and writes overlap the network read. The bytes held for pending writes are bounded; an entry larger than
+ * LARGE_ENTRY_BYTES is written directly by the reading thread.
+ *
+ * With replaceDirectories set, each top level directory of the zip replaces the existing local one. It is
+ * deleted by the reading thread when the first entry under it is read, before any of its entries is written.
+ * Other local directories are left alone.
+ */
+public class ZipStreamExtractor {
+
+   /** Entries larger than this are written by the reading thread. */
+   public static final int LARGE_ENTRY_BYTES = 1024 * 1024;
+
+   /** Maximum bytes read ahead of the writers. */
+   public static final int MAX_PENDING_BYTES = 16 * 1024 * 1024;
+
+   private static final int BUFFER_SIZE = 65536;
+
+   private final File destination;
+
+   private final String rootName;
+
+   private final int writers;
+
+   private final boolean replaceDirectories;
+
+   /** The top level directories replaced so far, by the reading thread. */
+   private final Set<String> replaced = new HashSet<String>();
+
+   private final AtomicInteger files = new AtomicInteger();
+
+   private final AtomicLong bytes = new AtomicLong();
+
+   /**
+    * @param destination the local directory to extract to.
+    * @param rootName the zip directory to extract, eg. 'local/xsl', or null for every entry. Entries outside it
+    *           are skipped, and the root is removed from the extracted paths.
+    * @param writers the number of writer threads.
+    */
+   public ZipStreamExtractor(File destination,
+                             String rootName,
+                             int writers) {
+      this(destination, rootName, writers, false);
+   }
+
+   /**
+    * @param destination the local directory to extract to.
+    * @param rootName the zip directory to extract, eg. 'local/xsl', or null for every entry.
+    * @param writers the number of writer threads.
+    * @param replaceDirectories delete each existing local directory that the zip has a top level directory of
+    *           before extracting into it.
+    */
+   public ZipStreamExtractor(File destination,
+                             String rootName,
+                             int writers,
+                             boolean replaceDirectories) {
+      this.destination = destination;
+      this.rootName = rootName;
+      this.writers = Math.max(1, writers);
+      this.replaceDirectories = replaceDirectories;
+   }
+
+   /**
+    * Reads the zip to the end of the stream, extracting each entry under the root. Returns once every file is
+    * written. Does not close the stream.
+    *
+    * @param in the zip stream.
+    * @throws IOException if the zip cannot be read, or a file cannot be written.
+    */
+   public void extract(InputStream in) throws IOException {
+      final Semaphore pending = new Semaphore(MAX_PENDING_BYTES);
+      ExecutorService pool = Executors.newFixedThreadPool(writers, new ThreadFactory() {
+         private final AtomicInteger count = new AtomicInteger();
+
+         public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "dpdirect-extract-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+      List<Future<?>> writes = new ArrayList<Future<?>>();
+      try {
+         ZipInputStream zip = new ZipInputStream(in);
+         byte[] buffer = new byte[BUFFER_SIZE];
+         ZipEntry entry;
+         while ((entry = zip.getNextEntry()) != null) {
+            String path = relativePath(entry.getName());
+            if (null == path) {
+               continue;
+            }
+            final File target = resolve(path);
+            if (replaceDirectories) {
+               replaceTopDirectory(path);
+            }
+            if (entry.isDirectory()) {
+               target.mkdirs();
+               continue;
+            }
+            ByteArrayOutputStream content = new ByteArrayOutputStream(
+                  (entry.getSize() > 0 && entry.getSize() <= LARGE_ENTRY_BYTES) ? (int) entry.getSize() : 8192);
+            int read;
+            while (content.size() <= LARGE_ENTRY_BYTES && (read = zip.read(buffer)) > 0) {
+               content.write(buffer, 0, read);
+            }
+            if (content.size() > LARGE_ENTRY_BYTES) {
+               writeLarge(target, content, zip, buffer);
+               continue;
+            }
+            final byte[] data = content.toByteArray();
+            pending.acquireUninterruptibly(Math.max(1, data.length));
+            writes.add(pool.submit(new Callable<Void>() {
+               public Void call() throws IOException {
+                  try {
+                     write(target, data);
+                  }
+                  finally {
+                     pending.release(Math.max(1, data.length));
+                  }
+                  return null;
+               }
+            }));
+         }
+         for (Future<?> write : writes) {
+            try {
+               write.get();
+            }
+            catch (ExecutionException ex) {
+               Throwable cause = ex.getCause();
+               throw (cause instanceof IOException) ? (IOException) cause : new IOException(cause.getMessage(),
+                     cause);
+            }
+         }
+      }
+      catch (InterruptedException ex) {
+         Thread.currentThread().interrupt();
+         throw new IOException("Extraction interrupted.", ex);
+      }
+      finally {
+         pool.shutdownNow();
+      }
+   }
+
+   /**
+    * @return the number of files extracted.
+    */
+   public int getFiles() {
+      return files.get();
+   }
+
+   /**
+    * @return the number of bytes extracted.
+    */
+   public long getBytes() {
+      return bytes.get();
+   }
+
+   /**
+    * @return the entry path relative to the root, or null if the entry is outside it.
+    */
+   private String relativePath(String entryName) {
+      String name = entryName.replace("\\", "/");
+      if (null == rootName || rootName.isEmpty()) {
+         return name;
+      }
+      int at = name.indexOf(rootName);
+      if (at < 0) {
+         return null;
+      }
+      return name.substring(at + rootName.length());
+   }
+
+   /**
+    * Delete the existing local directory of the top level directory of the path, the first time an entry under it
+    * is read. Its entries are handed to the writers only after this returns.
+    */
+   private void replaceTopDirectory(String path) throws IOException {
+      String relative = path;
+      while (relative.startsWith("/")) {
+         relative = relative.substring(1);
+      }
+      int slash = relative.indexOf('/');
+      if (slash <= 0) {
+         // a file at the top level, or the root itself.
+         return;
+      }
+      String top = relative.substring(0, slash);
+      if (replaced.add(top)) {
+         File directory = resolve(top);
+         if (directory.isDirectory()) {
+            FileUtils.deleteDirectory(directory);
+         }
+      }
+   }
+
+   /**
+    * @return the local file for a relative path, refusing paths that escape the destination.
+    */
+   private File resolve(String path) throws IOException {
+      File target = new File(destination, path);
+      String root = destination.getCanonicalPath();
+      String canonical = target.getCanonicalPath();
+      if (!canonical.equals(root) && !canonical.startsWith(root + File.separator)) {
+         throw new IOException("Zip entry '" + path + "' is outside " + destination);
+      }
+      return target;
+   }
+
+   private void write(File target, byte[] data) throws IOException {
+      File parent = target.getParentFile();
+      if (null != parent && !parent.isDirectory()) {
+         parent.mkdirs();
+      }
+      OutputStream out = new FileOutputStream(target);
+      try {
+         out.write(data);
+      }
+      finally {
+         out.close();
+      }
+      files.incrementAndGet();
+      bytes.addAndGet(data.length);
+   }
+
+   private void writeLarge(File target,
+                           ByteArrayOutputStream head,
+                           InputStream zip,
+                           byte[] buffer) throws IOException {
+      File parent = target.getParentFile();
+      if (null != parent && !parent.isDirectory()) {
+         parent.mkdirs();
+      }
+      long size = head.size();
+      OutputStream out = new BufferedOutputStream(new FileOutputStream(target), BUFFER_SIZE);
+      try {
+         head.writeTo(out);
+         int read;
+         while ((read = zip.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+            size += read;
+         }
+      }
+      finally {
+         out.close();
+      }
+      files.incrementAndGet();
+      bytes.addAndGet(size);
+   }
+
+}
@@ -0,0 +1,2 @@
+@echo off
+java -cp .\dpdirect-1.0.9.jar org.dpdirect.dpmgmt.DaemonClient DEV %*
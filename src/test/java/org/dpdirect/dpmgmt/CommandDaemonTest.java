@@ -0,0 +1,208 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import org.dpdirect.stub.DataPowerStub;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Sends commands to a daemon, running them against the stub appliance.
+ */
+public class CommandDaemonTest {
+
+	private DataPowerStub stub;
+
+	private File workDir;
+
+	private File daemonFile;
+
+	private CommandDaemon daemon;
+
+	private String token;
+
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+	private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+	@Before
+	public void start() throws Exception {
+		stub = new DataPowerStub();
+		stub.start();
+		workDir = Files.createTempDirectory("command-daemon").toFile();
+		daemonFile = new File(workDir, "daemon.properties");
+
+		daemon = new CommandDaemon(0, daemonFile);
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream(daemonFile);
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+		assertEquals(String.valueOf(daemon.getPort()),
+				properties.getProperty(DaemonClient.PORT_KEY));
+		token = properties.getProperty(DaemonClient.TOKEN_KEY);
+
+		Thread serve = new Thread(new Runnable() {
+			public void run() {
+				daemon.serve();
+			}
+		}, "command-daemon-test");
+		serve.setDaemon(true);
+		serve.start();
+	}
+
+	@After
+	public void stop() {
+		daemon.stop();
+		stub.stop();
+		delete(workDir);
+	}
+
+	@Test(expected = EOFException.class)
+	public void rejectsAnInvalidToken() throws IOException {
+		send("bad" + token, Constants.HOST_NAME_OPT_NAME + "=localhost",
+				"operation=" + Constants.SET_FILE_OP_NAME);
+	}
+
+	@Test
+	public void refusesConsoleMode() throws IOException {
+		assertEquals(1, send(token));
+		assertTrue(err.toString("UTF-8").contains("Console mode"));
+
+		err.reset();
+		assertEquals(1, send(token, Constants.HOST_NAME_OPT_NAME + "=localhost"));
+		assertTrue(err.toString("UTF-8").contains("Give an operation"));
+	}
+
+	@Test
+	public void refusesPollingOperations() throws IOException {
+		assertEquals(1, send(token, command(Constants.TAIL_LOG_CUSTOM_OP_NAME)));
+		assertTrue(err.toString("UTF-8").contains("tail-log polls until stopped"));
+
+		err.reset();
+		assertEquals(1, send(token, command(Constants.TAIL_COUNT_CUSTOM_OP_NAME,
+				"class=MultiProtocolGateway", Constants.NAME_OPT_NAME + "=gateway")));
+		assertTrue(err.toString("UTF-8").contains("tail-count polls until stopped"));
+	}
+
+	@Test
+	public void closesAConnectionThatSendsNothing() throws IOException {
+		daemon.setRequestTimeout(200);
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort());
+		try {
+			// fails the test rather than hanging it.
+			socket.setSoTimeout(5000);
+			assertEquals(-1, socket.getInputStream().read());
+		} finally {
+			socket.close();
+		}
+	}
+
+	@Test
+	public void runsCommandsInNewSessions() throws IOException {
+		String content = "<xsl:stylesheet version=\"1.0\"/>";
+		stub.getFilestore("default").put("local:///daemon/a.xsl", content.getBytes("UTF-8"));
+
+		for (int i = 0; i < 2; i++) {
+			out.reset();
+			assertEquals(0, send(token, command(Constants.GET_FILE_OP_NAME,
+					Constants.NAME_OPT_NAME + "=local:///daemon/a.xsl")));
+			// the output of the command comes back to the client.
+			assertTrue(out.toString("UTF-8").contains(content));
+		}
+	}
+
+	@Test
+	public void resolvesRelativePathsAgainstTheClient() throws IOException {
+		byte[] content = "<xsl:stylesheet version=\"1.0\"/>".getBytes("UTF-8");
+		Files.write(new File(workDir, "a.xsl").toPath(), content);
+
+		// the client sends its working directory.
+		String userDir = System.getProperty("user.dir");
+		System.setProperty("user.dir", workDir.getAbsolutePath());
+		try {
+			assertEquals(0, send(token, command(Constants.SET_FILE_OP_NAME,
+					Constants.SRC_FILE_OPT_NAME + "=a.xsl",
+					Constants.DEST_FILE_OPT_NAME + "=local:///daemon/a.xsl")));
+			assertEquals(0, send(token, command(Constants.GET_FILE_OP_NAME,
+					Constants.NAME_OPT_NAME + "=local:///daemon/a.xsl",
+					Constants.DEST_FILE_OPT_NAME + "=copy.xsl")));
+		} finally {
+			System.setProperty("user.dir", userDir);
+		}
+		assertArrayEquals(content, stub.getFilestore("default").get("local:///daemon/a.xsl"));
+		assertArrayEquals(content, Files.readAllBytes(new File(workDir, "copy.xsl").toPath()));
+	}
+
+	@Test
+	public void stopsOnDaemonStop() throws Exception {
+		assertEquals(0, send(token, Constants.DAEMON_MODE_NAME, "stop"));
+		// the daemon stops once the exit status is sent.
+		for (int i = 0; i < 50 && daemonFile.exists(); i++) {
+			Thread.sleep(100);
+		}
+		assertFalse(daemonFile.exists());
+	}
+
+	/**
+	 * @return the arguments of an operation on the stub.
+	 */
+	private String[] command(String operation, String... options) {
+		String[] args = new String[5 + options.length];
+		args[0] = Constants.HOST_NAME_OPT_NAME + "=localhost";
+		args[1] = Constants.PORT_OPT_NAME + "=" + stub.getPort();
+		args[2] = Constants.USER_NAME_OPT_NAME + "=admin";
+		args[3] = Constants.USER_PASSWORD_OPT_NAME + "=admin";
+		args[4] = "operation=" + operation;
+		System.arraycopy(options, 0, args, 5, options.length);
+		return args;
+	}
+
+	private int send(String token, String... args) throws IOException {
+		return DaemonClient.send(daemon.getPort(), token, args, out, err);
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (null != children) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+}
@@ -0,0 +1,89 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FilestoreCacheTest {
+
+	private static final String MODIFIED = "2016-01-01 10:00:00";
+
+	@Test
+	public void subtreeHoldsTheFilesUnderADirectory() {
+		FilestoreCache cache = new FilestoreCache(null);
+		cache.update(listing("local:/a.xsl", "local:/xsl/b.xsl", "local:/xsl/common/c.xsl",
+				"local:/xslt/d.xsl"));
+
+		assertEquals(4, cache.getEntries().size());
+		assertEquals(new HashSet<String>(Arrays.asList("local:/xsl/b.xsl",
+				"local:/xsl/common/c.xsl")), cache.subtree("local:/xsl").keySet());
+	}
+
+	@Test
+	public void updateReplacesTheListing() {
+		FilestoreCache cache = new FilestoreCache(null);
+		cache.update(listing("local:/a.xsl", "local:/xsl/b.xsl", "local:/gone/d.xsl"));
+
+		List<FilestoreEntry> next = listing("local:/a.xsl");
+		// resized in place.
+		next.add(new FilestoreEntry("local:/xsl/b.xsl", 200, MODIFIED));
+		cache.update(next);
+
+		assertEquals(200, cache.getEntries().get("local:/xsl/b.xsl").getSize());
+		assertFalse(cache.getEntries().containsKey("local:/gone/d.xsl"));
+	}
+
+	@Test
+	public void savedListingIsReloadedUnchanged() throws IOException {
+		File file = File.createTempFile("filestore-cache", ".filestore");
+		try {
+			FilestoreCache cache = new FilestoreCache(file);
+			cache.update(listing("local:/a.xsl", "local:/xsl/b.xsl"));
+			assertTrue(cache.isFresh(60000));
+			cache.save();
+
+			FilestoreCache loaded = FilestoreCache.load(file);
+			assertEquals(cache.getEntries().keySet(), loaded.getEntries().keySet());
+			assertTrue(loaded.isFresh(60000));
+
+			FilestoreCache.invalidate(file);
+			assertFalse(FilestoreCache.load(file).isFresh(60000));
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static List<FilestoreEntry> listing(String... paths) {
+		List<FilestoreEntry> listing = new ArrayList<FilestoreEntry>();
+		for (String path : paths) {
+			listing.add(new FilestoreEntry(path, 100, MODIFIED));
+		}
+		return listing;
+	}
+
+}
@@ -0,0 +1,120 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class LogTailTest {
+
+	private static final String L1 = "20160101T100001.000Z [mgmt][notice] first";
+
+	private static final String L2 = "20160101T100002.000Z [mgmt][error] second";
+
+	private static final String L3 = "20160101T100003.000Z [xslt][notice] third";
+
+	private static final String L4 = "20160101T100004.000Z [mgmt][notice] fourth";
+
+	private static final String L5 = "20160101T100005.000Z [xslt][error] fifth";
+
+	@Test
+	public void firstPollShowsTheLastLines() throws IOException {
+		LogTail tail = new LogTail(2, null, null);
+		assertTrue(poll(tail, L1, L2, L3));
+		assertEquals(Arrays.asList(L2, L3), tail.getLines());
+	}
+
+	@Test
+	public void laterPollsShowOnlyNewLines() throws IOException {
+		LogTail tail = new LogTail(0, null, null);
+		assertTrue(poll(tail, L1, L2));
+		long offset = tail.getOffset();
+
+		assertTrue(poll(tail, L1, L2, L3, L4));
+		assertEquals(Arrays.asList(L3, L4), tail.getLines());
+		assertTrue(tail.getOffset() > offset);
+
+		assertTrue(poll(tail, L1, L2, L3, L4));
+		assertEquals(Collections.emptyList(), tail.getLines());
+	}
+
+	@Test
+	public void partialLineWaitsForItsEnd() throws IOException {
+		LogTail tail = new LogTail(0, null, null);
+		assertTrue(poll(tail, L1));
+		String text = L1 + "\n" + L2.substring(0, 20);
+		OutputStream out = tail.open();
+		// a byte at a time, as a slow stream.
+		for (byte b : text.getBytes("UTF-8")) {
+			out.write(b);
+		}
+		assertTrue(tail.finish());
+		assertEquals(Collections.emptyList(), tail.getLines());
+
+		assertTrue(poll(tail, L1, L2));
+		assertEquals(Arrays.asList(L2), tail.getLines());
+	}
+
+	@Test
+	public void rotatedFileIsReadAgainWithoutRepeats() throws IOException {
+		LogTail tail = new LogTail(0, null, null);
+		assertTrue(poll(tail, L1, L2, L3));
+
+		// rotated, and shorter than the offset.
+		assertFalse(poll(tail, L3, L4));
+		assertEquals(Collections.emptyList(), tail.getLines());
+
+		assertTrue(poll(tail, L3, L4));
+		assertEquals(Arrays.asList(L4), tail.getLines());
+		assertTrue(poll(tail, L3, L4, L5));
+		assertEquals(Arrays.asList(L5), tail.getLines());
+	}
+
+	@Test
+	public void filtersTheShownLines() throws IOException {
+		LogTail tail = new LogTail(0, "\\[error\\]", "xslt");
+		assertTrue(poll(tail, L1, L2, L3, L4, L5));
+		assertEquals(Arrays.asList(L2), tail.getLines());
+	}
+
+	@Test
+	public void continuationLinesShareTheirEntry() throws IOException {
+		LogTail tail = new LogTail(0, null, null);
+		assertTrue(poll(tail, L1, "  at line 2 of the entry", L2));
+		assertEquals(3, tail.getEntries().size());
+		assertEquals("20160101T100001.000Z", tail.getEntries().get(1).getTimestamp());
+	}
+
+	private static boolean poll(LogTail tail, String... lines) throws IOException {
+		StringBuilder text = new StringBuilder();
+		for (String line : lines) {
+			text.append(line).append('\n');
+		}
+		OutputStream out = tail.open();
+		out.write(text.toString().getBytes("UTF-8"));
+		return tail.finish();
+	}
+
+}
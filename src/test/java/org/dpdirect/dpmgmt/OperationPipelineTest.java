@@ -0,0 +1,124 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.dpdirect.stub.DataPowerStub;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs pipelined operation chains against the stub appliance.
+ */
+public class OperationPipelineTest {
+
+	private static final String DOMAIN = "default";
+
+	private DataPowerStub stub;
+
+	private File workDir;
+
+	private DPDirect session;
+
+	/** The exit status of each exit, with whether file a.xsl was set by then. */
+	private final List<String> exits = new ArrayList<String>();
+
+	@Before
+	public void start() throws Exception {
+		stub = new DataPowerStub();
+		stub.start();
+		workDir = Files.createTempDirectory("operation-pipeline").toFile();
+
+		session = new DPDirect() {
+			@Override
+			protected void exit(int status) {
+				exits.add(status + " " + (null != stub.getFilestore(DOMAIN)
+						.get("local:///pipeline/a.xsl")));
+			}
+		};
+		session.setFailOnError(true);
+		session.setGlobalOption(Constants.HOST_NAME_OPT_NAME, "localhost");
+		session.setGlobalOption(Constants.PORT_OPT_NAME,
+				String.valueOf(stub.getPort()));
+		session.setGlobalOption(Constants.USER_NAME_OPT_NAME, "admin");
+		session.setGlobalOption(Constants.USER_PASSWORD_OPT_NAME, "admin");
+		session.setGlobalOption(Constants.PIPELINE_OPT_NAME, "true");
+		session.setSchema();
+	}
+
+	@After
+	public void stop() {
+		stub.stop();
+		delete(workDir);
+	}
+
+	@Test
+	public void generationFailureIsHandledInChainOrder() throws IOException {
+		File a = write("a.xsl", "<a/>");
+		File b = write("b.xsl", "<b/>");
+		// passes the preflight, but cannot be read.
+		File directory = new File(workDir, "dir.xsl");
+		directory.mkdirs();
+
+		setFile(a, "local:///pipeline/a.xsl");
+		Operation failing = setFile(directory, "local:///pipeline/dir.xsl");
+		setFile(b, "local:///pipeline/b.xsl");
+		session.processOperationChain();
+
+		// exits once the response of a.xsl is processed.
+		assertEquals(Arrays.asList("1 true"), exits);
+		assertFalse(session.getOperationChain().contains(failing));
+		assertArrayEquals("<b/>".getBytes("UTF-8"),
+				stub.getFilestore(DOMAIN).get("local:///pipeline/b.xsl"));
+	}
+
+	private Operation setFile(File srcFile, String destFile) {
+		Operation operation = session.createOperation();
+		operation.setName(Constants.SET_FILE_OP_NAME);
+		operation.addOption(Constants.SRC_FILE_OPT_NAME, srcFile.getPath());
+		operation.addOption(Constants.DEST_FILE_OPT_NAME, destFile);
+		return operation;
+	}
+
+	private File write(String name, String content) throws IOException {
+		File file = new File(workDir, name);
+		Files.write(file.toPath(), content.getBytes("UTF-8"));
+		return file;
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (null != children) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+}
@@ -0,0 +1,154 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dpdirect.utils.Credentials;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelTransferTest {
+
+	private DPDirect session;
+
+	@Before
+	public void createSession() {
+		session = new DPDirect();
+		session.setFailOnError(false);
+	}
+
+	@Test
+	public void retriesAFailedFile() {
+		List<Operation> operations = operations(8);
+		// the odd files fail once, file 3 twice.
+		Map<Operation, Integer> failures = new ConcurrentHashMap<Operation, Integer>();
+		for (int i = 1; i < operations.size(); i += 2) {
+			failures.put(operations.get(i), 1);
+		}
+		failures.put(operations.get(3), 2);
+		ScriptedTransfer transfer = new ScriptedTransfer(4, 2, failures);
+
+		List<Operation> failed = transfer.execute(operations);
+
+		assertTrue(failed.isEmpty());
+		assertEquals(8, transfer.getProgress().getFiles());
+		assertEquals(0, transfer.getProgress().getFailures());
+		assertEquals(5, transfer.getProgress().getRetries());
+		assertEquals(13, transfer.attempts.get());
+	}
+
+	@Test
+	public void givesUpAfterTheRetries() {
+		List<Operation> operations = operations(4);
+		Map<Operation, Integer> failures = new ConcurrentHashMap<Operation, Integer>();
+		failures.put(operations.get(2), Integer.MAX_VALUE);
+		ScriptedTransfer transfer = new ScriptedTransfer(2, 1, failures);
+
+		List<Operation> failed = transfer.execute(operations);
+
+		assertEquals(Collections.singletonList(operations.get(2)), failed);
+		assertEquals(3, transfer.getProgress().getFiles());
+		assertEquals(1, transfer.getProgress().getFailures());
+		assertEquals(1, transfer.getProgress().getRetries());
+		assertEquals(5, transfer.attempts.get());
+	}
+
+	@Test
+	public void emptyTransferSucceeds() {
+		ScriptedTransfer transfer = new ScriptedTransfer(4, 2,
+				new ConcurrentHashMap<Operation, Integer>());
+		assertTrue(transfer.execute(new ArrayList<Operation>()).isEmpty());
+		assertEquals(0, transfer.attempts.get());
+	}
+
+	@Test
+	public void workerFailuresAreReturnedToTheCaller() {
+		final List<Integer> exits = new ArrayList<Integer>();
+		DPDirect failing = new DPDirect() {
+			@Override
+			protected void exit(int status) {
+				exits.add(status);
+			}
+		};
+		failing.setFailOnError(true);
+		failing.setSchema();
+		List<Operation> operations = new ArrayList<Operation>();
+		for (int i = 0; i < 3; i++) {
+			operations.add(failing.createOperation("no-such-operation"));
+		}
+
+		ParallelTransfer transfer = new ParallelTransfer(failing, 2, 1);
+		List<Operation> failed = transfer.execute(operations);
+
+		assertEquals(operations, failed);
+		assertTrue(transfer.getError(operations.get(0)).contains("No such operation"));
+		// the calling thread applies failOnError, and owns the chain.
+		assertTrue(exits.isEmpty());
+		assertEquals(operations, failing.getOperationChain());
+		assertNull(transfer.getError(new Operation(failing)));
+	}
+
+	private List<Operation> operations(int count) {
+		List<Operation> operations = new ArrayList<Operation>();
+		for (int i = 0; i < count; i++) {
+			Operation operation = new Operation(session, Constants.SET_FILE_OP_NAME);
+			operation.addOption(Constants.SET_FILE_OP_NAME + "@"
+					+ Constants.NAME_OPT_NAME, "local:///file" + i);
+			operations.add(operation);
+		}
+		return operations;
+	}
+
+	/**
+	 * Fails each operation the given number of times before it succeeds,
+	 * without posting it.
+	 */
+	private class ScriptedTransfer extends ParallelTransfer {
+
+		private final Map<Operation, Integer> failures;
+
+		private final AtomicInteger attempts = new AtomicInteger();
+
+		ScriptedTransfer(int parallelism, int retries,
+				Map<Operation, Integer> failures) {
+			super(session, parallelism, retries);
+			this.failures = failures;
+		}
+
+		@Override
+		protected boolean attempt(Operation operation, Credentials credentials) {
+			attempts.incrementAndGet();
+			Integer remaining = failures.get(operation);
+			if (null == remaining || remaining <= 0) {
+				return true;
+			}
+			failures.put(operation, remaining - 1);
+			return false;
+		}
+	}
+
+}
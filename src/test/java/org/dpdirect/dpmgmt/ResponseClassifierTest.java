@@ -0,0 +1,126 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.log4j.Level;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+public class ResponseClassifierTest {
+
+	private final ResponseClassifier classifier = new ResponseClassifier(null);
+
+	@Test
+	public void soapFaultIsFatal() throws Exception {
+		OperationResult result = classify(classifier, "fault");
+		assertEquals(Level.FATAL, result.getSeverity());
+		assertEquals("env:Client", result.getFaultCode());
+		assertEquals("Internal Error (from client)", result.getFaultString());
+		assertFalse(result.isSuccess());
+	}
+
+	@Test
+	public void okResultIsInfo() throws Exception {
+		OperationResult result = classify(classifier, "ok");
+		assertEquals(Level.INFO, result.getSeverity());
+		assertEquals("OK", result.getStatus());
+		assertTrue(result.isSuccess());
+	}
+
+	@Test
+	public void errorLogEventIsFatal() throws Exception {
+		OperationResult result = classify(classifier, "action-error");
+		assertEquals(Level.FATAL, result.getSeverity());
+		assertEquals("Cannot save configuration.", result.getFaultString());
+	}
+
+	@Test
+	public void failedCfgResultIsFatal() throws Exception {
+		OperationResult result = classify(classifier, "import");
+		assertEquals(Level.FATAL, result.getSeverity());
+		assertEquals("ERROR", result.getStatus());
+		assertEquals("Configuration error.", result.getFaultString());
+	}
+
+	@Test
+	public void failureStateOfAnAmpStatusWarns() throws Exception {
+		assertEquals(Level.INFO, classify(classifier, "amp-status").getSeverity());
+		OperationResult result = classify(new ResponseClassifier(
+				Collections.singletonList("ok")), "amp-status");
+		assertEquals(Level.WARN, result.getSeverity());
+		assertEquals("ok", result.getStatus());
+	}
+
+	@Test
+	public void errorFileIsFatal() throws Exception {
+		OperationResult result = classifier.classify(parse(
+				"<env:Envelope xmlns:env=\"http://schemas.xmlsoap.org/soap/envelope/\"><env:Body>"
+				+ "<dp:response xmlns:dp=\"http://www.datapower.com/schemas/management\">"
+				+ "<dp:file>ERROR</dp:file></dp:response></env:Body></env:Envelope>"));
+		assertEquals(Level.FATAL, result.getSeverity());
+		assertEquals("ERROR", result.getStatus());
+	}
+
+	@Test
+	public void httpErrorResponseIsFatal() throws Exception {
+		OperationResult result = classifier.classify(parse(
+				"<HttpErrorResponse> 401 Unauthorized </HttpErrorResponse>"));
+		assertEquals(Level.FATAL, result.getSeverity());
+		assertEquals("401 Unauthorized", result.getFaultString());
+	}
+
+	@Test
+	public void countsStatusObjectsAndMessageCounts() throws Exception {
+		assertEquals(5, classify(classifier, "status").objectStatusCount);
+		assertFalse(classify(classifier, "status").monitor);
+		assertTrue(classify(classifier, "monitor").monitor);
+	}
+
+	@Test
+	public void errorConditionsIncludeTheFailureStates() {
+		ResponseClassifier stopped = new ResponseClassifier(Arrays.asList("up"));
+		assertTrue(stopped.isErrorCondition("up"));
+		assertTrue(stopped.isErrorCondition("error"));
+		assertFalse(classifier.isErrorCondition("up"));
+		assertFalse(classifier.isErrorCondition(null));
+	}
+
+	private static OperationResult classify(ResponseClassifier classifier,
+			String sample) throws Exception {
+		return classifier.classify(parse(ResponseRenderTest.read("responses/"
+				+ sample + ".xml")));
+	}
+
+	private static Document parse(String xml) throws Exception {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		return factory.newDocumentBuilder().parse(
+				new InputSource(new StringReader(xml)));
+	}
+
+}
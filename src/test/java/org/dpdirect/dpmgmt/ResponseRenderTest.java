@@ -0,0 +1,144 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Renders the sample responses in 'responses' in each output type, with and
+ * without filters and a failure state, and compares the level and text with
+ * those of the original parser, kept in 'responses/rendered.txt'.
+ */
+public class ResponseRenderTest {
+
+	static final String[] SAMPLES = { "action-error", "amp-domains", "amp-status", "config",
+			"fault", "import", "log", "monitor", "ok", "status", "users" };
+
+	static final String[] OUTPUT_TYPES = { "parsed", "lines", "xml" };
+
+	/** Filter and filterOut pairs. */
+	static final String[][] FILTERS = { { null, null }, { "mpgw", null },
+			{ null, "mgmt" } };
+
+	static final String[] FAILURE_STATES = { null, "up" };
+
+	@Test
+	public void rendersAsTheOriginalParser() throws Exception {
+		Map<String, String> expected = loadRendered();
+		for (String sample : SAMPLES) {
+			for (String outputType : OUTPUT_TYPES) {
+				for (String[] filters : FILTERS) {
+					for (String failureState : FAILURE_STATES) {
+						String key = key(sample, outputType, filters, failureState);
+						assertNotNull(key, expected.get(key));
+						assertEquals(key, expected.get(key), render(sample,
+								outputType, filters, failureState));
+					}
+				}
+			}
+		}
+	}
+
+	static String key(String sample, String outputType, String[] filters,
+			String failureState) {
+		return sample + " " + outputType + " " + filters[0] + " " + filters[1]
+				+ " " + failureState;
+	}
+
+	/**
+	 * @return the level and the text of the rendered response, on the first
+	 *         and following lines.
+	 */
+	static String render(String sample, String outputType, String[] filters,
+			String failureState) throws Exception {
+		ResponseParser parser = new ResponseParser();
+		parser.setOutputType(outputType);
+		if (null != filters[0]) {
+			parser.setFilter(filters[0]);
+		}
+		if (null != filters[1]) {
+			parser.setFilterOut(filters[1]);
+		}
+		if (null != failureState) {
+			parser.setFailureState(failureState);
+		}
+		List<Object> result = parser.parseResponseMsg(read("responses/" + sample + ".xml"));
+		return result.get(0) + "\n" + result.get(1) + "\n";
+	}
+
+	static String read(String resource) throws IOException {
+		InputStream in = ResponseRenderTest.class.getClassLoader()
+				.getResourceAsStream(resource);
+		assertNotNull(resource, in);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				out.write(buffer, 0, read);
+			}
+			return out.toString("UTF-8");
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @return the expected renderings, by key.
+	 */
+	private static Map<String, String> loadRendered() throws IOException {
+		Map<String, String> rendered = new LinkedHashMap<String, String>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				ResponseRenderTest.class.getClassLoader().getResourceAsStream(
+						"responses/rendered.txt"), "UTF-8"));
+		try {
+			String key = null;
+			StringBuilder text = new StringBuilder();
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith("### ")) {
+					if (null != key) {
+						rendered.put(key, text.toString());
+					}
+					key = line.substring(4);
+					text.setLength(0);
+				} else {
+					text.append(line).append('\n');
+				}
+			}
+			if (null != key) {
+				rendered.put(key, text.toString());
+			}
+		} finally {
+			in.close();
+		}
+		return rendered;
+	}
+
+}
@@ -0,0 +1,183 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.dpdirect.stub.DataPowerStub;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs scripts in a session against the stub appliance.
+ */
+public class ScriptRunnerTest {
+
+	private static final String DOMAIN = "default";
+
+	private DataPowerStub stub;
+
+	private File workDir;
+
+	private DPDirect session;
+
+	@Before
+	public void start() throws Exception {
+		stub = new DataPowerStub();
+		stub.start();
+		workDir = Files.createTempDirectory("script-runner").toFile();
+
+		session = new DPDirect() {
+			@Override
+			protected void exit(int status) {
+				throw new AssertionError("exit " + status);
+			}
+		};
+		// as on the command line, so that a failure does not exit.
+		session.setFailOnError(false);
+		session.setGlobalOption(Constants.HOST_NAME_OPT_NAME, "localhost");
+		session.setGlobalOption(Constants.PORT_OPT_NAME,
+				String.valueOf(stub.getPort()));
+		session.setGlobalOption(Constants.USER_NAME_OPT_NAME, "admin");
+		session.setGlobalOption(Constants.USER_PASSWORD_OPT_NAME, "admin");
+	}
+
+	@After
+	public void stop() {
+		stub.stop();
+		delete(workDir);
+	}
+
+	@Test
+	public void rejectsMalformedScripts() throws IOException {
+		assertMalformed("bad.dps:2: parallel blocks may not be nested",
+				"parallel {", "parallel {", "}", "}");
+		assertMalformed("bad.dps:1: parallel block is not closed",
+				"parallel {", "set-file srcFile=a.xsl destFile=local:///a.xsl");
+		assertMalformed("bad.dps:2: '}' outside a parallel block",
+				"# comment", "}");
+		assertMalformed("bad.dps:2: a parallel block may hold operations only",
+				"parallel {", "domain=test", "}");
+	}
+
+	@Test
+	public void runsCommandsAndParallelBlocks() throws IOException {
+		for (int i = 0; i < 3; i++) {
+			write("file" + i + ".xsl", "<file" + i + "/>");
+		}
+		session.getSessionProperties().setProperty("dest", "local:///script");
+		File script = write("deploy.dps",
+				"# deploy",
+				"set-file srcFile=" + path("file0.xsl") + " destFile=${dest}/file0.xsl",
+				"parallel parallelism=2 {",
+				"  set-file srcFile=" + path("file1.xsl") + " destFile=${dest}/file1.xsl",
+				"  set-file srcFile=" + path("file2.xsl") + " destFile=${dest}/file2.xsl",
+				"}",
+				"quit",
+				"set-file srcFile=" + path("file0.xsl") + " destFile=${dest}/after.xsl");
+
+		assertTrue(new ScriptRunner(session, script).execute());
+
+		for (int i = 0; i < 3; i++) {
+			assertArrayEquals(("<file" + i + "/>\n").getBytes("UTF-8"), stub
+					.getFilestore(DOMAIN).get("local:///script/file" + i + ".xsl"));
+		}
+		assertNull(stub.getFilestore(DOMAIN).get("local:///script/after.xsl"));
+	}
+
+	@Test
+	public void unsetPropertyFailsItsCommand() throws IOException {
+		write("file0.xsl", "<file0/>");
+		File script = write("deploy.dps",
+				"set-file srcFile=" + path("file0.xsl") + " destFile=${unset.dest}/file0.xsl",
+				"set-file srcFile=" + path("file0.xsl") + " destFile=local:///script/file0.xsl");
+
+		assertFalse(new ScriptRunner(session, script).execute());
+		// without failOnError, the script continues.
+		assertArrayEquals("<file0/>\n".getBytes("UTF-8"), stub.getFilestore(DOMAIN)
+				.get("local:///script/file0.xsl"));
+	}
+
+	@Test
+	public void transfersDirectoriesWithFailOnError() throws IOException {
+		File srcDir = new File(workDir, "src");
+		srcDir.mkdirs();
+		for (int i = 0; i < 3; i++) {
+			write("src/file" + i + ".xsl", "<file" + i + "/>");
+		}
+		File destDir = new File(workDir, "dest");
+		// the loaded schemas lack the CreateDir and RemoveDir of set-dir.
+		File script = write("deploy.dps",
+				"failOnError=true",
+				"set-dir srcDir=" + srcDir.getAbsolutePath() + " destDir=local:///script",
+				"get-dir srcDir=local:///script/ destDir=" + destDir.getAbsolutePath());
+
+		assertTrue(new ScriptRunner(session, script).execute());
+		assertTrue(session.getFailOnError());
+
+		for (int i = 0; i < 3; i++) {
+			// get-file writes the lines of the file, without the last line end.
+			assertEquals("<file" + i + "/>", new String(Files.readAllBytes(
+					new File(destDir, "file" + i + ".xsl").toPath()), "UTF-8"));
+		}
+	}
+
+	private void assertMalformed(String message, String... lines) throws IOException {
+		File script = write("bad.dps", lines);
+		try {
+			new ScriptRunner(session, script);
+			fail("Expected " + message);
+		} catch (IOException ex) {
+			assertEquals(message, ex.getMessage());
+		}
+	}
+
+	private String path(String name) {
+		return new File(workDir, name).getAbsolutePath();
+	}
+
+	private File write(String name, String... lines) throws IOException {
+		StringBuilder text = new StringBuilder();
+		for (String line : lines) {
+			text.append(line).append('\n');
+		}
+		File file = new File(workDir, name);
+		Files.write(file.toPath(), text.toString().getBytes("UTF-8"));
+		return file;
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (null != children) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+}
@@ -0,0 +1,188 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Base64;
+
+import org.dpdirect.stub.DataPowerStub;
+import org.dpdirect.stub.StubRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs file operations of a session against the stub appliance.
+ */
+public class StubSmokeTest {
+
+	private static final String DOMAIN = "default";
+
+	private DataPowerStub stub;
+
+	private File workDir;
+
+	private DPDirect session;
+
+	@Before
+	public void start() throws Exception {
+		stub = new DataPowerStub();
+		stub.start();
+		workDir = Files.createTempDirectory("stub-smoke").toFile();
+
+		session = new DPDirect();
+		// as on the command line, so that a failure does not exit.
+		session.setFailOnError(false);
+		session.setGlobalOption(Constants.HOST_NAME_OPT_NAME, "localhost");
+		session.setGlobalOption(Constants.PORT_OPT_NAME,
+				String.valueOf(stub.getPort()));
+		session.setGlobalOption(Constants.USER_NAME_OPT_NAME, "admin");
+		session.setGlobalOption(Constants.USER_PASSWORD_OPT_NAME, "admin");
+		session.setSchema();
+	}
+
+	@After
+	public void stop() {
+		stub.stop();
+		delete(workDir);
+	}
+
+	@Test
+	public void fileRoundTrip() throws IOException {
+		byte[] content = "<xsl:stylesheet version=\"1.0\"/>".getBytes("UTF-8");
+		File srcFile = new File(workDir, "a.xsl");
+		Files.write(srcFile.toPath(), content);
+
+		Operation setFile = newOperation(Constants.SET_FILE_OP_NAME);
+		setFile.addOption(Constants.SRC_FILE_OPT_NAME, srcFile.getPath());
+		setFile.addOption(Constants.DEST_FILE_OPT_NAME, "local:///smoke/a.xsl");
+		session.processOperationChain();
+		assertArrayEquals(content,
+				stub.getFilestore(DOMAIN).get("local:///smoke/a.xsl"));
+
+		Operation getFile = newOperation(Constants.GET_FILE_OP_NAME);
+		getFile.addOption(Constants.NAME_OPT_NAME, "local:///smoke/a.xsl");
+		session.processOperationChain();
+		assertNotNull(getFile.getResponse());
+		assertTrue(getFile.getResponse().contains(
+				Base64.getEncoder().encodeToString(content)));
+
+		// the report of the written file does not overwrite it.
+		File destFile = new File(workDir, "copy.xsl");
+		getFile = newOperation(Constants.GET_FILE_OP_NAME);
+		getFile.addOption(Constants.NAME_OPT_NAME, "local:///smoke/a.xsl");
+		getFile.addOption(Constants.DEST_FILE_OPT_NAME, destFile.getPath());
+		session.processOperationChain();
+		assertArrayEquals(content, Files.readAllBytes(destFile.toPath()));
+
+		Operation getFilestore = newOperation(Constants.GET_FILESTORE_OP_NAME);
+		getFilestore.addOption(Constants.LOCATION_OPT_NAME, "local:");
+		session.processOperationChain();
+		assertNotNull(getFilestore.getResponse());
+		assertTrue(getFilestore.getResponse().contains("a.xsl"));
+	}
+
+	@Test
+	public void setDirRetriesAFault() throws IOException {
+		File srcDir = new File(workDir, "src");
+		srcDir.mkdirs();
+		for (int i = 0; i < 4; i++) {
+			Files.write(new File(srcDir, "file" + i + ".xsl").toPath(),
+					("<file" + i + "/>").getBytes("UTF-8"));
+		}
+
+		Operation setDir = newOperation(Constants.SET_DIR_CUSTOM_OP_NAME);
+		setDir.addOption(Constants.SRC_DIR_OPT_NAME, srcDir.getPath());
+		setDir.addOption(Constants.DEST_DIR_OPT_NAME, "local:///smoke");
+		setDir.addOption(Constants.TRANSFER_MODE_OPT_NAME,
+				Constants.TRANSFER_MODE_SET_FILE);
+		setDir.addOption(Constants.PARALLELISM_OPT_NAME, "2");
+		setDir.addOption(Constants.RETRIES_OPT_NAME, "2");
+		stub.failNext(1, DataPowerStub.Fault.HTTP_500);
+		session.processOperationChain();
+
+		for (int i = 0; i < 4; i++) {
+			assertArrayEquals(("<file" + i + "/>").getBytes("UTF-8"), stub
+					.getFilestore(DOMAIN).get("local:///smoke/file" + i + ".xsl"));
+		}
+		// the failed request is not recorded, its retry is.
+		int setFiles = 0;
+		for (StubRequest request : stub.getRequests()) {
+			if (Constants.SET_FILE_OP_NAME.equals(request.getOperationName())) {
+				setFiles++;
+			}
+		}
+		assertEquals(4, setFiles);
+	}
+
+	@Test
+	public void getDirDownloadsInParallelAndSkipsUnchangedFiles() throws IOException {
+		for (int i = 0; i < 4; i++) {
+			stub.getFilestore(DOMAIN).put("local:///smoke/file" + i + ".xsl",
+					("<file" + i + "/>").getBytes("UTF-8"));
+		}
+		File destDir = new File(workDir, "dest");
+
+		for (int run = 0; run < 2; run++) {
+			stub.clearRequests();
+			Operation getDir = newOperation(Constants.GET_DIR_CUSTOM_OP_NAME);
+			getDir.addOption(Constants.SRC_DIR_OPT_NAME, "local:///smoke/");
+			getDir.addOption(Constants.DEST_DIR_OPT_NAME, destDir.getPath());
+			getDir.addOption(Constants.PARALLELISM_OPT_NAME, "2");
+			getDir.addOption(Constants.SKIP_UNCHANGED_OPT_NAME, "true");
+			session.processOperationChain();
+
+			int getFiles = 0;
+			for (StubRequest request : stub.getRequests()) {
+				if (Constants.GET_FILE_OP_NAME.equals(request.getOperationName())) {
+					getFiles++;
+				}
+			}
+			// the second run finds every file unchanged.
+			assertEquals((0 == run) ? 4 : 0, getFiles);
+			for (int i = 0; i < 4; i++) {
+				assertArrayEquals(("<file" + i + "/>").getBytes("UTF-8"), Files.readAllBytes(
+						new File(destDir, "file" + i + ".xsl").toPath()));
+			}
+		}
+	}
+
+	private Operation newOperation(String name) {
+		session.resetOperationChain();
+		Operation operation = session.createOperation();
+		operation.setName(name);
+		return operation;
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (null != children) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+}
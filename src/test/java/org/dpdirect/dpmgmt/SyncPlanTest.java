@@ -0,0 +1,160 @@
+package org.dpdirect.dpmgmt;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SyncPlanTest {
+
+	private File root;
+
+	private File manifestFile;
+
+	@Before
+	public void createRoot() throws IOException {
+		root = Files.createTempDirectory("sync-plan").toFile();
+		manifestFile = File.createTempFile("sync-plan", ".manifest");
+		manifestFile.delete();
+	}
+
+	@After
+	public void deleteRoot() {
+		delete(root);
+		manifestFile.delete();
+	}
+
+	@Test
+	public void firstSyncAddsEverything() throws IOException {
+		write("a.xsl", "a");
+		write("common/b.xsl", "b");
+
+		SyncPlan plan = SyncPlan.build(root, new SyncManifest(manifestFile));
+
+		assertEquals(Arrays.asList("a.xsl", "common/b.xsl"), sorted(plan.getAddedFiles()));
+		assertTrue(plan.getModifiedFiles().isEmpty());
+		assertEquals(Arrays.asList("", "common"), plan.getCreateDirs());
+		assertFalse(plan.isEmpty(false));
+	}
+
+	@Test
+	public void unchangedDirectoryIsEmpty() throws IOException {
+		write("a.xsl", "a");
+		write("common/b.xsl", "b");
+		SyncManifest manifest = record(SyncPlan.build(root, new SyncManifest(manifestFile)));
+
+		SyncPlan plan = SyncPlan.build(root, manifest);
+
+		assertTrue(plan.isEmpty(true));
+		assertEquals(2, plan.getUnchangedFiles());
+		assertEquals(2, plan.getUnchangedDirs());
+	}
+
+	@Test
+	public void findsEveryKindOfChange() throws IOException {
+		write("a.xsl", "a");
+		write("common/b.xsl", "b");
+		write("old/deep/c.xsl", "c");
+		SyncManifest manifest = record(SyncPlan.build(root, new SyncManifest(manifestFile)));
+
+		// same size, a later time: the hash decides.
+		File a = write("a.xsl", "A");
+		a.setLastModified(a.lastModified() + 2000);
+		write("common/new.xsl", "new");
+		delete(new File(root, "old"));
+		write("added/d.xsl", "d");
+
+		SyncPlan plan = SyncPlan.build(root, manifest);
+
+		assertEquals(Arrays.asList("a.xsl"), plan.getModifiedFiles());
+		assertEquals(Arrays.asList("added/d.xsl", "common/new.xsl"), sorted(plan.getAddedFiles()));
+		assertEquals(Arrays.asList("old/deep/c.xsl"), plan.getDeletedFiles());
+		assertEquals(Arrays.asList("added"), plan.getCreateDirs());
+		// children first.
+		assertEquals(Arrays.asList("old/deep", "old"), plan.getRemoveDirs());
+		assertEquals(1, plan.getUnchangedFiles());
+		assertTrue(plan.describe("local:///xsl", true).contains("- local:///xsl/old/deep/c.xsl"));
+		assertFalse(plan.describe("local:///xsl", false).contains("- local:///xsl/old/deep/c.xsl"));
+	}
+
+	@Test
+	public void manifestSurvivesSaveAndLoad() throws IOException {
+		write("a.xsl", "a");
+		write("common/b.xsl", "b");
+		SyncManifest manifest = record(SyncPlan.build(root, new SyncManifest(manifestFile)));
+		manifest.save();
+
+		SyncManifest loaded = SyncManifest.load(manifestFile);
+
+		assertEquals(manifest.getDirs(), loaded.getDirs());
+		assertEquals(manifest.getFiles().keySet(), loaded.getFiles().keySet());
+		assertEquals(manifest.getFiles().get("a.xsl").getHash(),
+				loaded.getFiles().get("a.xsl").getHash());
+		assertTrue(SyncPlan.build(root, loaded).isEmpty(true));
+	}
+
+	/**
+	 * @return the manifest a successful sync of the plan leaves.
+	 */
+	private SyncManifest record(SyncPlan plan) {
+		SyncManifest manifest = new SyncManifest(manifestFile);
+		for (String dir : plan.getLocalDirs()) {
+			manifest.getDirs().add(dir);
+		}
+		for (String path : plan.getUploads()) {
+			manifest.getFiles().put(path, plan.getLocalEntry(path));
+		}
+		return manifest;
+	}
+
+	private File write(String path, String content) throws IOException {
+		File file = new File(root, path);
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), content.getBytes("UTF-8"));
+		return file;
+	}
+
+	private static List<String> sorted(List<String> list) {
+		List<String> sorted = new ArrayList<String>(list);
+		Collections.sort(sorted);
+		return sorted;
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (null != children) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+}
@@ -0,0 +1,90 @@
+package org.dpdirect.utils;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests Base64StreamDecoder against the JDK codec, over every padding and chunkings that split
+ * the quanta.
+ */
+public class Base64StreamDecoderTest {
+
+   private static final int[] LENGTHS = { 0, 1, 2, 3, 4, 5, 6, 7, 100, 6143, 6144, 6145, 20000 };
+
+   @Test
+   public void decodesAsTheJdk() throws IOException {
+      Random random = new Random(2);
+      for (int length : LENGTHS) {
+         byte[] data = randomBytes(random, length);
+         char[] text = Base64.getEncoder().encodeToString(data).toCharArray();
+         ByteArrayOutputStream out = new ByteArrayOutputStream();
+         Base64StreamDecoder decoder = new Base64StreamDecoder(out);
+         // uneven chunks, as SAX character events.
+         int i = 0;
+         while (i < text.length) {
+            int chunk = Math.min(text.length - i, random.nextInt(9));
+            decoder.decode(text, i, chunk);
+            i += chunk;
+         }
+         decoder.finish();
+         assertArrayEquals("length " + length, data, out.toByteArray());
+         assertEquals(length, decoder.getBytesWritten());
+      }
+   }
+
+   @Test
+   public void decodeIgnoresWhitespace() throws IOException {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      Base64StreamDecoder decoder = new Base64StreamDecoder(out);
+      decoder.decode("aGVs\r\n bG8g\td29y\nbGQ=\n");
+      decoder.finish();
+      assertEquals("hello world", out.toString("US-ASCII"));
+   }
+
+   @Test(expected = IOException.class)
+   public void decodeRejectsAnInvalidCharacter() throws IOException {
+      new Base64StreamDecoder(new ByteArrayOutputStream()).decode("aGV*bG8=");
+   }
+
+   @Test(expected = IOException.class)
+   public void decodeRejectsContentAfterPadding() throws IOException {
+      new Base64StreamDecoder(new ByteArrayOutputStream()).decode("aGU=bG8=");
+   }
+
+   @Test(expected = IOException.class)
+   public void finishRejectsATruncatedQuantum() throws IOException {
+      Base64StreamDecoder decoder = new Base64StreamDecoder(new ByteArrayOutputStream());
+      decoder.decode("aGVsbG8");
+      decoder.finish();
+   }
+
+   private static byte[] randomBytes(Random random, int length) {
+      byte[] data = new byte[length];
+      random.nextBytes(data);
+      return data;
+   }
+
+}
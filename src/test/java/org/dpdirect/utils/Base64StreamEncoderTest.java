@@ -0,0 +1,66 @@
+package org.dpdirect.utils;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests Base64StreamEncoder against the JDK codec, over every padding and writes that split
+ * the quanta.
+ */
+public class Base64StreamEncoderTest {
+
+   private static final int[] LENGTHS = { 0, 1, 2, 3, 4, 5, 6, 7, 100, 6143, 6144, 6145, 20000 };
+
+   @Test
+   public void encodesAsTheJdk() throws IOException {
+      Random random = new Random(1);
+      for (int length : LENGTHS) {
+         byte[] data = randomBytes(random, length);
+         ByteArrayOutputStream text = new ByteArrayOutputStream();
+         Base64StreamEncoder encoder = new Base64StreamEncoder(text);
+         // uneven writes, some single bytes.
+         int i = 0;
+         while (i < data.length) {
+            int chunk = Math.min(data.length - i, random.nextInt(7));
+            if (1 == chunk) {
+               encoder.write(data[i]);
+            }
+            else {
+               encoder.write(data, i, chunk);
+            }
+            i += chunk;
+         }
+         encoder.finish();
+         assertEquals("length " + length, Base64.getEncoder().encodeToString(data), text.toString("US-ASCII"));
+      }
+   }
+
+   private static byte[] randomBytes(Random random, int length) {
+      byte[] data = new byte[length];
+      random.nextBytes(data);
+      return data;
+   }
+
+}
@@ -0,0 +1,96 @@
+package org.dpdirect.utils;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CounterSeriesTest {
+
+   private static final long ALL = Long.MAX_VALUE / 2;
+
+   @Test
+   public void percentileIsTheNearestRank() {
+      CounterSeries series = new CounterSeries(100);
+      // values 1 to 20, added out of order.
+      for (int i = 0; i < 20; i++) {
+         series.add(i * 1000L, ((i * 7) % 20) + 1);
+      }
+      assertEquals(1, series.percentile(ALL, 0), 0);
+      assertEquals(1, series.percentile(ALL, 5), 0);
+      assertEquals(2, series.percentile(ALL, 5.1), 0);
+      assertEquals(10, series.percentile(ALL, 50), 0);
+      assertEquals(19, series.percentile(ALL, 95), 0);
+      assertEquals(20, series.percentile(ALL, 95.1), 0);
+      assertEquals(20, series.percentile(ALL, 100), 0);
+   }
+
+   @Test
+   public void percentileIsOverTheWindow() {
+      CounterSeries series = new CounterSeries(100);
+      for (int i = 0; i < 10; i++) {
+         series.add(i * 1000L, 100 + i);
+      }
+      for (int i = 10; i < 20; i++) {
+         series.add(i * 1000L, i - 10);
+      }
+      // the last 5 seconds hold 4 to 9, taken inclusively from 14000.
+      assertEquals(4, series.percentile(5000, 0), 0);
+      assertEquals(9, series.percentile(5000, 100), 0);
+      assertEquals(6, series.percentile(5000, 50), 0);
+      assertEquals(109, series.percentile(ALL, 100), 0);
+   }
+
+   @Test
+   public void evictsTheOldestWhenFull() {
+      CounterSeries series = new CounterSeries(4);
+      for (int i = 0; i < 10; i++) {
+         series.add(i * 1000L, i);
+      }
+      assertEquals(4, series.size());
+      assertEquals(6, series.valueAt(0), 0);
+      assertEquals(9000, series.timeAt(3));
+      assertEquals(6, series.min(ALL), 0);
+      assertEquals(9, series.max(ALL), 0);
+      assertEquals(7.5, series.mean(ALL), 0);
+      assertEquals(9, series.percentile(ALL, 95), 0);
+   }
+
+   @Test
+   public void emptySeriesHasNoStatistics() {
+      CounterSeries series = new CounterSeries(4);
+      assertTrue(Double.isNaN(series.last()));
+      assertTrue(Double.isNaN(series.mean(ALL)));
+      assertTrue(Double.isNaN(series.percentile(ALL, 50)));
+      assertTrue(Double.isNaN(series.ratePerSecond(ALL)));
+   }
+
+   @Test
+   public void rateRestartsAtACounterReset() {
+      CounterSeries series = new CounterSeries(10);
+      series.add(0, 100);
+      series.add(1000, 200);
+      series.add(2000, 5);
+      series.add(4000, 25);
+      series.add(5000, 125);
+      assertEquals(40, series.ratePerSecond(ALL), 0);
+      assertEquals(100, series.ratePerSecond(1000), 0);
+   }
+
+}
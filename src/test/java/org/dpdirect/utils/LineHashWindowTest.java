@@ -0,0 +1,138 @@
+package org.dpdirect.utils;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Hashes below 2^17 take their low bits as their slot, so the tests below place colliding runs by hand: with a
+ * capacity of 4 the table has 8 slots.
+ */
+public class LineHashWindowTest {
+
+   @Test
+   public void addEvictsTheOldestLine() {
+      LineHashWindow window = new LineHashWindow(2);
+      assertTrue(window.add("a"));
+      assertTrue(window.add("b"));
+      assertFalse(window.add("a"));
+      assertTrue(window.add("c"));
+      assertFalse(window.contains("a"));
+      assertTrue(window.contains("b"));
+      assertTrue(window.contains("c"));
+      assertEquals(2, window.size());
+   }
+
+   @Test
+   public void deleteShiftsBackTheProbeRun() {
+      LineHashWindow window = new LineHashWindow(4);
+      // 1, 9, 17 and 25 all home on slot 1, and fill slots 1 to 4.
+      window.addHash(1);
+      window.addHash(9);
+      window.addHash(17);
+      window.addHash(25);
+      // evicts 1 from the head of the run.
+      window.addHash(2);
+      assertFalse(window.containsHash(1));
+      assertTrue(window.containsHash(9));
+      assertTrue(window.containsHash(17));
+      assertTrue(window.containsHash(25));
+      assertTrue(window.containsHash(2));
+      // evicts 9 and 17, leaving 2 on its home slot behind 25.
+      window.addHash(3);
+      window.addHash(4);
+      assertFalse(window.containsHash(9));
+      assertFalse(window.containsHash(17));
+      assertTrue(window.containsHash(25));
+      assertTrue(window.containsHash(2));
+      assertTrue(window.containsHash(3));
+      assertTrue(window.containsHash(4));
+   }
+
+   @Test
+   public void deleteShiftsBackARunThatWraps() {
+      LineHashWindow window = new LineHashWindow(4);
+      // 7, 15 and 23 home on slot 7, and wrap to slots 0 and 1.
+      window.addHash(7);
+      window.addHash(15);
+      window.addHash(23);
+      window.addHash(8);
+      window.addHash(100);
+      assertFalse(window.containsHash(7));
+      assertTrue(window.containsHash(15));
+      assertTrue(window.containsHash(23));
+      assertTrue(window.containsHash(8));
+      window.addHash(101);
+      window.addHash(102);
+      assertFalse(window.containsHash(15));
+      assertFalse(window.containsHash(23));
+      assertTrue(window.containsHash(8));
+      assertTrue(window.containsHash(100));
+   }
+
+   @Test
+   public void zeroHashIsStored() {
+      LineHashWindow window = new LineHashWindow(2);
+      assertFalse(window.containsHash(0));
+      assertTrue(window.addHash(0));
+      assertTrue(window.containsHash(0));
+      assertFalse(window.addHash(0));
+   }
+
+   @Test
+   public void matchesTheLastDistinctHashes() {
+      Random random = new Random(1);
+      LineHashWindow window = new LineHashWindow(16);
+      Deque<Long> expected = new ArrayDeque<Long>();
+      for (int i = 0; i < 100000; i++) {
+         // few distinct keys, so runs collide and wrap.
+         long hash = random.nextInt(64);
+         boolean added = !expected.contains(hash);
+         if (added) {
+            if (expected.size() == 16) {
+               expected.removeFirst();
+            }
+            expected.addLast(hash);
+         }
+         assertEquals(added, window.addHash(hash));
+         for (long key = 0; key < 64; key++) {
+            assertEquals(expected.contains(key), window.containsHash(key));
+         }
+      }
+      assertEquals(16, window.size());
+   }
+
+   @Test
+   public void clearEmptiesTheWindow() {
+      LineHashWindow window = new LineHashWindow(4);
+      window.add("a");
+      window.add("b");
+      window.clear();
+      assertEquals(0, window.size());
+      assertFalse(window.contains("a"));
+      assertTrue(window.add("a"));
+   }
+
+}
@@ -0,0 +1,181 @@
+package org.dpdirect.utils;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZipStreamExtractorTest {
+
+   private File destination;
+
+   @Before
+   public void createDestination() throws IOException {
+      destination = Files.createTempDirectory("zip-extract").toFile();
+   }
+
+   @After
+   public void deleteDestination() {
+      delete(destination);
+   }
+
+   @Test
+   public void extractsTheEntriesUnderTheRoot() throws IOException {
+      byte[] large = new byte[ZipStreamExtractor.LARGE_ENTRY_BYTES + 1000];
+      new Random(1).nextBytes(large);
+      ByteArrayOutputStream zip = new ByteArrayOutputStream();
+      ZipOutputStream out = new ZipOutputStream(zip);
+      addEntry(out, "local/xsl/", null);
+      addEntry(out, "local/xsl/a.xsl", "<a/>".getBytes("UTF-8"));
+      addEntry(out, "local/xsl/common/b.xsl", "<b/>".getBytes("UTF-8"));
+      addEntry(out, "local/xsl/large.bin", large);
+      addEntry(out, "local/other/c.xsl", "<c/>".getBytes("UTF-8"));
+      out.close();
+
+      ZipStreamExtractor extractor = new ZipStreamExtractor(destination, "local/xsl", 2);
+      extractor.extract(new ByteArrayInputStream(zip.toByteArray()));
+
+      assertEquals("<a/>", read(new File(destination, "a.xsl")));
+      assertEquals("<b/>", read(new File(destination, "common/b.xsl")));
+      assertArrayEquals(large, Files.readAllBytes(new File(destination, "large.bin").toPath()));
+      assertFalse(new File(destination, "c.xsl").exists());
+      assertFalse(new File(destination, "local").exists());
+      assertEquals(3, extractor.getFiles());
+      assertEquals(8 + large.length, extractor.getBytes());
+   }
+
+   @Test
+   public void extractsEveryEntryWithNoRoot() throws IOException {
+      ByteArrayOutputStream zip = new ByteArrayOutputStream();
+      ZipOutputStream out = new ZipOutputStream(zip);
+      for (int i = 0; i < 50; i++) {
+         addEntry(out, "dir" + (i % 5) + "/file" + i + ".txt", ("file " + i).getBytes("UTF-8"));
+      }
+      out.close();
+
+      ZipStreamExtractor extractor = new ZipStreamExtractor(destination, null, 4);
+      extractor.extract(new ByteArrayInputStream(zip.toByteArray()));
+
+      assertEquals(50, extractor.getFiles());
+      for (int i = 0; i < 50; i++) {
+         assertEquals("file " + i, read(new File(destination, "dir" + (i % 5) + "/file" + i + ".txt")));
+      }
+   }
+
+   @Test
+   public void replacesOnlyTheDirectoriesOfTheZip() throws IOException {
+      write("common/old.xsl", "<old/>");
+      write("common/deep/old.xsl", "<old/>");
+      write("kept/k.xsl", "<k/>");
+      write("top.xsl", "<top/>");
+      ByteArrayOutputStream zip = new ByteArrayOutputStream();
+      ZipOutputStream out = new ZipOutputStream(zip);
+      addEntry(out, "local/xsl/", null);
+      addEntry(out, "local/xsl/common/", null);
+      addEntry(out, "local/xsl/common/a.xsl", "<a/>".getBytes("UTF-8"));
+      addEntry(out, "local/xsl/common/deep/b.xsl", "<b/>".getBytes("UTF-8"));
+      addEntry(out, "local/xsl/top.xsl", "<new/>".getBytes("UTF-8"));
+      addEntry(out, "local/xsl/added/c.xsl", "<c/>".getBytes("UTF-8"));
+      out.close();
+
+      new ZipStreamExtractor(destination, "local/xsl", 4, true).extract(new ByteArrayInputStream(zip.toByteArray()));
+
+      assertFalse(new File(destination, "common/old.xsl").exists());
+      assertFalse(new File(destination, "common/deep/old.xsl").exists());
+      assertEquals("<a/>", read(new File(destination, "common/a.xsl")));
+      // written after its top level directory was replaced.
+      assertEquals("<b/>", read(new File(destination, "common/deep/b.xsl")));
+      assertEquals("<new/>", read(new File(destination, "top.xsl")));
+      assertEquals("<c/>", read(new File(destination, "added/c.xsl")));
+      assertEquals("<k/>", read(new File(destination, "kept/k.xsl")));
+   }
+
+   @Test
+   public void keepsExistingFilesWithoutReplace() throws IOException {
+      write("common/old.xsl", "<old/>");
+      ByteArrayOutputStream zip = new ByteArrayOutputStream();
+      ZipOutputStream out = new ZipOutputStream(zip);
+      addEntry(out, "local/xsl/common/a.xsl", "<a/>".getBytes("UTF-8"));
+      out.close();
+
+      new ZipStreamExtractor(destination, "local/xsl", 2).extract(new ByteArrayInputStream(zip.toByteArray()));
+
+      assertEquals("<old/>", read(new File(destination, "common/old.xsl")));
+      assertEquals("<a/>", read(new File(destination, "common/a.xsl")));
+   }
+
+   @Test
+   public void refusesAnEntryOutsideTheDestination() throws IOException {
+      ByteArrayOutputStream zip = new ByteArrayOutputStream();
+      ZipOutputStream out = new ZipOutputStream(zip);
+      addEntry(out, "../escaped.txt", "x".getBytes("UTF-8"));
+      out.close();
+
+      try {
+         new ZipStreamExtractor(destination, null, 1).extract(new ByteArrayInputStream(zip.toByteArray()));
+         throw new AssertionError("Extracted an entry outside the destination.");
+      }
+      catch (IOException ex) {
+         assertTrue(ex.getMessage().contains("outside"));
+      }
+      assertFalse(new File(destination.getParentFile(), "escaped.txt").exists());
+   }
+
+   private static void addEntry(ZipOutputStream out, String name, byte[] content) throws IOException {
+      out.putNextEntry(new ZipEntry(name));
+      if (null != content) {
+         out.write(content);
+      }
+      out.closeEntry();
+   }
+
+   private void write(String path, String content) throws IOException {
+      File file = new File(destination, path);
+      file.getParentFile().mkdirs();
+      Files.write(file.toPath(), content.getBytes("UTF-8"));
+   }
+
+   private static String read(File file) throws IOException {
+      return new String(Files.readAllBytes(file.toPath()), "UTF-8");
+   }
+
+   private static void delete(File file) {
+      File[] children = file.listFiles();
+      if (null != children) {
+         for (File child : children) {
+            delete(child);
+         }
+      }
+      file.delete();
+   }
+
+}
@@ -0,0 +1,821 @@
+package org.dpdirect.stub;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+/**
+ * An embeddable stub of the DataPower XML management interface, for tests and
+ * benchmarks run without an appliance.
+ *
+ * Serves the SOMA endpoints ('/service/mgmt/current', '/service/mgmt/2004',
+ * '/service/mgmt/3.0') and the AMP endpoints ('/service/mgmt/amp/*') over
+ * HTTPS on the loopback interface, with a bundled self-signed certificate for
+ * 'localhost'.
+ *
+ * Common operations get a canned response - 'get-status', 'get-config',
+ * 'get-log', 'do-action', and 'GetDeviceInfo' and 'GetDomainList' of AMP.
+ * 'set-file', 'get-file', 'get-filestore' and the file actions of 'do-action'
+ * work on an in-memory filestore per domain. Any operation may be scripted
+ * with {@link #on(String, StubResponder)}, and anything else answers 'OK'.
+ *
+ * Latency, bandwidth and faults are configurable, for benchmarking slow or
+ * unreliable devices.
+ *
+ * <pre>
+ * DataPowerStub stub = new DataPowerStub();
+ * stub.start();
+ * ... dpdirect hostname=localhost port=stub.getPort() ...
+ * stub.stop();
+ * </pre>
+ */
+public class DataPowerStub {
+
+	/** Path of the AMP endpoints. */
+	public static final String AMP_PATH = "/service/mgmt/amp";
+
+	/** The SOMA endpoints. */
+	public static final String[] SOMA_PATHS = { "/service/mgmt/current",
+			"/service/mgmt/2004", "/service/mgmt/3.0" };
+
+	/** The SOAP envelope namespace. */
+	public static final String SOAP_NS = "http://schemas.xmlsoap.org/soap/envelope/";
+
+	/** The SOMA namespace. */
+	public static final String SOMA_NS = "http://www.datapower.com/schemas/management";
+
+	/** The AMP namespace of the default AMP endpoint. */
+	public static final String AMP_NS = "http://www.datapower.com/schemas/appliance/management/3.0";
+
+	/** The bundled PKCS12 keystore, and its password. */
+	private static final String KEYSTORE = "stub-keystore.p12";
+
+	private static final char[] KEYSTORE_PASSWORD = "dpdirect-stub".toCharArray();
+
+	/** Bandwidth throttled writes pause this often. */
+	private static final int THROTTLE_INTERVAL_MILLIS = 50;
+
+	/**
+	 * A fault to inject in place of a response.
+	 */
+	public enum Fault {
+		/** A 500 response with no body. */
+		HTTP_500,
+		/** A SOAP fault. */
+		SOAP_FAULT,
+		/**
+		 * The connection closed without a response. HttpURLConnection posts
+		 * again once on a reset connection, so fail two requests to see it.
+		 */
+		RESET,
+		/** A 401 response, as for bad credentials. */
+		AUTH
+	}
+
+	/**
+	 * A status object of the device.
+	 */
+	private static class StubObject {
+
+		private final String className;
+
+		private final String name;
+
+		private volatile String opState;
+
+		StubObject(String className, String name, String opState) {
+			this.className = className;
+			this.name = name;
+			this.opState = opState;
+		}
+	}
+
+	private final int requestedPort;
+
+	private HttpsServer server = null;
+
+	private ExecutorService executor = null;
+
+	private final Map<String, StubResponder> responders = new ConcurrentHashMap<String, StubResponder>();
+
+	private final Map<String, StubFilestore> filestores = new ConcurrentHashMap<String, StubFilestore>();
+
+	private final List<StubObject> objects = new CopyOnWriteArrayList<StubObject>();
+
+	private final List<StubRequest> requests = new CopyOnWriteArrayList<StubRequest>();
+
+	private final AtomicLong messageCount = new AtomicLong();
+
+	private volatile long latencyMillis = 0;
+
+	private volatile long bandwidthBytesPerSecond = 0;
+
+	private volatile double errorRate = 0;
+
+	private volatile Fault errorFault = Fault.HTTP_500;
+
+	private int failNextCount = 0;
+
+	private Fault failNextFault = Fault.HTTP_500;
+
+	private final Random random = new Random(0);
+
+	private volatile String userName = null;
+
+	private volatile String password = null;
+
+	private final DocumentBuilderFactory documentFactory;
+
+	/**
+	 * Constructs a new <code>DataPowerStub</code> on an ephemeral port.
+	 */
+	public DataPowerStub() {
+		this(0);
+	}
+
+	/**
+	 * Constructs a new <code>DataPowerStub</code>.
+	 *
+	 * @param port
+	 *            the port to listen on, or 0 for any free port.
+	 */
+	public DataPowerStub(int port) {
+		this.requestedPort = port;
+		documentFactory = DocumentBuilderFactory.newInstance();
+		documentFactory.setNamespaceAware(true);
+		addObject("MultiProtocolGateway", "StubGateway", "up");
+		addObject("XMLFirewallService", "StubFirewall", "up");
+		addObject("HTTPSourceProtocolHandler", "StubHandler", "up");
+		addObject("XMLManager", "default", "up");
+	}
+
+	/**
+	 * Start listening.
+	 */
+	public synchronized void start() throws Exception {
+		if (null != server) {
+			return;
+		}
+		server = HttpsServer.create(new InetSocketAddress(
+				InetAddress.getLoopbackAddress(), requestedPort), 0);
+		server.setHttpsConfigurator(new HttpsConfigurator(createSSLContext()));
+		HttpHandler handler = new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				DataPowerStub.this.handle(exchange);
+			}
+		};
+		for (String path : SOMA_PATHS) {
+			server.createContext(path, handler);
+		}
+		server.createContext(AMP_PATH, handler);
+		executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "dpdirect-stub");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * Stop listening, closing any open connections.
+	 */
+	public synchronized void stop() {
+		if (null != server) {
+			server.stop(0);
+			executor.shutdownNow();
+			server = null;
+			executor = null;
+		}
+	}
+
+	/**
+	 * @return the port listened on, once started.
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * @param millis
+	 *            the delay before each response is written.
+	 */
+	public void setLatencyMillis(long millis) {
+		this.latencyMillis = millis;
+	}
+
+	/**
+	 * @param bytesPerSecond
+	 *            the rate each request is read and each response written at,
+	 *            or 0 for no limit.
+	 */
+	public void setBandwidthBytesPerSecond(long bytesPerSecond) {
+		this.bandwidthBytesPerSecond = bytesPerSecond;
+	}
+
+	/**
+	 * Fail a proportion of requests at random. The random sequence is seeded,
+	 * so a run of requests fails the same way each time.
+	 *
+	 * @param rate
+	 *            the proportion of requests to fail, from 0 to 1.
+	 * @param fault
+	 *            the fault to fail them with.
+	 */
+	public synchronized void setErrorRate(double rate, Fault fault) {
+		this.errorRate = rate;
+		this.errorFault = fault;
+	}
+
+	/**
+	 * Fail the next requests.
+	 *
+	 * @param count
+	 *            the number of requests to fail.
+	 * @param fault
+	 *            the fault to fail them with.
+	 */
+	public synchronized void failNext(int count, Fault fault) {
+		this.failNextCount = count;
+		this.failNextFault = fault;
+	}
+
+	/**
+	 * Require basic authentication. By default any credentials are accepted.
+	 */
+	public void setCredentials(String userName, String password) {
+		this.userName = userName;
+		this.password = password;
+	}
+
+	/**
+	 * Script the response to an operation, in place of the default.
+	 *
+	 * @param operationName
+	 *            the local name of the operation, eg. 'get-status' or
+	 *            'GetDeviceInfoRequest'.
+	 * @param responder
+	 *            gives the response, or null for the default.
+	 */
+	public void on(String operationName, StubResponder responder) {
+		responders.put(operationName, responder);
+	}
+
+	/**
+	 * Give a canned response to an operation, in place of the default.
+	 *
+	 * @param operationName
+	 *            the local name of the operation.
+	 * @param response
+	 *            the complete response document.
+	 */
+	public void on(String operationName, final String response) {
+		on(operationName, new StubResponder() {
+			public String respond(StubRequest request) {
+				return response;
+			}
+		});
+	}
+
+	/**
+	 * Add a status object, listed by 'get-status' and 'get-config'.
+	 */
+	public void addObject(String className, String name, String opState) {
+		objects.add(new StubObject(className, name, opState));
+	}
+
+	/**
+	 * Set the 'OpState' of the named objects, eg. 'down'.
+	 */
+	public void setOpState(String name, String opState) {
+		for (StubObject object : objects) {
+			if (object.name.equals(name)) {
+				object.opState = opState;
+			}
+		}
+	}
+
+	/**
+	 * @return the filestore of the domain, made if need be.
+	 */
+	public StubFilestore getFilestore(String domain) {
+		StubFilestore filestore = filestores.get(domain);
+		if (null == filestore) {
+			filestores.putIfAbsent(domain, new StubFilestore());
+			filestore = filestores.get(domain);
+		}
+		return filestore;
+	}
+
+	/**
+	 * @return the requests answered, in order - not those failed by an
+	 *         injected fault.
+	 */
+	public List<StubRequest> getRequests() {
+		return Collections.unmodifiableList(requests);
+	}
+
+	/**
+	 * Forget the requests received.
+	 */
+	public void clearRequests() {
+		requests.clear();
+	}
+
+	/**
+	 * Wrap the content of a SOMA response in its 'response' element and SOAP
+	 * envelope.
+	 *
+	 * @param content
+	 *            the response content, with the 'dp' prefix bound to the SOMA
+	 *            namespace.
+	 * @return the response document.
+	 */
+	public static String somaResponse(String content) {
+		SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX");
+		return "<env:Envelope xmlns:env=\"" + SOAP_NS + "\"><env:Body>"
+				+ "<dp:response xmlns:dp=\"" + SOMA_NS + "\"><dp:timestamp>"
+				+ timeFormat.format(new Date()) + "</dp:timestamp>" + content
+				+ "</dp:response></env:Body></env:Envelope>";
+	}
+
+	/**
+	 * Wrap the content of an AMP response in its response element and SOAP
+	 * envelope.
+	 *
+	 * @param responseName
+	 *            the local name of the response, eg. 'GetDeviceInfoResponse'.
+	 * @param namespace
+	 *            the AMP namespace of the request.
+	 * @param content
+	 *            the response content, with the 'amp' prefix bound to the
+	 *            namespace.
+	 * @return the response document.
+	 */
+	public static String ampResponse(String responseName, String namespace,
+			String content) {
+		return "<env:Envelope xmlns:env=\"" + SOAP_NS + "\"><env:Body>"
+				+ "<amp:" + responseName + " xmlns:amp=\"" + namespace + "\">"
+				+ content + "</amp:" + responseName
+				+ "></env:Body></env:Envelope>";
+	}
+
+	/**
+	 * @return a SOAP fault response document.
+	 */
+	public static String soapFault(String faultString) {
+		return "<env:Envelope xmlns:env=\"" + SOAP_NS + "\"><env:Body><env:Fault>"
+				+ "<faultcode>env:Client</faultcode><faultstring>"
+				+ StubFilestore.escape(faultString)
+				+ "</faultstring></env:Fault></env:Body></env:Envelope>";
+	}
+
+	/**
+	 * @return a SOMA 'result' holding an error log of the message.
+	 */
+	public static String somaError(String message) {
+		return somaResponse("<dp:result><error-log><log-event level=\"error\">"
+				+ StubFilestore.escape(message)
+				+ "</log-event></error-log></dp:result>");
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			byte[] body = readRequest(exchange.getRequestBody());
+			Fault fault = nextFault();
+			if (null == fault && null != userName && !isAuthorised(exchange)) {
+				fault = Fault.AUTH;
+			}
+			if (Fault.RESET == fault) {
+				return;
+			}
+			if (0 < latencyMillis) {
+				Thread.sleep(latencyMillis);
+			}
+			if (Fault.HTTP_500 == fault) {
+				exchange.sendResponseHeaders(500, -1);
+				return;
+			}
+			if (Fault.AUTH == fault) {
+				exchange.getResponseHeaders().add("WWW-Authenticate",
+						"Basic realm=\"dpdirect-stub\"");
+				exchange.sendResponseHeaders(401, -1);
+				return;
+			}
+			String response;
+			if (Fault.SOAP_FAULT == fault) {
+				response = soapFault("Internal Error (from client)");
+			} else {
+				try {
+					response = respond(exchange.getHttpContext().getPath(),
+							exchange.getRequestURI().getPath(), body);
+				} catch (Exception ex) {
+					response = soapFault(String.valueOf(ex.getMessage()));
+				}
+			}
+			writeResponse(exchange, response.getBytes(StandardCharsets.UTF_8));
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * @return the fault to inject for this request, or null.
+	 */
+	private synchronized Fault nextFault() {
+		if (0 < failNextCount) {
+			failNextCount--;
+			return failNextFault;
+		}
+		if (0 < errorRate && random.nextDouble() < errorRate) {
+			return errorFault;
+		}
+		return null;
+	}
+
+	private boolean isAuthorised(HttpExchange exchange) {
+		String expected = "Basic "
+				+ Base64.getEncoder().encodeToString(
+						(userName + ":" + password).getBytes(StandardCharsets.UTF_8));
+		return expected.equals(exchange.getRequestHeaders().getFirst(
+				"Authorization"));
+	}
+
+	private void writeResponse(HttpExchange exchange, byte[] response)
+			throws IOException, InterruptedException {
+		exchange.getResponseHeaders().add("Content-Type",
+				"text/xml; charset=UTF-8");
+		exchange.sendResponseHeaders(200, response.length);
+		OutputStream out = exchange.getResponseBody();
+		long rate = bandwidthBytesPerSecond;
+		if (0 >= rate) {
+			out.write(response);
+		} else {
+			int chunk = (int) Math.max(1, rate * THROTTLE_INTERVAL_MILLIS / 1000);
+			for (int offset = 0; offset < response.length; offset += chunk) {
+				out.write(response, offset, Math.min(chunk, response.length - offset));
+				out.flush();
+				Thread.sleep(THROTTLE_INTERVAL_MILLIS);
+			}
+		}
+		out.close();
+	}
+
+	/**
+	 * Parse a request and give its response.
+	 */
+	private String respond(String contextPath, String path, byte[] body)
+			throws Exception {
+		Document request = documentFactory.newDocumentBuilder().parse(
+				new ByteArrayInputStream(body));
+		Element payload = request.getDocumentElement();
+		Element soapBody = StubRequest.findElement(request, "Body");
+		if (null != soapBody) {
+			payload = firstElement(soapBody);
+		}
+		if (null == payload) {
+			return soapFault("No request found.");
+		}
+		StubRequest stubRequest;
+		if (AMP_PATH.equals(contextPath)) {
+			stubRequest = new StubRequest(path, null, payload, body);
+		} else {
+			Element operation = firstElement(payload);
+			if (null == operation) {
+				return soapFault("No operation found in request.");
+			}
+			stubRequest = new StubRequest(path, payload.getAttribute("domain"),
+					operation, body);
+		}
+		requests.add(stubRequest);
+
+		StubResponder responder = responders.get(stubRequest.getOperationName());
+		if (null != responder) {
+			String response = responder.respond(stubRequest);
+			if (null != response) {
+				return response;
+			}
+		}
+		return stubRequest.isAmp() ? ampDefault(stubRequest)
+				: somaDefault(stubRequest);
+	}
+
+	/**
+	 * @return the canned response to a SOMA operation.
+	 */
+	private String somaDefault(StubRequest request) {
+		String operation = request.getOperationName();
+		StubFilestore filestore = getFilestore(request.getDomain());
+		if ("get-status".equals(operation)) {
+			return somaResponse(getStatus(request.getAttribute("class")));
+		} else if ("get-config".equals(operation)) {
+			return somaResponse(getConfig(request.getAttribute("class"),
+					request.getAttribute("name")));
+		} else if ("get-log".equals(operation)) {
+			return somaResponse(getLog(request.getDomain()));
+		} else if ("set-file".equals(operation)) {
+			filestore.put(request.getAttribute("name"), Base64.getMimeDecoder()
+					.decode(request.getText()));
+			return somaResponse("<dp:result>OK</dp:result>");
+		} else if ("get-file".equals(operation)) {
+			byte[] content = filestore.get(request.getAttribute("name"));
+			if (null == content) {
+				return somaError("Cannot read file " + request.getAttribute("name"));
+			}
+			return somaResponse("<dp:file name=\""
+					+ StubFilestore.escape(request.getAttribute("name")) + "\">"
+					+ Base64.getEncoder().encodeToString(content) + "</dp:file>");
+		} else if ("get-filestore".equals(operation)) {
+			String location = request.getAttribute("location");
+			StringBuilder xml = new StringBuilder();
+			filestore.appendListing(null == location ? "local:" : location, xml);
+			return somaResponse(xml.toString());
+		} else if ("do-action".equals(operation)) {
+			return somaResponse(doAction(request, filestore));
+		}
+		return somaResponse("<dp:result>OK</dp:result>");
+	}
+
+	private String getStatus(String className) {
+		StringBuilder xml = new StringBuilder("<dp:status>");
+		if (null == className || "ObjectStatus".equals(className)) {
+			for (StubObject object : objects) {
+				xml.append("<ObjectStatus xmlns:env=\"").append(SOAP_NS)
+						.append("\"><Class>").append(object.className)
+						.append("</Class><OpState>").append(object.opState)
+						.append("</OpState><AdminState>enabled</AdminState><Name>")
+						.append(object.name)
+						.append("</Name><EventCode>0x00000000</EventCode><ErrorCode/>")
+						.append("<ConfigState>saved</ConfigState></ObjectStatus>");
+			}
+		} else if ("MessageCountsService".equals(className)
+				|| "MessageCounts".equals(className)) {
+			long count = messageCount.addAndGet(10);
+			for (StubObject object : objects) {
+				xml.append("<MessageCounts xmlns:env=\"").append(SOAP_NS)
+						.append("\"><Service class=\"").append(object.className)
+						.append("\">").append(object.name).append("</Service>")
+						.append("<RequestsReceived>").append(count)
+						.append("</RequestsReceived><ResponsesSent>").append(count)
+						.append("</ResponsesSent><RequestsForwarded>").append(count)
+						.append("</RequestsForwarded><ResponsesReceived>")
+						.append(count).append("</ResponsesReceived></MessageCounts>");
+			}
+		} else if ("CPUUsage".equals(className)) {
+			xml.append("<CPUUsage xmlns:env=\"").append(SOAP_NS)
+					.append("\"><tenSeconds>2</tenSeconds><oneMinute>3</oneMinute>")
+					.append("<tenMinutes>3</tenMinutes><oneHour>4</oneHour>")
+					.append("<oneDay>4</oneDay></CPUUsage>");
+		} else {
+			xml.append("<").append(className).append(" xmlns:env=\"")
+					.append(SOAP_NS).append("\"><Status>ok</Status></")
+					.append(className).append(">");
+		}
+		return xml.append("</dp:status>").toString();
+	}
+
+	private String getConfig(String className, String name) {
+		StringBuilder xml = new StringBuilder("<dp:config>");
+		for (StubObject object : objects) {
+			if ((null == className || className.equals(object.className))
+					&& (null == name || name.equals(object.name))) {
+				xml.append("<").append(object.className).append(" name=\"")
+						.append(object.name).append("\" xmlns:env=\"")
+						.append(SOAP_NS).append("\"><mAdminState>enabled</mAdminState>")
+						.append("<UserSummary>").append(object.name)
+						.append("</UserSummary></").append(object.className)
+						.append(">");
+			}
+		}
+		return xml.append("</dp:config>").toString();
+	}
+
+	private String getLog(String domain) {
+		SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX");
+		String time = timeFormat.format(new Date());
+		StringBuilder xml = new StringBuilder("<dp:log>");
+		int serial = 1;
+		for (StubObject object : objects) {
+			xml.append("<log-entry serial=\"").append(serial++)
+					.append("\" domain=\"").append(domain).append("\"><date-time>")
+					.append(time).append("</date-time><type>mgmt</type><class>")
+					.append(object.className).append("</class><object>")
+					.append(object.name).append("</object><level>notice</level>")
+					.append("<transaction>0</transaction><transaction-type/>")
+					.append("<client/><code>0x8100003b</code><file/><message>")
+					.append("Operational state ").append(object.opState)
+					.append("</message></log-entry>");
+		}
+		return xml.append("</dp:log>").toString();
+	}
+
+	private String doAction(StubRequest request, StubFilestore filestore) {
+		Element action = firstElement(request.getOperation());
+		String actionName = null == action ? "" : action.getLocalName();
+		if ("CreateDir".equals(actionName)) {
+			filestore.makeDirectory(request.getChildText("Dir"));
+		} else if ("RemoveDir".equals(actionName)) {
+			if (!filestore.removeDirectory(request.getChildText("Dir"))) {
+				return "<dp:result><error-log><log-event level=\"error\">"
+						+ "Directory does not exist</log-event></error-log></dp:result>";
+			}
+		} else if ("DeleteFile".equals(actionName)) {
+			if (!filestore.delete(request.getChildText("File"))) {
+				return "<dp:result><error-log><log-event level=\"error\">"
+						+ "Cannot delete file</log-event></error-log></dp:result>";
+			}
+		}
+		return "<dp:result>OK</dp:result>";
+	}
+
+	/**
+	 * @return the canned response to an AMP operation.
+	 */
+	private String ampDefault(StubRequest request) {
+		String operation = request.getOperationName();
+		String namespace = request.getOperation().getNamespaceURI();
+		if (null == namespace) {
+			namespace = AMP_NS;
+		}
+		String responseName = operation.endsWith("Request") ? operation
+				.substring(0, operation.length() - "Request".length()) + "Response"
+				: operation + "Response";
+		if ("GetDeviceInfoRequest".equals(operation)) {
+			return ampResponse(responseName, namespace,
+					"<amp:DeviceName>dpdirect-stub</amp:DeviceName>"
+							+ "<amp:DeviceSerialNo>0000000</amp:DeviceSerialNo>"
+							+ "<amp:DeviceID>0000000</amp:DeviceID>"
+							+ "<amp:HardwareOptions>stub</amp:HardwareOptions>"
+							+ "<amp:DeviceType>XI52</amp:DeviceType>"
+							+ "<amp:FirmwareVersion>XI52.7.2.0.0</amp:FirmwareVersion>"
+							+ "<amp:ManagementIPAddress>127.0.0.1</amp:ManagementIPAddress>"
+							+ "<amp:ManagementIPPort>" + getPort()
+							+ "</amp:ManagementIPPort>");
+		} else if ("GetDomainListRequest".equals(operation)) {
+			List<String> domains = new ArrayList<String>(filestores.keySet());
+			if (!domains.contains("default")) {
+				domains.add(0, "default");
+			}
+			StringBuilder xml = new StringBuilder();
+			for (String domain : domains) {
+				xml.append("<amp:Domain>").append(domain).append("</amp:Domain>");
+			}
+			return ampResponse(responseName, namespace, xml.toString());
+		}
+		return ampResponse(responseName, namespace, "<amp:Status>ok</amp:Status>");
+	}
+
+	private static Element firstElement(Node parent) {
+		for (Node node = parent.getFirstChild(); null != node; node = node
+				.getNextSibling()) {
+			if (Node.ELEMENT_NODE == node.getNodeType()) {
+				return (Element) node;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Read a request body, no faster than the bandwidth allows.
+	 */
+	private byte[] readRequest(InputStream in) throws IOException,
+			InterruptedException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		long rate = bandwidthBytesPerSecond;
+		long start = System.nanoTime();
+		int read;
+		while ((read = in.read(buffer)) > 0) {
+			out.write(buffer, 0, read);
+			if (0 < rate) {
+				long due = out.size() * 1000L / rate
+						- (System.nanoTime() - start) / 1000000;
+				if (0 < due) {
+					Thread.sleep(due);
+				}
+			}
+		}
+		return out.toByteArray();
+	}
+
+	private static SSLContext createSSLContext() throws Exception {
+		KeyStore keyStore = KeyStore.getInstance("PKCS12");
+		InputStream in = DataPowerStub.class.getResourceAsStream(KEYSTORE);
+		try {
+			keyStore.load(in, KEYSTORE_PASSWORD);
+		} finally {
+			in.close();
+		}
+		KeyManagerFactory keyManagers = KeyManagerFactory
+				.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keyManagers.init(keyStore, KEYSTORE_PASSWORD);
+		SSLContext context = SSLContext.getInstance("TLS");
+		context.init(keyManagers.getKeyManagers(), null, null);
+		return context;
+	}
+
+	/**
+	 * Run the stub until killed. Options are given as name=value - 'port',
+	 * 'latency' (milliseconds), 'bandwidth' (bytes per second), 'errorRate'
+	 * (0 to 1), 'fault' (HTTP_500, SOAP_FAULT, RESET or AUTH), 'username' and
+	 * 'password'.
+	 */
+	public static void main(String[] args) throws Exception {
+		int port = 5550;
+		long latency = 0;
+		long bandwidth = 0;
+		double errorRate = 0;
+		Fault fault = Fault.HTTP_500;
+		String userName = null;
+		String password = null;
+		for (String arg : args) {
+			int equals = arg.indexOf('=');
+			String name = equals < 0 ? arg : arg.substring(0, equals);
+			String value = equals < 0 ? "" : arg.substring(equals + 1);
+			if ("port".equalsIgnoreCase(name)) {
+				port = Integer.parseInt(value);
+			} else if ("latency".equalsIgnoreCase(name)) {
+				latency = Long.parseLong(value);
+			} else if ("bandwidth".equalsIgnoreCase(name)) {
+				bandwidth = Long.parseLong(value);
+			} else if ("errorRate".equalsIgnoreCase(name)) {
+				errorRate = Double.parseDouble(value);
+			} else if ("fault".equalsIgnoreCase(name)) {
+				fault = Fault.valueOf(value.toUpperCase());
+			} else if ("username".equalsIgnoreCase(name)) {
+				userName = value;
+			} else if ("password".equalsIgnoreCase(name)) {
+				password = value;
+			} else {
+				System.err.println("Unknown option '" + arg + "'.");
+				System.exit(1);
+			}
+		}
+		DataPowerStub stub = new DataPowerStub(port);
+		stub.setLatencyMillis(latency);
+		stub.setBandwidthBytesPerSecond(bandwidth);
+		stub.setErrorRate(errorRate, fault);
+		if (null != userName) {
+			stub.setCredentials(userName, password);
+		}
+		stub.start();
+		System.out.println("DataPower stub listening on https://localhost:"
+				+ stub.getPort());
+		new CountDownLatch(1).await();
+	}
+
+}
@@ -0,0 +1,196 @@
+package org.dpdirect.stub;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The in-memory filestore of one domain of the {@link DataPowerStub}.
+ *
+ * Files are held by normalised path, eg. 'local:/dir/file.xsl', whether given
+ * as 'local:///dir/file.xsl' or 'local:/dir/file.xsl'. Directories are made as
+ * files are written to them.
+ */
+public class StubFilestore {
+
+	/** Format of the 'modified' time of a file listing. */
+	public static final String MODIFIED_DATE_FORMAT = "yyyy-MM-dd HH:mm:ss";
+
+	private final TreeMap<String, StoredFile> files = new TreeMap<String, StoredFile>();
+
+	private final TreeSet<String> directories = new TreeSet<String>();
+
+	/**
+	 * Write a file, making its directories.
+	 *
+	 * @param path
+	 *            the device path, eg. 'local:///dir/file.xsl'.
+	 * @param content
+	 *            the file content.
+	 */
+	public synchronized void put(String path, byte[] content) {
+		String normalised = normalise(path);
+		files.put(normalised, new StoredFile(content, System.currentTimeMillis()));
+		makeParents(normalised);
+	}
+
+	/**
+	 * @return the content of the file, or null if none.
+	 */
+	public synchronized byte[] get(String path) {
+		StoredFile file = files.get(normalise(path));
+		return null == file ? null : file.content;
+	}
+
+	/**
+	 * @return true if the file was deleted.
+	 */
+	public synchronized boolean delete(String path) {
+		return null != files.remove(normalise(path));
+	}
+
+	/**
+	 * Make a directory and its parents.
+	 */
+	public synchronized void makeDirectory(String path) {
+		String normalised = normalise(path);
+		directories.add(normalised);
+		makeParents(normalised);
+	}
+
+	/**
+	 * Remove a directory, and everything in it.
+	 *
+	 * @return true if the directory existed.
+	 */
+	public synchronized boolean removeDirectory(String path) {
+		String normalised = normalise(path);
+		String prefix = normalised + "/";
+		files.subMap(prefix, prefix + Character.MAX_VALUE).clear();
+		directories.subSet(prefix, prefix + Character.MAX_VALUE).clear();
+		return directories.remove(normalised);
+	}
+
+	/**
+	 * @return the number of files held.
+	 */
+	public synchronized int size() {
+		return files.size();
+	}
+
+	/**
+	 * Remove every file and directory.
+	 */
+	public synchronized void clear() {
+		files.clear();
+		directories.clear();
+	}
+
+	/**
+	 * Write the listing of a location as the 'filestore' element of a
+	 * 'get-filestore' response - nested 'directory' elements named by their
+	 * path, holding 'file' elements with their 'size' and 'modified' time.
+	 *
+	 * @param location
+	 *            the location, eg. 'local:'.
+	 * @param xml
+	 *            the response being built.
+	 */
+	public synchronized void appendListing(String location, StringBuilder xml) {
+		String root = location.endsWith(":") ? location : location.substring(0,
+				location.indexOf(':') + 1);
+		SimpleDateFormat dateFormat = new SimpleDateFormat(MODIFIED_DATE_FORMAT);
+		xml.append("<dp:filestore><location name=\"").append(root).append("\">");
+		appendDirectory(root, xml, dateFormat);
+		xml.append("</location></dp:filestore>");
+	}
+
+	private void appendDirectory(String directory, StringBuilder xml,
+			SimpleDateFormat dateFormat) {
+		String prefix = directory + "/";
+		SortedSet<String> below = directories.subSet(prefix, prefix
+				+ Character.MAX_VALUE);
+		for (String child : below) {
+			if (child.indexOf('/', prefix.length()) < 0) {
+				xml.append("<directory name=\"").append(escape(child)).append("\">");
+				appendDirectory(child, xml, dateFormat);
+				xml.append("</directory>");
+			}
+		}
+		for (Map.Entry<String, StoredFile> file : files.subMap(prefix,
+				prefix + Character.MAX_VALUE).entrySet()) {
+			String name = file.getKey().substring(prefix.length());
+			if (name.indexOf('/') < 0) {
+				xml.append("<file name=\"").append(escape(name)).append("\"><size>")
+						.append(file.getValue().content.length)
+						.append("</size><modified>")
+						.append(dateFormat.format(new Date(file.getValue().modified)))
+						.append("</modified></file>");
+			}
+		}
+	}
+
+	private void makeParents(String normalised) {
+		int slash = normalised.lastIndexOf('/');
+		while (slash > 0 && normalised.charAt(slash - 1) != ':') {
+			normalised = normalised.substring(0, slash);
+			directories.add(normalised);
+			slash = normalised.lastIndexOf('/');
+		}
+	}
+
+	/**
+	 * @return the path with a single slash after the location, and none at
+	 *         the end, eg. 'local:/dir/file.xsl'.
+	 */
+	static String normalise(String path) {
+		int colon = path.indexOf(':');
+		String rest = path.substring(colon + 1);
+		int start = 0;
+		while (start < rest.length() && '/' == rest.charAt(start)) {
+			start++;
+		}
+		int end = rest.length();
+		while (end > start && '/' == rest.charAt(end - 1)) {
+			end--;
+		}
+		return path.substring(0, colon + 1) + "/" + rest.substring(start, end);
+	}
+
+	static String escape(String text) {
+		return text.replace("&", "&amp;").replace("<", "&lt;")
+				.replace("\"", "&quot;");
+	}
+
+	private static class StoredFile {
+
+		private final byte[] content;
+
+		private final long modified;
+
+		StoredFile(byte[] content, long modified) {
+			this.content = content;
+			this.modified = modified;
+		}
+	}
+
+}
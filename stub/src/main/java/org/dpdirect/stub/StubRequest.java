@@ -0,0 +1,158 @@
+package org.dpdirect.stub;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.nio.charset.StandardCharsets;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * A management request received by the {@link DataPowerStub}.
+ *
+ * The operation of a SOMA request is the element within 'request', eg.
+ * 'get-status'. The operation of an AMP request is the request element
+ * itself, eg. 'GetDeviceInfoRequest'.
+ */
+public class StubRequest {
+
+	private final String endpoint;
+
+	private final String domain;
+
+	private final Element operation;
+
+	private final byte[] body;
+
+	/**
+	 * Constructs a new <code>StubRequest</code>.
+	 *
+	 * @param endpoint
+	 *            the path posted to, eg. '/service/mgmt/current'.
+	 * @param domain
+	 *            the target domain, or null.
+	 * @param operation
+	 *            the operation element.
+	 * @param body
+	 *            the raw request body.
+	 */
+	public StubRequest(String endpoint, String domain, Element operation,
+			byte[] body) {
+		this.endpoint = endpoint;
+		this.domain = domain;
+		this.operation = operation;
+		this.body = body;
+	}
+
+	/**
+	 * @return the path posted to, eg. '/service/mgmt/current'.
+	 */
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	/**
+	 * @return true if posted to an AMP endpoint.
+	 */
+	public boolean isAmp() {
+		return endpoint.startsWith(DataPowerStub.AMP_PATH);
+	}
+
+	/**
+	 * @return the target domain, 'default' if none was given.
+	 */
+	public String getDomain() {
+		return (null == domain || 0 == domain.length()) ? "default" : domain;
+	}
+
+	/**
+	 * @return the local name of the operation, eg. 'get-status'.
+	 */
+	public String getOperationName() {
+		return operation.getLocalName();
+	}
+
+	/**
+	 * @return the operation element.
+	 */
+	public Element getOperation() {
+		return operation;
+	}
+
+	/**
+	 * @return the named attribute of the operation, or null.
+	 */
+	public String getAttribute(String name) {
+		return operation.hasAttribute(name) ? operation.getAttribute(name) : null;
+	}
+
+	/**
+	 * @return the trimmed text of the first descendant of the operation with
+	 *         the local name, or null.
+	 */
+	public String getChildText(String localName) {
+		Element child = findElement(operation, localName);
+		return null == child ? null : child.getTextContent().trim();
+	}
+
+	/**
+	 * @return the trimmed text content of the operation.
+	 */
+	public String getText() {
+		return operation.getTextContent().trim();
+	}
+
+	/**
+	 * @return the raw request body.
+	 */
+	public byte[] getBody() {
+		return body;
+	}
+
+	/**
+	 * @return the request body as text.
+	 */
+	public String getBodyText() {
+		return new String(body, StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public String toString() {
+		return endpoint + " " + getDomain() + " " + getOperationName();
+	}
+
+	/**
+	 * @return the first descendant element of the local name, in document
+	 *         order, or null.
+	 */
+	static Element findElement(Node parent, String localName) {
+		for (Node node = parent.getFirstChild(); null != node; node = node
+				.getNextSibling()) {
+			if (Node.ELEMENT_NODE == node.getNodeType()) {
+				if (localName.equals(node.getLocalName())) {
+					return (Element) node;
+				}
+				Element found = findElement(node, localName);
+				if (null != found) {
+					return found;
+				}
+			}
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,35 @@
+package org.dpdirect.stub;
+
+/**
+ * Copyright 2016 Tim Goodwill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Scripts the response of the {@link DataPowerStub} to an operation.
+ */
+public interface StubResponder {
+
+	/**
+	 * @param request
+	 *            the request received.
+	 * @return the complete response document, eg. built with
+	 *         {@link DataPowerStub#somaResponse(String)}, or null to give the
+	 *         default response.
+	 * @throws Exception
+	 *             to fail the request with a SOAP fault.
+	 */
+	String respond(StubRequest request) throws Exception;
+
+}